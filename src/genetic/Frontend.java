@@ -0,0 +1,67 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic;
+
+import genetic.data.Field;
+import genetic.island.Pacer;
+import genetic.stream.FrameClient;
+
+/**
+ * Graphical front end of the simulation. The core has none of its own; an
+ * implementation is looked up with {@link java.util.ServiceLoader} at run
+ * time, so headless runs work without the GUI module and never load it.
+ */
+public interface Frontend {
+    /**
+     * Create a pacer running an island in frames for display. Every island
+     * of a displayed archipelago gets one, so that all of them keep the
+     * chosen speed.
+     * 
+     * @return a new pacer
+     */
+    Pacer createPacer();
+
+    /**
+     * Show a running field. Returns immediately.
+     * 
+     * @param field the field to display
+     * @param pacer the pacer running the field in frames, made by
+     * {@link #createPacer()}
+     */
+    void show(Field field, Pacer pacer);
+
+    /**
+     * Show the frames of a remote, streaming simulation. Returns
+     * immediately.
+     * 
+     * @param client frame source
+     * @param address address of the server
+     */
+    void view(FrameClient client, String address);
+}
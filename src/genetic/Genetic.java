@@ -28,25 +28,34 @@
 
 package genetic;
 
-import genetic.data.Command;
+import genetic.data.Engines;
 import genetic.data.Field;
+import genetic.data.Lineage;
 import genetic.data.Parameter;
-import genetic.gui.Gui;
+import genetic.data.ReferenceEngine;
+import genetic.data.SimulationEngine;
+import genetic.island.Archipelago;
+import genetic.island.Coordinator;
+import genetic.island.Protocol;
+import genetic.island.Worker;
+import genetic.replay.ReplayLog;
+import genetic.replay.ReplayRecorder;
+import genetic.server.Simulation;
+import genetic.server.SimulationServer;
+import genetic.stream.FrameClient;
+import genetic.stream.FrameServer;
 
-import java.awt.EventQueue;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
-
-import javax.swing.ImageIcon;
+import java.util.ServiceLoader;
 
 public final class Genetic {
-    public static final HashMap<Command, ImageIcon> COMMAND_ICONS =
-        new HashMap<Command, ImageIcon>();
-
     /** Location of the file for the --help text. */
     private static final String USAGE_FILE = "/USAGE.txt";
 
@@ -55,39 +64,262 @@ public final class Genetic {
 
     private static final double MS_PER_SECOND = 1000.0;
 
-    public static ImageIcon loadIcon(final String path) {
-        return new ImageIcon(Genetic.class.getResource(path));
+    /** Milliseconds between two status lines in headless mode. */
+    private static final int REPORT_INTERVAL_MS = 1000;
+
+    /** Number of genomes whose common ancestor is reported. */
+    private static final int TOP_GENOMES = 5;
+
+    /** Whether to keep the field's cell layers outside of the Java heap. */
+    private static boolean offHeap = false;
+
+    /** Whether to run without gui. */
+    private static boolean headless = false;
+
+    /** Name of the engine moving the entities. */
+    private static String engineName = ReferenceEngine.NAME;
+
+    /** Engine moving the entities. */
+    private static SimulationEngine engine;
+
+    /** Number of threads per field the engine may use. */
+    private static int threads = Runtime.getRuntime().availableProcessors();
+
+    /** Whether to track the phylogeny of each field. */
+    private static boolean lineage = false;
+
+    /** Number of independent fields. */
+    private static int islands = 1;
+
+    /** Number of entities migrating between fields at once. */
+    private static int migrants = 5;
+
+    /** Ticks between two migrations. */
+    private static int migrationInterval = 100;
+
+    /** Number of ticks to run, or -1 to run forever. */
+    private static int maxTicks = -1;
+
+    /** Address to listen on as coordinator, or <code>null</code>. */
+    private static String coordinatorAddress = null;
+
+    /** Address of the coordinator to work for, or <code>null</code>. */
+    private static String workerAddress = null;
+
+    /** Address to serve the HTTP interface on, or <code>null</code>. */
+    private static String serverAddress = null;
+
+    /** Address to stream frames of the first field to, or <code>null</code>. */
+    private static String streamAddress = null;
+
+    /** Address of a frame stream to view, or <code>null</code>. */
+    private static String viewAddress = null;
+
+    /** File to record a replay log into, or <code>null</code>. */
+    private static String recordFile = null;
+
+    /** Ticks between two keyframes of the replay log. */
+    private static int keyframeInterval = 1000;
+
+    /** Replay log to play back, or <code>null</code>. */
+    private static String replayFile = null;
+
+    /** Tick of the replay log to start at. */
+    private static int seekTick = 0;
+
+    /**
+     * Describes the most recent common ancestor of the largest genomes.
+     * 
+     * @param l the lineage to describe
+     * @return a status line
+     */
+    private static String describeLineage(final Lineage l) {
+        synchronized (l) {
+            final int[] top = l.getTopGenomes(TOP_GENOMES);
+
+            if (top.length == 0) {
+                return "lineage: extinct";
+            }
+
+            final int ancestor = l.getCommonAncestor(top);
+            final String prefix = String.format(
+                "lineage: %d genomes, %d births, top %d ",
+                l.getGenomeCount(), l.getBirths(), top.length);
+
+            if (ancestor == Lineage.NONE) {
+                return prefix + "descend from different founders";
+            }
+
+            return prefix + String.format("descend from a genome of tick %d,"
+                + " depth %d: %s", l.getTick(ancestor), l.getDepth(ancestor),
+                Arrays.toString(l.getCommands(ancestor)));
+        }
+    }
+
+    /**
+     * Returns the first {@link Frontend} on the class path, or exits if there
+     * is none, i.e. if only the core module is available.
+     * 
+     * @return the front end
+     */
+    private static Frontend loadFrontend() {
+        for (final Frontend f : ServiceLoader.load(Frontend.class)) {
+            return f;
+        }
+
+        System.err.println("No graphical front end available,"
+            + " run with --headless");
+        System.exit(1);
+        return null;
     }
 
     public static void main(final String[] args) {
         parseArgs(args);
 
-        /* load icons */
-        for (final Command c : Command.values()) {
-            final ImageIcon image = loadIcon("/genetic/res/"
-                + c.toString()
-                + ".png");
-            COMMAND_ICONS.put(c, image);
+        try {
+            if (coordinatorAddress != null) {
+                new Coordinator(coordinatorAddress).run();
+                return;
+            }
+
+            if (workerAddress != null) {
+                new Worker(workerAddress, offHeap, migrants,
+                    migrationInterval, maxTicks).run();
+                return;
+            }
+
+            if (viewAddress != null) {
+                loadFrontend().view(new FrameClient(viewAddress),
+                    viewAddress);
+                return;
+            }
+
+            if (serverAddress != null) {
+                final SocketAddress address =
+                    Protocol.parseAddress(serverAddress);
+                if (!(address instanceof InetSocketAddress)) {
+                    throw new IllegalArgumentException(
+                        "--server needs a tcp address");
+                }
+
+                final Field f = new Field(offHeap);
+                if (lineage) {
+                    f.enableLineage();
+                }
+                f.setEngine(engine, threads);
+                if (streamAddress != null) {
+                    new FrameServer(f, streamAddress);
+                }
+
+                new SimulationServer(new Simulation(f),
+                    (InetSocketAddress) address).run();
+                return;
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+            System.exit(1);
         }
 
+        final Frontend frontend = headless ? null : loadFrontend();
+
         /* load & prepare (in constructor) */
-        final Field field = new Field();
+        final Archipelago archipelago = new Archipelago(
+            islands, offHeap, migrants, migrationInterval, maxTicks);
+        final Field field = archipelago.getIsland(0).getField();
+
+        for (int i = 0; i < archipelago.getIslandCount(); ++i) {
+            final Field f = archipelago.getIsland(i).getField();
 
-        /* show the gui */
-        final Gui guiFrame = new Gui(field);
-        EventQueue.invokeLater(guiFrame);
+            if (lineage) {
+                f.enableLineage();
+            }
+            f.setEngine(engine, threads);
+
+            if (frontend != null) {
+                archipelago.setPacer(i, frontend.createPacer());
+            }
+        }
+
+        try {
+            if (replayFile != null) {
+                final ReplayLog log = new ReplayLog(Paths.get(replayFile));
+                log.seek(field, seekTick);
+                field.addFieldListener(log);
+            }
+
+            if (streamAddress != null) {
+                new FrameServer(field, streamAddress);
+            }
+
+            if (recordFile != null) {
+                final ReplayRecorder recorder = new ReplayRecorder(
+                    Paths.get(recordFile), field, keyframeInterval);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            recorder.close();
+                        } catch (final IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            System.err.println(e.getLocalizedMessage());
+            System.exit(1);
+        }
+
+        if (frontend != null) {
+            /* show the gui, displaying the first island */
+            frontend.show(field, archipelago.getPacer(0));
+        }
 
         /* start the simulation */
-        while (true) {
+        archipelago.start();
+
+        if (headless) {
+            report(archipelago);
+        }
+    }
+
+    /**
+     * Prints a status line about the given archipelago every
+     * {@link #REPORT_INTERVAL_MS} until all islands have finished.
+     * 
+     * @param archipelago the running archipelago
+     */
+    private static void report(final Archipelago archipelago) {
+        long lastTicks = 0;
+        long lastTime = System.nanoTime();
+
+        while (archipelago.isRunning()) {
             try {
-                final double sleepTime =
-                    MS_PER_SECOND / Parameter.SIMULATION_SPEED.getValue();
-                Thread.sleep((int) sleepTime);
+                Thread.sleep(REPORT_INTERVAL_MS);
             } catch (final InterruptedException e) {
                 e.printStackTrace();
             }
 
-            field.tick();
+            final long now = System.nanoTime();
+            final StringBuilder populations = new StringBuilder();
+            long ticks = 0;
+
+            for (int i = 0; i < archipelago.getIslandCount(); ++i) {
+                ticks += archipelago.getIsland(i).getTicks();
+                populations.append(i == 0 ? "" : " ").append(
+                    archipelago.getIsland(i).getField().getEntities().size());
+            }
+
+            final double seconds = (now - lastTime) / (MS_PER_SECOND * 1e6);
+            System.out.printf("ticks: %d, ticks/s: %.0f, population: %s%n",
+                ticks, (ticks - lastTicks) / seconds, populations);
+            lastTicks = ticks;
+            lastTime = now;
+
+            final Lineage l = archipelago.getIsland(0).getField().getLineage();
+            if (l != null) {
+                System.out.println(describeLineage(l));
+            }
         }
     }
 
@@ -131,11 +363,71 @@ public final class Genetic {
         } else if ("--help".equals(flag)) {
             printFile(USAGE_FILE, System.out);
             System.exit(0);
+        } else if ("--off-heap".equals(flag)) {
+            offHeap = true;
+        } else if ("--headless".equals(flag)) {
+            headless = true;
+        } else if ("--fast-forward".equals(flag)) {
+            engineName = "fast-forward";
+        } else if ("--synchronous".equals(flag)) {
+            engineName = "synchronous";
+        } else if ("--engine".equals(flag)) {
+            engineName = argIter.next();
+        } else if ("--threads".equals(flag)) {
+            threads = parsePositive(flag, argIter.next());
+        } else if ("--lineage".equals(flag)) {
+            lineage = true;
+        } else if ("--islands".equals(flag)) {
+            islands = parsePositive(flag, argIter.next());
+        } else if ("--migrants".equals(flag)) {
+            migrants = Integer.parseInt(argIter.next());
+        } else if ("--migration-interval".equals(flag)) {
+            migrationInterval = Integer.parseInt(argIter.next());
+        } else if ("--ticks".equals(flag)) {
+            maxTicks = parsePositive(flag, argIter.next());
+        } else if ("--coordinator".equals(flag)) {
+            coordinatorAddress = argIter.next();
+        } else if ("--worker".equals(flag)) {
+            workerAddress = argIter.next();
+        } else if ("--server".equals(flag)) {
+            serverAddress = argIter.next();
+        } else if ("--stream".equals(flag)) {
+            streamAddress = argIter.next();
+        } else if ("--view".equals(flag)) {
+            viewAddress = argIter.next();
+        } else if ("--seed".equals(flag)) {
+            Parameter.setRandomSeed(Long.parseLong(argIter.next()));
+        } else if ("--record".equals(flag)) {
+            recordFile = argIter.next();
+        } else if ("--keyframe-interval".equals(flag)) {
+            keyframeInterval = parsePositive(flag, argIter.next());
+        } else if ("--replay".equals(flag)) {
+            replayFile = argIter.next();
+        } else if ("--seek".equals(flag)) {
+            seekTick = Integer.parseInt(argIter.next());
         } else {
             throw new IllegalArgumentException("Unrecognized option: " + flag);
         }
     }
 
+    /**
+     * Parses a positive integer option value.
+     * 
+     * @param flag the option, for error messages
+     * @param value the option's value
+     * @return the parsed value
+     */
+    private static int parsePositive(final String flag, final String value) {
+        final int parsed = Integer.parseInt(value);
+
+        if (parsed <= 0) {
+            throw new IllegalArgumentException(flag + " must be positive: "
+                + value);
+        }
+
+        return parsed;
+    }
+
     /**
      * Parses the given command-line arguments. If an error is encountered, or
      * there is any other reason that the program should stop now,
@@ -146,24 +438,31 @@ public final class Genetic {
     private static void parseArgs(final String[] args) {
         final Iterator<String> argIter = Arrays.asList(args).iterator();
 
-        while (argIter.hasNext()) {
-            try {
+        try {
+            while (argIter.hasNext()) {
                 parseNext(argIter);
-            } catch (IllegalArgumentException e) {
-                printFile(USAGE_FILE, System.err);
-                System.err.println();
-                System.err.println("Couldn't parse the command"
-                    + " line arguments:");
-                System.err.println(e.getLocalizedMessage());
-                System.exit(1);
-            } catch (Exception e) {
-                printFile(USAGE_FILE, System.err);
-                System.err.println();
-                System.err.println("Couldn't parse the command"
-                    + " line arguments:");
-                e.printStackTrace();
-                System.exit(1);
             }
+
+            if (islands != 1 && (recordFile != null || replayFile != null)) {
+                throw new IllegalArgumentException(
+                    "--record and --replay need a single island");
+            }
+
+            engine = Engines.get(engineName);
+        } catch (IllegalArgumentException e) {
+            printFile(USAGE_FILE, System.err);
+            System.err.println();
+            System.err.println("Couldn't parse the command"
+                + " line arguments:");
+            System.err.println(e.getLocalizedMessage());
+            System.exit(1);
+        } catch (Exception e) {
+            printFile(USAGE_FILE, System.err);
+            System.err.println();
+            System.err.println("Couldn't parse the command"
+                + " line arguments:");
+            e.printStackTrace();
+            System.exit(1);
         }
     }
 
@@ -0,0 +1,314 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.bench;
+
+import genetic.data.Engines;
+import genetic.data.Field;
+import genetic.data.Parameter;
+import genetic.data.ReferenceEngine;
+import genetic.data.SimulationEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Throughput benchmark of whole fields. Sweeps engines, thread counts,
+ * field sizes and initial populations. Every configuration first runs on a
+ * field of its own to warm up; then a fresh field with the same seed is
+ * measured from its start for a fixed time: ticks and entity steps per
+ * second, median and 99th percentile tick latency and the heap's high-water
+ * mark, including the field itself. Since populations soon approach what
+ * the food supports, the mean population is reported as well. The results
+ * are written as JSON and CSV for comparing versions, and as an HTML
+ * summary, optionally against an earlier CSV report.
+ * 
+ * Usage: <code>Benchmark [--option value]...</code>, see {@link #main}.
+ */
+public final class Benchmark {
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Nanoseconds per millisecond. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Fewest ticks measured, however long they take. */
+    private static final int MIN_TICKS = 100;
+
+    /** Percent of ticks at most as slow as the median. */
+    private static final int P50 = 50;
+
+    /** Percent of ticks at most as slow as the 99th percentile. */
+    private static final int P99 = 99;
+
+    /** Engines, separated by commas. */
+    private static String engines = "reference,synchronous";
+
+    /** Thread counts, separated by commas. */
+    private static String threads = "1,2";
+
+    /** Field sizes (width and height), separated by commas. */
+    private static String sizes = "64,128,256,512,1024";
+
+    /** Initial populations, separated by commas. */
+    private static String populations = "100,1000";
+
+    /** Seconds of warm-up per configuration. */
+    private static double warmup = 1;
+
+    /** Seconds measured per configuration. */
+    private static double seconds = 3;
+
+    /** Seed of the fields. */
+    private static long seed = 1;
+
+    /** Directory of the reports. */
+    private static String out = "benchmark";
+
+    /** Name of the reports, without extension. */
+    private static String label =
+        new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+    /** Earlier CSV report to compare with, or empty. */
+    private static String baseline = "";
+
+    /**
+     * Utility class.
+     */
+    private Benchmark() {
+    }
+
+    /**
+     * Returns the current heap usage high-water mark, summed over the heap's
+     * memory pools.
+     * 
+     * @param pools the heap's memory pools
+     * @return peak usage in bytes
+     */
+    private static long getHeapPeak(final List<MemoryPoolMXBean> pools) {
+        long peak = 0;
+
+        for (final MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+
+        return peak;
+    }
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args pairs of <code>--engines a,b</code>,
+     * <code>--threads n,m</code>, <code>--sizes n,m</code>,
+     * <code>--populations n,m</code>, <code>--warmup seconds</code>,
+     * <code>--seconds seconds</code>, <code>--seed n</code>,
+     * <code>--out directory</code>, <code>--label name</code> and
+     * <code>--baseline file.csv</code>
+     * @throws IOException if a report could not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        parseArgs(args);
+
+        final List<Result> results = new ArrayList<Result>();
+
+        for (final String name : engines.split(",")) {
+            final SimulationEngine engine = Engines.get(name.trim());
+
+            for (final int t : parseList(threads)) {
+                for (final int size : parseList(sizes)) {
+                    for (final int population : parseList(populations)) {
+                        final Result r = measure(engine, t, size, population);
+
+                        System.out.println(String.format("%-12s %2d threads"
+                            + " %5dx%-5d %5d entities: %9.1f ticks/s"
+                            + " %12.0f steps/s p50 %7.3f ms p99 %7.3f ms"
+                            + " heap %6d KiB", r.engine, r.threads, r.width,
+                            r.height, r.population, r.ticksPerSecond,
+                            r.stepsPerSecond, r.p50, r.p99,
+                            r.heapPeak / Report.KIB));
+                        results.add(r);
+                    }
+                }
+            }
+        }
+
+        final File dir = new File(out);
+        final Report report = new Report(label, results);
+
+        if (!baseline.isEmpty()) {
+            report.readBaseline(new File(baseline));
+        }
+
+        dir.mkdirs();
+        report.writeJson(new File(dir, label + ".json"));
+        report.writeCsv(new File(dir, label + ".csv"));
+        report.writeHtml(new File(dir, label + ".html"));
+        System.out.println("Reports written to " + new File(dir, label)
+            + ".{json,csv,html}");
+    }
+
+    /**
+     * Runs one configuration.
+     * 
+     * @param engine the engine
+     * @param threadCount threads the engine may use
+     * @param size field width and height
+     * @param population initial population
+     * @return the measurements
+     */
+    private static Result measure(
+        final SimulationEngine engine,
+        final int threadCount,
+        final int size,
+        final int population)
+    {
+        final List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+
+        for (final MemoryPoolMXBean pool
+            : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heap.add(pool);
+            }
+        }
+
+        Parameter.FIELD_WIDTH.setInitialValue(size);
+        Parameter.FIELD_HEIGHT.setInitialValue(size);
+        Parameter.INITIAL_POPULATION.setInitialValue(population);
+
+        /* warm up on a field of its own, so the measured one starts fresh */
+        final Field warm = new Field(false, seed);
+        warm.setEngine(engine, threadCount);
+
+        final long warmupEnd = System.nanoTime()
+            + (long) (warmup * NANOS_PER_SECOND);
+        while (System.nanoTime() < warmupEnd) {
+            warm.tick();
+        }
+        warm.setEngine(Engines.get(ReferenceEngine.NAME), 1);
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        System.gc();
+        for (final MemoryPoolMXBean pool : heap) {
+            pool.resetPeakUsage();
+        }
+
+        final Field field = new Field(false, seed);
+        field.setEngine(engine, threadCount);
+
+        long steps = 0;
+        final long start = System.nanoTime();
+        final long end = start + (long) (seconds * NANOS_PER_SECOND);
+        long now = start;
+
+        while (now < end || latencies.getCount() < MIN_TICKS) {
+            steps += field.getEntities().size();
+            field.tick();
+
+            final long before = now;
+            now = System.nanoTime();
+            latencies.record(now - before);
+        }
+
+        final long heapPeak = getHeapPeak(heap);
+        final long ticks = latencies.getCount();
+        final double elapsed = (now - start) / NANOS_PER_SECOND;
+
+        /* stops the engine's threads */
+        field.setEngine(Engines.get(ReferenceEngine.NAME), 1);
+
+        return new Result(engine.getName(), threadCount,
+            field.getGrass().getWidth(), field.getGrass().getHeight(),
+            Parameter.INITIAL_POPULATION.getValue(), ticks, ticks / elapsed,
+            steps / elapsed, (double) steps / ticks,
+            latencies.getPercentile(P50) / NANOS_PER_MILLI,
+            latencies.getPercentile(P99) / NANOS_PER_MILLI,
+            heapPeak);
+    }
+
+    /**
+     * Parse the command line arguments.
+     * 
+     * @param args command line arguments
+     */
+    private static void parseArgs(final String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            final String flag = args[i];
+            final String value = args[i + 1];
+
+            if ("--engines".equals(flag)) {
+                engines = value;
+            } else if ("--threads".equals(flag)) {
+                threads = value;
+            } else if ("--sizes".equals(flag)) {
+                sizes = value;
+            } else if ("--populations".equals(flag)) {
+                populations = value;
+            } else if ("--warmup".equals(flag)) {
+                warmup = Double.parseDouble(value);
+            } else if ("--seconds".equals(flag)) {
+                seconds = Double.parseDouble(value);
+            } else if ("--seed".equals(flag)) {
+                seed = Long.parseLong(value);
+            } else if ("--out".equals(flag)) {
+                out = value;
+            } else if ("--label".equals(flag)) {
+                label = value;
+            } else if ("--baseline".equals(flag)) {
+                baseline = value;
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+    }
+
+    /**
+     * Parse a list of numbers separated by commas.
+     * 
+     * @param list the list
+     * @return the numbers
+     */
+    private static int[] parseList(final String list) {
+        final String[] items = list.split(",");
+        final int[] numbers = new int[items.length];
+
+        for (int i = 0; i < items.length; ++i) {
+            numbers[i] = Integer.parseInt(items[i].trim());
+        }
+
+        return numbers;
+    }
+}
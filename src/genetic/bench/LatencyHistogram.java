@@ -0,0 +1,116 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.bench;
+
+import genetic.data.Parameter;
+
+/**
+ * Histogram of durations in nanoseconds with logarithmic buckets, so that
+ * recording never allocates and percentiles are within 1% of the exact ones.
+ * Durations below 256 ns have a bucket each; larger ones share a bucket
+ * with the durations of the same magnitude and the same 8 leading bits.
+ */
+final class LatencyHistogram {
+    /** Bits of a duration distinguished within a magnitude. */
+    private static final int SUB_BITS = 7;
+
+    /** Buckets per magnitude. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Counts per bucket. */
+    private final long[] counts = new long[(Long.SIZE + 1) * SUB_BUCKETS];
+
+    /** Number of recorded durations. */
+    private long count;
+
+    /**
+     * Returns the bucket of a duration.
+     * 
+     * @param nanos the duration, not negative
+     * @return the bucket index
+     */
+    private static int bucket(final long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(nanos)
+            - SUB_BITS - 1;
+        return (shift * SUB_BUCKETS) + (int) (nanos >>> shift);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     * 
+     * @return the count
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the duration a given share of the recorded durations do not
+     * exceed, as the middle of its bucket.
+     * 
+     * @param percent the share in percent, 0 to 100
+     * @return the duration in nanoseconds, 0 if nothing was recorded
+     */
+    long getPercentile(final double percent) {
+        final long rank = Math.max(1, (long) Math.ceil(count * percent
+            / Parameter.PERCENT));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+
+            if (seen >= rank) {
+                if (i < 2 * SUB_BUCKETS) {
+                    return i;
+                }
+
+                final int shift = (i / SUB_BUCKETS) - 1;
+                final long low = ((long) (i % SUB_BUCKETS) + SUB_BUCKETS)
+                    << shift;
+                return low + ((1L << shift) / 2);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Records a duration.
+     * 
+     * @param nanos the duration, negative ones count as 0
+     */
+    void record(final long nanos) {
+        ++counts[bucket(Math.max(0, nanos))];
+        ++count;
+    }
+}
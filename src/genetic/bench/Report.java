@@ -0,0 +1,300 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.bench;
+
+import genetic.data.Parameter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes the results of a {@link Benchmark} as JSON, CSV and HTML. The JSON
+ * and CSV reports hold the same numbers; the CSV report of an earlier run can
+ * be read back as baseline, which the HTML summary compares against.
+ */
+final class Report {
+    /** Bytes per KiB. */
+    static final long KIB = 1024;
+
+    /** Columns of the CSV report. */
+    private static final String CSV_HEADER = "engine,threads,width,height,"
+        + "population,ticks,ticks_per_second,steps_per_second,"
+        + "mean_population,p50_ms,p99_ms,heap_peak_bytes";
+
+    /** Number of columns of the CSV report. */
+    private static final int CSV_COLUMNS = CSV_HEADER.split(",").length;
+
+    /** Width of the widest bar of the HTML summary, in pixels. */
+    private static final int BAR_WIDTH = 200;
+
+    /** Name of the run. */
+    private final String label;
+
+    /** Results of the run. */
+    private final List<Result> results;
+
+    /** Results of the baseline by {@link Result#getKey()}. */
+    private final Map<String, Result> baseline;
+
+    /** Name of the baseline, or <code>null</code>. */
+    private String baselineName;
+
+    /**
+     * Create a new Report.
+     * 
+     * @param label name of the run
+     * @param results results of the run
+     */
+    Report(final String label, final List<Result> results) {
+        this.label = label;
+        this.results = results;
+        this.baseline = new HashMap<String, Result>();
+    }
+
+    /**
+     * Returns a description of the machine and Java runtime.
+     * 
+     * @return the description
+     */
+    private static String getEnvironment() {
+        return String.format(Locale.ROOT, "%s %s, %s %s, %d processors,"
+            + " %d MiB max heap", System.getProperty("java.vm.name"),
+            System.getProperty("java.version"), System.getProperty("os.name"),
+            System.getProperty("os.arch"),
+            Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().maxMemory() / KIB / KIB);
+    }
+
+    /**
+     * Escapes a string for HTML.
+     * 
+     * @param s the string
+     * @return the escaped string
+     */
+    private static String html(final String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;")
+            .replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Returns a string as JSON string literal.
+     * 
+     * @param s the string
+     * @return the literal
+     */
+    private static String json(final String s) {
+        final StringBuilder out = new StringBuilder("\"");
+
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+
+        return out.append('"').toString();
+    }
+
+    /**
+     * Reads the CSV report of an earlier run to compare with.
+     * 
+     * @param file the CSV report
+     * @throws IOException if the file could not be read or is malformed
+     */
+    void readBaseline(final File file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(),
+            StandardCharsets.UTF_8))
+        {
+            if (!CSV_HEADER.equals(in.readLine())) {
+                throw new IOException("Not a benchmark report: " + file);
+            }
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] v = line.split(",");
+
+                if (v.length != CSV_COLUMNS) {
+                    throw new IOException("Malformed line in " + file + ": "
+                        + line);
+                }
+
+                try {
+                    final Result r = new Result(v[0], Integer.parseInt(v[1]),
+                        Integer.parseInt(v[2]), Integer.parseInt(v[3]),
+                        Integer.parseInt(v[4]), Long.parseLong(v[5]),
+                        Double.parseDouble(v[6]), Double.parseDouble(v[7]),
+                        Double.parseDouble(v[8]), Double.parseDouble(v[9]),
+                        Double.parseDouble(v[10]), Long.parseLong(v[11]));
+
+                    baseline.put(r.getKey(), r);
+                } catch (final NumberFormatException e) {
+                    throw new IOException("Malformed line in " + file + ": "
+                        + line, e);
+                }
+            }
+        }
+
+        baselineName = file.getName();
+    }
+
+    /**
+     * Writes the CSV report, one line per configuration.
+     * 
+     * @param file destination, will be overwritten
+     * @throws IOException if the file could not be written
+     */
+    void writeCsv(final File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println(CSV_HEADER);
+
+            for (final Result r : results) {
+                out.println(String.format(Locale.ROOT,
+                    "%s,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.6f,%.6f,%d", r.engine,
+                    r.threads, r.width, r.height, r.population, r.ticks,
+                    r.ticksPerSecond, r.stepsPerSecond, r.meanPopulation,
+                    r.p50, r.p99, r.heapPeak));
+            }
+        }
+    }
+
+    /**
+     * Writes the HTML summary: a table of all configurations with bars of
+     * their entity steps per second and, if there is a baseline, the change
+     * of their ticks per second.
+     * 
+     * @param file destination, will be overwritten
+     * @throws IOException if the file could not be written
+     */
+    void writeHtml(final File file) throws IOException {
+        double fastest = 0;
+        for (final Result r : results) {
+            fastest = Math.max(fastest, r.stepsPerSecond);
+        }
+
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<!DOCTYPE html>");
+            out.println("<html><head><meta charset=\"UTF-8\">");
+            out.println("<title>Benchmark " + html(label) + "</title>");
+            out.println("<style>body{font-family:sans-serif}"
+                + "table{border-collapse:collapse}"
+                + "td,th{padding:2px 8px;text-align:right}"
+                + "tr:nth-child(even){background:#eee}"
+                + ".bar{background:#48c;height:10px}"
+                + ".better{color:#080}.worse{color:#c00}</style>");
+            out.println("</head><body>");
+            out.println("<h1>Benchmark " + html(label) + "</h1>");
+            out.println("<p>" + html(getEnvironment()) + "</p>");
+
+            if (baselineName != null) {
+                out.println("<p>Compared with " + html(baselineName)
+                    + "</p>");
+            }
+
+            out.println("<table><tr><th>Engine</th><th>Threads</th>"
+                + "<th>Size</th><th>Population</th><th>Mean population</th>"
+                + "<th>Ticks/s</th><th>Change</th><th>Steps/s</th><th></th>"
+                + "<th>p50 ms</th><th>p99 ms</th><th>Heap KiB</th></tr>");
+
+            for (final Result r : results) {
+                final Result old = baseline.get(r.getKey());
+                String change = "";
+
+                if (old != null && old.ticksPerSecond > 0) {
+                    final double percent = Parameter.PERCENT
+                        * (r.ticksPerSecond / old.ticksPerSecond - 1);
+
+                    change = String.format(Locale.ROOT,
+                        "<span class=\"%s\">%+.1f%%</span>",
+                        percent < 0 ? "worse" : "better", percent);
+                }
+
+                out.println(String.format(Locale.ROOT, "<tr><td>%s</td>"
+                    + "<td>%d</td><td>%dx%d</td><td>%d</td><td>%.1f</td>"
+                    + "<td>%.1f</td><td>%s</td><td>%.0f</td>"
+                    + "<td style=\"text-align:left\"><div class=\"bar\""
+                    + " style=\"width:%dpx\"></div></td><td>%.3f</td>"
+                    + "<td>%.3f</td><td>%d</td></tr>", html(r.engine),
+                    r.threads, r.width, r.height, r.population,
+                    r.meanPopulation, r.ticksPerSecond, change,
+                    r.stepsPerSecond, fastest > 0
+                        ? (int) (BAR_WIDTH * r.stepsPerSecond / fastest) : 0,
+                    r.p50, r.p99, r.heapPeak / KIB));
+            }
+
+            out.println("</table></body></html>");
+        }
+    }
+
+    /**
+     * Writes the JSON report: the environment and one object per
+     * configuration.
+     * 
+     * @param file destination, will be overwritten
+     * @throws IOException if the file could not be written
+     */
+    void writeJson(final File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("{");
+            out.println("  \"label\": " + json(label) + ",");
+            out.println("  \"environment\": " + json(getEnvironment()) + ",");
+            out.println("  \"results\": [");
+
+            for (int i = 0; i < results.size(); ++i) {
+                final Result r = results.get(i);
+
+                out.println(String.format(Locale.ROOT, "    {\"engine\": %s,"
+                    + " \"threads\": %d, \"width\": %d, \"height\": %d,"
+                    + " \"population\": %d, \"ticks\": %d,"
+                    + " \"ticksPerSecond\": %.3f, \"stepsPerSecond\": %.3f,"
+                    + " \"meanPopulation\": %.3f, \"p50Millis\": %.6f,"
+                    + " \"p99Millis\": %.6f, \"heapPeakBytes\": %d}%s",
+                    json(r.engine), r.threads, r.width, r.height,
+                    r.population, r.ticks, r.ticksPerSecond,
+                    r.stepsPerSecond, r.meanPopulation, r.p50, r.p99,
+                    r.heapPeak, i + 1 < results.size() ? "," : ""));
+            }
+
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.bench;
+
+/**
+ * Measurements of one configuration of a {@link Benchmark}.
+ */
+final class Result {
+    /** Name of the engine. */
+    final String engine;
+
+    /** Threads the engine may use. */
+    final int threads;
+
+    /** Field width in cells. */
+    final int width;
+
+    /** Field height in cells. */
+    final int height;
+
+    /** Entities placed on the field at the start. */
+    final int population;
+
+    /** Ticks measured. */
+    final long ticks;
+
+    /** Ticks per second. */
+    final double ticksPerSecond;
+
+    /** Entity steps per second, counting the entities alive at each tick. */
+    final double stepsPerSecond;
+
+    /** Mean number of entities alive at the start of a tick. */
+    final double meanPopulation;
+
+    /** Median tick latency in milliseconds. */
+    final double p50;
+
+    /** 99th percentile of the tick latency in milliseconds. */
+    final double p99;
+
+    /** Highest heap usage while measuring, in bytes. */
+    final long heapPeak;
+
+    /**
+     * Create a new Result.
+     * 
+     * @param engine name of the engine
+     * @param threads threads the engine may use
+     * @param width field width in cells
+     * @param height field height in cells
+     * @param population entities placed on the field at the start
+     * @param ticks ticks measured
+     * @param ticksPerSecond ticks per second
+     * @param stepsPerSecond entity steps per second
+     * @param meanPopulation mean number of entities alive
+     * @param p50 median tick latency in milliseconds
+     * @param p99 99th percentile of the tick latency in milliseconds
+     * @param heapPeak highest heap usage in bytes
+     */
+    Result(
+        final String engine,
+        final int threads,
+        final int width,
+        final int height,
+        final int population,
+        final long ticks,
+        final double ticksPerSecond,
+        final double stepsPerSecond,
+        final double meanPopulation,
+        final double p50,
+        final double p99,
+        final long heapPeak)
+    {
+        this.engine = engine;
+        this.threads = threads;
+        this.width = width;
+        this.height = height;
+        this.population = population;
+        this.ticks = ticks;
+        this.ticksPerSecond = ticksPerSecond;
+        this.stepsPerSecond = stepsPerSecond;
+        this.meanPopulation = meanPopulation;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.heapPeak = heapPeak;
+    }
+
+    /**
+     * Returns what identifies the configuration across reports.
+     * 
+     * @return engine, threads, size and population
+     */
+    String getKey() {
+        return engine + '/' + threads + '/' + width + 'x' + height + '/'
+            + population;
+    }
+}
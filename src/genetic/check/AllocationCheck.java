@@ -0,0 +1,307 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.check;
+
+import genetic.data.Engines;
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.Parameter;
+import genetic.data.SimulationEngine;
+import genetic.data.Stepper;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Allocation regression test of {@link Field#tick()}. For each engine and
+ * each of several food supplies, and thus population sizes, a field is
+ * warmed up until it is in a steady state and the JIT compiler is done, and
+ * then the bytes the ticking thread allocates are measured per phase of a
+ * tick:
+ * 
+ * <ul>
+ * <li>grass: parameters, regrowth and grass dynamics, before the engine
+ * runs;</li>
+ * <li>entities: the engine's steps, deaths and births;</li>
+ * <li>notify: everything after the engine, i.e. catching up and
+ * listeners.</li>
+ * </ul>
+ * 
+ * Births allocate a new entity and genome by nature, and stepping is
+ * proportional to the population, so the entities phase's budget is
+ * <code>entity * population + birth * births</code> bytes per tick; the
+ * other phases have fixed budgets. Any phase over its budget fails the
+ * test.
+ * 
+ * Usage: <code>AllocationCheck engines grass entity birth notify</code>,
+ * engines separated by commas, budgets in bytes.
+ */
+public final class AllocationCheck {
+    /** Ticks until the field is in a steady state and compiled. */
+    private static final int WARMUP_TICKS = 20000;
+
+    /** Ticks measured. */
+    private static final int MEASURED_TICKS = 5000;
+
+    /** Food supplies, in food per 10 ticks, giving growing populations. */
+    private static final int[] REGROWTH_RATES = {100, 150, 200};
+
+    /** Seed of the fields. */
+    private static final long SEED = 1;
+
+    /** Phase before the engine runs. */
+    private static final int GRASS = 0;
+
+    /** Phase of the engine. */
+    private static final int ENTITIES = 1;
+
+    /** Phase after the engine. */
+    private static final int NOTIFY = 2;
+
+    /** Names of the phases. */
+    private static final String[] PHASES = {"grass", "entities", "notify"};
+
+    /** Source of the allocation counts. */
+    private static final ThreadMXBean THREADS =
+        (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** Bytes allocated per phase while measuring. */
+    private static final long[] BYTES = new long[PHASES.length];
+
+    /** Whether the ticks are measured. */
+    private static boolean measuring;
+
+    /** Allocation count at the end of the last phase. */
+    private static long mark;
+
+    /** Births while measuring. */
+    private static long births;
+
+    /** Bytes allocated by reading the allocation count itself. */
+    private static long overhead;
+
+    /**
+     * Utility class.
+     */
+    private AllocationCheck() {
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far.
+     * 
+     * @return the allocation count
+     */
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Ends a phase, attributing the bytes allocated since the last one.
+     * 
+     * @param phase the phase
+     */
+    private static void end(final int phase) {
+        final long now = allocated();
+
+        if (measuring) {
+            BYTES[phase] += now - mark - overhead;
+        }
+        mark = allocated();
+    }
+
+    /**
+     * Runs the test. Exits with 1 if any phase exceeds its budget.
+     * 
+     * @param args engine names, separated by commas, and the budgets for
+     * the grass phase, per entity, per birth and for the notify phase, in
+     * bytes
+     */
+    public static void main(final String[] args) {
+        if (args.length < 5) {
+            System.err.println("Usage: AllocationCheck engines grass entity"
+                + " birth notify");
+            System.exit(1);
+        }
+
+        final long grassBudget = Long.parseLong(args[1]);
+        final long entityBudget = Long.parseLong(args[2]);
+        final long birthBudget = Long.parseLong(args[3]);
+        final long notifyBudget = Long.parseLong(args[4]);
+        boolean failed = false;
+
+        allocated();
+        overhead = -allocated() + allocated();
+
+        for (final String name : args[0].split(",")) {
+            for (final int regrowth : REGROWTH_RATES) {
+                Parameter.REGROWTH_RATE.setValue(regrowth);
+
+                final long[] bytes = measure(Engines.get(name));
+                final long population = bytes[PHASES.length];
+                final long[] budget = {
+                    grassBudget * MEASURED_TICKS,
+                    (entityBudget * population)
+                        + (birthBudget * births),
+                    notifyBudget * MEASURED_TICKS,
+                };
+                final StringBuilder line = new StringBuilder();
+
+                line.append(String.format("%-12s population %5d, births"
+                    + " %5.2f:", name, population / MEASURED_TICKS,
+                    (double) births / MEASURED_TICKS));
+
+                for (int p = 0; p < PHASES.length; ++p) {
+                    final boolean over = bytes[p] > budget[p];
+
+                    line.append(String.format(" %s %d%s", PHASES[p],
+                        bytes[p] / MEASURED_TICKS, over ? " (OVER "
+                        + budget[p] / MEASURED_TICKS + ")" : ""));
+                    failed |= over;
+                }
+
+                System.out.println(line.append(" bytes/tick"));
+            }
+        }
+
+        if (failed) {
+            System.out.println("Allocation budget exceeded");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Warms up a field and measures the bytes allocated per phase.
+     * 
+     * @param engine the engine to measure
+     * @return bytes per phase and, last, the sum of the populations after
+     * each tick
+     */
+    private static long[] measure(final SimulationEngine engine) {
+        final Field field = new Field(false, SEED);
+        final long[] result = new long[PHASES.length + 1];
+
+        field.setEngine(measured(engine), 1);
+
+        for (int t = 0; t < WARMUP_TICKS; ++t) {
+            tick(field);
+        }
+
+        measuring = true;
+        births = 0;
+        Arrays.fill(BYTES, 0);
+
+        for (int t = 0; t < MEASURED_TICKS; ++t) {
+            tick(field);
+            result[PHASES.length] += field.getEntities().size();
+        }
+
+        measuring = false;
+        System.arraycopy(BYTES, 0, result, 0, PHASES.length);
+        field.setEngine(engine, 1);
+        return result;
+    }
+
+    /**
+     * Wraps an engine to mark the start and end of its phase.
+     * 
+     * @param engine the engine
+     * @return the wrapping engine
+     */
+    private static SimulationEngine measured(final SimulationEngine engine) {
+        return new SimulationEngine() {
+            @Override
+            public Stepper create(final Field field, final int threads) {
+                final Stepper stepper = engine.create(field, threads);
+
+                return new Stepper() {
+                    @Override
+                    public void catchUp() {
+                        stepper.catchUp();
+                    }
+
+                    @Override
+                    public void cellChanged(final int x, final int y) {
+                        stepper.cellChanged(x, y);
+                    }
+
+                    @Override
+                    public void cleared() {
+                        stepper.cleared();
+                    }
+
+                    @Override
+                    public void entityAdded(final Entity e) {
+                        ++births;
+                        stepper.entityAdded(e);
+                    }
+
+                    @Override
+                    public void entityLeaving(final Entity e) {
+                        stepper.entityLeaving(e);
+                    }
+
+                    @Override
+                    public void shutdown() {
+                        stepper.shutdown();
+                    }
+
+                    @Override
+                    public void tick(final int step) {
+                        end(GRASS);
+                        stepper.tick(step);
+                        end(ENTITIES);
+                    }
+                };
+            }
+
+            @Override
+            public String getDescription() {
+                return engine.getDescription();
+            }
+
+            @Override
+            public String getName() {
+                return engine.getName();
+            }
+        };
+    }
+
+    /**
+     * Ticks the field, marking the end of the last phase.
+     * 
+     * @param field the field
+     */
+    private static void tick(final Field field) {
+        mark = allocated();
+        field.tick();
+        end(NOTIFY);
+    }
+}
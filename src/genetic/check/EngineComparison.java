@@ -0,0 +1,338 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.check;
+
+import genetic.data.BitGrid;
+import genetic.data.Engines;
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.Parameter;
+import genetic.data.SimulationEngine;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Differential test of two {@link SimulationEngine}s. Two fields with the
+ * same seed run side by side, one per engine, and their
+ * {@link Field#getDigest() digests} are compared every
+ * {@link #DIGEST_INTERVAL} ticks. Every {@link #CHANGE_INTERVAL} ticks a
+ * random parameter changes, the same for both. Fields whose population
+ * died out or exploded start over with the default parameters, so that a
+ * long run covers many situations quickly. After a difference, the run is
+ * repeated up to it, comparing after every tick, and the tick and the first
+ * cell or entity that differs are reported.
+ * 
+ * Usage: <code>EngineComparison engine engine ticks seed [threads]</code>
+ */
+public final class EngineComparison {
+    /** Ticks between two parameter changes. */
+    private static final int CHANGE_INTERVAL = 1000;
+
+    /** Ticks between two progress lines. */
+    private static final int REPORT_INTERVAL = 100000;
+
+    /** Chance of switching grass dynamics off again, in percent. */
+    private static final int CALM_PERCENT = 75;
+
+    /**
+     * Largest grass dynamics rate; beyond it, grass covers the field and the
+     * population explodes.
+     */
+    private static final int MAX_DYNAMICS = 2;
+
+    /** Population beyond which the fields start over, to keep ticks fast. */
+    private static final int MAX_POPULATION = 5000;
+
+    /**
+     * Ticks between two digest comparisons. Digests cost a pass over the
+     * entities and make lazy engines catch up, which would dominate a tick.
+     */
+    private static final int DIGEST_INTERVAL = 64;
+
+    /** Nanoseconds per second. */
+    private static final double NS_PER_SECOND = 1e9;
+
+    /** Parameters changed during a run. */
+    private static final Parameter[] VARIED = {
+        Parameter.MUTATION_RATE,
+        Parameter.REGROWTH_RATE,
+        Parameter.GRASS_GROWTH,
+        Parameter.GRASS_DIFFUSION,
+        Parameter.GRASS_DECAY,
+        Parameter.HEALTH_PER_FOOD,
+        Parameter.HEALTH_PER_STEP,
+        Parameter.REPRODUCTION_HP,
+    };
+
+    /** Parameters that keep most engine optimizations from applying. */
+    private static final List<Parameter> DYNAMICS = List.of(
+        Parameter.GRASS_GROWTH,
+        Parameter.GRASS_DIFFUSION,
+        Parameter.GRASS_DECAY);
+
+    /** Number of times the fields started over in the latest run. */
+    private static int resets;
+
+    /**
+     * Utility class.
+     */
+    private EngineComparison() {
+    }
+
+    /**
+     * Changes a random parameter to a random value. Grass dynamics are
+     * mostly kept off, where fast engines have the most to skip, and low.
+     * 
+     * @param random source of the change
+     */
+    private static void change(final Random random) {
+        final Parameter p = VARIED[random.nextInt(VARIED.length)];
+
+        if (DYNAMICS.contains(p)) {
+            p.setValue(random.nextInt(Parameter.PERCENT) < CALM_PERCENT
+                ? 0 : 1 + random.nextInt(MAX_DYNAMICS));
+        } else {
+            p.setValue(p.getMinimum()
+                + random.nextInt(p.getMaximum() - p.getMinimum() + 1));
+        }
+    }
+
+    /**
+     * Finds the first difference between two layers.
+     * 
+     * @param name the layer's name
+     * @param a first layer
+     * @param b second layer
+     * @return the difference, or <code>null</code> if they are equal
+     */
+    private static String compare(
+        final String name,
+        final BitGrid a,
+        final BitGrid b)
+    {
+        for (int y = 0; y < a.getHeight(); ++y) {
+            for (int wx = 0; wx < a.getWordsPerRow(); ++wx) {
+                final long diff = a.getWord(wx, y) ^ b.getWord(wx, y);
+
+                if (diff != 0) {
+                    final int x = (wx * BitGrid.WORD_SIZE)
+                        + Long.numberOfTrailingZeros(diff);
+                    return name + " differs at (" + x + ", " + y + ")";
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Describes the first difference between two entities.
+     * 
+     * @param i index of the entities
+     * @param a first entity
+     * @param b second entity
+     * @return the difference, or <code>null</code> if they are equal
+     */
+    private static String compare(final int i, final Entity a, final Entity b)
+    {
+        final String what;
+
+        if (!a.getPosition().equals(b.getPosition())) {
+            what = "position";
+        } else if (a.getDirection() != b.getDirection()) {
+            what = "heading";
+        } else if (a.getHealth() != b.getHealth()) {
+            what = "health " + a.getHealth() + " vs " + b.getHealth();
+        } else if (!a.getProgram().equals(b.getProgram())) {
+            what = "genome";
+        } else if (a.getProgram().getCurrent()
+            != b.getProgram().getCurrent())
+        {
+            what = "next command";
+        } else {
+            return null;
+        }
+
+        return "entity " + i + " at " + a.getPosition() + " vs "
+            + b.getPosition() + " differs in " + what;
+    }
+
+    /**
+     * Describes where two fields differ.
+     * 
+     * @param a first field
+     * @param b second field
+     * @return the first difference found
+     */
+    private static String describe(final Field a, final Field b) {
+        String difference = compare("grass", a.getGrass(), b.getGrass());
+        if (difference == null) {
+            difference = compare("wall", a.getWall(), b.getWall());
+        }
+
+        final List<Entity> as = a.getEntities();
+        final List<Entity> bs = b.getEntities();
+
+        for (int i = 0; difference == null
+            && i < Math.min(as.size(), bs.size()); ++i)
+        {
+            difference = compare(i, as.get(i), bs.get(i));
+        }
+
+        if (difference != null) {
+            return difference;
+        } else if (as.size() != bs.size()) {
+            return "population " + as.size() + " vs " + bs.size();
+        } else if (a.getRandom().getState() != b.getRandom().getState()) {
+            return "random state differs";
+        }
+
+        return "step counters differ";
+    }
+
+    /**
+     * Runs the comparison. Exits with 1 at the first difference.
+     * 
+     * @param args engine names, number of ticks, seed and optionally the
+     * number of threads per engine
+     */
+    public static void main(final String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: EngineComparison engine engine ticks"
+                + " seed [threads]");
+            System.exit(1);
+        }
+
+        final SimulationEngine engineA = Engines.get(args[0]);
+        final SimulationEngine engineB = Engines.get(args[1]);
+        final long ticks = Long.parseLong(args[2]);
+        final long seed = Long.parseLong(args[3]);
+        final int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        final long start = System.nanoTime();
+        final int[] defaults = new int[VARIED.length];
+
+        for (int i = 0; i < VARIED.length; ++i) {
+            defaults[i] = VARIED[i].getValue();
+        }
+
+        Field a = new Field(false, seed);
+        Field b = new Field(false, seed);
+        a.setEngine(engineA, threads);
+        b.setEngine(engineB, threads);
+
+        long diverged = run(a, b, ticks, seed, DIGEST_INTERVAL, defaults);
+
+        if (diverged > 0) {
+            /* the same run again, comparing after every tick */
+            restore(defaults);
+            a = new Field(false, seed);
+            b = new Field(false, seed);
+            a.setEngine(engineA, threads);
+            b.setEngine(engineB, threads);
+            diverged = run(a, b, diverged, seed, 1, defaults);
+
+            System.out.printf("%s and %s diverge at tick %d (step %d): %s%n",
+                engineA.getName(), engineB.getName(), diverged, a.getStep(),
+                describe(a, b));
+            System.exit(1);
+        }
+
+        final double seconds = (System.nanoTime() - start) / NS_PER_SECOND;
+        System.out.printf("%s and %s agree on %d ticks (%d resets),"
+            + " %.0f ticks/s%n", engineA.getName(), engineB.getName(), ticks,
+            resets, ticks / seconds);
+    }
+
+    /**
+     * Sets the varied parameters back to their defaults.
+     * 
+     * @param defaults the defaults, in the order of {@link #VARIED}
+     */
+    private static void restore(final int[] defaults) {
+        for (int i = 0; i < VARIED.length; ++i) {
+            VARIED[i].setValue(defaults[i]);
+        }
+    }
+
+    /**
+     * Runs two new fields side by side and compares their digests every
+     * given number of ticks and after the last one.
+     * 
+     * @param a first field
+     * @param b second field
+     * @param ticks number of ticks
+     * @param seed seed of the parameter changes
+     * @param interval ticks between two comparisons
+     * @param defaults parameters to start over with
+     * @return the tick of the first difference found, or 0
+     */
+    private static long run(
+        final Field a,
+        final Field b,
+        final long ticks,
+        final long seed,
+        final int interval,
+        final int[] defaults)
+    {
+        final Random random = new Random(seed);
+
+        resets = 0;
+
+        for (long t = 1; t <= ticks; ++t) {
+            if (t % CHANGE_INTERVAL == 0) {
+                change(random);
+            }
+
+            final int population = a.getEntities().size();
+            if (population == 0 || population > MAX_POPULATION) {
+                restore(defaults);
+                a.reset();
+                b.reset();
+                ++resets;
+            }
+
+            a.tick();
+            b.tick();
+
+            if ((t % interval == 0 || t == ticks)
+                && a.getDigest() != b.getDigest())
+            {
+                return t;
+            }
+
+            if (interval > 1 && t % REPORT_INTERVAL == 0) {
+                System.out.printf("%d ticks, population %d%n", t,
+                    a.getEntities().size());
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * A toroidal layer of boolean cells, packed 64 cells per <code>long</code>.
+ * Each tile is one word wide and {@link #TILE_SIZE} rows high, so whole-row
+ * and whole-tile passes can work on 64 cells at once. Bits beyond the field
+ * width are always zero.
+ * 
+ * Every change also updates a digest of the set cells, the exclusive or of
+ * a hash of each, so comparing two grids costs nothing until they differ.
+ */
+public final class BitGrid extends TiledLayer {
+    /** Number of cells per word. */
+    public static final int WORD_SIZE = Long.SIZE;
+
+    /** Mask of the valid bits in the last word of each row. */
+    private final long lastWordMask;
+
+    /** Number of set cells. */
+    private int cardinality;
+
+    /** Exclusive or of the hashes of all set cells. */
+    private long digest;
+
+    /**
+     * Create a new, empty BitGrid on the heap.
+     * 
+     * @param width width in cells, must be positive
+     * @param height height in cells, must be positive
+     */
+    public BitGrid(final int width, final int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * Create a new, empty BitGrid.
+     * 
+     * @param width width in cells, must be positive
+     * @param height height in cells, must be positive
+     * @param offHeap whether to keep the cells outside of the Java heap
+     */
+    public BitGrid(final int width, final int height, final boolean offHeap) {
+        super(width, height, TILE_SIZE, offHeap);
+
+        final int lastBits = width - ((getTilesPerRow() - 1) * WORD_SIZE);
+        this.lastWordMask =
+            (lastBits == WORD_SIZE) ? -1L : (1L << lastBits) - 1;
+    }
+
+    /**
+     * Returns the number of set cells.
+     * 
+     * @return the number of set cells
+     */
+    public int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the hash of a cell.
+     * 
+     * @param x column
+     * @param y row
+     * @return the hash
+     */
+    private long cellDigest(final int x, final int y) {
+        return SplitMix.mix(
+            (((long) y * getWidth()) + x + 1) * SplitMix.GOLDEN_GAMMA);
+    }
+
+    /**
+     * Clear the given cell.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @return whether the cell was set before
+     */
+    public boolean clear(final int x, final int y) {
+        final int tile = getTileOf(x, y);
+        final int slot = slots[tile];
+
+        if (slot < 0) {
+            return false;
+        }
+
+        final int row = y & (TILE_SIZE - 1);
+        final long bit = 1L << x;
+        final long word = store.get(slot, row);
+
+        if ((word & bit) == 0) {
+            return false;
+        }
+
+        store.set(slot, row, word & ~bit);
+        cardinality -= 1;
+        digest ^= cellDigest(x, y);
+        versions[tile] += 1;
+        if (--counts[tile] == 0) {
+            release(tile);
+        }
+
+        return true;
+    }
+
+    /**
+     * Clear all cells and release all tiles.
+     */
+    public void clearAll() {
+        releaseAll();
+        cardinality = 0;
+        digest = 0;
+    }
+
+    /**
+     * Returns whether the given cell is set.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @return whether the given cell is set
+     */
+    public boolean get(final int x, final int y) {
+        final int slot = slots[getTileOf(x, y)];
+        return slot >= 0
+            && (store.get(slot, y & (TILE_SIZE - 1)) & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns a digest of the set cells, which is equal for equal grids of
+     * the same size and stable between runs.
+     * 
+     * @return the digest
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns a word of the grid. Bit <code>i</code> of word <code>wx</code>
+     * represents the cell <code>(wx * WORD_SIZE + i, y)</code>.
+     * 
+     * @param wx word index inside the row
+     * @param y row
+     * @return the word
+     */
+    public long getWord(final int wx, final int y) {
+        final int slot = slots[tileIndex(wx, y >>> TILE_SHIFT)];
+        return (slot < 0) ? 0L : store.get(slot, y & (TILE_SIZE - 1));
+    }
+
+    /**
+     * Returns the number of words per row.
+     * 
+     * @return the number of words per row
+     */
+    public int getWordsPerRow() {
+        return getTilesPerRow();
+    }
+
+    /**
+     * Set the given cell.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @return whether the cell was clear before
+     */
+    public boolean set(final int x, final int y) {
+        final int tile = getTileOf(x, y);
+        int slot = slots[tile];
+
+        if (slot < 0) {
+            slot = allocate(tile);
+        }
+
+        final int row = y & (TILE_SIZE - 1);
+        final long bit = 1L << x;
+        final long word = store.get(slot, row);
+
+        if ((word & bit) != 0) {
+            return false;
+        }
+
+        store.set(slot, row, word | bit);
+        cardinality += 1;
+        digest ^= cellDigest(x, y);
+        versions[tile] += 1;
+        counts[tile] += 1;
+        return true;
+    }
+
+    /**
+     * Replace a whole word, allocating or releasing its tile as needed.
+     * 
+     * @param wx word index inside the row
+     * @param y row
+     * @param word new content, bits beyond the field width must be zero
+     */
+    public void setWord(final int wx, final int y, final long word) {
+        final int tile = tileIndex(wx, y >>> TILE_SHIFT);
+        int slot = slots[tile];
+
+        if (slot < 0) {
+            if (word == 0) {
+                return;
+            }
+
+            slot = allocate(tile);
+        }
+
+        final int row = y & (TILE_SIZE - 1);
+        final long old = store.get(slot, row);
+
+        if (old == word) {
+            return;
+        }
+
+        final int delta = Long.bitCount(word) - Long.bitCount(old);
+        store.set(slot, row, word);
+
+        for (long changed = old ^ word; changed != 0;
+            changed &= changed - 1)
+        {
+            digest ^= cellDigest(
+                (wx * WORD_SIZE) + Long.numberOfTrailingZeros(changed), y);
+        }
+        cardinality += delta;
+        counts[tile] += delta;
+        versions[tile] += 1;
+
+        if (counts[tile] == 0) {
+            release(tile);
+        }
+    }
+
+    /**
+     * Returns the mask of valid bits of the word at the given index inside a
+     * row.
+     * 
+     * @param wx word index inside the row
+     * @return mask of valid bits
+     */
+    public long validMask(final int wx) {
+        return (wx == getTilesPerRow() - 1) ? lastWordMask : -1L;
+    }
+}
@@ -28,7 +28,7 @@
 
 package genetic.data;
 
-import java.awt.Point;
+import java.util.Random;
 
 /**
  * A single Command that gets aggregated to complex programs.
@@ -39,7 +39,7 @@ public enum Command {
     /** Move two steps forward. */
     DOUBLEMOVE {
         @Override
-        public void execute(final Field field, final Entity entity) {
+        public void act(final Field field, final Entity entity) {
             entity.move(field);
             entity.move(field);
         }
@@ -48,7 +48,7 @@ public enum Command {
     /** Move one step foward. */
     MOVE {
         @Override
-        public void execute(final Field field, final Entity entity) {
+        public void act(final Field field, final Entity entity) {
             entity.move(field);
         }
     },
@@ -56,7 +56,7 @@ public enum Command {
     /** Turn left. */
     LEFT {
         @Override
-        public void execute(final Field field, final Entity entity) {
+        public void act(final Field field, final Entity entity) {
             entity.left();
         }
     },
@@ -64,7 +64,7 @@ public enum Command {
     /** Turn right. */
     RIGHT {
         @Override
-        public void execute(final Field field, final Entity entity) {
+        public void act(final Field field, final Entity entity) {
             entity.right();
         }
     },
@@ -72,83 +72,95 @@ public enum Command {
     /** Skips the next command if the entity faces another entity. */
     IFENTITY {
         @Override
-        public void execute(final Field field, final Entity entity) {
-            final Point target = field.getTargetCoordinates(entity);
-            boolean hit = false;
-
-            for (final Entity e : field.getEntities()) {
-                if (e.getPosition().equals(target)) {
-                    hit = true;
-                    break;
-                }
-            }
-
-            if (hit) {
-                entity.getProgram().skipCommand();
-            }
+        public boolean sense(final Field field, final Entity entity) {
+            return field.isOccupied(field.getTargetCoordinates(entity));
         }
     },
 
     /** Skips the next command if the entity faces food. */
     IFFOOD {
         @Override
-        public void execute(final Field field, final Entity entity) {
-            final Point target = field.getTargetCoordinates(entity);
-            if (field.getGrass().contains(target)) {
-                entity.getProgram().skipCommand();
-            }
+        public boolean sense(final Field field, final Entity entity) {
+            return field.isGrass(field.getTargetCoordinates(entity));
         }
     },
 
     /** Skips the next command if the entity faces a wall. */
     IFWALL {
         @Override
-        public void execute(final Field field, final Entity entity) {
-            final Point target = field.getTargetCoordinates(entity);
-            if (field.getWall().contains(target)) {
-                entity.getProgram().skipCommand();
-            }
+        public boolean sense(final Field field, final Entity entity) {
+            return field.isWall(field.getTargetCoordinates(entity));
         }
     },
 
     /** Skip one command. */
     SKIP {
         @Override
-        public void execute(final Field field, final Entity entity) {
-            entity.getProgram().skipCommand();
+        public int getSkipCount() {
+            return 1;
         }
     },
 
     /** Skip two commands. */
     SKIP2 {
         @Override
-        public void execute(final Field field, final Entity entity) {
-            entity.getProgram().skipCommand();
-            entity.getProgram().skipCommand();
+        public int getSkipCount() {
+            return 2;
         }
     },
 
     /** Do nothing. */
-    SLEEP {
-        @Override
-        public void execute(final Field field, final Entity entity) {
-        }
-    };
+    SLEEP;
 
     /**
      * Returns a random Command.
      * 
+     * @param random random number generator to use
      * @return a random Command
      */
-    public static Command getRandom() {
-        return values()[Parameter.getNextRandomInt(values().length)];
+    public static Command getRandom(final Random random) {
+        return values()[random.nextInt(values().length)];
+    }
+
+    /**
+     * Performs this command's effect on the given entity, without touching its
+     * program counter. Does nothing for control flow commands.
+     * 
+     * @param field {@link Field}
+     * @param entity {@link Entity}
+     */
+    public void act(final Field field, final Entity entity) {
+    }
+
+    /**
+     * Returns how many of the following commands this command skips
+     * unconditionally.
+     * 
+     * @return number of skipped commands
+     */
+    public int getSkipCount() {
+        return 0;
+    }
+
+    /**
+     * Returns whether this command skips the next command depending on the
+     * entity's surroundings, see {@link #sense(Field, Entity)}.
+     * 
+     * @return whether this command is conditional
+     */
+    public final boolean isConditional() {
+        return this == IFENTITY || this == IFFOOD || this == IFWALL;
     }
 
     /**
-     * Execute this command for the given entity on the given field.
+     * Checks the condition of a conditional command.
      * 
      * @param field {@link Field}
      * @param entity {@link Entity}
+     * @return whether the next command is to be skipped; always
+     * <code>false</code> for unconditional commands
      */
-    public abstract void execute(Field field, Entity entity);
+    public boolean sense(final Field field, final Entity entity) {
+        return false;
+    }
 }
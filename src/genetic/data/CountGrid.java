@@ -0,0 +1,184 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * A toroidal layer of small per-cell counters, e.g. the number of entities
+ * standing on each cell. Counters are 16 bits wide and packed four per word.
+ */
+public final class CountGrid extends TiledLayer {
+    /** Width of a counter in bits. */
+    private static final int LANE_BITS = 16;
+
+    /** log2 of the number of counters per word. */
+    private static final int LANE_SHIFT = 2;
+
+    /** Largest value a counter can hold. */
+    private static final int MAX_COUNT = (1 << LANE_BITS) - 1;
+
+    /** log2 of the number of words per tile row. */
+    private static final int ROW_SHIFT = TILE_SHIFT - LANE_SHIFT;
+
+    /** Sum of all counters. */
+    private int total;
+
+    /**
+     * Create a new, all-zero CountGrid on the heap.
+     * 
+     * @param width width in cells, must be positive
+     * @param height height in cells, must be positive
+     */
+    public CountGrid(final int width, final int height) {
+        this(width, height, false);
+    }
+
+    /**
+     * Create a new, all-zero CountGrid.
+     * 
+     * @param width width in cells, must be positive
+     * @param height height in cells, must be positive
+     * @param offHeap whether to keep the counters outside of the Java heap
+     */
+    public CountGrid(final int width, final int height, final boolean offHeap) {
+        super(width, height, TILE_SIZE << ROW_SHIFT, offHeap);
+    }
+
+    /**
+     * Word offset of a cell inside its tile.
+     * 
+     * @param x column
+     * @param y row
+     * @return word offset
+     */
+    private static int offset(final int x, final int y) {
+        return ((y & (TILE_SIZE - 1)) << ROW_SHIFT)
+            + ((x & (TILE_SIZE - 1)) >>> LANE_SHIFT);
+    }
+
+    /**
+     * Bit offset of a cell inside its word.
+     * 
+     * @param x column
+     * @return bit offset
+     */
+    private static int shift(final int x) {
+        return (x & ((1 << LANE_SHIFT) - 1)) * LANE_BITS;
+    }
+
+    /**
+     * Reset all counters to zero and release all tiles.
+     */
+    public void clearAll() {
+        releaseAll();
+        total = 0;
+    }
+
+    /**
+     * Decrement the counter of a cell.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @throws IllegalStateException if the counter is zero
+     */
+    public void decrement(final int x, final int y) {
+        final int tile = getTileOf(x, y);
+        final int slot = slots[tile];
+        final int offset = offset(x, y);
+        final int shift = shift(x);
+
+        if (slot < 0 || ((store.get(slot, offset) >>> shift) & MAX_COUNT) == 0)
+        {
+            throw new IllegalStateException("Counter underflow at "
+                + x + "," + y);
+        }
+
+        store.set(slot, offset, store.get(slot, offset) - (1L << shift));
+        total -= 1;
+        versions[tile] += 1;
+        if (--counts[tile] == 0) {
+            release(tile);
+        }
+    }
+
+    /**
+     * Returns the counter of a cell.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @return the counter
+     */
+    public int get(final int x, final int y) {
+        final int slot = slots[getTileOf(x, y)];
+
+        if (slot < 0) {
+            return 0;
+        }
+
+        return (int) (store.get(slot, offset(x, y)) >>> shift(x)) & MAX_COUNT;
+    }
+
+    /**
+     * Increment the counter of a cell.
+     * 
+     * @param x column, must be inside the grid
+     * @param y row, must be inside the grid
+     * @throws IllegalStateException if the counter would overflow
+     */
+    public void increment(final int x, final int y) {
+        final int tile = getTileOf(x, y);
+        int slot = slots[tile];
+
+        if (slot < 0) {
+            slot = allocate(tile);
+        }
+
+        final int offset = offset(x, y);
+        final int shift = shift(x);
+        final long word = store.get(slot, offset);
+
+        if (((word >>> shift) & MAX_COUNT) == MAX_COUNT) {
+            throw new IllegalStateException("Counter overflow at "
+                + x + "," + y);
+        }
+
+        store.set(slot, offset, word + (1L << shift));
+        total += 1;
+        counts[tile] += 1;
+        versions[tile] += 1;
+    }
+
+    /**
+     * Returns the sum of all counters.
+     * 
+     * @return the sum of all counters
+     */
+    public int total() {
+        return total;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package genetic.data;
+
+import java.util.Arrays;
+
+/**
+ * Grass, wall, population and health sums of square blocks of a
+ * {@link Field}, at every power of two from {@link #BLOCK_SIZE} cells up to
+ * the whole field, for drawing an overview of worlds far larger than the
+ * screen. Level 0 holds blocks of {@link #BLOCK_SIZE} by
+ * {@link #BLOCK_SIZE} cells, and each block of the next level sums two by
+ * two blocks of the one below.
+ * 
+ * The pyramid is kept up to date incrementally: only the tiles whose
+ * {@link TiledLayer#getTileVersion(int) version} changed since the last
+ * update are counted again, and only the blocks whose entities changed are
+ * visited. Every changed level 0 block passes its difference up to the top,
+ * so an update costs about as much as the changes, plus one pass over the
+ * entities for their health.
+ * 
+ * Not thread safe: updated and read on the simulation thread, e.g. as the
+ * first frame listener, see {@link #fieldChanged(Field)}.
+ */
+public final class DensityPyramid implements FieldListener {
+    /** Width and height of a level 0 block in cells. */
+    public static final int BLOCK_SIZE = 16;
+
+    /** log2 of {@link #BLOCK_SIZE}. */
+    private static final int BLOCK_SHIFT = 4;
+
+    /** Number of level 0 blocks per tile side. */
+    private static final int BLOCKS_PER_TILE =
+        TiledLayer.TILE_SIZE / BLOCK_SIZE;
+
+    /** Mask of the cells of one block in a tile word. */
+    private static final long BLOCK_MASK = (1L << BLOCK_SIZE) - 1;
+
+    /** The summarized field. */
+    private final Field field;
+
+    /** Width in cells. */
+    private final int width;
+
+    /** Height in cells. */
+    private final int height;
+
+    /** Blocks per row of each level. */
+    private final int[] columns;
+
+    /** Block rows of each level. */
+    private final int[] rows;
+
+    /** Grass cells per block of each level. */
+    private final int[][] grass;
+
+    /** Wall cells per block of each level. */
+    private final int[][] wall;
+
+    /** Entities per block of each level. */
+    private final int[][] population;
+
+    /** Sum of the entities' health per block of each level. */
+    private final int[][] health;
+
+    /** Grass tile versions counted last. */
+    private final int[] grassVersions;
+
+    /** Wall tile versions counted last. */
+    private final int[] wallVersions;
+
+    /** Level 0 cell counts of one tile, while counting it again. */
+    private final int[] tileCounts = new int[BLOCKS_PER_TILE * BLOCKS_PER_TILE];
+
+    /** Entities per level 0 block, while updating. Zero otherwise. */
+    private final int[] freshPopulation;
+
+    /** Health per level 0 block, while updating. Zero otherwise. */
+    private final int[] freshHealth;
+
+    /** Level 0 blocks with entities as of the current update. */
+    private int[] inhabited = new int[0];
+
+    /** Number of entries of {@link #inhabited}. */
+    private int inhabitedCount;
+
+    /** Level 0 blocks with entities as of the previous update. */
+    private int[] previous = new int[0];
+
+    /** Number of entries of {@link #previous}. */
+    private int previousCount;
+
+    /** Whether every tile was counted once. */
+    private boolean counted;
+
+    /**
+     * Create a new, empty DensityPyramid. Only reads the field's size, so
+     * it may be created on any thread; the first update counts every tile.
+     * 
+     * @param field the field to summarize
+     */
+    public DensityPyramid(final Field field) {
+        this.field = field;
+        this.width = field.getGrass().getWidth();
+        this.height = field.getGrass().getHeight();
+
+        int levels = 1;
+        while ((BLOCK_SIZE << (levels - 1)) < Math.max(width, height)) {
+            ++levels;
+        }
+
+        this.columns = new int[levels];
+        this.rows = new int[levels];
+        this.grass = new int[levels][];
+        this.wall = new int[levels][];
+        this.population = new int[levels][];
+        this.health = new int[levels][];
+
+        for (int l = 0; l < levels; ++l) {
+            final int size = BLOCK_SIZE << l;
+            columns[l] = (width + size - 1) / size;
+            rows[l] = (height + size - 1) / size;
+            grass[l] = new int[columns[l] * rows[l]];
+            wall[l] = new int[columns[l] * rows[l]];
+            population[l] = new int[columns[l] * rows[l]];
+            health[l] = new int[columns[l] * rows[l]];
+        }
+
+        final int tiles = field.getGrass().getTilesPerRow()
+            * field.getGrass().getTileRows();
+        this.grassVersions = new int[tiles];
+        this.wallVersions = new int[tiles];
+        this.freshPopulation = new int[grass[0].length];
+        this.freshHealth = new int[grass[0].length];
+    }
+
+    /**
+     * Add a difference to a level 0 block and all blocks above it.
+     * 
+     * @param sums the sums of each level
+     * @param x level 0 block column
+     * @param y level 0 block row
+     * @param delta the difference
+     */
+    private void add(
+        final int[][] sums,
+        final int x,
+        final int y,
+        final int delta)
+    {
+        for (int l = 0; l < sums.length; ++l) {
+            sums[l][((y >>> l) * columns[l]) + (x >>> l)] += delta;
+        }
+    }
+
+    /**
+     * Count the cells of a tile again and pass the differences up.
+     * 
+     * @param layer the layer
+     * @param sums the layer's sums of each level
+     * @param tile tile index
+     */
+    private void count(
+        final BitGrid layer,
+        final int[][] sums,
+        final int tile)
+    {
+        final int tx = layer.getTileX(tile);
+        final int ty = layer.getTileY(tile);
+        final int top = ty * TiledLayer.TILE_SIZE;
+        final int bottom = Math.min(top + TiledLayer.TILE_SIZE, height);
+
+        Arrays.fill(tileCounts, 0);
+        for (int y = top; y < bottom; ++y) {
+            final long word = layer.getWord(tx, y);
+
+            if (word == 0) {
+                continue;
+            }
+
+            final int offset = ((y - top) >>> BLOCK_SHIFT) * BLOCKS_PER_TILE;
+            for (int b = 0; b < BLOCKS_PER_TILE; ++b) {
+                tileCounts[offset + b] += Long.bitCount(
+                    (word >>> (b * BLOCK_SIZE)) & BLOCK_MASK);
+            }
+        }
+
+        for (int i = 0; i < tileCounts.length; ++i) {
+            final int x = (tx * BLOCKS_PER_TILE) + (i % BLOCKS_PER_TILE);
+            final int y = (ty * BLOCKS_PER_TILE) + (i / BLOCKS_PER_TILE);
+
+            if (x < columns[0] && y < rows[0]) {
+                final int delta =
+                    tileCounts[i] - sums[0][(y * columns[0]) + x];
+
+                if (delta != 0) {
+                    add(sums, x, y, delta);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bring the pyramid up to date at the end of each frame.
+     * 
+     * @param f the field
+     */
+    @Override
+    public void fieldChanged(final Field f) {
+        update();
+    }
+
+    /**
+     * Returns the width and height of the blocks of a level.
+     * 
+     * @param level the level
+     * @return the block size in cells
+     */
+    public int getBlockSize(final int level) {
+        return BLOCK_SIZE << level;
+    }
+
+    /**
+     * Returns the number of cells inside the field of a block. Only blocks
+     * at the right and bottom edges have fewer than the square of the block
+     * size.
+     * 
+     * @param level the level
+     * @param x block column
+     * @param y block row
+     * @return the number of cells
+     */
+    public int getCells(final int level, final int x, final int y) {
+        final int size = BLOCK_SIZE << level;
+
+        return Math.min(size, width - (x * size))
+            * Math.min(size, height - (y * size));
+    }
+
+    /**
+     * Returns the number of blocks per row of a level.
+     * 
+     * @param level the level
+     * @return the number of blocks per row
+     */
+    public int getColumns(final int level) {
+        return columns[level];
+    }
+
+    /**
+     * Returns the number of grass cells of a block.
+     * 
+     * @param level the level
+     * @param x block column
+     * @param y block row
+     * @return the number of grass cells
+     */
+    public int getGrass(final int level, final int x, final int y) {
+        return grass[level][(y * columns[level]) + x];
+    }
+
+    /**
+     * Returns the sum of the health of the entities of a block.
+     * 
+     * @param level the level
+     * @param x block column
+     * @param y block row
+     * @return the sum of the health
+     */
+    public int getHealth(final int level, final int x, final int y) {
+        return health[level][(y * columns[level]) + x];
+    }
+
+    /**
+     * Returns the number of levels. The top level is a single block.
+     * 
+     * @return the number of levels
+     */
+    public int getLevels() {
+        return columns.length;
+    }
+
+    /**
+     * Returns the number of entities of a block.
+     * 
+     * @param level the level
+     * @param x block column
+     * @param y block row
+     * @return the number of entities
+     */
+    public int getPopulation(final int level, final int x, final int y) {
+        return population[level][(y * columns[level]) + x];
+    }
+
+    /**
+     * Returns the number of block rows of a level.
+     * 
+     * @param level the level
+     * @return the number of block rows
+     */
+    public int getRows(final int level) {
+        return rows[level];
+    }
+
+    /**
+     * Returns the number of wall cells of a block.
+     * 
+     * @param level the level
+     * @param x block column
+     * @param y block row
+     * @return the number of wall cells
+     */
+    public int getWall(final int level, final int x, final int y) {
+        return wall[level][(y * columns[level]) + x];
+    }
+
+    /**
+     * Set the entity sums of a level 0 block, passing the differences up.
+     * 
+     * @param block level 0 block index
+     * @param count new number of entities
+     * @param sum new sum of the health
+     */
+    private void passUp(final int block, final int count, final int sum) {
+        final int x = block % columns[0];
+        final int y = block / columns[0];
+
+        if (count != population[0][block]) {
+            add(population, x, y, count - population[0][block]);
+        }
+        if (sum != health[0][block]) {
+            add(health, x, y, sum - health[0][block]);
+        }
+    }
+
+    /**
+     * Bring the pyramid up to date with the field.
+     */
+    public void update() {
+        final BitGrid grassLayer = field.getGrass();
+        final BitGrid wallLayer = field.getWall();
+
+        for (int t = 0; t < grassVersions.length; ++t) {
+            if (!counted || grassLayer.getTileVersion(t) != grassVersions[t]) {
+                grassVersions[t] = grassLayer.getTileVersion(t);
+                count(grassLayer, grass, t);
+            }
+
+            if (!counted || wallLayer.getTileVersion(t) != wallVersions[t]) {
+                wallVersions[t] = wallLayer.getTileVersion(t);
+                count(wallLayer, wall, t);
+            }
+        }
+        counted = true;
+
+        updateEntities();
+    }
+
+    /**
+     * Sum up the entities per level 0 block and pass the differences of the
+     * blocks that have or had any up.
+     */
+    private void updateEntities() {
+        final int[] swap = previous;
+        previous = inhabited;
+        previousCount = inhabitedCount;
+        inhabited = swap;
+        inhabitedCount = 0;
+
+        for (final Entity e : field.getEntities()) {
+            final Point p = e.getPosition();
+            final int block = ((p.y >>> BLOCK_SHIFT) * columns[0])
+                + (p.x >>> BLOCK_SHIFT);
+
+            if (freshPopulation[block]++ == 0) {
+                if (inhabitedCount == inhabited.length) {
+                    inhabited = Arrays.copyOf(inhabited,
+                        Math.max(inhabitedCount * 2, BLOCK_SIZE));
+                }
+                inhabited[inhabitedCount++] = block;
+            }
+            freshHealth[block] += e.getHealth();
+        }
+
+        for (int i = 0; i < inhabitedCount; ++i) {
+            final int block = inhabited[i];
+            passUp(block, freshPopulation[block], freshHealth[block]);
+        }
+
+        for (int i = 0; i < previousCount; ++i) {
+            final int block = previous[i];
+
+            if (freshPopulation[block] == 0) {
+                passUp(block, 0, 0);
+            }
+        }
+
+        for (int i = 0; i < inhabitedCount; ++i) {
+            freshPopulation[inhabited[i]] = 0;
+            freshHealth[inhabited[i]] = 0;
+        }
+    }
+}
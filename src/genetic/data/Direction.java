@@ -28,7 +28,7 @@
 
 package genetic.data;
 
-import java.awt.Point;
+import java.util.Random;
 
 /**
  * Directions on the Field.
@@ -48,8 +48,8 @@ public enum Direction {
     /** West. */
     LEFT(-1, 0);
 
-    public static Direction getRandom() {
-        return values()[Parameter.getNextRandomInt(values().length)];
+    public static Direction getRandom(final Random random) {
+        return values()[random.nextInt(values().length)];
     }
 
     public static Direction left(final Direction d) {
@@ -93,4 +93,22 @@ public enum Direction {
         return new Point(origin.x + x, origin.y + y);
     }
 
+    /**
+     * Returns the change of the x coordinate per step.
+     * 
+     * @return -1, 0 or 1
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the change of the y coordinate per step.
+     * 
+     * @return -1, 0 or 1
+     */
+    public int getY() {
+        return y;
+    }
+
 }
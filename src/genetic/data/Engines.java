@@ -0,0 +1,84 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up the {@link SimulationEngine}s on the class path, which are
+ * listed in <code>META-INF/services/genetic.data.SimulationEngine</code>.
+ */
+public final class Engines {
+    /**
+     * Utility class.
+     */
+    private Engines() {
+    }
+
+    /**
+     * Returns the engine of the given name.
+     * 
+     * @param name the engine's name
+     * @return the engine
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    public static SimulationEngine get(final String name) {
+        final List<String> names = new ArrayList<String>();
+
+        for (final SimulationEngine e : getAll()) {
+            if (e.getName().equals(name)) {
+                return e;
+            }
+            names.add(e.getName());
+        }
+
+        throw new IllegalArgumentException("Unknown engine: " + name
+            + ", available: " + String.join(", ", names));
+    }
+
+    /**
+     * Returns all engines on the class path.
+     * 
+     * @return the engines
+     */
+    public static List<SimulationEngine> getAll() {
+        final List<SimulationEngine> engines =
+            new ArrayList<SimulationEngine>();
+
+        for (final SimulationEngine e
+            : ServiceLoader.load(SimulationEngine.class))
+        {
+            engines.add(e);
+        }
+
+        return engines;
+    }
+}
@@ -28,8 +28,6 @@
 
 package genetic.data;
 
-import java.awt.Point;
-
 public class Entity {
     /** Program this entity follows. */
     private final Program program;
@@ -43,6 +41,9 @@ public class Entity {
     /** Energy. */
     private int health;
 
+    /** Genome id in the field's {@link Lineage}, if tracked. */
+    private int genome = Lineage.NONE;
+
     public Entity(
         final int health,
         final Program program,
@@ -64,6 +65,15 @@ public class Entity {
         return direction;
     }
 
+    /**
+     * Returns this entity's genome id in the field's {@link Lineage}.
+     * 
+     * @return the genome id, or {@link Lineage#NONE} if not tracked
+     */
+    public final int getGenome() {
+        return genome;
+    }
+
     /**
      * Returns this entity's energy.
      * 
@@ -113,22 +123,42 @@ public class Entity {
         }
 
         if (f.isGrass(goal)) {
-            health += Parameter.HEALTH_PER_FOOD.getValue();
+            health += f.getSettings().getHealthPerFood();
             f.removeGrass(goal);
         }
 
+        f.moveOccupant(position, goal);
         position = goal;
     }
 
     public final Entity replicate(final Field field) {
         final Point newPosition = field.getRandomValidPoint();
-        final Direction newDirection = Direction.getRandom();
-        final Program newProgram = program.mutate();
+        final Direction newDirection = Direction.getRandom(field.getRandom());
+        final Program newProgram = program.mutate(field.getRandom(),
+            field.getSettings().getMutationRate());
         health /= 2;
 
         return new Entity(health, newProgram, newPosition, newDirection);
     }
 
+    /**
+     * Sets the state reached by other means than {@link #step(Field)}, e.g.
+     * after several steps at once.
+     * 
+     * @param newPosition new position
+     * @param newDirection new heading
+     * @param newHealth new energy
+     */
+    final void restore(
+        final Point newPosition,
+        final Direction newDirection,
+        final int newHealth)
+    {
+        position = newPosition;
+        direction = newDirection;
+        health = newHealth;
+    }
+
     /**
      * Rotate this entity to the right. This is always possible.
      */
@@ -136,12 +166,23 @@ public class Entity {
         direction = Direction.right(direction);
     }
 
+    /**
+     * Sets this entity's genome id. Only meant for {@link Lineage}.
+     * 
+     * @param newGenome the genome id
+     */
+    final void setGenome(final int newGenome) {
+        genome = newGenome;
+    }
+
     public final void step(final Field field) {
+        final Settings settings = field.getSettings();
+
         program.execute(field, this);
         if (field.isGrass(position)) {
-            health += Parameter.HEALTH_PER_FOOD.getValue();
+            health += settings.getHealthPerFood();
             field.removeGrass(position);
         }
-        health -= Parameter.HEALTH_PER_STEP.getValue();
+        health -= settings.getHealthPerStep();
     }
 }
@@ -0,0 +1,597 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Fast-forwarding of entities that provably cannot interact with anything,
+ * see {@link FastForwardEngine}. The result is bit-identical to
+ * stepping every entity on every tick.
+ * 
+ * Time is cut into epochs of {@link #WINDOW} ticks. At the start of an epoch,
+ * an entity coasts through the whole epoch if its program does not sense
+ * anything on the way, no cell on its path holds grass or wall, it neither
+ * dies nor reproduces, and no other entity is close enough to sense any cell
+ * of its path. A coasting entity is not stepped; its state is brought up to
+ * date in one go from the program's successor table when the epoch ends,
+ * when it leaves the field, or when the field needs exact positions.
+ * 
+ * During a coasting entity's epoch, the occupancy layer may still show it at
+ * an earlier position of its path. That is safe because no entity that
+ * could sense its path exists: any entity joining the field, and any grass
+ * or wall appearing on a path, ends the affected entities' coasting early.
+ * Grass growth and diffusion could put grass anywhere, so nothing coasts
+ * while either is enabled.
+ */
+final class FastForward {
+    /** Ticks per epoch. */
+    private static final int WINDOW = 8;
+
+    /**
+     * Distance beyond which two entities cannot notice each other during an
+     * epoch: both move at most two cells per tick, and one cell further is
+     * sensed.
+     */
+    private static final int REACH = (4 * WINDOW) + 1;
+
+    /** Width and height of a bucket of the spatial index. */
+    private static final int BUCKET = REACH + 1;
+
+    /** Maximum number of cells on a path: the start and two per tick. */
+    private static final int PATH = (2 * WINDOW) + 1;
+
+    /** A coasting entity. */
+    private static final class Plan {
+        /** The coasting entity. */
+        private final Entity entity;
+
+        /** Position at the start of the epoch. */
+        private final int originX, originY;
+
+        /** Cells of the path, as <code>y * width + x</code>. */
+        private final int[] path;
+
+        /** Number of cells of the path. */
+        private final int pathLength;
+
+        /** Tick the entity's state is up to date with. */
+        private int base;
+
+        /** Last tick the entity coasted through. */
+        private int done;
+
+        /** Whether the entity still coasts. */
+        private boolean active = true;
+
+        /**
+         * Create a new Plan.
+         * 
+         * @param entity the coasting entity
+         * @param path cells of the path
+         * @param pathLength number of cells of the path
+         * @param base tick the entity's state is up to date with
+         */
+        private Plan(
+            final Entity entity,
+            final int[] path,
+            final int pathLength,
+            final int base)
+        {
+            this.entity = entity;
+            this.originX = entity.getPosition().x;
+            this.originY = entity.getPosition().y;
+            this.path = path;
+            this.pathLength = pathLength;
+            this.base = base;
+            this.done = base;
+        }
+    }
+
+    /** The field. */
+    private final Field field;
+
+    /** Plans of the coasting entities. */
+    private final IdentityHashMap<Entity, Plan> coasting =
+        new IdentityHashMap<Entity, Plan>();
+
+    /** All plans of this epoch, in creation order. */
+    private final ArrayList<Plan> plans = new ArrayList<Plan>();
+
+    /** First plan of each bucket, or -1. */
+    private int[] head = new int[0];
+
+    /** Next plan in the same bucket, or -1. */
+    private int[] next = new int[0];
+
+    /** Buckets per row and column. */
+    private int bucketsX, bucketsY;
+
+    /** Last tick of the current epoch. */
+    private int epochEnd = Integer.MIN_VALUE;
+
+    /** Health lost per step during this epoch. */
+    private int healthPerStep;
+
+    /** Reproduction threshold during this epoch. */
+    private int reproduction;
+
+    /**
+     * Create a new FastForward.
+     * 
+     * @param field the field whose entities are fast-forwarded
+     */
+    FastForward(final Field field) {
+        this.field = field;
+    }
+
+    /**
+     * Called at the start of each tick, after grass regrowth and dynamics.
+     * Ends the current epoch if it is over or the parameters it relies on
+     * changed, and plans the next one.
+     * 
+     * @param tick the starting tick
+     */
+    void begin(final int tick) {
+        final Settings settings = field.getSettings();
+        final boolean allowed = settings.getGrassGrowth() == 0
+            && settings.getGrassDiffusion() == 0;
+
+        if (tick > epochEnd || !allowed
+            || healthPerStep != settings.getHealthPerStep()
+            || reproduction != settings.getReproductionHealth())
+        {
+            finish();
+            epochEnd = tick + WINDOW - 1;
+            healthPerStep = settings.getHealthPerStep();
+            reproduction = settings.getReproductionHealth();
+
+            if (allowed) {
+                plan(tick);
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket of a cell.
+     * 
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param dx bucket offset in x direction
+     * @param dy bucket offset in y direction
+     * @return the bucket index
+     */
+    private int bucket(final int x, final int y, final int dx, final int dy) {
+        final int bx = (x / BUCKET + dx + bucketsX) % bucketsX;
+        final int by = (y / BUCKET + dy + bucketsY) % bucketsY;
+        return (by * bucketsX) + bx;
+    }
+
+    /**
+     * Brings all coasting entities up to date with the ticks they coasted
+     * through. They keep coasting.
+     */
+    void catchUp() {
+        for (final Plan p : plans) {
+            if (p.active) {
+                materialize(p);
+            }
+        }
+    }
+
+    /**
+     * Drop all plans without touching the entities, e.g. because they were
+     * removed.
+     */
+    void clear() {
+        coasting.clear();
+        plans.clear();
+        epochEnd = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the distance of two cells on the torus, in the maximum norm.
+     * 
+     * @param x1 first x coordinate
+     * @param y1 first y coordinate
+     * @param x2 second x coordinate
+     * @param y2 second y coordinate
+     * @return the distance
+     */
+    private int distance(
+        final int x1,
+        final int y1,
+        final int x2,
+        final int y2)
+    {
+        final int width = field.getGrass().getWidth();
+        final int height = field.getGrass().getHeight();
+        final int dx = Math.abs(x1 - x2);
+        final int dy = Math.abs(y1 - y2);
+        return Math.max(Math.min(dx, width - dx), Math.min(dy, height - dy));
+    }
+
+    /**
+     * Ends the coasting of all entities.
+     */
+    void finish() {
+        for (final Plan p : plans) {
+            if (p.active) {
+                materialize(p);
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Called when grass or wall appears on a cell. Ends the coasting of all
+     * entities whose path contains the cell.
+     * 
+     * @param x x coordinate
+     * @param y y coordinate
+     */
+    void invalidate(final int x, final int y) {
+        if (coasting.isEmpty()) {
+            return;
+        }
+
+        final int cell = (y * field.getGrass().getWidth()) + x;
+
+        for (int dy = -1; dy <= 1; ++dy) {
+            for (int dx = -1; dx <= 1; ++dx) {
+                for (int i = head[bucket(x, y, dx, dy)]; i >= 0; i = next[i]) {
+                    final Plan p = plans.get(i);
+
+                    if (p.active && onPath(p, cell)) {
+                        stop(p);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called when an entity joins the field, or stops coasting, at the given
+     * position. Ends the coasting of all entities it might notice.
+     * 
+     * @param position the entity's position
+     */
+    void join(final Point position) {
+        if (coasting.isEmpty()) {
+            return;
+        }
+
+        for (int dy = -1; dy <= 1; ++dy) {
+            for (int dx = -1; dx <= 1; ++dx) {
+                final int b = bucket(position.x, position.y, dx, dy);
+
+                for (int i = head[b]; i >= 0; i = next[i]) {
+                    final Plan p = plans.get(i);
+
+                    if (p.active && distance(position.x, position.y,
+                        p.originX, p.originY) <= REACH)
+                    {
+                        stop(p);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Called before an entity leaves the field. Brings it up to date and ends
+     * its coasting.
+     * 
+     * @param e the entity
+     */
+    void leave(final Entity e) {
+        final Plan p = coasting.remove(e);
+
+        if (p != null) {
+            materialize(p);
+            p.active = false;
+        }
+    }
+
+    /**
+     * Brings a coasting entity up to date with the ticks it coasted through,
+     * by replaying its program without looking at the field.
+     * 
+     * @param p the entity's plan
+     */
+    private void materialize(final Plan p) {
+        final Entity e = p.entity;
+        final Program program = e.getProgram();
+        final ProgramAnalysis analysis = program.getAnalysis();
+        final int width = field.getGrass().getWidth();
+        final int height = field.getGrass().getHeight();
+        final int steps = p.done - p.base;
+
+        if (steps == 0) {
+            return;
+        }
+
+        final Point from = e.getPosition();
+        Direction direction = e.getDirection();
+        int pc = program.getCurrent();
+        int x = from.x;
+        int y = from.y;
+
+        for (int i = 0; i < steps; ++i) {
+            final Command c = analysis.getCommand(pc);
+            int moves = 0;
+
+            switch (c) {
+                case DOUBLEMOVE:
+                    moves = 2;
+                    break;
+                case MOVE:
+                    moves = 1;
+                    break;
+                case LEFT:
+                    direction = Direction.left(direction);
+                    break;
+                case RIGHT:
+                    direction = Direction.right(direction);
+                    break;
+                default:
+                    break;
+            }
+
+            x = Math.floorMod(x + (moves * direction.getX()), width);
+            y = Math.floorMod(y + (moves * direction.getY()), height);
+            pc = analysis.getNext(pc);
+        }
+
+        final Point to = new Point(x, y);
+        field.moveOccupant(from, to);
+        program.setCurrent(pc);
+        e.restore(to, direction, e.getHealth() - (steps * healthPerStep));
+        p.base = p.done;
+    }
+
+    /**
+     * Returns whether a cell is on a plan's path.
+     * 
+     * @param p the plan
+     * @param cell the cell, as <code>y * width + x</code>
+     * @return whether the entity passes the cell during the epoch
+     */
+    private static boolean onPath(final Plan p, final int cell) {
+        for (int i = 0; i < p.pathLength; ++i) {
+            if (p.path[i] == cell) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Decides which entities coast through the epoch starting at the given
+     * tick.
+     * 
+     * @param tick first tick of the epoch
+     */
+    private void plan(final int tick) {
+        final int width = field.getGrass().getWidth();
+        final int height = field.getGrass().getHeight();
+
+        bucketsX = (width + BUCKET - 1) / BUCKET;
+        bucketsY = (height + BUCKET - 1) / BUCKET;
+
+        /* buckets must not wrap onto their own neighbours */
+        if (bucketsX < 3 || bucketsY < 3) {
+            return;
+        }
+
+        if (head.length != bucketsX * bucketsY) {
+            head = new int[bucketsX * bucketsY];
+        }
+
+        /* index all entities */
+        final Entity[] entities =
+            field.getEntities().toArray(new Entity[0]);
+        final int[] others = new int[entities.length];
+        Arrays.fill(head, -1);
+
+        for (int i = 0; i < entities.length; ++i) {
+            final Point p = entities[i].getPosition();
+            final int b = bucket(p.x, p.y, 0, 0);
+            others[i] = head[b];
+            head[b] = i;
+        }
+
+        final int[] path = new int[PATH];
+        final ArrayList<Plan> planned = new ArrayList<Plan>();
+
+        for (int i = 0; i < entities.length; ++i) {
+            final int length = trace(entities[i], path);
+
+            if (length > 0 && isAlone(entities, others, i)) {
+                planned.add(new Plan(entities[i],
+                    Arrays.copyOf(path, length), length, tick - 1));
+            }
+        }
+
+        /* index the plans */
+        Arrays.fill(head, -1);
+        if (next.length < planned.size()) {
+            next = new int[Math.max(planned.size(), next.length * 2)];
+        }
+
+        for (final Plan p : planned) {
+            final int b = bucket(p.originX, p.originY, 0, 0);
+            next[plans.size()] = head[b];
+            head[b] = plans.size();
+            plans.add(p);
+            coasting.put(p.entity, p);
+        }
+    }
+
+    /**
+     * Returns whether no other entity is within {@link #REACH} of an entity.
+     * 
+     * @param entities all entities
+     * @param others next entity in the same bucket
+     * @param index index of the entity in question
+     * @return whether the entity is alone
+     */
+    private boolean isAlone(
+        final Entity[] entities,
+        final int[] others,
+        final int index)
+    {
+        final Point p = entities[index].getPosition();
+
+        for (int dy = -1; dy <= 1; ++dy) {
+            for (int dx = -1; dx <= 1; ++dx) {
+                final int b = bucket(p.x, p.y, dx, dy);
+
+                for (int i = head[b]; i >= 0; i = others[i]) {
+                    final Point q = entities[i].getPosition();
+
+                    if (i != index && distance(p.x, p.y, q.x, q.y) <= REACH) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Called for every entity on every tick. Returns whether the entity
+     * coasts, i.e. must not be stepped.
+     * 
+     * @param e the entity
+     * @param tick current tick
+     * @return whether the entity coasts through this tick
+     */
+    boolean skip(final Entity e, final int tick) {
+        final Plan p = coasting.get(e);
+
+        if (p == null) {
+            return false;
+        }
+
+        p.done = tick;
+        return true;
+    }
+
+    /**
+     * Ends a plan early and lets its entity join the active ones.
+     * 
+     * @param p the plan
+     */
+    private void stop(final Plan p) {
+        materialize(p);
+        p.active = false;
+        coasting.remove(p.entity);
+        join(p.entity.getPosition());
+    }
+
+    /**
+     * Checks whether an entity can coast through a whole epoch on its own
+     * and computes its path.
+     * 
+     * @param e the entity
+     * @param path receives the cells of the path
+     * @return the number of cells of the path, or 0 if the entity can't
+     * coast
+     */
+    private int trace(final Entity e, final int[] path) {
+        final int health = e.getHealth();
+
+        if (health - healthPerStep > reproduction
+            || health - (WINDOW * healthPerStep) <= 0)
+        {
+            return 0;
+        }
+
+        final ProgramAnalysis analysis = e.getProgram().getAnalysis();
+        final BitGrid grass = field.getGrass();
+        final BitGrid wall = field.getWall();
+        final int width = grass.getWidth();
+        final int height = grass.getHeight();
+        Direction direction = e.getDirection();
+        int pc = e.getProgram().getCurrent();
+        int x = e.getPosition().x;
+        int y = e.getPosition().y;
+        int length = 0;
+
+        if (grass.get(x, y)) {
+            return 0;
+        }
+        path[length++] = (y * width) + x;
+
+        for (int i = 0; i < WINDOW; ++i) {
+            final Command c = analysis.getCommand(pc);
+            int moves = 0;
+
+            switch (c) {
+                case DOUBLEMOVE:
+                    moves = 2;
+                    break;
+                case MOVE:
+                    moves = 1;
+                    break;
+                case LEFT:
+                    direction = Direction.left(direction);
+                    break;
+                case RIGHT:
+                    direction = Direction.right(direction);
+                    break;
+                default:
+                    if (c.isConditional()) {
+                        return 0;
+                    }
+                    break;
+            }
+
+            for (int m = 0; m < moves; ++m) {
+                x = Math.floorMod(x + direction.getX(), width);
+                y = Math.floorMod(y + direction.getY(), height);
+
+                if (grass.get(x, y) || wall.get(x, y)) {
+                    return 0;
+                }
+                path[length++] = (y * width) + x;
+            }
+
+            pc = analysis.getNext(pc);
+        }
+
+        return length;
+    }
+}
@@ -28,97 +28,410 @@
 
 package genetic.data;
 
-import java.awt.Point;
-import java.util.Observable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
 
-public class Field extends Observable {
-    private final CopyOnWriteArraySet<Point> grass;
+public class Field {
+    /** Lower half of a long. */
+    private static final long MASK_32 = 0xFFFFFFFFL;
 
-    private final CopyOnWriteArraySet<Point> wall;
+    /** Tries to find a cell without wall for an initial entity. */
+    private static final int MAX_PLACEMENT_ATTEMPTS = 1000;
+
+    private final BitGrid grass;
+
+    private final BitGrid wall;
 
     private final CopyOnWriteArrayList<Entity> entities;
 
+    /** Number of entities per cell. */
+    private final CountGrid occupancy;
+
+    /** Per-cell grass growth, diffusion and decay. */
+    private final FieldDynamics dynamics;
+
+    /** Source of all randomness of this field and its entities. */
+    private final Rng random;
+
+    /** Initial seed of {@link #random}. */
+    private final long seed;
+
+    /** Fills the layers on reset. */
+    private final WorldGenerator generator;
+
+    /** Parameter values of the current tick. */
+    private Settings settings = Parameter.getSettings();
+
+    /** Values used instead of the parameters', or <code>null</code>. */
+    private Settings fixedSettings;
+
+    /** Listeners to ticks and resets. */
+    private final CopyOnWriteArrayList<FieldListener> fieldListeners =
+        new CopyOnWriteArrayList<FieldListener>();
+
+    /** Listeners to changes of the population. */
+    private final CopyOnWriteArrayList<PopulationListener> populationListeners =
+        new CopyOnWriteArrayList<PopulationListener>();
+
+    /** Phylogeny of the entities, or <code>null</code> if not tracked. */
+    private Lineage lineage;
+
+    /** Engine moving the entities. */
+    private SimulationEngine engine;
+
+    /** The engine's state for this field. */
+    private Stepper stepper;
+
     private int timeUntilAddRandomGrass;
 
     private int step;
 
     public Field() {
-        this.grass = new CopyOnWriteArraySet<Point>();
-        this.wall = new CopyOnWriteArraySet<Point>();
+        this(false);
+    }
+
+    /**
+     * Create a new Field.
+     * 
+     * @param offHeap whether to keep the cell layers outside of the Java heap
+     */
+    public Field(final boolean offHeap) {
+        this(offHeap, Parameter.getNextRandomLong());
+    }
+
+    /**
+     * Create a new Field with its own random number generator.
+     * 
+     * @param offHeap whether to keep the cell layers outside of the Java heap
+     * @param seed seed of the field's random number generator
+     */
+    public Field(final boolean offHeap, final long seed) {
+        final int width = Parameter.FIELD_WIDTH.getValue();
+        final int height = Parameter.FIELD_HEIGHT.getValue();
+
+        this.grass = new BitGrid(width, height, offHeap);
+        this.wall = new BitGrid(width, height, offHeap);
         this.entities = new CopyOnWriteArrayList<Entity>();
+        this.occupancy = new CountGrid(width, height, offHeap);
+        this.random = new Rng(seed);
+        this.seed = seed;
+        this.dynamics = new FieldDynamics(grass, wall, random);
+        this.generator = new WorldGenerator(grass);
+        this.engine = new ReferenceEngine();
+        this.stepper = engine.create(this, 1);
 
         reset();
     }
 
+    /**
+     * Start over with a new world: exactly {@link Parameter#INITIAL_FOOD}
+     * percent grass, {@link Parameter#INITIAL_WALL} percent walls on other
+     * cells and {@link Parameter#INITIAL_POPULATION} entities off the walls.
+     */
     public final void reset() {
-        grass.clear();
-        wall.clear();
-        entities.clear();
-        step = 0;
+        clear();
+        settings = currentSettings();
 
-        final int fieldWidth = Parameter.FIELD_WIDTH.getValue();
-        final int fieldHeight = Parameter.FIELD_HEIGHT.getValue();
-        final int fieldSize = fieldWidth * fieldHeight;
+        final int fieldWidth = grass.getWidth();
+        final int fieldHeight = grass.getHeight();
+        final long fieldSize = (long) fieldWidth * fieldHeight;
 
-        /* place initial food */
-        final int foodCount = (fieldSize * Parameter.INITIAL_FOOD.getValue())
+        /* place initial food and walls */
+        final long foodCount = (fieldSize * settings.getInitialFood())
             / Parameter.PERCENT;
+        final long wallCount = Math.min(fieldSize - foodCount,
+            (fieldSize * settings.getInitialWall()) / Parameter.PERCENT);
 
-        for (int i = 0; i < foodCount; ++i) {
-            addRandomGrass();
-        }
+        generator.generate(random, grass, wall, foodCount, wallCount);
 
-        /* place initial walls */
-        final int wallCount = (fieldSize * Parameter.INITIAL_WALL.getValue())
-            / Parameter.PERCENT;
+        /* place initial population */
+        final int population = settings.getInitialPopulation();
+        final List<Entity> founders = new ArrayList<Entity>(population);
 
-        for (int i = 0; i < wallCount; ++i) {
-            addRandomWall();
-        }
+        for (int i = 0; i < population; ++i) {
+            int x;
+            int y;
+            int attempts = 0;
 
-        /* place initial population */
-        for (int i = 0; i < Parameter.INITIAL_POPULATION.getValue(); ++i) {
-            addEntity(new Entity(
+            do {
+                x = random.nextInt(fieldWidth);
+                y = random.nextInt(fieldHeight);
+            } while (wall.get(x, y) && wallCount < fieldSize
+                && ++attempts < MAX_PLACEMENT_ATTEMPTS);
+
+            founders.add(new Entity(
                 100,
                 new Program(Command.MOVE),
-                getRandomValidPoint(),
-                Direction.getRandom()));
+                new Point(x, y),
+                Direction.getRandom(random)));
+        }
+
+        entities.addAll(founders);
+        for (final Entity e : founders) {
+            added(e, null);
         }
 
-        setChanged();
-        notifyObservers();
+        fireChanged();
     }
 
     public final void addEntity(final Entity e) {
+        addEntity(e, null);
+    }
+
+    /**
+     * Add an entity to this field.
+     * 
+     * @param e entity to add
+     * @param parent the entity that gave birth to it, or <code>null</code>
+     */
+    final void addEntity(final Entity e, final Entity parent) {
         entities.add(e);
+        added(e, parent);
+    }
+
+    /**
+     * Account for an entity that was just added to {@link #entities}.
+     * 
+     * @param e the new entity
+     * @param parent the entity that gave birth to it, or <code>null</code>
+     */
+    private void added(final Entity e, final Entity parent) {
+        final Point p = e.getPosition();
+        occupancy.increment(p.x, p.y);
+
+        if (lineage != null) {
+            lineage.add(e, parent, step);
+        }
+
+        stepper.entityAdded(e);
+
+        for (final PopulationListener l : populationListeners) {
+            l.entityAdded(e);
+        }
+    }
+
+    /**
+     * Register a listener to ticks and resets. It is called on the
+     * simulation thread after the field changed.
+     * 
+     * @param l the listener
+     */
+    public final void addFieldListener(final FieldListener l) {
+        fieldListeners.add(l);
+    }
+
+    /**
+     * Register a listener to all changes of the population. It is called on
+     * the simulation thread and must be quick.
+     * 
+     * @param l the listener
+     */
+    public final void addPopulationListener(final PopulationListener l) {
+        populationListeners.add(l);
     }
 
     public final void addRandomGrass() {
-        grass.add(getRandomValidPoint());
+        final Point p = getRandomValidPoint();
+        grass.set(p.x, p.y);
+
+        stepper.cellChanged(p.x, p.y);
     }
 
     public void addRandomWall() {
-        wall.add(getRandomValidPoint());
+        final Point p = getRandomValidPoint();
+        wall.set(p.x, p.y);
+
+        stepper.cellChanged(p.x, p.y);
+    }
+
+    /**
+     * Brings all fast-forwarded entities up to date, so that their positions,
+     * headings, energy and programs are exact. This happens after every tick
+     * while there are field listeners; anyone else reading the entities
+     * between two ticks, on the simulation thread, calls this first.
+     */
+    public final void catchUp() {
+        stepper.catchUp();
+    }
+
+    /**
+     * Remove all grass, walls and entities.
+     */
+    final void clear() {
+        grass.clearAll();
+        wall.clearAll();
+        entities.clear();
+        occupancy.clearAll();
+        step = 0;
+        timeUntilAddRandomGrass = 0;
+
+        if (lineage != null) {
+            lineage.clear();
+        }
+
+        stepper.cleared();
+
+        for (final PopulationListener l : populationListeners) {
+            l.populationCleared();
+        }
+    }
+
+    /**
+     * Starts tracking the phylogeny of this field's entities, with the
+     * current entities as founders. Must be called between two ticks.
+     * 
+     * @return the lineage
+     */
+    public final Lineage enableLineage() {
+        if (lineage == null) {
+            lineage = new Lineage(this);
+
+            for (final Entity e : entities) {
+                lineage.add(e, null, step);
+            }
+        }
+
+        return lineage;
+    }
+
+    /**
+     * Notify all field listeners, after {@link #tick()} and {@link #reset()}
+     * or of a change that happened otherwise.
+     */
+    final void fireChanged() {
+        for (final FieldListener l : fieldListeners) {
+            l.fieldChanged(this);
+        }
+    }
+
+    /**
+     * Appends a value to a digest.
+     * 
+     * @param hash digest so far
+     * @param value next value
+     * @return the new digest
+     */
+    private static long fold(final long hash, final long value) {
+        return SplitMix.mix((hash ^ value) + SplitMix.GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns the phylogeny of this field's entities.
+     * 
+     * @return the lineage, or <code>null</code> if not tracked
+     * @see #enableLineage()
+     */
+    public final Lineage getLineage() {
+        return lineage;
     }
 
     public final CopyOnWriteArrayList<Entity> getEntities() {
         return entities;
     }
 
-    public final CopyOnWriteArraySet<Point> getGrass() {
+    /**
+     * Returns a digest of the whole world: grass, walls, the entities in
+     * order with their positions, headings, energy, genomes and next
+     * commands, the step counters and the random state. It is equal for
+     * equal worlds, whichever engine got them there, and stable between
+     * runs. The layers keep their digests up to date as they change, so this
+     * costs one pass over the entities. Brings lazily stepped entities up to
+     * date first; must be called between two ticks.
+     * 
+     * @return the digest
+     */
+    public final long getDigest() {
+        catchUp();
+
+        long hash = fold(grass.getDigest(), wall.getDigest());
+        hash = fold(hash, ((long) step << Integer.SIZE)
+            | (timeUntilAddRandomGrass & MASK_32));
+        hash = fold(hash, random.getState());
+
+        for (final Entity e : entities) {
+            final Point p = e.getPosition();
+            final Program program = e.getProgram();
+
+            hash = fold(hash, ((long) p.x << Integer.SIZE) | p.y);
+            hash = fold(hash, ((long) e.getHealth() << Integer.SIZE)
+                | e.getDirection().ordinal());
+            hash = fold(hash, program.getAnalysis().getDigest()
+                + program.getCurrent());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns the engine moving the entities.
+     * 
+     * @return the engine
+     * @see #setEngine(SimulationEngine, int)
+     */
+    public final SimulationEngine getEngine() {
+        return engine;
+    }
+
+    public final BitGrid getGrass() {
         return grass;
     }
 
+    /**
+     * Returns the number of entities per cell.
+     * 
+     * @return the occupancy layer
+     */
+    public final CountGrid getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * Returns the random number generator of this field. It must only be used
+     * by the thread that ticks this field.
+     * 
+     * @return the random number generator
+     */
+    public final Rng getRandom() {
+        return random;
+    }
+
+    /**
+     * Returns the values the next tick or reset uses.
+     * 
+     * @return the fixed settings, or else the parameters'
+     */
+    private Settings currentSettings() {
+        return fixedSettings != null ? fixedSettings : Parameter.getSettings();
+    }
+
+    /**
+     * Returns the parameter values of the current tick, or of the last one
+     * between ticks.
+     * 
+     * @return the settings
+     */
+    public final Settings getSettings() {
+        return settings;
+    }
+
     public final Point getRandomValidPoint() {
-        final int width = Parameter.FIELD_WIDTH.getValue();
-        final int height = Parameter.FIELD_HEIGHT.getValue();
-        final int x = Parameter.getNextRandomInt(width);
-        final int y = Parameter.getNextRandomInt(height);
+        final int x = random.nextInt(grass.getWidth());
+        final int y = random.nextInt(grass.getHeight());
         return new Point(x, y);
     }
 
+    /**
+     * Returns the seed this field's random number generator started with.
+     * 
+     * @return the initial seed
+     */
+    public final long getSeed() {
+        return seed;
+    }
+
     public final int getStep() {
         return step;
     }
@@ -129,12 +442,22 @@ public class Field extends Observable {
         return sanitizeCoordinates(direction.getCoordinate(origin));
     }
 
-    public final CopyOnWriteArraySet<Point> getWall() {
+    /**
+     * Returns the number of ticks until the next regrowth.
+     * 
+     * @return the number of ticks until the next regrowth
+     */
+    final int getTimeUntilAddRandomGrass() {
+        return timeUntilAddRandomGrass;
+    }
+
+    public final BitGrid getWall() {
         return wall;
     }
 
     public final boolean isGrass(final Point p) {
-        return grass.contains(sanitizeCoordinates(p));
+        final Point point = sanitizeCoordinates(p);
+        return grass.get(point.x, point.y);
     }
 
     public final boolean isWalkable(final Point p) {
@@ -144,15 +467,93 @@ public class Field extends Observable {
             return false;
         }
 
-        if (wall.contains(point)) {
+        if (wall.get(point.x, point.y)) {
             return false;
         }
 
         return true;
     }
 
+    public final boolean isOccupied(final Point p) {
+        final Point point = sanitizeCoordinates(p);
+        return occupancy.get(point.x, point.y) > 0;
+    }
+
+    public final boolean isWall(final Point p) {
+        final Point point = sanitizeCoordinates(p);
+        return wall.get(point.x, point.y);
+    }
+
+    /**
+     * Update the occupancy layer for an entity that moved.
+     * 
+     * @param from previous position
+     * @param to new position
+     */
+    final void moveOccupant(final Point from, final Point to) {
+        occupancy.decrement(from.x, from.y);
+        occupancy.increment(to.x, to.y);
+    }
+
+    /**
+     * Restores this field from a snapshot file written by
+     * {@link #writeSnapshot(Path)}. The field must have the same size.
+     * 
+     * @param path snapshot file
+     * @throws IOException if the file could not be read
+     * @see FieldSnapshot
+     */
+    public final void readSnapshot(final Path path) throws IOException {
+        FieldSnapshot.load(this, path);
+    }
+
+    /**
+     * Remove an entity from this field.
+     * 
+     * @param e entity to remove
+     * @return whether the entity was on this field
+     */
+    public final boolean removeEntity(final Entity e) {
+        stepper.entityLeaving(e);
+
+        if (!entities.remove(e)) {
+            return false;
+        }
+
+        final Point p = e.getPosition();
+        occupancy.decrement(p.x, p.y);
+
+        if (lineage != null) {
+            lineage.remove(e);
+        }
+
+        for (final PopulationListener l : populationListeners) {
+            l.entityRemoved(e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Unregister a listener to ticks and resets.
+     * 
+     * @param l the listener
+     */
+    public final void removeFieldListener(final FieldListener l) {
+        fieldListeners.remove(l);
+    }
+
+    /**
+     * Unregister a listener to changes of the population.
+     * 
+     * @param l the listener
+     */
+    public final void removePopulationListener(final PopulationListener l) {
+        populationListeners.remove(l);
+    }
+
     public final boolean removeGrass(final Point point) {
-        return grass.remove(point);
+        return grass.clear(point.x, point.y);
     }
 
     /**
@@ -164,8 +565,8 @@ public class Field extends Observable {
      * @throws NullPointerException if the given point was <code>null</code>
      */
     public final Point sanitizeCoordinates(final Point p) {
-        final int width = Parameter.FIELD_WIDTH.getValue();
-        final int height = Parameter.FIELD_HEIGHT.getValue();
+        final int width = grass.getWidth();
+        final int height = grass.getHeight();
         if (p.x < 0) {
             return sanitizeCoordinates(new Point(p.x + width, p.y));
         }
@@ -185,26 +586,84 @@ public class Field extends Observable {
         return p;
     }
 
+    /**
+     * Switches to another engine, after bringing all entities up to date
+     * with the current one. Must be called between two ticks.
+     * 
+     * @param newEngine the engine
+     * @param threads number of threads the engine may use, at least 1
+     */
+    public final void setEngine(
+        final SimulationEngine newEngine,
+        final int threads)
+    {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Illegal thread count: "
+                + threads);
+        }
+
+        stepper.shutdown();
+        engine = newEngine;
+        stepper = newEngine.create(this, threads);
+    }
+
+    /**
+     * Uses the given values instead of the parameters', e.g. to play back a
+     * logged run without changing the parameters under the gui. Must be
+     * called between two ticks.
+     * 
+     * @param fixed the values from now on, or <code>null</code> to follow
+     * the parameters again
+     */
+    public final void setSettings(final Settings fixed) {
+        fixedSettings = fixed;
+        settings = currentSettings();
+    }
+
+    /**
+     * Sets the step counters. Only meant for restoring snapshots.
+     * 
+     * @param newStep current step
+     * @param newTimeUntilAddRandomGrass ticks until the next regrowth
+     */
+    final void setStep(final int newStep, final int newTimeUntilAddRandomGrass)
+    {
+        step = newStep;
+        timeUntilAddRandomGrass = newTimeUntilAddRandomGrass;
+    }
+
     public final void tick() {
+        settings = currentSettings();
         step += 1;
 
         if (--timeUntilAddRandomGrass < 0) {
+            final int regrowth = settings.getRegrowthRate();
             timeUntilAddRandomGrass = 10;
-            for (int i = 0; i < Parameter.REGROWTH_RATE.getValue(); ++i) {
+            for (int i = 0; i < regrowth; ++i) {
                 addRandomGrass();
             }
         }
 
-        for (final Entity e : entities) {
-            e.step(this);
-            if (e.getHealth() <= 0) {
-                entities.remove(e);
-            } else if (e.getHealth() > Parameter.REPRODUCTION_HP.getValue()) {
-                entities.add(e.replicate(this));
-            }
+        dynamics.apply(settings);
+
+        stepper.tick(step);
+
+        if (!fieldListeners.isEmpty()) {
+            stepper.catchUp();
         }
 
-        setChanged();
-        notifyObservers();
+        fireChanged();
+    }
+
+    /**
+     * Writes this field into a snapshot file, which is memory-mapped while
+     * writing.
+     * 
+     * @param path snapshot file, will be overwritten
+     * @throws IOException if the file could not be written
+     * @see FieldSnapshot
+     */
+    public final void writeSnapshot(final Path path) throws IOException {
+        FieldSnapshot.save(this, path);
     }
 }
@@ -0,0 +1,395 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.Arrays;
+
+/**
+ * A reusable copy of everything needed to draw a {@link Field}, or a window
+ * of it: the words of the grass and wall layers and the entities' cells and
+ * health. Taking a capture on the simulation thread after a tick is cheap,
+ * and the capture can then be processed on any other thread without ever
+ * seeing a half-updated field.
+ * 
+ * A window spans whole words horizontally. Its entities are sorted by row,
+ * so those of a range of rows can be found without looking at the others;
+ * the layer words are copied only for the window, so capturing a small
+ * window of a huge field costs about as much as capturing a small field.
+ */
+public final class FieldCapture {
+    /** Width in cells. */
+    private final int width;
+
+    /** Height in cells. */
+    private final int height;
+
+    /** First column of the window, a multiple of the word size. */
+    private int left;
+
+    /** First row of the window. */
+    private int top;
+
+    /** Column after the window. */
+    private int right;
+
+    /** Row after the window. */
+    private int bottom;
+
+    /** Words per window row. */
+    private int wordsPerRow;
+
+    /** Grass words of the window, row by row. */
+    private long[] grass = new long[0];
+
+    /** Wall words of the window, row by row. */
+    private long[] wall = new long[0];
+
+    /** Tick of the capture. */
+    private long tick;
+
+    /** Reproduction health at the time of the capture. */
+    private int reproductionHealth;
+
+    /** Cell index of each entity, sorted by row. */
+    private int[] entityCells = new int[0];
+
+    /** Health of each entity, sorted by row. */
+    private int[] entityHealth = new int[0];
+
+    /** Number of entities. */
+    private int entityCount;
+
+    /** Index of the first entity of each window row, and the count last. */
+    private int[] rowStarts = new int[1];
+
+    /** Cell index of each entity, unsorted. */
+    private int[] unsortedCells = new int[0];
+
+    /** Health of each entity, unsorted. */
+    private int[] unsortedHealth = new int[0];
+
+    /**
+     * Create a new, empty FieldCapture fitting the given field.
+     * 
+     * @param field field to capture later
+     */
+    public FieldCapture(final Field field) {
+        this.width = field.getGrass().getWidth();
+        this.height = field.getGrass().getHeight();
+    }
+
+    /**
+     * Copy the whole field. Must be called on the simulation thread, or while
+     * the simulation is not running.
+     * 
+     * @param field the field, of the same size as at construction
+     */
+    public void capture(final Field field) {
+        capture(field, 0, 0, width, height);
+    }
+
+    /**
+     * Copy a window of the field, widened to whole words. Must be called on
+     * the simulation thread, or while the simulation is not running.
+     * 
+     * @param field the field, of the same size as at construction
+     * @param x first column, clamped to the field
+     * @param y first row, clamped to the field
+     * @param x2 column after the window, clamped to the field
+     * @param y2 row after the window, clamped to the field
+     */
+    public void capture(
+        final Field field,
+        final int x,
+        final int y,
+        final int x2,
+        final int y2)
+    {
+        left = Math.max(0, Math.min(x, width - 1)) & -BitGrid.WORD_SIZE;
+        top = Math.max(0, Math.min(y, height - 1));
+        right = Math.max(left + 1, Math.min(x2, width));
+        bottom = Math.max(top + 1, Math.min(y2, height));
+        wordsPerRow = ((right - left) + BitGrid.WORD_SIZE - 1)
+            / BitGrid.WORD_SIZE;
+
+        final int words = wordsPerRow * (bottom - top);
+        if (grass.length != words) {
+            grass = new long[words];
+            wall = new long[words];
+        }
+
+        tick = field.getStep();
+        reproductionHealth = field.getSettings().getReproductionHealth();
+        capture(field.getGrass(), grass);
+        capture(field.getWall(), wall);
+        captureEntities(field);
+    }
+
+    /**
+     * Copy the words of a layer inside the window, visiting either all of
+     * its words or the layer's active tiles, whichever are fewer.
+     * 
+     * @param layer source
+     * @param words destination, row by row
+     */
+    private void capture(final BitGrid layer, final long[] words) {
+        final int first = left / BitGrid.WORD_SIZE;
+
+        if (words.length
+            < (long) layer.getActiveTileCount() * BitGrid.TILE_SIZE)
+        {
+            for (int row = top; row < bottom; ++row) {
+                final int offset = (row - top) * wordsPerRow;
+
+                for (int wx = 0; wx < wordsPerRow; ++wx) {
+                    words[offset + wx] = layer.getWord(first + wx, row);
+                }
+            }
+            return;
+        }
+
+        Arrays.fill(words, 0);
+
+        for (int i = 0; i < layer.getActiveTileCount(); ++i) {
+            final int tile = layer.getActiveTile(i);
+            final int wx = layer.getTileX(tile);
+            final int tileTop = layer.getTileY(tile) * BitGrid.TILE_SIZE;
+            final int from = Math.max(tileTop, top);
+            final int to = Math.min(tileTop + BitGrid.TILE_SIZE, bottom);
+
+            if (wx < first || wx >= first + wordsPerRow) {
+                continue;
+            }
+
+            for (int row = from; row < to; ++row) {
+                words[((row - top) * wordsPerRow) + wx - first] =
+                    layer.getWord(wx, row);
+            }
+        }
+    }
+
+    /**
+     * Copy the entities inside the window, sorted by row.
+     * 
+     * @param field the field
+     */
+    private void captureEntities(final Field field) {
+        final int rows = bottom - top;
+        final int count = field.getEntities().size();
+
+        if (unsortedCells.length < count) {
+            unsortedCells = new int[count * 2];
+            unsortedHealth = new int[count * 2];
+            entityCells = new int[count * 2];
+            entityHealth = new int[count * 2];
+        }
+        if (rowStarts.length < rows + 1) {
+            rowStarts = new int[rows + 1];
+        }
+        Arrays.fill(rowStarts, 0, rows + 1, 0);
+
+        /* count per row, shifted by one */
+        int n = 0;
+        for (final Entity e : field.getEntities()) {
+            final Point p = e.getPosition();
+
+            if (n < unsortedCells.length && p.x >= left && p.x < right
+                && p.y >= top && p.y < bottom)
+            {
+                unsortedCells[n] = (p.y * width) + p.x;
+                unsortedHealth[n] = e.getHealth();
+                ++rowStarts[p.y - top];
+                ++n;
+            }
+        }
+
+        int start = 0;
+        for (int r = 0; r <= rows; ++r) {
+            final int rowCount = rowStarts[r];
+            rowStarts[r] = start;
+            start += rowCount;
+        }
+
+        /* distribute, advancing each row's start to the next row's */
+        for (int i = 0; i < n; ++i) {
+            final int r = (unsortedCells[i] / width) - top;
+            final int j = rowStarts[r]++;
+
+            entityCells[j] = unsortedCells[i];
+            entityHealth[j] = unsortedHealth[i];
+        }
+
+        for (int r = rows; r > 0; --r) {
+            rowStarts[r] = rowStarts[r - 1];
+        }
+        rowStarts[0] = 0;
+        entityCount = n;
+    }
+
+    /**
+     * Returns the row after the window.
+     * 
+     * @return the row after the window
+     */
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Returns the cell index (<code>y * width + x</code>) of an entity.
+     * 
+     * @param i entity, from 0 to {@link #getEntityCount()} exclusive
+     * @return the cell index
+     */
+    public int getEntityCell(final int i) {
+        return entityCells[i];
+    }
+
+    /**
+     * Returns the index of the first captured entity of a row; those of the
+     * row end where the next row's start.
+     * 
+     * @param y row, from {@link #getTop()} to {@link #getBottom()} inclusive
+     * @return the entity index
+     */
+    public int getEntityRowStart(final int y) {
+        return rowStarts[y - top];
+    }
+
+    /**
+     * Returns the number of captured entities.
+     * 
+     * @return the number of entities
+     */
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Returns the health of an entity.
+     * 
+     * @param i entity, from 0 to {@link #getEntityCount()} exclusive
+     * @return the health
+     */
+    public int getEntityHealth(final int i) {
+        return entityHealth[i];
+    }
+
+    /**
+     * Returns the grass words of the window, row by row,
+     * {@link #getWordsPerRow()} per row. Not to be modified.
+     * 
+     * @return the grass words
+     */
+    public long[] getGrass() {
+        return grass;
+    }
+
+    /**
+     * Returns the height of the field.
+     * 
+     * @return the height in cells
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the first column of the window, a multiple of the word size.
+     * 
+     * @return the first column
+     */
+    public int getLeft() {
+        return left;
+    }
+
+    /**
+     * Returns the reproduction health at the time of the capture.
+     * 
+     * @return the reproduction health
+     */
+    public int getReproductionHealth() {
+        return reproductionHealth;
+    }
+
+    /**
+     * Returns the column after the window.
+     * 
+     * @return the column after the window
+     */
+    public int getRight() {
+        return right;
+    }
+
+    /**
+     * Returns the tick of the capture.
+     * 
+     * @return the tick
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the first row of the window.
+     * 
+     * @return the first row
+     */
+    public int getTop() {
+        return top;
+    }
+
+    /**
+     * Returns the wall words of the window, row by row,
+     * {@link #getWordsPerRow()} per row. Not to be modified.
+     * 
+     * @return the wall words
+     */
+    public long[] getWall() {
+        return wall;
+    }
+
+    /**
+     * Returns the width of the field.
+     * 
+     * @return the width in cells
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of words per window row.
+     * 
+     * @return the number of words per row
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Bulk update stage that applies per-cell rules to the whole field once per
+ * tick: spontaneous growth of grass on empty cells, diffusion of grass onto
+ * neighbouring cells, and decay of existing grass.
+ * 
+ * Word-level passes only run over the allocated tiles of the grass layer (and
+ * their direct neighbours for diffusion), 64 cells per operation, with
+ * per-cell random decisions drawn as random bit masks of the requested
+ * density. Growth in empty tiles is sampled by skipping geometrically
+ * distributed gaps, so its cost scales with the number of new grass cells
+ * instead of the size of the field.
+ */
+final class FieldDynamics {
+    /** Resolution of the per-cell probabilities, in bits. */
+    private static final int PRECISION = 10;
+
+    /** Fixed-point representation of a probability of 1. */
+    private static final int ONE = 1 << PRECISION;
+
+    /** Scale of a random double built from 53 random bits. */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /** Grass layer, updated in place. */
+    private final BitGrid grass;
+
+    /** Wall layer, nothing grows on walls. */
+    private final BitGrid wall;
+
+    /** Tiles processed by the current pass. */
+    private final int[] tiles;
+
+    /** Pass number in which each tile was last added to {@link #tiles}. */
+    private final int[] stamp;
+
+    /** Number of tiles processed by the current pass. */
+    private int tileCount;
+
+    /** Current pass number. */
+    private int pass;
+
+    /** Next state of the processed tiles during diffusion. */
+    private long[] scratch;
+
+    /** Source of the per-tick seed of the mask generator. */
+    private final Random random;
+
+    /** Mask generator state, reseeded from {@link #random} per tick. */
+    private long state;
+
+    /**
+     * Create a new FieldDynamics stage.
+     * 
+     * @param grass grass layer
+     * @param wall wall layer of the same size
+     * @param random source of randomness
+     */
+    FieldDynamics(final BitGrid grass, final BitGrid wall, final Random random)
+    {
+        final int count = grass.getTilesPerRow() * grass.getTileRows();
+
+        this.grass = grass;
+        this.wall = wall;
+        this.random = random;
+        this.tiles = new int[count];
+        this.stamp = new int[count];
+        this.scratch = new long[0];
+    }
+
+    /**
+     * Converts a parameter value into a fixed-point probability.
+     * 
+     * @param value parameter value
+     * @param scale value representing a probability of 1
+     * @return fixed-point probability
+     */
+    private static int toFixed(final int value, final int scale) {
+        return Math.min(ONE, ((value * ONE) + (scale / 2)) / scale);
+    }
+
+    /**
+     * Run all enabled passes once.
+     * 
+     * @param settings parameter values of the tick
+     */
+    void apply(final Settings settings) {
+        final int growth = toFixed(
+            settings.getGrassGrowth(), Parameter.PER_MILLE);
+        final int diffusion = toFixed(
+            settings.getGrassDiffusion(), Parameter.PERCENT);
+        final int decay = toFixed(
+            settings.getGrassDecay(), Parameter.PER_MILLE);
+
+        if (growth == 0 && diffusion == 0 && decay == 0) {
+            return;
+        }
+
+        state = random.nextLong();
+
+        if (diffusion != 0) {
+            diffuse(diffusion);
+        }
+
+        if (growth != 0 || decay != 0) {
+            growAndDecay(growth, decay);
+        }
+    }
+
+    /**
+     * Start a new pass with an empty tile list.
+     */
+    private void beginPass() {
+        tileCount = 0;
+
+        if (++pass == 0) {
+            Arrays.fill(stamp, 0);
+            pass = 1;
+        }
+    }
+
+    /**
+     * Add a tile to the current pass, unless it already is part of it.
+     * 
+     * @param tile tile index
+     */
+    private void addTile(final int tile) {
+        if (stamp[tile] != pass) {
+            stamp[tile] = pass;
+            tiles[tileCount++] = tile;
+        }
+    }
+
+    /**
+     * Add all currently allocated grass tiles to the current pass.
+     */
+    private void addActiveTiles() {
+        for (int i = 0; i < grass.getActiveTileCount(); ++i) {
+            addTile(grass.getActiveTile(i));
+        }
+    }
+
+    /**
+     * Returns the number of valid rows in a tile row.
+     * 
+     * @param ty tile row
+     * @return number of valid rows
+     */
+    private int rowsInTile(final int ty) {
+        return Math.min(BitGrid.TILE_SIZE,
+            grass.getHeight() - (ty * BitGrid.TILE_SIZE));
+    }
+
+    /**
+     * Every empty, non-wall cell with grass in one of its four neighbours
+     * becomes grass with the given probability. Neighbourhoods are taken from
+     * the state before this pass. Only allocated tiles and their direct
+     * neighbours can change.
+     * 
+     * @param probability fixed-point probability
+     */
+    private void diffuse(final int probability) {
+        final int tilesPerRow = grass.getTilesPerRow();
+        final int tileRows = grass.getTileRows();
+
+        beginPass();
+        for (int i = 0; i < grass.getActiveTileCount(); ++i) {
+            final int tile = grass.getActiveTile(i);
+            final int tx = grass.getTileX(tile);
+            final int ty = grass.getTileY(tile);
+            final int row = ty * tilesPerRow;
+
+            addTile(tile);
+            addTile(row + ((tx + 1) % tilesPerRow));
+            addTile(row + ((tx + tilesPerRow - 1) % tilesPerRow));
+            addTile((((ty + 1) % tileRows) * tilesPerRow) + tx);
+            addTile((((ty + tileRows - 1) % tileRows) * tilesPerRow) + tx);
+        }
+
+        final int size = tileCount * BitGrid.TILE_SIZE;
+        if (scratch.length < size) {
+            scratch = new long[size];
+        }
+
+        for (int i = 0; i < tileCount; ++i) {
+            final int tx = grass.getTileX(tiles[i]);
+            final int ty = grass.getTileY(tiles[i]);
+            final int rows = rowsInTile(ty);
+
+            for (int r = 0; r < rows; ++r) {
+                scratch[(i * BitGrid.TILE_SIZE) + r] = diffuseWord(
+                    tx, (ty * BitGrid.TILE_SIZE) + r, probability);
+            }
+        }
+
+        for (int i = 0; i < tileCount; ++i) {
+            final int tx = grass.getTileX(tiles[i]);
+            final int ty = grass.getTileY(tiles[i]);
+            final int rows = rowsInTile(ty);
+
+            for (int r = 0; r < rows; ++r) {
+                grass.setWord(tx, (ty * BitGrid.TILE_SIZE) + r,
+                    scratch[(i * BitGrid.TILE_SIZE) + r]);
+            }
+        }
+    }
+
+    /**
+     * Computes the next state of a single word during diffusion.
+     * 
+     * @param wx word index inside the row
+     * @param y row
+     * @param probability fixed-point probability
+     * @return next state of the word
+     */
+    private long diffuseWord(final int wx, final int y, final int probability)
+    {
+        final int height = grass.getHeight();
+        final int last = grass.getWordsPerRow() - 1;
+        final int lastBits = grass.getWidth() - (last * BitGrid.WORD_SIZE);
+        final int top = BitGrid.WORD_SIZE - 1;
+        final long cur = grass.getWord(wx, y);
+
+        /* bit i of "east" is the cell right of bit i, and so on */
+        final long east;
+        final long west;
+        if (wx == last) {
+            east = (cur >>> 1) | ((grass.getWord(0, y) & 1L) << (lastBits - 1));
+        } else {
+            east = (cur >>> 1) | (grass.getWord(wx + 1, y) << top);
+        }
+
+        if (wx == 0) {
+            west = (cur << 1)
+                | ((grass.getWord(last, y) >>> (lastBits - 1)) & 1L);
+        } else {
+            west = (cur << 1) | (grass.getWord(wx - 1, y) >>> top);
+        }
+
+        final long neighbours = east | west
+            | grass.getWord(wx, (y + height - 1) % height)
+            | grass.getWord(wx, (y + 1) % height);
+
+        if ((neighbours & ~cur) == 0) {
+            return cur;
+        }
+
+        return cur | (neighbours & ~cur & ~wall.getWord(wx, y)
+            & grass.validMask(wx) & randomMask(probability));
+    }
+
+    /**
+     * Existing grass withers with probability <code>decay</code>, empty
+     * non-wall cells grow grass with probability <code>growth</code>.
+     * 
+     * @param growth fixed-point growth probability
+     * @param decay fixed-point decay probability
+     */
+    private void growAndDecay(final int growth, final int decay) {
+        beginPass();
+        addActiveTiles();
+
+        if (growth != 0) {
+            growOutside(growth);
+        }
+
+        for (int i = 0; i < tileCount; ++i) {
+            final int tx = grass.getTileX(tiles[i]);
+            final int ty = grass.getTileY(tiles[i]);
+            final int rows = rowsInTile(ty);
+            final long valid = grass.validMask(tx);
+
+            for (int r = 0; r < rows; ++r) {
+                final int y = (ty * BitGrid.TILE_SIZE) + r;
+                final long cur = grass.getWord(tx, y);
+                final long kept = cur & ~randomMask(decay);
+                final long grown = ~cur & ~wall.getWord(tx, y) & valid
+                    & randomMask(growth);
+
+                grass.setWord(tx, y, kept | grown);
+            }
+        }
+    }
+
+    /**
+     * Grow grass on the cells of all tiles that are not part of the current
+     * pass. The gaps between successive hits in a sequence of independent
+     * trials are geometrically distributed, so only the hits are visited.
+     * 
+     * @param growth fixed-point growth probability
+     */
+    private void growOutside(final int growth) {
+        final int width = grass.getWidth();
+        final long cells = (long) width * grass.getHeight();
+        final double logMiss = Math.log1p(-growth / (double) ONE);
+        long cell = -1;
+
+        while (true) {
+            if (growth >= ONE) {
+                cell += 1;
+            } else {
+                final double u = 1.0 - ((nextLong() >>> 11) * DOUBLE_UNIT);
+                cell += 1 + (long) (Math.log(u) / logMiss);
+            }
+
+            if (cell < 0 || cell >= cells) {
+                return;
+            }
+
+            final int x = (int) (cell % width);
+            final int y = (int) (cell / width);
+            final int tile = (y / BitGrid.TILE_SIZE) * grass.getTilesPerRow()
+                + (x / BitGrid.TILE_SIZE);
+
+            if (stamp[tile] != pass && !wall.get(x, y)) {
+                grass.set(x, y);
+            }
+        }
+    }
+
+    /**
+     * Returns the next 64 random bits (SplitMix64).
+     * 
+     * @return random bits
+     */
+    private long nextLong() {
+        state += 0x9E3779B97F4A7C15L;
+        long z = state;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a random word in which every bit is set independently with the
+     * given probability. Each bit of the probability, from the least
+     * significant upwards, either ORs or ANDs in another random word, which
+     * needs at most {@link #PRECISION} random words.
+     * 
+     * @param probability fixed-point probability
+     * @return random mask
+     */
+    private long randomMask(final int probability) {
+        if (probability <= 0) {
+            return 0L;
+        }
+
+        if (probability >= ONE) {
+            return -1L;
+        }
+
+        final int lowest = Integer.numberOfTrailingZeros(probability);
+        long mask = nextLong();
+
+        for (int bit = lowest + 1; bit < PRECISION; ++bit) {
+            if (((probability >>> bit) & 1) != 0) {
+                mask |= nextLong();
+            } else {
+                mask &= nextLong();
+            }
+        }
+
+        return mask;
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Binary snapshot of a {@link Field}.
+ * 
+ * The layout is designed to be used directly through a memory-mapped file or
+ * a direct buffer: a fixed header, the allocated tiles of the grass and wall
+ * layers, and the entities stored column by column (all x coordinates, then
+ * all y coordinates, and so on), followed by the concatenated programs.
+ * 
+ * <pre>
+ * int magic, int version, int width, int height,
+ * int step, int timeUntilAddRandomGrass, long randomState,
+ * 2x layer: int tileCount, tileCount x (int tile, TILE_SIZE x long row),
+ * int entityCount, int[] x, int[] y, byte[] direction, int[] health,
+ * int[] programCounter, int[] programLength, byte[] commands
+ * </pre>
+ */
+public final class FieldSnapshot {
+    /** Identifies snapshot data. */
+    private static final int MAGIC = 0x47435346;
+
+    /** Version of the layout. */
+    private static final int VERSION = 2;
+
+    /** Size of the fixed header. */
+    private static final int HEADER_BYTES = (6 * Integer.BYTES) + Long.BYTES;
+
+    /** Size of an entity's columns, without its program. */
+    private static final int ENTITY_BYTES = (5 * Integer.BYTES) + 1;
+
+    /** Commands by ordinal. */
+    private static final Command[] COMMANDS = Command.values();
+
+    /** Directions by ordinal. */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Reads a snapshot into the given field, replacing its complete state.
+     * 
+     * @param field destination field, must have the snapshot's size
+     * @param in source buffer, positioned at the start of the snapshot
+     * @throws IllegalArgumentException if the data is not a complete, valid
+     * snapshot for this field; the field is left unchanged then
+     */
+    public static void read(final Field field, final ByteBuffer in) {
+        validate(field, in);
+
+        /* magic, version and size */
+        in.position(in.position() + (4 * Integer.BYTES));
+
+        field.clear();
+        final int step = in.getInt();
+        field.setStep(step, in.getInt());
+        field.getRandom().setState(in.getLong());
+        readLayer(field.getGrass(), in);
+        readLayer(field.getWall(), in);
+
+        final int count = in.getInt();
+        final int xs = in.position();
+        final int ys = xs + (count * Integer.BYTES);
+        final int directions = ys + (count * Integer.BYTES);
+        final int healths = directions + count;
+        final int currents = healths + (count * Integer.BYTES);
+        final int lengths = currents + (count * Integer.BYTES);
+        int commandsOffset = lengths + (count * Integer.BYTES);
+
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * Integer.BYTES;
+            final Command[] code = new Command[in.getInt(lengths + offset)];
+
+            for (int c = 0; c < code.length; ++c) {
+                code[c] = COMMANDS[in.get(commandsOffset + c)];
+            }
+            commandsOffset += code.length;
+
+            final Program program = new Program(code);
+            program.setCurrent(in.getInt(currents + offset));
+            field.addEntity(new Entity(
+                in.getInt(healths + offset),
+                program,
+                new Point(in.getInt(xs + offset), in.getInt(ys + offset)),
+                DIRECTIONS[in.get(directions + i)]));
+        }
+
+        in.position(commandsOffset);
+        field.fireChanged();
+    }
+
+    /**
+     * Loads a snapshot file into the given field through a read-only mapping.
+     * 
+     * @param field destination field, must have the snapshot's size
+     * @param path snapshot file
+     * @throws IOException if the file could not be read
+     */
+    public static void load(final Field field, final Path path)
+        throws IOException
+    {
+        final FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.READ);
+
+        try {
+            read(field, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given field into a file through a writable
+     * mapping.
+     * 
+     * @param field source field
+     * @param path snapshot file, will be overwritten
+     * @throws IOException if the file could not be written
+     */
+    public static void save(final Field field, final Path path)
+        throws IOException
+    {
+        final FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+
+        try {
+            final MappedByteBuffer out =
+                channel.map(MapMode.READ_WRITE, 0, size(field));
+            write(field, out);
+            out.force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Throws unless a buffer holds at least the given number of bytes from
+     * a position on.
+     * 
+     * @param in the buffer
+     * @param position first byte
+     * @param bytes number of bytes
+     * @throws IllegalArgumentException if the buffer is too short
+     */
+    private static void require(
+        final ByteBuffer in,
+        final long position,
+        final long bytes)
+    {
+        if (position + bytes > in.limit()) {
+            throw new IllegalArgumentException("Snapshot is truncated");
+        }
+    }
+
+    /**
+     * Returns the number of bytes {@link #write(Field, ByteBuffer)} needs.
+     * 
+     * @param field source field
+     * @return size of the snapshot in bytes
+     */
+    public static int size(final Field field) {
+        final List<Entity> entities = field.getEntities();
+        int size = HEADER_BYTES
+            + layerSize(field.getGrass())
+            + layerSize(field.getWall())
+            + Integer.BYTES
+            + (entities.size() * ENTITY_BYTES);
+
+        for (final Entity e : entities) {
+            size += e.getProgram().size();
+        }
+
+        return size;
+    }
+
+    /**
+     * Checks that a buffer holds a complete snapshot that fits the field,
+     * without reading anything into the field or moving the position.
+     * 
+     * @param field destination field
+     * @param in source buffer, positioned at the start of the snapshot
+     * @throws IllegalArgumentException if the data is not a complete, valid
+     * snapshot for this field
+     */
+    private static void validate(final Field field, final ByteBuffer in) {
+        final BitGrid grass = field.getGrass();
+        final int start = in.position();
+
+        require(in, start, HEADER_BYTES);
+        if (in.getInt(start) != MAGIC
+            || in.getInt(start + Integer.BYTES) != VERSION)
+        {
+            throw new IllegalArgumentException("Not a field snapshot");
+        }
+
+        final int width = in.getInt(start + (2 * Integer.BYTES));
+        final int height = in.getInt(start + (3 * Integer.BYTES));
+        if (width != grass.getWidth() || height != grass.getHeight()) {
+            throw new IllegalArgumentException("Snapshot size " + width + "x"
+                + height + " does not match the field");
+        }
+
+        final long walls = validateLayer(grass, in, start + HEADER_BYTES);
+        final long entities = validateLayer(field.getWall(), in, walls);
+
+        require(in, entities, Integer.BYTES);
+        final int count = in.getInt((int) entities);
+        if (count < 0) {
+            throw new IllegalArgumentException("Illegal entity count "
+                + count);
+        }
+        require(in, entities + Integer.BYTES, (long) count * ENTITY_BYTES);
+
+        final int xs = (int) entities + Integer.BYTES;
+        final int ys = xs + (count * Integer.BYTES);
+        final int directions = ys + (count * Integer.BYTES);
+        final int healths = directions + count;
+        final int currents = healths + (count * Integer.BYTES);
+        final int lengths = currents + (count * Integer.BYTES);
+        long commands = lengths + ((long) count * Integer.BYTES);
+
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * Integer.BYTES;
+            final int x = in.getInt(xs + offset);
+            final int y = in.getInt(ys + offset);
+            final int length = in.getInt(lengths + offset);
+            final int current = in.getInt(currents + offset);
+
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                throw new IllegalArgumentException("Entity " + i
+                    + " is outside the field");
+            } else if ((in.get(directions + i) & 0xff) >= DIRECTIONS.length) {
+                throw new IllegalArgumentException("Entity " + i
+                    + " has an illegal direction");
+            } else if (length <= 0 || current < 0 || current >= length) {
+                throw new IllegalArgumentException("Entity " + i
+                    + " has an illegal program");
+            }
+
+            require(in, commands, length);
+            for (int c = 0; c < length; ++c) {
+                if ((in.get((int) commands + c) & 0xff) >= COMMANDS.length) {
+                    throw new IllegalArgumentException("Entity " + i
+                        + " has an illegal command");
+                }
+            }
+            commands += length;
+        }
+    }
+
+    /**
+     * Checks a layer's tiles.
+     * 
+     * @param layer destination grid
+     * @param in source buffer
+     * @param position start of the layer
+     * @return position after the layer
+     * @throws IllegalArgumentException if the layer is truncated or names
+     * tiles the grid doesn't have
+     */
+    private static long validateLayer(
+        final BitGrid layer,
+        final ByteBuffer in,
+        final long position)
+    {
+        final long tileBytes = Integer.BYTES
+            + (BitGrid.TILE_SIZE * Long.BYTES);
+        final int all = layer.getTilesPerRow() * layer.getTileRows();
+
+        require(in, position, Integer.BYTES);
+        final int tiles = in.getInt((int) position);
+        if (tiles < 0 || tiles > all) {
+            throw new IllegalArgumentException("Illegal tile count " + tiles);
+        }
+        require(in, position + Integer.BYTES, tiles * tileBytes);
+
+        for (int i = 0; i < tiles; ++i) {
+            final int tile =
+                in.getInt((int) (position + Integer.BYTES + (i * tileBytes)));
+
+            if (tile < 0 || tile >= all) {
+                throw new IllegalArgumentException("Illegal tile " + tile);
+            }
+        }
+
+        return position + Integer.BYTES + (tiles * tileBytes);
+    }
+
+    /**
+     * Writes a snapshot of the given field, after bringing fast-forwarded
+     * entities up to date. The field must not change while this method
+     * runs.
+     * 
+     * @param field source field
+     * @param out destination buffer with at least {@link #size(Field)} bytes
+     * remaining
+     */
+    public static void write(final Field field, final ByteBuffer out) {
+        field.catchUp();
+        final BitGrid grass = field.getGrass();
+
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(grass.getWidth());
+        out.putInt(grass.getHeight());
+        out.putInt(field.getStep());
+        out.putInt(field.getTimeUntilAddRandomGrass());
+        out.putLong(field.getRandom().getState());
+        writeLayer(grass, out);
+        writeLayer(field.getWall(), out);
+
+        final Entity[] entities =
+            field.getEntities().toArray(new Entity[0]);
+        out.putInt(entities.length);
+
+        for (final Entity e : entities) {
+            out.putInt(e.getPosition().x);
+        }
+
+        for (final Entity e : entities) {
+            out.putInt(e.getPosition().y);
+        }
+
+        for (final Entity e : entities) {
+            out.put((byte) e.getDirection().ordinal());
+        }
+
+        for (final Entity e : entities) {
+            out.putInt(e.getHealth());
+        }
+
+        for (final Entity e : entities) {
+            out.putInt(e.getProgram().getCurrent());
+        }
+
+        for (final Entity e : entities) {
+            out.putInt(e.getProgram().size());
+        }
+
+        for (final Entity e : entities) {
+            for (final Command c : e.getProgram()) {
+                out.put((byte) c.ordinal());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes a layer takes in a snapshot.
+     * 
+     * @param layer the layer
+     * @return size in bytes
+     */
+    private static int layerSize(final BitGrid layer) {
+        return Integer.BYTES + (layer.getActiveTileCount()
+            * (Integer.BYTES + (BitGrid.TILE_SIZE * Long.BYTES)));
+    }
+
+    /**
+     * Reads a layer into an empty grid.
+     * 
+     * @param layer destination grid, must be empty
+     * @param in source buffer
+     */
+    private static void readLayer(final BitGrid layer, final ByteBuffer in) {
+        final int tiles = in.getInt();
+
+        for (int i = 0; i < tiles; ++i) {
+            final int tile = in.getInt();
+            final int wx = layer.getTileX(tile);
+            final int top = layer.getTileY(tile) * BitGrid.TILE_SIZE;
+
+            for (int r = 0; r < BitGrid.TILE_SIZE; ++r) {
+                final long word = in.getLong();
+                if (top + r < layer.getHeight()) {
+                    layer.setWord(wx, top + r, word & layer.validMask(wx));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the allocated tiles of a layer.
+     * 
+     * @param layer source grid
+     * @param out destination buffer
+     */
+    private static void writeLayer(final BitGrid layer, final ByteBuffer out) {
+        final int tiles = layer.getActiveTileCount();
+        out.putInt(tiles);
+
+        for (int i = 0; i < tiles; ++i) {
+            final int tile = layer.getActiveTile(i);
+            final int wx = layer.getTileX(tile);
+            final int top = layer.getTileY(tile) * BitGrid.TILE_SIZE;
+            out.putInt(tile);
+
+            for (int r = 0; r < BitGrid.TILE_SIZE; ++r) {
+                out.putLong(
+                    (top + r < layer.getHeight()) ? layer.getWord(wx, top + r)
+                        : 0L);
+            }
+        }
+    }
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private FieldSnapshot() {
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Phylogeny of a {@link Field}'s genomes. Every distinct program that appears
+ * through a birth becomes a genome node recording its parent genome, the tick
+ * and the {@link Mutation} that created it; births of an already living
+ * genome only count towards its population. Nodes are primitive columns in a
+ * direct buffer, with the genomes' commands in a second one; new nodes and
+ * commands are appended at the end.
+ * 
+ * A genome without living entities and without living descendants is
+ * extinct and pruned; once pruned nodes make up half of the store, the store
+ * is compacted in place. Compaction renumbers genomes, so genome ids are only
+ * valid until the field's next tick. Queries may come from any thread; to
+ * combine several of them, hold the lineage's monitor.
+ */
+public final class Lineage {
+    /** Genome id of "no genome", e.g. the parent of a founder. */
+    public static final int NONE = -1;
+
+    /** Column: parent genome id. */
+    private static final int PARENT = 0;
+
+    /** Column: tick of the first birth. */
+    private static final int TICK = 1;
+
+    /** Column: ordinal of the {@link Mutation}. */
+    private static final int MUTATION = 2;
+
+    /** Column: number of ancestors. */
+    private static final int DEPTH = 3;
+
+    /** Column: living entities, {@link #EXTINCT} once pruned. */
+    private static final int POPULATION = 4;
+
+    /** Column: number of not pruned child genomes. */
+    private static final int CHILDREN = 5;
+
+    /** Column: offset of the commands. */
+    private static final int OFFSET = 6;
+
+    /** Column: number of commands. */
+    private static final int LENGTH = 7;
+
+    /** Number of columns. */
+    private static final int STRIDE = 8;
+
+    /** Population of pruned genomes. */
+    private static final int EXTINCT = -1;
+
+    /** Initial node capacity. */
+    private static final int INITIAL_NODES = 1024;
+
+    /** Smallest store worth compacting. */
+    private static final int MIN_COMPACTION = 1024;
+
+    /** The field whose entities are tracked. */
+    private final Field field;
+
+    /** Genome ids of the living programs. */
+    private final HashMap<Program, Integer> living =
+        new HashMap<Program, Integer>();
+
+    /** Node columns. */
+    private IntBuffer nodes = allocate(INITIAL_NODES * STRIDE).asIntBuffer();
+
+    /** Commands of all nodes, as ordinals. */
+    private ByteBuffer code = allocate(INITIAL_NODES * Byte.SIZE);
+
+    /** Number of nodes, including pruned ones. */
+    private int nodeCount;
+
+    /** Number of pruned nodes. */
+    private int extinctCount;
+
+    /** Number of births recorded. */
+    private long births;
+
+    /**
+     * Create a new Lineage.
+     * 
+     * @param field the field whose entities are tracked
+     */
+    Lineage(final Field field) {
+        this.field = field;
+    }
+
+    /**
+     * Records an entity joining the field.
+     * 
+     * @param e the entity
+     * @param parent the entity that gave birth to it, or <code>null</code> for
+     * founders and immigrants
+     * @param tick current tick
+     */
+    synchronized void add(final Entity e, final Entity parent, final int tick)
+    {
+        final Program program = e.getProgram();
+        int genome;
+
+        if (parent != null && program.getOrigin() == Mutation.NONE) {
+            genome = parent.getGenome();
+        } else {
+            final Integer known = living.get(program);
+
+            if (known != null) {
+                genome = known;
+            } else if (parent == null) {
+                genome = create(NONE, tick, Mutation.NONE, program);
+            } else {
+                genome = create(parent.getGenome(), tick, program.getOrigin(),
+                    program);
+            }
+        }
+
+        if (parent != null) {
+            ++births;
+        }
+
+        if (nodes.get(genome * STRIDE + POPULATION) == 0) {
+            living.put(program, genome);
+        }
+
+        nodes.put(genome * STRIDE + POPULATION,
+            nodes.get(genome * STRIDE + POPULATION) + 1);
+        e.setGenome(genome);
+    }
+
+    /**
+     * Allocates a direct buffer.
+     * 
+     * @param bytes size
+     * @return the buffer
+     */
+    private static ByteBuffer allocate(final int bytes) {
+        return ByteBuffer.allocateDirect(bytes);
+    }
+
+    /**
+     * Forget all genomes and births.
+     */
+    synchronized void clear() {
+        living.clear();
+        nodeCount = 0;
+        extinctCount = 0;
+        births = 0;
+        code.clear();
+    }
+
+    /**
+     * Moves the surviving nodes to the front of the store.
+     */
+    private void compact() {
+        final int[] remap = new int[nodeCount];
+        int count = 0;
+        code.clear();
+
+        for (int i = 0; i < nodeCount; ++i) {
+            final int from = i * STRIDE;
+
+            if (nodes.get(from + POPULATION) == EXTINCT) {
+                remap[i] = NONE;
+                continue;
+            }
+
+            final int to = count * STRIDE;
+            final int parent = nodes.get(from + PARENT);
+            final int offset = nodes.get(from + OFFSET);
+            final int length = nodes.get(from + LENGTH);
+
+            for (int c = 0; c < STRIDE; ++c) {
+                nodes.put(to + c, nodes.get(from + c));
+            }
+
+            /* parents precede their children and outlive them */
+            nodes.put(to + PARENT, parent == NONE ? NONE : remap[parent]);
+            nodes.put(to + OFFSET, code.position());
+
+            for (int c = 0; c < length; ++c) {
+                code.put(code.get(offset + c));
+            }
+
+            remap[i] = count++;
+        }
+
+        nodeCount = count;
+        extinctCount = 0;
+
+        for (final Entity e : field.getEntities()) {
+            if (e.getGenome() != NONE) {
+                e.setGenome(remap[e.getGenome()]);
+            }
+        }
+
+        for (final Map.Entry<Program, Integer> entry : living.entrySet()) {
+            entry.setValue(remap[entry.getValue()]);
+        }
+    }
+
+    /**
+     * Appends a new genome node.
+     * 
+     * @param parent parent genome, or {@link #NONE}
+     * @param tick tick of the birth
+     * @param mutation how the genome derives from the parent's
+     * @param program the genome's commands
+     * @return the new genome's id
+     */
+    private int create(
+        final int parent,
+        final int tick,
+        final Mutation mutation,
+        final Program program)
+    {
+        if ((nodeCount + 1) * STRIDE > nodes.capacity()) {
+            final IntBuffer grown =
+                allocate(nodes.capacity() * 2 * Integer.BYTES).asIntBuffer();
+            nodes.position(0).limit(nodeCount * STRIDE);
+            grown.put(nodes);
+            nodes = grown.clear();
+        }
+
+        if (program.size() > code.remaining()) {
+            final int size = code.position() + program.size();
+            final ByteBuffer grown =
+                allocate(Math.max(code.capacity() * 2, size));
+            code.flip();
+            grown.put(code);
+            code = grown;
+        }
+
+        final int genome = nodeCount++;
+        final int at = genome * STRIDE;
+
+        nodes.put(at + PARENT, parent);
+        nodes.put(at + TICK, tick);
+        nodes.put(at + MUTATION, mutation.ordinal());
+        nodes.put(at + POPULATION, 0);
+        nodes.put(at + CHILDREN, 0);
+        nodes.put(at + OFFSET, code.position());
+        nodes.put(at + LENGTH, program.size());
+
+        if (parent == NONE) {
+            nodes.put(at + DEPTH, 0);
+        } else {
+            nodes.put(at + DEPTH, nodes.get(parent * STRIDE + DEPTH) + 1);
+            nodes.put(parent * STRIDE + CHILDREN,
+                nodes.get(parent * STRIDE + CHILDREN) + 1);
+        }
+
+        for (final Command c : program) {
+            code.put((byte) c.ordinal());
+        }
+
+        return genome;
+    }
+
+    /**
+     * Returns the chain of ancestors of a genome.
+     * 
+     * @param genome the genome
+     * @return the genome, its parent, and so on up to its founder
+     */
+    public synchronized int[] getAncestry(final int genome) {
+        final int[] chain = new int[nodes.get(genome * STRIDE + DEPTH) + 1];
+        int g = genome;
+
+        for (int i = 0; i < chain.length; ++i) {
+            chain[i] = g;
+            g = nodes.get(g * STRIDE + PARENT);
+        }
+
+        return chain;
+    }
+
+    /**
+     * Returns the number of births recorded since the lineage was last
+     * cleared.
+     * 
+     * @return the number of births
+     */
+    public synchronized long getBirths() {
+        return births;
+    }
+
+    /**
+     * Returns the commands of a genome.
+     * 
+     * @param genome the genome
+     * @return the genome's commands
+     */
+    public synchronized Command[] getCommands(final int genome) {
+        final Command[] all = Command.values();
+        final int offset = nodes.get(genome * STRIDE + OFFSET);
+        final Command[] commands =
+            new Command[nodes.get(genome * STRIDE + LENGTH)];
+
+        for (int i = 0; i < commands.length; ++i) {
+            commands[i] = all[code.get(offset + i)];
+        }
+
+        return commands;
+    }
+
+    /**
+     * Returns the most recent common ancestor of some genomes, which may be
+     * one of the genomes itself.
+     * 
+     * @param genomes the genomes, at least one
+     * @return the common ancestor, or {@link #NONE} if they descend from
+     * different founders
+     */
+    public synchronized int getCommonAncestor(final int... genomes) {
+        int ancestor = genomes[0];
+
+        for (int i = 1; i < genomes.length && ancestor != NONE; ++i) {
+            int other = genomes[i];
+
+            while (getDepth(other) > getDepth(ancestor)) {
+                other = getParent(other);
+            }
+
+            while (getDepth(ancestor) > getDepth(other)) {
+                ancestor = getParent(ancestor);
+            }
+
+            while (ancestor != other && ancestor != NONE) {
+                ancestor = getParent(ancestor);
+                other = getParent(other);
+            }
+        }
+
+        return ancestor;
+    }
+
+    /**
+     * Returns the number of ancestors of a genome.
+     * 
+     * @param genome the genome
+     * @return the number of ancestors
+     */
+    public synchronized int getDepth(final int genome) {
+        return nodes.get(genome * STRIDE + DEPTH);
+    }
+
+    /**
+     * Returns the number of genomes that are alive or have living
+     * descendants.
+     * 
+     * @return the number of genomes
+     */
+    public synchronized int getGenomeCount() {
+        return nodeCount - extinctCount;
+    }
+
+    /**
+     * Returns the mutation that created a genome from its parent.
+     * 
+     * @param genome the genome
+     * @return the mutation
+     */
+    public synchronized Mutation getMutation(final int genome) {
+        return Mutation.values()[nodes.get(genome * STRIDE + MUTATION)];
+    }
+
+    /**
+     * Returns the parent of a genome.
+     * 
+     * @param genome the genome
+     * @return the parent genome, or {@link #NONE} for founders
+     */
+    public synchronized int getParent(final int genome) {
+        return nodes.get(genome * STRIDE + PARENT);
+    }
+
+    /**
+     * Returns the number of living entities of a genome.
+     * 
+     * @param genome the genome
+     * @return the population
+     */
+    public synchronized int getPopulation(final int genome) {
+        return Math.max(0, nodes.get(genome * STRIDE + POPULATION));
+    }
+
+    /**
+     * Returns the tick a genome was first born.
+     * 
+     * @param genome the genome
+     * @return the tick
+     */
+    public synchronized int getTick(final int genome) {
+        return nodes.get(genome * STRIDE + TICK);
+    }
+
+    /**
+     * Returns the living genomes with the largest populations.
+     * 
+     * @param count maximum number of genomes to return
+     * @return up to <code>count</code> genomes, largest population first
+     */
+    public synchronized int[] getTopGenomes(final int count) {
+        final int[] top = new int[Math.min(count, living.size())];
+        int size = 0;
+
+        for (final int genome : living.values()) {
+            final int population = getPopulation(genome);
+            int i = size < top.length ? size++ : top.length;
+
+            while (i > 0 && getPopulation(top[i - 1]) < population) {
+                if (i < top.length) {
+                    top[i] = top[i - 1];
+                }
+                --i;
+            }
+
+            if (i < top.length) {
+                top[i] = genome;
+            }
+        }
+
+        return top;
+    }
+
+    /**
+     * Records an entity leaving the field, pruning its genome and ancestors
+     * if they went extinct.
+     * 
+     * @param e the entity
+     */
+    synchronized void remove(final Entity e) {
+        int genome = e.getGenome();
+        final int population = nodes.get(genome * STRIDE + POPULATION) - 1;
+
+        nodes.put(genome * STRIDE + POPULATION, population);
+        if (population > 0) {
+            return;
+        }
+
+        living.remove(e.getProgram());
+
+        while (genome != NONE
+            && nodes.get(genome * STRIDE + POPULATION) == 0
+            && nodes.get(genome * STRIDE + CHILDREN) == 0)
+        {
+            nodes.put(genome * STRIDE + POPULATION, EXTINCT);
+            ++extinctCount;
+
+            genome = nodes.get(genome * STRIDE + PARENT);
+            if (genome != NONE) {
+                nodes.put(genome * STRIDE + CHILDREN,
+                    nodes.get(genome * STRIDE + CHILDREN) - 1);
+            }
+        }
+
+        if (nodeCount >= MIN_COMPACTION && extinctCount * 2 > nodeCount) {
+            compact();
+        }
+    }
+}
@@ -28,29 +28,20 @@
 
 package genetic.data;
 
-import genetic.gui.JFieldPane;
-
 import java.util.Random;
-import java.util.Vector;
-
-import javax.swing.BoundedRangeModel;
-import javax.swing.event.ChangeEvent;
-import javax.swing.event.ChangeListener;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This simulation's parameter.
  * 
- * This class implements {@link BoundedRangeModel} for convenient access through
- * default java swing sliders etc.
- * 
  * @author Tim Wiederhake
  */
-public enum Parameter implements BoundedRangeModel {
+public enum Parameter {
     /** Field width. */
-    FIELD_WIDTH("Field width", 1, 200, 512, false),
+    FIELD_WIDTH("Field width", 1, 200, 32768, false),
 
     /** Field height. */
-    FIELD_HEIGHT("Field height", 1, 200, 512, false),
+    FIELD_HEIGHT("Field height", 1, 200, 32768, false),
 
     /** How much food there is on the field initially, in percent. */
     INITIAL_FOOD("Initial food on the field in percent", 0, 25, 100, false),
@@ -61,21 +52,24 @@ public enum Parameter implements BoundedRangeModel {
     /** How big the start population is. */
     INITIAL_POPULATION("Initial population size", 1, 100, 1000, false),
 
-    /** Scale to display the field. */
-    FIELD_SCALE("Field scale", 1, 4, 20, true),
-
     /**
-     * How wide the grid should be when displayed.
-     * 
-     * @see JFieldPane#paint(java.awt.Graphics)
+     * Scale to display the field, in pixels per cell. Zero stands for an
+     * overview of the whole field.
      */
+    FIELD_SCALE("Field scale, 0: overview", 0, 4, 20, true),
+
+    /** How wide the grid should be when displayed. */
     GRID_GAP("Grid gap width", 0, 1, 3, true),
 
     /** Whether the grid should be rendered. 0 for "disabled" */
     GRID_VISIBILITY("Grid gap visibility", 0, 1, 1, true),
 
-    /** Simulation speed in ticks per second. */
-    SIMULATION_SPEED("Simulation speed in ticks per second", 1, 20, 200, true),
+    /**
+     * Simulation speed in ticks per second. The maximum stands for as fast as
+     * the display allows.
+     */
+    SIMULATION_SPEED("Simulation speed in ticks per second, max: unlimited",
+        1, 20, 200, true),
 
     /** Mutation rate in percent. */
     MUTATION_RATE("Mutation rate in percent", 0, 50, 100, true),
@@ -83,6 +77,15 @@ public enum Parameter implements BoundedRangeModel {
     /** Food regrowth rate in perdeka. */
     REGROWTH_RATE("Regrowth rate in food per 10 ticks", 0, 100, 200, true),
 
+    /** Chance of an empty cell to grow grass per tick, in per mille. */
+    GRASS_GROWTH("Grass growth per cell in per mille", 0, 0, 100, true),
+
+    /** Chance of grass to spread to an empty neighbour per tick, in percent. */
+    GRASS_DIFFUSION("Grass diffusion in percent", 0, 0, 100, true),
+
+    /** Chance of grass to wither per tick, in per mille. */
+    GRASS_DECAY("Grass decay in per mille", 0, 0, 100, true),
+
     /** Health per Food. */
     HEALTH_PER_FOOD("Health per Food", 0, 25, 100, true),
 
@@ -90,12 +93,26 @@ public enum Parameter implements BoundedRangeModel {
     HEALTH_PER_STEP("Health loss per step", 0, 1, 10, true),
 
     /** Which energy level triggers reproduction. */
-    REPRODUCTION_HP("Reproduction health", 1, 100, 200, true);
+    REPRODUCTION_HP("Reproduction health", 1, 100, 200, true),
+
+    /**
+     * Whether the statistics count behaviourally identical programs together.
+     * 0 for "disabled". Last, as replay logs store parameters by ordinal.
+     * 
+     * @see ProgramAnalysis#getCanonicalForm()
+     */
+    GROUP_EQUIVALENT("Group equivalent programs", 0, 0, 1, true);
 
     /** *sigh*. */
     public static final int PERCENT = 100;
 
-    /** Use only this random number generator! */
+    /** *sigh* again. */
+    public static final int PER_MILLE = 1000;
+
+    /**
+     * Use only this random number generator! Each {@link Field} has its own
+     * generator, seeded from this one.
+     */
     private static final Random RANDOM = new Random();
 
     /**
@@ -107,6 +124,38 @@ public enum Parameter implements BoundedRangeModel {
         return RANDOM.nextInt(max);
     }
 
+    /**
+     * Reseeds the random number generator, making all following runs
+     * reproducible.
+     * 
+     * @param seed new seed
+     */
+    public static final void setRandomSeed(final long seed) {
+        RANDOM.setSeed(seed);
+    }
+
+    /**
+     * @see Random#nextLong()
+     * @return see Random nextLong
+     */
+    public static final long getNextRandomLong() {
+        return RANDOM.nextLong();
+    }
+
+    /** Latest copy of all values, replaced on every change. */
+    private static volatile Settings settings = new Settings();
+
+    /**
+     * Returns an immutable copy of all current values. Unlike a series of
+     * {@link #getValue()} calls, the values are consistent with each other,
+     * and a change published later doesn't affect them.
+     * 
+     * @return the current settings
+     */
+    public static final Settings getSettings() {
+        return settings;
+    }
+
     /** Pretty name. */
     private final String title;
 
@@ -117,16 +166,13 @@ public enum Parameter implements BoundedRangeModel {
     private final int maxValue;
 
     /** Current value. */
-    private int value;
-
-    /** Avoid update bursts when dragging a slider. */
-    private boolean valueIsAdjusting;
+    private volatile int value;
 
     /** If this parameter is changable during simulation. */
     private boolean mutable;
 
-    /** ChangeListeners. */
-    private final Vector<ChangeListener> changeListener;
+    /** Listeners to changes of the value. */
+    private final CopyOnWriteArrayList<ParameterListener> listeners;
 
     /**
      * Create a new Parameter.
@@ -149,18 +195,16 @@ public enum Parameter implements BoundedRangeModel {
         this.value = value;
         this.maxValue = maxValue;
         this.mutable = mutable;
-        this.changeListener = new Vector<ChangeListener>();
-    }
-
-    @Override
-    public void addChangeListener(final ChangeListener x) {
-        changeListener.add(x);
+        this.listeners = new CopyOnWriteArrayList<ParameterListener>();
     }
 
-    @Override
-    public int getExtent() {
-        /* ignore */
-        return 0;
+    /**
+     * Register a listener to changes of the value.
+     * 
+     * @param l the listener
+     */
+    public final void addParameterListener(final ParameterListener l) {
+        listeners.add(l);
     }
 
     /**
@@ -168,7 +212,6 @@ public enum Parameter implements BoundedRangeModel {
      * 
      * @return the maximum value
      */
-    @Override
     public final int getMaximum() {
         return maxValue;
     }
@@ -178,7 +221,6 @@ public enum Parameter implements BoundedRangeModel {
      * 
      * @return the minimum value
      */
-    @Override
     public final int getMinimum() {
         return minValue;
     }
@@ -197,16 +239,10 @@ public enum Parameter implements BoundedRangeModel {
      * 
      * @return the current value
      */
-    @Override
     public final int getValue() {
         return value;
     }
 
-    @Override
-    public boolean getValueIsAdjusting() {
-        return valueIsAdjusting;
-    }
-
     /**
      * Returns if this parameter can be changed during simulation.
      * 
@@ -216,53 +252,44 @@ public enum Parameter implements BoundedRangeModel {
         return mutable;
     }
 
-    @Override
-    public void removeChangeListener(final ChangeListener x) {
-        changeListener.remove(x);
-    }
-
-    @Override
-    public void setExtent(final int newExtent) {
-        /* ignore */
-    }
-
-    @Override
-    public void setMaximum(final int newMaximum) {
-        /* ignore */
+    /**
+     * Unregister a listener to changes of the value.
+     * 
+     * @param l the listener
+     */
+    public final void removeParameterListener(final ParameterListener l) {
+        listeners.remove(l);
     }
 
-    @Override
-    public void setMinimum(final int newMinimum) {
-        /* ignore */
-    }
+    /**
+     * Change the value, clamped to the range, and notify all listeners, even
+     * if this parameter is not mutable. Only meant for setting up before the
+     * fields depending on it are created.
+     * 
+     * @param value the new value
+     */
+    public final void setInitialValue(final int value) {
+        synchronized (Parameter.class) {
+            this.value = Math.min(maxValue, Math.max(minValue, value));
+            settings = new Settings();
+        }
 
-    @Override
-    public void setRangeProperties(
-        final int val,
-        final int extent,
-        final int min,
-        final int max,
-        final boolean adjusting)
-    {
-        setValueIsAdjusting(adjusting);
-        setValue(val);
+        for (final ParameterListener l : listeners) {
+            l.parameterChanged(this);
+        }
     }
 
-    @Override
+    /**
+     * Change the value, clamped to the range, and notify all listeners.
+     * Parameters that are not mutable keep their value.
+     * 
+     * @param value the new value
+     */
     public final void setValue(final int value) {
         if (!mutable) {
             return;
         }
 
-        this.value = Math.min(maxValue, Math.max(minValue, value));
-
-        for (final ChangeListener x : changeListener) {
-            x.stateChanged(new ChangeEvent(this));
-        }
-    }
-
-    @Override
-    public void setValueIsAdjusting(final boolean b) {
-        valueIsAdjusting = b;
+        setInitialValue(value);
     }
 }
@@ -30,6 +30,7 @@ package genetic.data;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Vector;
 
 public class Program implements Iterable<Command> {
@@ -39,21 +40,47 @@ public class Program implements Iterable<Command> {
 
     private int current;
 
+    /** The mutation that created this program from its parent's. */
+    private final Mutation origin;
+
+    /** Control flow analysis, shared with identical copies. */
+    private final ProgramAnalysis analysis;
+
     private Program() {
         this(Command.MOVE);
     }
 
     public Program(final Command... commands) {
-        this(new Vector<Command>(Arrays.asList(commands)));
+        this(new Vector<Command>(Arrays.asList(commands)), Mutation.NONE,
+            null);
     }
 
-    private Program(final Vector<Command> commands) {
+    /**
+     * Create a new Program.
+     * 
+     * @param commands the commands, not to be modified afterwards
+     * @param origin the mutation that created the program
+     * @param analysis analysis of the same commands, or <code>null</code>
+     */
+    private Program(
+        final Vector<Command> commands,
+        final Mutation origin,
+        final ProgramAnalysis analysis)
+    {
         this.commands = commands;
         this.current = 0;
+        this.origin = origin;
 
         if (commands.isEmpty()) {
             this.commands.add(Command.SLEEP);
         }
+
+        if (analysis != null) {
+            this.analysis = analysis;
+        } else {
+            this.analysis = new ProgramAnalysis(
+                commands.toArray(new Command[commands.size()]));
+        }
     }
 
     @Override
@@ -73,9 +100,52 @@ public class Program implements Iterable<Command> {
         return commands.equals(((Program) obj).commands);
     }
 
+    /**
+     * Executes the current command and moves on to the next one, using the
+     * precomputed successor table.
+     * 
+     * @param field the entity's field
+     * @param entity the entity running this program
+     */
     public final void execute(final Field field, final Entity entity) {
-        commands.get(current).execute(field, entity);
-        skipCommand();
+        final Command c = analysis.getCommand(current);
+
+        c.act(field, entity);
+
+        if (c.sense(field, entity)) {
+            current = analysis.getTaken(current);
+        } else {
+            current = analysis.getNext(current);
+        }
+    }
+
+    /**
+     * Returns the analysis of this program's control flow.
+     * 
+     * @return the analysis
+     */
+    public final ProgramAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * Returns the index of the next command. Only meant for snapshots and
+     * migration.
+     * 
+     * @return the index of the next command
+     */
+    public final int getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the mutation that created this program from its parent's.
+     * 
+     * @return the mutation, {@link Mutation#NONE} for founders and exact
+     * copies
+     */
+    public final Mutation getOrigin() {
+        return origin;
     }
 
     @Override
@@ -88,38 +158,63 @@ public class Program implements Iterable<Command> {
         return commands.iterator();
     }
 
-    public final Program mutate() {
-        final int mutationRate = Parameter.MUTATION_RATE.getValue();
-        if (Parameter.getNextRandomInt(Parameter.PERCENT) >= mutationRate) {
-            return new Program(commands);
+    /**
+     * Returns a copy of this program for a child, mutated or not.
+     * 
+     * @param random source of randomness
+     * @param mutationRate chance of a mutation in percent
+     * @return the child's program
+     */
+    public final Program mutate(final Random random, final int mutationRate) {
+        if (random.nextInt(Parameter.PERCENT) >= mutationRate) {
+            return new Program(commands, Mutation.NONE, analysis);
         }
 
         /* mutation! */
         final Vector<Command> newCommands = new Vector<Command>(commands);
-        final Command c = Command.getRandom();
+        final Command c = Command.getRandom(random);
         final int length = newCommands.size();
+        final Mutation mutation;
 
-        switch (Parameter.getNextRandomInt(1 + 1 + 1)) {
+        switch (random.nextInt(1 + 1 + 1)) {
             case 0: /* delete random instruction */
-                newCommands.remove(Parameter.getNextRandomInt(length));
+                newCommands.remove(random.nextInt(length));
+                mutation = Mutation.DELETE;
                 break;
 
             case 1: /* insert random instruction */
-                newCommands.add(Parameter.getNextRandomInt(length + 1), c);
+                newCommands.add(random.nextInt(length + 1), c);
+                mutation = Mutation.INSERT;
                 break;
 
             case 2: /* change random instruction */
-                newCommands.set(Parameter.getNextRandomInt(length), c);
+                newCommands.set(random.nextInt(length), c);
+                mutation = Mutation.CHANGE;
                 break;
 
             default:
                 throw new RuntimeException();
         }
 
-        return new Program(newCommands);
+        return new Program(newCommands, mutation, null);
+    }
+
+    /**
+     * Sets the index of the next command. Only meant for snapshots and
+     * migration.
+     * 
+     * @param index index of the next command
+     */
+    public final void setCurrent(final int index) {
+        current = index % commands.size();
     }
 
-    public final void skipCommand() {
-        current = (current + 1) % commands.size();
+    /**
+     * Returns the number of commands.
+     * 
+     * @return the number of commands
+     */
+    public final int size() {
+        return commands.size();
     }
 }
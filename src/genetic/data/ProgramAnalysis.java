@@ -0,0 +1,428 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Static analysis of a {@link Program}'s control flow. Provides the successor
+ * table the interpreter runs on, the commands reachable from the start, the
+ * cycle a program runs through while no condition fires, and a canonical form
+ * that is equal for exactly those programs that behave identically.
+ * 
+ * For the canonical form, a program is seen as a Moore machine: each
+ * reachable command is a state whose output is its action (both moves and
+ * turns, everything else does nothing for a tick) and whose successor depends
+ * on what the entity senses. The minimized machine, numbered in breadth-first
+ * order from the start, is the canonical form. It is computed on first use.
+ * Analyses are shared between identical copies of a program.
+ */
+public final class ProgramAnalysis {
+    /** Number of things an entity can sense: entity, food, wall. */
+    private static final int SENSES = 3;
+
+    /** Number of combinations of senses. */
+    private static final int SYMBOLS = 1 << SENSES;
+
+    /** The commands. */
+    private final Command[] code;
+
+    /** Successor of each command if it does not skip conditionally. */
+    private final int[] next;
+
+    /** Successor of each command if it skips conditionally. */
+    private final int[] taken;
+
+    /** Whether each command can be reached from the start. */
+    private final boolean[] reachable;
+
+    /** Number of reachable commands. */
+    private final int reachableCount;
+
+    /** Whether any reachable command is conditional. */
+    private final boolean blind;
+
+    /** Hash of the commands. */
+    private final long digest;
+
+    /** Canonical form, or <code>null</code> if not computed yet. */
+    private String canonicalForm;
+
+    /** Number of states of the minimized machine. */
+    private int stateCount;
+
+    /**
+     * Analyzes the given commands.
+     * 
+     * @param code the commands, not empty
+     */
+    ProgramAnalysis(final Command[] code) {
+        final int length = code.length;
+
+        this.code = code;
+        this.next = new int[length];
+        this.taken = new int[length];
+        this.reachable = new boolean[length];
+
+        for (int pc = 0; pc < length; ++pc) {
+            next[pc] = (pc + 1 + code[pc].getSkipCount()) % length;
+            taken[pc] = code[pc].isConditional() ? (pc + 2) % length : next[pc];
+        }
+
+        final int[] stack = new int[length];
+        int size = 0;
+        int count = 0;
+        boolean conditional = false;
+
+        stack[size++] = 0;
+        reachable[0] = true;
+
+        while (size > 0) {
+            final int pc = stack[--size];
+
+            ++count;
+            conditional |= code[pc].isConditional();
+
+            if (!reachable[next[pc]]) {
+                reachable[next[pc]] = true;
+                stack[size++] = next[pc];
+            }
+
+            if (!reachable[taken[pc]]) {
+                reachable[taken[pc]] = true;
+                stack[size++] = taken[pc];
+            }
+        }
+
+        long hash = length;
+        for (final Command c : code) {
+            hash = SplitMix.mix(hash + ((c.ordinal() + 1)
+                * SplitMix.GOLDEN_GAMMA));
+        }
+
+        this.reachableCount = count;
+        this.blind = !conditional;
+        this.digest = hash;
+    }
+
+    /**
+     * Returns the canonical form. Two programs behave identically, tick by
+     * tick and in every situation, exactly if their canonical forms are
+     * equal.
+     * 
+     * @return the canonical form
+     */
+    public synchronized String getCanonicalForm() {
+        if (canonicalForm == null) {
+            minimize();
+        }
+
+        return canonicalForm;
+    }
+
+    /**
+     * Returns the command at the given index.
+     * 
+     * @param pc command index
+     * @return the command
+     */
+    Command getCommand(final int pc) {
+        return code[pc];
+    }
+
+    /**
+     * Returns the commands the program runs through forever once it never
+     * senses anything, starting at the first command. For blind programs,
+     * this is all they ever do.
+     * 
+     * @return indices of the commands in the cycle, in execution order
+     */
+    public int[] getCycle() {
+        final int[] seen = new int[code.length];
+        Arrays.fill(seen, -1);
+
+        int pc = 0;
+        int time = 0;
+
+        while (seen[pc] < 0) {
+            seen[pc] = time++;
+            pc = next[pc];
+        }
+
+        final int[] cycle = new int[time - seen[pc]];
+        for (int i = 0; i < cycle.length; ++i) {
+            cycle[i] = pc;
+            pc = next[pc];
+        }
+
+        return cycle;
+    }
+
+    /**
+     * Returns a hash of the commands, which is equal for equal programs and
+     * stable between runs.
+     * 
+     * @return the digest
+     */
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the index of the command following the given one if it does not
+     * skip conditionally.
+     * 
+     * @param pc command index
+     * @return index of the next command
+     */
+    int getNext(final int pc) {
+        return next[pc];
+    }
+
+    /**
+     * Returns the number of commands that can be reached from the start.
+     * 
+     * @return the number of live commands
+     */
+    public int getReachableCount() {
+        return reachableCount;
+    }
+
+    /**
+     * Returns the number of distinguishable states of the program, i.e. the
+     * size of its canonical form.
+     * 
+     * @return the number of states
+     */
+    public synchronized int getStateCount() {
+        if (canonicalForm == null) {
+            minimize();
+        }
+
+        return stateCount;
+    }
+
+    /**
+     * Returns a short human readable summary.
+     * 
+     * @return the summary
+     */
+    public String getSummary() {
+        return String.format("%d of %d commands live, %d states, %s",
+            reachableCount, code.length, getStateCount(),
+            blind ? "blind, cycle of " + getCycle().length : "sensing");
+    }
+
+    /**
+     * Returns the index of the command following the given one if it skips
+     * conditionally.
+     * 
+     * @param pc command index
+     * @return index of the next command
+     */
+    int getTaken(final int pc) {
+        return taken[pc];
+    }
+
+    /**
+     * Returns whether no reachable command senses anything, i.e. whether the
+     * program always does the same.
+     * 
+     * @return whether the program is blind
+     */
+    public boolean isBlind() {
+        return blind;
+    }
+
+    /**
+     * Returns whether a command can ever run when starting at the first one.
+     * 
+     * @param pc command index
+     * @return whether the command is live
+     */
+    public boolean isReachable(final int pc) {
+        return reachable[pc];
+    }
+
+    /**
+     * Computes the minimized machine and the canonical form.
+     */
+    private void minimize() {
+        final int[] states = new int[reachableCount];
+        final int[] stateOf = new int[code.length];
+        int count = 0;
+
+        for (int pc = 0; pc < code.length; ++pc) {
+            if (reachable[pc]) {
+                stateOf[pc] = count;
+                states[count++] = pc;
+            }
+        }
+
+        /* start with blocks of equal output, then refine by successors */
+        int[] block = new int[count];
+        int blocks = 0;
+        final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+        for (int s = 0; s < count; ++s) {
+            block[s] = output(code[states[s]]);
+        }
+
+        while (true) {
+            final int[] refined = new int[count];
+            ids.clear();
+
+            for (int s = 0; s < count; ++s) {
+                final StringBuilder key = new StringBuilder();
+                key.append(block[s]);
+
+                for (int symbol = 0; symbol < SYMBOLS; ++symbol) {
+                    key.append(',').append(
+                        block[stateOf[successor(states[s], symbol)]]);
+                }
+
+                Integer id = ids.get(key.toString());
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key.toString(), id);
+                }
+                refined[s] = id;
+            }
+
+            block = refined;
+            if (ids.size() == blocks) {
+                break;
+            }
+            blocks = ids.size();
+        }
+
+        /* number the blocks breadth-first from the start */
+        final int[] number = new int[blocks];
+        final int[] representative = new int[blocks];
+        final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        int numbered = 0;
+
+        Arrays.fill(number, -1);
+        number[block[0]] = numbered++;
+        representative[block[0]] = states[0];
+        queue.add(block[0]);
+
+        final StringBuilder form = new StringBuilder();
+
+        while (!queue.isEmpty()) {
+            final int pc = representative[queue.poll()];
+
+            for (final int successor : new int[] {next[pc], taken[pc]}) {
+                final int b = block[stateOf[successor]];
+
+                if (number[b] < 0) {
+                    number[b] = numbered++;
+                    representative[b] = successor;
+                    queue.add(b);
+                }
+            }
+
+            final int n = number[block[stateOf[next[pc]]]];
+            final int t = number[block[stateOf[taken[pc]]]];
+
+            form.append(form.length() == 0 ? "" : " ");
+            form.append("DMLRN".charAt(output(code[pc])));
+
+            if (n == t) {
+                form.append('>').append(n);
+            } else {
+                form.append("efw".charAt(sense(code[pc]))).append('?');
+                form.append(t).append(':').append(n);
+            }
+        }
+
+        stateCount = numbered;
+        canonicalForm = form.toString();
+    }
+
+    /**
+     * Returns the output class of a command: its action, if any.
+     * 
+     * @param c the command
+     * @return 0 to 3 for double move, move, left and right, 4 for none
+     */
+    private static int output(final Command c) {
+        switch (c) {
+            case DOUBLEMOVE:
+                return 0;
+            case MOVE:
+                return 1;
+            case LEFT:
+                return 2;
+            case RIGHT:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Returns which sense a conditional command checks.
+     * 
+     * @param c the command
+     * @return 0 for entities, 1 for food, 2 for walls, -1 for unconditional
+     * commands
+     */
+    private static int sense(final Command c) {
+        switch (c) {
+            case IFENTITY:
+                return 0;
+            case IFFOOD:
+                return 1;
+            case IFWALL:
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the successor of a command for a combination of senses.
+     * 
+     * @param pc command index
+     * @param symbol one bit per sense, see {@link #sense(Command)}
+     * @return the index of the next command
+     */
+    private int successor(final int pc, final int symbol) {
+        final int s = sense(code[pc]);
+
+        if (s >= 0 && ((symbol >> s) & 1) != 0) {
+            return taken[pc];
+        }
+
+        return next[pc];
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.Random;
+
+/**
+ * A {@link Random} whose complete state can be read and restored, so that a
+ * simulation can be resumed from a snapshot bit for bit. It uses the same
+ * linear congruential generator as {@link Random} and therefore produces the
+ * same sequence for the same seed, but is not thread-safe.
+ */
+public final class Rng extends Random {
+    /** Not meant to be serialized. */
+    private static final long serialVersionUID = 1L;
+
+    /** Multiplier of the generator, see {@link Random}. */
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+
+    /** Addend of the generator, see {@link Random}. */
+    private static final long ADDEND = 0xBL;
+
+    /** The generator works on 48 bits. */
+    private static final long MASK = (1L << 48) - 1;
+
+    /** Current state. Initialized by {@link #setSeed(long)}. */
+    private long state;
+
+    /**
+     * Create a new Rng.
+     * 
+     * @param seed initial seed, see {@link Random#Random(long)}
+     */
+    public Rng(final long seed) {
+        super(seed);
+    }
+
+    /**
+     * Returns the complete internal state.
+     * 
+     * @return the state
+     */
+    public long getState() {
+        return state;
+    }
+
+    @Override
+    protected int next(final int bits) {
+        state = ((state * MULTIPLIER) + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    @Override
+    public void setSeed(final long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * Restores a state returned by {@link #getState()}.
+     * 
+     * @param newState the state
+     */
+    public void setState(final long newState) {
+        state = newState & MASK;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * Steps every entity in turn, optionally letting a {@link FastForward} skip
+ * the isolated ones.
+ */
+final class SequentialTick implements Stepper {
+    /** The field. */
+    private final Field field;
+
+    /** Fast-forwarding of isolated entities, or <code>null</code>. */
+    private final FastForward fastForward;
+
+    /**
+     * Create a new SequentialTick.
+     * 
+     * @param field the field to tick
+     * @param fastForward fast-forwarding of the field's entities, or
+     * <code>null</code> to step every entity
+     */
+    SequentialTick(final Field field, final FastForward fastForward) {
+        this.field = field;
+        this.fastForward = fastForward;
+    }
+
+    @Override
+    public void catchUp() {
+        if (fastForward != null) {
+            fastForward.catchUp();
+        }
+    }
+
+    @Override
+    public void cellChanged(final int x, final int y) {
+        if (fastForward != null) {
+            fastForward.invalidate(x, y);
+        }
+    }
+
+    @Override
+    public void cleared() {
+        if (fastForward != null) {
+            fastForward.clear();
+        }
+    }
+
+    @Override
+    public void entityAdded(final Entity e) {
+        if (fastForward != null) {
+            fastForward.join(e.getPosition());
+        }
+    }
+
+    @Override
+    public void entityLeaving(final Entity e) {
+        if (fastForward != null) {
+            fastForward.leave(e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (fastForward != null) {
+            fastForward.finish();
+        }
+    }
+
+    @Override
+    public void tick(final int step) {
+        if (fastForward != null) {
+            fastForward.begin(step);
+        }
+
+        final int reproduction = field.getSettings().getReproductionHealth();
+
+        for (final Entity e : field.getEntities()) {
+            if (fastForward != null && fastForward.skip(e, step)) {
+                continue;
+            }
+
+            e.step(field);
+            if (e.getHealth() <= 0) {
+                field.removeEntity(e);
+            } else if (e.getHealth() > reproduction) {
+                field.addEntity(e.replicate(field), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * An immutable copy of the simulation's {@link Parameter} values. A new
+ * copy is published through a volatile reference whenever a parameter
+ * changes, see {@link Parameter#getSettings()}. A {@link Field} takes the
+ * current copy at the start of each tick and uses only that until the tick
+ * is over, so a change made in between applies entirely, from the next tick
+ * on.
+ * 
+ * A Settings may also be made from logged values and handed to a field
+ * directly, see {@link Field#setSettings(Settings)}.
+ */
+public final class Settings {
+    /** All values, by ordinal. */
+    private final int[] values;
+
+    /** See {@link Parameter#INITIAL_FOOD}. */
+    private final int initialFood;
+
+    /** See {@link Parameter#INITIAL_WALL}. */
+    private final int initialWall;
+
+    /** See {@link Parameter#INITIAL_POPULATION}. */
+    private final int initialPopulation;
+
+    /** See {@link Parameter#MUTATION_RATE}. */
+    private final int mutationRate;
+
+    /** See {@link Parameter#REGROWTH_RATE}. */
+    private final int regrowthRate;
+
+    /** See {@link Parameter#GRASS_GROWTH}. */
+    private final int grassGrowth;
+
+    /** See {@link Parameter#GRASS_DIFFUSION}. */
+    private final int grassDiffusion;
+
+    /** See {@link Parameter#GRASS_DECAY}. */
+    private final int grassDecay;
+
+    /** See {@link Parameter#HEALTH_PER_FOOD}. */
+    private final int healthPerFood;
+
+    /** See {@link Parameter#HEALTH_PER_STEP}. */
+    private final int healthPerStep;
+
+    /** See {@link Parameter#REPRODUCTION_HP}. */
+    private final int reproductionHealth;
+
+    /**
+     * Create a new Settings from the current parameter values. Only meant for
+     * {@link Parameter}.
+     */
+    Settings() {
+        this(currentValues());
+    }
+
+    /**
+     * Create a new Settings from the given values.
+     * 
+     * @param values the value of every {@link Parameter}, by ordinal
+     * @throws IllegalArgumentException if not every parameter has a value
+     */
+    public Settings(final int[] values) {
+        if (values.length != Parameter.values().length) {
+            throw new IllegalArgumentException("Expected "
+                + Parameter.values().length + " values, got "
+                + values.length);
+        }
+
+        this.values = values.clone();
+        this.initialFood = values[Parameter.INITIAL_FOOD.ordinal()];
+        this.initialWall = values[Parameter.INITIAL_WALL.ordinal()];
+        this.initialPopulation =
+            values[Parameter.INITIAL_POPULATION.ordinal()];
+        this.mutationRate = values[Parameter.MUTATION_RATE.ordinal()];
+        this.regrowthRate = values[Parameter.REGROWTH_RATE.ordinal()];
+        this.grassGrowth = values[Parameter.GRASS_GROWTH.ordinal()];
+        this.grassDiffusion = values[Parameter.GRASS_DIFFUSION.ordinal()];
+        this.grassDecay = values[Parameter.GRASS_DECAY.ordinal()];
+        this.healthPerFood = values[Parameter.HEALTH_PER_FOOD.ordinal()];
+        this.healthPerStep = values[Parameter.HEALTH_PER_STEP.ordinal()];
+        this.reproductionHealth = values[Parameter.REPRODUCTION_HP.ordinal()];
+    }
+
+    /**
+     * Returns the current value of every parameter.
+     * 
+     * @return the values, by ordinal
+     */
+    private static int[] currentValues() {
+        final Parameter[] parameters = Parameter.values();
+        final int[] current = new int[parameters.length];
+
+        for (int i = 0; i < parameters.length; ++i) {
+            current[i] = parameters[i].getValue();
+        }
+
+        return current;
+    }
+
+    /**
+     * Returns the grass decay in per mille.
+     * 
+     * @return the grass decay
+     */
+    public int getGrassDecay() {
+        return grassDecay;
+    }
+
+    /**
+     * Returns the grass diffusion in percent.
+     * 
+     * @return the grass diffusion
+     */
+    public int getGrassDiffusion() {
+        return grassDiffusion;
+    }
+
+    /**
+     * Returns the grass growth in per mille.
+     * 
+     * @return the grass growth
+     */
+    public int getGrassGrowth() {
+        return grassGrowth;
+    }
+
+    /**
+     * Returns the health per food.
+     * 
+     * @return the health per food
+     */
+    public int getHealthPerFood() {
+        return healthPerFood;
+    }
+
+    /**
+     * Returns the health loss per step.
+     * 
+     * @return the health loss per step
+     */
+    public int getHealthPerStep() {
+        return healthPerStep;
+    }
+
+    /**
+     * Returns the initial food in percent.
+     * 
+     * @return the initial food
+     */
+    public int getInitialFood() {
+        return initialFood;
+    }
+
+    /**
+     * Returns the initial population size.
+     * 
+     * @return the initial population size
+     */
+    public int getInitialPopulation() {
+        return initialPopulation;
+    }
+
+    /**
+     * Returns the initial walls in percent.
+     * 
+     * @return the initial walls
+     */
+    public int getInitialWall() {
+        return initialWall;
+    }
+
+    /**
+     * Returns the mutation rate in percent.
+     * 
+     * @return the mutation rate
+     */
+    public int getMutationRate() {
+        return mutationRate;
+    }
+
+    /**
+     * Returns the regrowth rate in food per 10 ticks.
+     * 
+     * @return the regrowth rate
+     */
+    public int getRegrowthRate() {
+        return regrowthRate;
+    }
+
+    /**
+     * Returns the value of any parameter.
+     * 
+     * @param p the parameter
+     * @return its value
+     */
+    public int getValue(final Parameter p) {
+        return values[p.ordinal()];
+    }
+
+    /**
+     * Returns the health that triggers reproduction.
+     * 
+     * @return the reproduction health
+     */
+    public int getReproductionHealth() {
+        return reproductionHealth;
+    }
+}
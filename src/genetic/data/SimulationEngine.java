@@ -0,0 +1,65 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * A way of moving the entities of a {@link Field} from one tick to the
+ * next. Everything else about a tick, i.e. grass regrowth and dynamics,
+ * the step counter and notifying listeners, stays with the field, so all
+ * engines share the world model the gui, statistics and snapshots read.
+ * 
+ * Engines are found with {@link java.util.ServiceLoader} and selected by
+ * name, see {@link Engines}. The {@link ReferenceEngine} defines the
+ * semantics; other engines must produce the same results given the same
+ * field, or document how they differ.
+ */
+public interface SimulationEngine {
+    /**
+     * Start moving the entities of a field. Called between two ticks.
+     * 
+     * @param field the field
+     * @param threads number of threads the engine may use, at least 1
+     * @return the engine's state for this field
+     */
+    Stepper create(Field field, int threads);
+
+    /**
+     * Returns a one-line description, for the command line help.
+     * 
+     * @return the description
+     */
+    String getDescription();
+
+    /**
+     * Returns the name the engine is selected by.
+     * 
+     * @return the name
+     */
+    String getName();
+}
@@ -0,0 +1,72 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * The SplitMix64 finalizer, which turns consecutive numbers into unrelated
+ * ones. Used to derive seeds and to hash cells and states into digests.
+ */
+final class SplitMix {
+    /** Golden ratio increment of SplitMix64. */
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** First multiplier of the finalizer. */
+    private static final long MIX1 = 0xBF58476D1CE4E5B9L;
+
+    /** Second multiplier of the finalizer. */
+    private static final long MIX2 = 0x94D049BB133111EBL;
+
+    /** First shift of the finalizer. */
+    private static final int SHIFT1 = 30;
+
+    /** Second shift of the finalizer. */
+    private static final int SHIFT2 = 27;
+
+    /** Third shift of the finalizer. */
+    private static final int SHIFT3 = 31;
+
+    /**
+     * Utility class.
+     */
+    private SplitMix() {
+    }
+
+    /**
+     * Mixes the bits of a number.
+     * 
+     * @param z input
+     * @return mixed value
+     */
+    static long mix(final long z) {
+        long x = z;
+        x = (x ^ (x >>> SHIFT1)) * MIX1;
+        x = (x ^ (x >>> SHIFT2)) * MIX2;
+        return x ^ (x >>> SHIFT3);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+/**
+ * The state of a {@link SimulationEngine} moving the entities of one
+ * {@link Field}. All methods are called on the simulation thread. Besides
+ * {@link #tick(int)}, the field reports every change made outside of it,
+ * for engines that keep their own view of the world.
+ */
+public interface Stepper {
+    /**
+     * Bring every entity's position, heading, energy and program up to
+     * date, for engines that compute them lazily.
+     */
+    void catchUp();
+
+    /**
+     * Grass or wall appeared on a cell outside of {@link #tick(int)}.
+     * 
+     * @param x x coordinate
+     * @param y y coordinate
+     */
+    void cellChanged(int x, int y);
+
+    /**
+     * All grass, walls and entities were removed.
+     */
+    void cleared();
+
+    /**
+     * An entity was added, by birth, migration or reset.
+     * 
+     * @param e the new entity
+     */
+    void entityAdded(Entity e);
+
+    /**
+     * An entity is about to be removed, by death or migration.
+     * 
+     * @param e the entity
+     */
+    void entityLeaving(Entity e);
+
+    /**
+     * The field switches to another engine. Brings every entity up to date
+     * and releases all resources.
+     */
+    void shutdown();
+
+    /**
+     * Move all entities by one tick, including their deaths and births.
+     * Called after grass regrowth and dynamics.
+     * 
+     * @param step the tick
+     */
+    void tick(int step);
+}
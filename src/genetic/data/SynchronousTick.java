@@ -0,0 +1,349 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The synchronous tick mode, see {@link SynchronousEngine}. A tick
+ * has two phases:
+ * 
+ * <ol>
+ * <li>Intents: every entity runs its current command against the state of the
+ * previous tick, which nobody modifies in this phase, and records where it
+ * ends up, its heading, its next command and which cells it tries to eat
+ * from. Entities are split into chunks which are planned in parallel.</li>
+ * <li>Resolution: the intents are applied in entity order. Where several
+ * entities try to eat the same grass, the first one in entity order gets
+ * it. Energy, deaths and births follow as in the sequential mode.</li>
+ * </ol>
+ * 
+ * Since the first phase only reads and the second one runs in a fixed order,
+ * the result does not depend on the number of threads.
+ */
+final class SynchronousTick implements Stepper {
+    /** Smallest number of entities worth a thread of their own. */
+    private static final int MIN_CHUNK = 256;
+
+    /** Cells an entity tries to eat from per tick: at most two moves. */
+    private static final int EATS = 2;
+
+    /** The field. */
+    private final Field field;
+
+    /** Number of threads planning intents. */
+    private final int threads;
+
+    /** Planning threads, or <code>null</code> when planning inline. */
+    private final ExecutorService pool;
+
+    /** Entities of the current tick. */
+    private Entity[] batch = new Entity[0];
+
+    /** Intended x coordinates. */
+    private int[] xs = new int[0];
+
+    /** Intended y coordinates. */
+    private int[] ys = new int[0];
+
+    /** Intended headings. */
+    private Direction[] directions = new Direction[0];
+
+    /** Intended next commands. */
+    private int[] pcs = new int[0];
+
+    /** Cells to eat from, as <code>y * width + x</code>, or -1. */
+    private int[] eats = new int[0];
+
+    /**
+     * Create a new SynchronousTick.
+     * 
+     * @param field the field to tick
+     * @param threads number of threads planning intents, at least 1
+     */
+    SynchronousTick(final Field field, final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Illegal thread count: "
+                + threads);
+        }
+
+        this.field = field;
+        this.threads = threads;
+
+        if (threads == 1) {
+            this.pool = null;
+        } else {
+            this.pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "intents");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+    }
+
+    @Override
+    public void catchUp() {
+        /* always up to date */
+    }
+
+    @Override
+    public void cellChanged(final int x, final int y) {
+        /* nothing cached */
+    }
+
+    @Override
+    public void cleared() {
+        /* nothing cached */
+    }
+
+    @Override
+    public void entityAdded(final Entity e) {
+        /* nothing cached */
+    }
+
+    @Override
+    public void entityLeaving(final Entity e) {
+        /* nothing cached */
+    }
+
+    @Override
+    public void tick(final int step) {
+        batch = field.getEntities().toArray(batch);
+        int count = 0;
+        while (count < batch.length && batch[count] != null) {
+            ++count;
+        }
+
+        if (xs.length < count) {
+            final int size = Math.max(count, xs.length * 2);
+            xs = new int[size];
+            ys = new int[size];
+            directions = new Direction[size];
+            pcs = new int[size];
+            eats = new int[size * EATS];
+        }
+
+        plan(count);
+        resolve(count);
+    }
+
+    /**
+     * Records the intents of some entities.
+     * 
+     * @param from index of the first entity
+     * @param to index after the last entity
+     */
+    private void intend(final int from, final int to) {
+        final BitGrid grass = field.getGrass();
+        final BitGrid wall = field.getWall();
+        final CountGrid occupancy = field.getOccupancy();
+        final int width = grass.getWidth();
+        final int height = grass.getHeight();
+
+        for (int i = from; i < to; ++i) {
+            final Entity e = batch[i];
+            final Program program = e.getProgram();
+            final ProgramAnalysis analysis = program.getAnalysis();
+            final int pc = program.getCurrent();
+            final Command c = analysis.getCommand(pc);
+            Direction direction = e.getDirection();
+            int x = e.getPosition().x;
+            int y = e.getPosition().y;
+            int moves = 0;
+            int eaten = 0;
+            boolean sensed = false;
+
+            switch (c) {
+                case DOUBLEMOVE:
+                    moves = 2;
+                    break;
+                case MOVE:
+                    moves = 1;
+                    break;
+                case LEFT:
+                    direction = Direction.left(direction);
+                    break;
+                case RIGHT:
+                    direction = Direction.right(direction);
+                    break;
+                default:
+                    break;
+            }
+
+            for (int m = 0; m < moves; ++m) {
+                final int tx = Math.floorMod(x + direction.getX(), width);
+                final int ty = Math.floorMod(y + direction.getY(), height);
+
+                if (wall.get(tx, ty)) {
+                    break;
+                }
+
+                x = tx;
+                y = ty;
+                eats[(i * EATS) + eaten++] = (y * width) + x;
+            }
+
+            if (eaten == 0) {
+                eats[(i * EATS) + eaten++] = (y * width) + x;
+            }
+            while (eaten < EATS) {
+                eats[(i * EATS) + eaten++] = -1;
+            }
+
+            if (c.isConditional()) {
+                final int tx = Math.floorMod(x + direction.getX(), width);
+                final int ty = Math.floorMod(y + direction.getY(), height);
+
+                switch (c) {
+                    case IFENTITY:
+                        sensed = occupancy.get(tx, ty) > 0;
+                        break;
+                    case IFFOOD:
+                        sensed = grass.get(tx, ty);
+                        break;
+                    default:
+                        sensed = wall.get(tx, ty);
+                        break;
+                }
+            }
+
+            xs[i] = x;
+            ys[i] = y;
+            directions[i] = direction;
+            pcs[i] = sensed ? analysis.getTaken(pc) : analysis.getNext(pc);
+        }
+    }
+
+    /**
+     * Records the intents of all entities, in parallel if worthwhile.
+     * 
+     * @param count number of entities
+     */
+    private void plan(final int count) {
+        final int chunks = Math.min(threads, count / MIN_CHUNK);
+
+        if (pool == null || chunks <= 1) {
+            intend(0, count);
+            return;
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (int i = 0; i < chunks; ++i) {
+            final int from = (int) ((long) count * i / chunks);
+            final int to = (int) ((long) count * (i + 1) / chunks);
+
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    intend(from, to);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (final Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while planning", e);
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Planning failed", e.getCause());
+        }
+    }
+
+    /**
+     * Applies the intents in entity order.
+     * 
+     * @param count number of entities
+     */
+    private void resolve(final int count) {
+        final BitGrid grass = field.getGrass();
+        final int width = grass.getWidth();
+        final Settings settings = field.getSettings();
+        final int healthPerFood = settings.getHealthPerFood();
+        final int healthPerStep = settings.getHealthPerStep();
+        final int reproduction = settings.getReproductionHealth();
+
+        for (int i = 0; i < count; ++i) {
+            final Entity e = batch[i];
+            int health = e.getHealth();
+
+            for (int k = 0; k < EATS; ++k) {
+                final int cell = eats[(i * EATS) + k];
+
+                if (cell >= 0 && grass.clear(cell % width, cell / width)) {
+                    health += healthPerFood;
+                }
+            }
+            health -= healthPerStep;
+
+            final Point from = e.getPosition();
+            Point to = from;
+            if (from.x != xs[i] || from.y != ys[i]) {
+                to = new Point(xs[i], ys[i]);
+                field.moveOccupant(from, to);
+            }
+
+            e.restore(to, directions[i], health);
+            e.getProgram().setCurrent(pcs[i]);
+
+            if (health <= 0) {
+                field.removeEntity(e);
+            } else if (health > reproduction) {
+                field.addEntity(e.replicate(field), e);
+            }
+
+            batch[i] = null;
+        }
+    }
+
+    /**
+     * Stops the planning threads.
+     */
+    @Override
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+}
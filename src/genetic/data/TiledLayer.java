@@ -0,0 +1,293 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.Arrays;
+
+/**
+ * A toroidal layer of per-cell data, split into square tiles of
+ * {@link #TILE_SIZE} cells. Tiles are allocated lazily when they receive
+ * their first non-empty cell and released as soon as they become empty
+ * again, so memory scales with the populated area rather than with the size
+ * of the field. Tile data lives in a {@link WordStore}, either on or off the
+ * Java heap.
+ * 
+ * Every change of a cell also changes the version of its tile, so derived
+ * summaries such as a {@link DensityPyramid} only need to look again at the
+ * tiles whose version moved since they last did.
+ */
+public abstract class TiledLayer {
+    /** Width and height of a tile in cells. */
+    public static final int TILE_SIZE = Long.SIZE;
+
+    /** log2 of {@link #TILE_SIZE}. */
+    protected static final int TILE_SHIFT = 6;
+
+    /** Width in cells. */
+    private final int width;
+
+    /** Height in cells. */
+    private final int height;
+
+    /** Number of tiles per row. */
+    private final int tilesPerRow;
+
+    /** Number of tile rows. */
+    private final int tileRows;
+
+    /** Tile data. */
+    protected final WordStore store;
+
+    /** Slot of each tile in {@link #store}, or -1 if the tile is empty. */
+    protected final int[] slots;
+
+    /** Number of non-empty cells (or occupants) per tile. */
+    protected final int[] counts;
+
+    /** Version of each tile, changed with every change of one of its cells. */
+    protected final int[] versions;
+
+    /** Indices of all allocated tiles, in no particular order. */
+    private final int[] active;
+
+    /** Position of each tile in {@link #active}, or -1. */
+    private final int[] activePosition;
+
+    /** Number of allocated tiles. */
+    private int activeCount;
+
+    /**
+     * Create a new, empty TiledLayer.
+     * 
+     * @param width width in cells, must be positive
+     * @param height height in cells, must be positive
+     * @param wordsPerTile number of words per tile, must be a power of two
+     * @param offHeap whether to keep the tile data outside of the Java heap
+     */
+    protected TiledLayer(
+        final int width,
+        final int height,
+        final int wordsPerTile,
+        final boolean offHeap)
+    {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Illegal grid size: "
+                + width + "x" + height);
+        }
+
+        this.width = width;
+        this.height = height;
+        this.tilesPerRow = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.store = WordStore.create(wordsPerTile, offHeap);
+
+        final int tileCount = tilesPerRow * tileRows;
+        this.slots = new int[tileCount];
+        this.counts = new int[tileCount];
+        this.versions = new int[tileCount];
+        this.active = new int[tileCount];
+        this.activePosition = new int[tileCount];
+        Arrays.fill(slots, -1);
+        Arrays.fill(activePosition, -1);
+    }
+
+    /**
+     * Returns the index of an allocated tile.
+     * 
+     * @param i position, from 0 to {@link #getActiveTileCount()} exclusive
+     * @return tile index, see {@link #getTileX(int)} and {@link #getTileY(int)}
+     */
+    public final int getActiveTile(final int i) {
+        return active[i];
+    }
+
+    /**
+     * Returns the number of allocated tiles.
+     * 
+     * @return the number of allocated tiles
+     */
+    public final int getActiveTileCount() {
+        return activeCount;
+    }
+
+    /**
+     * Returns the height.
+     * 
+     * @return the height in cells
+     */
+    public final int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of non-empty cells (or occupants) in a tile.
+     * 
+     * @param tile tile index
+     * @return the number of non-empty cells
+     */
+    public final int getTileCount(final int tile) {
+        return counts[tile];
+    }
+
+    /**
+     * Returns the tile index of the tile containing the given cell.
+     * 
+     * @param x column, must be inside the layer
+     * @param y row, must be inside the layer
+     * @return tile index
+     */
+    public final int getTileOf(final int x, final int y) {
+        return tileIndex(x >>> TILE_SHIFT, y >>> TILE_SHIFT);
+    }
+
+    /**
+     * Returns the number of tile rows.
+     * 
+     * @return the number of tile rows
+     */
+    public final int getTileRows() {
+        return tileRows;
+    }
+
+    /**
+     * Returns the version of a tile. It changes whenever a cell of the tile
+     * changes, so equal versions mean equal content.
+     * 
+     * @param tile tile index
+     * @return the version
+     */
+    public final int getTileVersion(final int tile) {
+        return versions[tile];
+    }
+
+    /**
+     * Returns the number of tiles per row.
+     * 
+     * @return the number of tiles per row
+     */
+    public final int getTilesPerRow() {
+        return tilesPerRow;
+    }
+
+    /**
+     * Returns the tile column of a tile index.
+     * 
+     * @param tile tile index
+     * @return tile column; the tile's first cell column is this times
+     * {@link #TILE_SIZE}
+     */
+    public final int getTileX(final int tile) {
+        return tile % tilesPerRow;
+    }
+
+    /**
+     * Returns the tile row of a tile index.
+     * 
+     * @param tile tile index
+     * @return tile row; the tile's first cell row is this times
+     * {@link #TILE_SIZE}
+     */
+    public final int getTileY(final int tile) {
+        return tile / tilesPerRow;
+    }
+
+    /**
+     * Returns the width.
+     * 
+     * @return the width in cells
+     */
+    public final int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns whether the tile data is kept outside of the Java heap.
+     * 
+     * @return whether this layer is off-heap
+     */
+    public final boolean isOffHeap() {
+        return store.isOffHeap();
+    }
+
+    /**
+     * Allocate an empty tile.
+     * 
+     * @param tile tile index
+     * @return slot of the new tile in {@link #store}
+     */
+    protected final int allocate(final int tile) {
+        final int slot = store.allocate();
+        slots[tile] = slot;
+        activePosition[tile] = activeCount;
+        active[activeCount++] = tile;
+        return slot;
+    }
+
+    /**
+     * Release a tile. Its count must already be zero.
+     * 
+     * @param tile tile index
+     */
+    protected final void release(final int tile) {
+        final int position = activePosition[tile];
+        final int moved = active[--activeCount];
+        active[position] = moved;
+        activePosition[moved] = position;
+        activePosition[tile] = -1;
+        store.free(slots[tile]);
+        slots[tile] = -1;
+    }
+
+    /**
+     * Release all tiles.
+     */
+    protected final void releaseAll() {
+        for (int i = 0; i < activeCount; ++i) {
+            final int tile = active[i];
+            counts[tile] = 0;
+            versions[tile] += 1;
+            slots[tile] = -1;
+            activePosition[tile] = -1;
+        }
+
+        activeCount = 0;
+        store.clear();
+    }
+
+    /**
+     * Index of a tile.
+     * 
+     * @param tx tile column
+     * @param ty tile row
+     * @return tile index
+     */
+    protected final int tileIndex(final int tx, final int ty) {
+        return (ty * tilesPerRow) + tx;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for fixed-size slots of words, used by {@link TiledLayer} to hold
+ * its tiles. Slots live in segments which are allocated on demand and never
+ * moved, so growing the store never copies existing data. The lowest freed
+ * slot is reused before new ones get handed out, which keeps the used slots
+ * together at the start. Segments at the end that hold no used slot any
+ * more are released, except for one kept against allocating and releasing
+ * the same segment over and over, and {@link #clear()} releases them all.
+ * Since slots never move, a single used slot keeps its segment, so a store
+ * whose use shrank but stayed scattered over its segments doesn't give the
+ * memory back until it is cleared.
+ * 
+ * There are two backends: one keeps segments as <code>long[]</code> on the
+ * heap, the other as direct buffers outside of it. Off-heap segments are
+ * invisible to the garbage collector, which keeps the heap small and pauses
+ * flat for very large fields. All accessors of the off-heap backend are
+ * bounds checked by the buffers themselves.
+ */
+abstract class WordStore {
+    /** Target size of a segment, as log2 of the number of words. */
+    private static final int SEGMENT_WORDS_SHIFT = 15;
+
+    /** Number of words per slot. */
+    protected final int slotSize;
+
+    /** log2 of the number of slots per segment. */
+    protected final int segmentShift;
+
+    /** Slot index mask inside a segment. */
+    protected final int segmentMask;
+
+    /** Slots below {@link #slotCount} that are free, one bit each. */
+    private long[] freeSlots;
+
+    /** Lowest word of {@link #freeSlots} that may have a bit set. */
+    private int firstFree;
+
+    /** Number of bits set in {@link #freeSlots}. */
+    private int freeCount;
+
+    /** Number of slots handed out at least once since the last clear. */
+    private int slotCount;
+
+    /** Number of allocated segments. */
+    private int segmentCount;
+
+    /** Number of used slots per segment. */
+    private int[] used;
+
+    /**
+     * Create a new WordStore.
+     * 
+     * @param slotSize number of words per slot, must be a power of two
+     */
+    protected WordStore(final int slotSize) {
+        final int slotShift = Integer.numberOfTrailingZeros(slotSize);
+
+        this.slotSize = slotSize;
+        this.segmentShift = Math.max(0, SEGMENT_WORDS_SHIFT - slotShift);
+        this.segmentMask = (1 << segmentShift) - 1;
+        this.freeSlots = new long[0];
+        this.used = new int[0];
+    }
+
+    /**
+     * Create a new WordStore.
+     * 
+     * @param slotSize number of words per slot, must be a power of two
+     * @param offHeap whether to keep the data outside of the Java heap
+     * @return the new store
+     */
+    static WordStore create(final int slotSize, final boolean offHeap) {
+        if (offHeap) {
+            return new OffHeap(slotSize);
+        } else {
+            return new Heap(slotSize);
+        }
+    }
+
+    /**
+     * Hand out an all-zero slot.
+     * 
+     * @return slot number
+     */
+    final int allocate() {
+        final int slot;
+
+        if (freeCount > 0) {
+            while (freeSlots[firstFree] == 0) {
+                ++firstFree;
+            }
+
+            slot = (firstFree * Long.SIZE)
+                + Long.numberOfTrailingZeros(freeSlots[firstFree]);
+            freeSlots[firstFree] &= freeSlots[firstFree] - 1;
+            --freeCount;
+        } else {
+            slot = slotCount++;
+            if ((slot >>> segmentShift) >= segmentCount) {
+                if (segmentCount == used.length) {
+                    used = Arrays.copyOf(used, Math.max(16, used.length * 2));
+                }
+                addSegment(segmentCount++);
+            }
+
+            if (slotCount > freeSlots.length * Long.SIZE) {
+                freeSlots = Arrays.copyOf(freeSlots,
+                    Math.max(16, freeSlots.length * 2));
+            }
+        }
+
+        ++used[slot >>> segmentShift];
+
+        for (int i = 0; i < slotSize; ++i) {
+            set(slot, i, 0L);
+        }
+
+        return slot;
+    }
+
+    /**
+     * Forget all slots and release all segments.
+     */
+    final void clear() {
+        while (segmentCount > 0) {
+            removeSegment(--segmentCount);
+        }
+
+        Arrays.fill(freeSlots, 0L);
+        Arrays.fill(used, 0);
+        firstFree = 0;
+        freeCount = 0;
+        slotCount = 0;
+    }
+
+    /**
+     * Return a slot to the store, and release the segments at the end that
+     * became empty.
+     * 
+     * @param slot slot number
+     */
+    final void free(final int slot) {
+        freeSlots[slot / Long.SIZE] |= 1L << slot;
+        firstFree = Math.min(firstFree, slot / Long.SIZE);
+        ++freeCount;
+        --used[slot >>> segmentShift];
+
+        while (segmentCount > 1 && used[segmentCount - 1] == 0
+            && used[segmentCount - 2] == 0)
+        {
+            final int first = --segmentCount << segmentShift;
+
+            for (int s = first; s < slotCount; ++s) {
+                freeSlots[s / Long.SIZE] &= ~(1L << s);
+                --freeCount;
+            }
+
+            slotCount = first;
+            removeSegment(segmentCount);
+        }
+    }
+
+    /**
+     * Returns whether this store keeps its data outside of the Java heap.
+     * 
+     * @return whether this store is off-heap
+     */
+    abstract boolean isOffHeap();
+
+    /**
+     * Read a word.
+     * 
+     * @param slot slot number
+     * @param offset word offset inside the slot
+     * @return the word
+     */
+    abstract long get(int slot, int offset);
+
+    /**
+     * Write a word.
+     * 
+     * @param slot slot number
+     * @param offset word offset inside the slot
+     * @param value the word
+     */
+    abstract void set(int slot, int offset, long value);
+
+    /**
+     * Allocate another segment.
+     * 
+     * @param segment index of the new segment
+     */
+    protected abstract void addSegment(int segment);
+
+    /**
+     * Release the last segment.
+     * 
+     * @param segment index of the segment
+     */
+    protected abstract void removeSegment(int segment);
+
+    /**
+     * Segments as <code>long[]</code>.
+     */
+    private static final class Heap extends WordStore {
+        /** Segments. */
+        private long[][] segments = new long[0][];
+
+        /**
+         * Create a new heap store.
+         * 
+         * @param slotSize number of words per slot
+         */
+        Heap(final int slotSize) {
+            super(slotSize);
+        }
+
+        @Override
+        boolean isOffHeap() {
+            return false;
+        }
+
+        @Override
+        long get(final int slot, final int offset) {
+            return segments[slot >>> segmentShift]
+                [((slot & segmentMask) * slotSize) + offset];
+        }
+
+        @Override
+        void set(final int slot, final int offset, final long value) {
+            segments[slot >>> segmentShift]
+                [((slot & segmentMask) * slotSize) + offset] = value;
+        }
+
+        @Override
+        protected void addSegment(final int segment) {
+            segments = Arrays.copyOf(segments, segment + 1);
+            segments[segment] = new long[slotSize << segmentShift];
+        }
+
+        @Override
+        protected void removeSegment(final int segment) {
+            segments[segment] = null;
+        }
+    }
+
+    /**
+     * Segments as direct buffers.
+     */
+    private static final class OffHeap extends WordStore {
+        /** Segments. */
+        private LongBuffer[] segments = new LongBuffer[0];
+
+        /**
+         * Create a new off-heap store.
+         * 
+         * @param slotSize number of words per slot
+         */
+        OffHeap(final int slotSize) {
+            super(slotSize);
+        }
+
+        @Override
+        boolean isOffHeap() {
+            return true;
+        }
+
+        @Override
+        long get(final int slot, final int offset) {
+            return segments[slot >>> segmentShift]
+                .get(((slot & segmentMask) * slotSize) + offset);
+        }
+
+        @Override
+        void set(final int slot, final int offset, final long value) {
+            segments[slot >>> segmentShift]
+                .put(((slot & segmentMask) * slotSize) + offset, value);
+        }
+
+        @Override
+        protected void addSegment(final int segment) {
+            final int bytes = (slotSize << segmentShift) * (Long.SIZE / 8);
+
+            segments = Arrays.copyOf(segments, segment + 1);
+            segments[segment] = ByteBuffer.allocateDirect(bytes)
+                .order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+        }
+
+        @Override
+        protected void removeSegment(final int segment) {
+            segments[segment] = null;
+        }
+    }
+}
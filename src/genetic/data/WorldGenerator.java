@@ -0,0 +1,360 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Fills the grass and wall layers of a {@link Field} with exactly the given
+ * number of grass and wall cells, which never overlap.
+ * 
+ * The field is split into bands of {@link BitGrid#TILE_SIZE} rows. The
+ * counts are divided among the bands in proportion to their size, with the
+ * remainder going to randomly chosen bands; each band then scatters its
+ * share uniformly over its words, picking random cells until enough are
+ * set, or picking cells to clear after setting all if more than half are
+ * to be set.
+ * 
+ * Bands have their own generators, derived from one number drawn from the
+ * field's generator, so they are filled in parallel and the result does not
+ * depend on the number of threads. Each worker fills one band at a time
+ * into words of its own and copies them into the layers, one worker at a
+ * time, so no more than a band's words per worker exist besides the layers.
+ */
+final class WorldGenerator {
+    /** Smallest field worth filling in parallel, in cells. */
+    private static final long MIN_PARALLEL_CELLS = 1L << 16;
+
+    /** Bits of the uniform numbers picking cells. */
+    private static final int UNIFORM_BITS = 31;
+
+    /** Width in cells. */
+    private final int width;
+
+    /** Height in cells. */
+    private final int height;
+
+    /** Words per row. */
+    private final int wordsPerRow;
+
+    /** Grass cells per band. */
+    private final long[] grassQuota;
+
+    /** Wall cells per band. */
+    private final long[] wallQuota;
+
+    /**
+     * Create a new WorldGenerator.
+     * 
+     * @param grass the grass layer, which determines the size
+     */
+    WorldGenerator(final BitGrid grass) {
+        final int bands = grass.getTileRows();
+
+        this.width = grass.getWidth();
+        this.height = grass.getHeight();
+        this.wordsPerRow = grass.getWordsPerRow();
+        this.grassQuota = new long[bands];
+        this.wallQuota = new long[bands];
+    }
+
+    /**
+     * Returns the number of cells of a band.
+     * 
+     * @param band band index
+     * @return the number of cells
+     */
+    private long cells(final int band) {
+        final int top = band * BitGrid.TILE_SIZE;
+        return (long) width * (Math.min(top + BitGrid.TILE_SIZE, height) - top);
+    }
+
+    /**
+     * Divide a count among the bands.
+     * 
+     * @param random source of the remainder's bands
+     * @param count number of cells
+     * @param quota destination
+     * @param taken cells per band already given to another layer, or
+     * <code>null</code>
+     */
+    private void divide(
+        final Rng random,
+        final long count,
+        final long[] quota,
+        final long[] taken)
+    {
+        final long area = (long) width * height;
+        long remainder = count;
+
+        for (int b = 0; b < quota.length; ++b) {
+            quota[b] = (long) ((double) count * cells(b) / area);
+            quota[b] = Math.min(quota[b],
+                cells(b) - (taken == null ? 0 : taken[b]));
+            remainder -= quota[b];
+        }
+
+        while (remainder > 0) {
+            final int b = random.nextInt(quota.length);
+
+            if (quota[b] + (taken == null ? 0 : taken[b]) < cells(b)) {
+                ++quota[b];
+                --remainder;
+            }
+        }
+    }
+
+    /**
+     * Fill a band and copy it into the layers.
+     * 
+     * @param band band index
+     * @param seed seed of the band's generator
+     * @param grassWords grass words of a band, row by row
+     * @param wallWords wall words of a band, row by row
+     * @param grassLayer the grass layer
+     * @param wallLayer the wall layer
+     */
+    private void fill(
+        final int band,
+        final long seed,
+        final long[] grassWords,
+        final long[] wallWords,
+        final BitGrid grassLayer,
+        final BitGrid wallLayer)
+    {
+        final Rng random = new Rng(seed);
+        final int top = band * BitGrid.TILE_SIZE;
+        final int rows = Math.min(top + BitGrid.TILE_SIZE, height) - top;
+        final long cells = cells(band);
+        final long grass = grassQuota[band];
+        final long free = cells - grass;
+        final long walls = wallQuota[band];
+
+        Arrays.fill(grassWords, 0);
+        Arrays.fill(wallWords, 0);
+
+        /* scatter the rarer of set and unset cells */
+        if (grass * 2 <= cells) {
+            scatter(random, cells, grassWords, null, grass, true);
+        } else {
+            setAll(rows, grassWords, null);
+            scatter(random, cells, grassWords, null, free, false);
+        }
+
+        if (walls * 2 <= free) {
+            scatter(random, cells, wallWords, grassWords, walls, true);
+        } else {
+            setAll(rows, wallWords, grassWords);
+            scatter(random, cells, wallWords, null, free - walls, false);
+        }
+
+        /* the layers' tiles are allocated and counted without locking */
+        synchronized (this) {
+            for (int y = 0; y < rows; ++y) {
+                for (int wx = 0; wx < wordsPerRow; ++wx) {
+                    grassLayer.setWord(wx, top + y,
+                        grassWords[(y * wordsPerRow) + wx]);
+                    wallLayer.setWord(wx, top + y,
+                        wallWords[(y * wordsPerRow) + wx]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fill the bands <code>first</code>, <code>first + step</code> and so
+     * on, reusing one band's words.
+     * 
+     * @param base number drawn from the field's generator
+     * @param first first band
+     * @param step distance between two bands
+     * @param grass the grass layer
+     * @param wall the wall layer
+     */
+    private void fillBands(
+        final long base,
+        final int first,
+        final int step,
+        final BitGrid grass,
+        final BitGrid wall)
+    {
+        final long[] grassWords = new long[BitGrid.TILE_SIZE * wordsPerRow];
+        final long[] wallWords = new long[BitGrid.TILE_SIZE * wordsPerRow];
+
+        for (int b = first; b < grassQuota.length; b += step) {
+            fill(b, seed(base, b), grassWords, wallWords, grass, wall);
+        }
+    }
+
+    /**
+     * Fill the (empty) layers.
+     * 
+     * @param random the field's generator
+     * @param grass the grass layer, must be empty
+     * @param wall the wall layer, must be empty
+     * @param grassCount number of grass cells, at most the number of cells
+     * @param wallCount number of wall cells, at most the number of cells not
+     * covered by grass
+     */
+    void generate(
+        final Rng random,
+        final BitGrid grass,
+        final BitGrid wall,
+        final long grassCount,
+        final long wallCount)
+    {
+        divide(random, grassCount, grassQuota, null);
+        divide(random, wallCount, wallQuota, grassQuota);
+
+        final long base = random.nextLong();
+        final int workers = Math.min(grassQuota.length,
+            ForkJoinPool.commonPool().getParallelism());
+
+        if ((long) width * height < MIN_PARALLEL_CELLS || workers <= 1) {
+            fillBands(base, 0, 1, grass, wall);
+        } else {
+            final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+            for (int w = 0; w < workers; ++w) {
+                final int first = w;
+
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        fillBands(base, first, workers, grass, wall);
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                for (final Future<Void> f
+                    : ForkJoinPool.commonPool().invokeAll(tasks))
+                {
+                    f.get();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while"
+                    + " generating", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("Generating failed",
+                    e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Set or clear random cells of a band, one at a time, trying again
+     * whenever a cell can't be used. Since at most half of the usable cells
+     * are changed, this takes at most two tries per cell on average.
+     * 
+     * @param random the band's generator
+     * @param cells number of cells of the band
+     * @param words words of the band
+     * @param blocked words of cells that must not be set, or
+     * <code>null</code>
+     * @param count number of cells to change
+     * @param set whether to set unset cells or clear set ones
+     */
+    private void scatter(
+        final Rng random,
+        final long cells,
+        final long[] words,
+        final long[] blocked,
+        final long count,
+        final boolean set)
+    {
+        for (long i = 0; i < count; ++i) {
+            while (true) {
+                /* multiply-shift instead of nextInt's division */
+                final long cell = ((random.nextInt() >>> 1) * cells)
+                    >>> UNIFORM_BITS;
+                final int x = (int) (cell % width);
+                final int index = ((int) (cell / width) * wordsPerRow)
+                    + (x / BitGrid.WORD_SIZE);
+                final long bit = 1L << x;
+
+                if (set && (words[index] & bit) == 0
+                    && (blocked == null || (blocked[index] & bit) == 0))
+                {
+                    words[index] |= bit;
+                    break;
+                } else if (!set && (words[index] & bit) != 0) {
+                    words[index] &= ~bit;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the seed of a band's generator.
+     * 
+     * @param base number drawn from the field's generator
+     * @param band band index
+     * @return the seed
+     */
+    private static long seed(final long base, final int band) {
+        return SplitMix.mix(base + (band * SplitMix.GOLDEN_GAMMA));
+    }
+
+    /**
+     * Set all cells of a band.
+     * 
+     * @param rows number of rows of the band
+     * @param words words of the band
+     * @param blocked words of cells that must not be set, or
+     * <code>null</code>
+     */
+    private void setAll(
+        final int rows,
+        final long[] words,
+        final long[] blocked)
+    {
+        for (int y = 0; y < rows; ++y) {
+            for (int wx = 0; wx < wordsPerRow; ++wx) {
+                final int index = (y * wordsPerRow) + wx;
+                final int end = Math.min(BitGrid.WORD_SIZE,
+                    width - (wx * BitGrid.WORD_SIZE));
+                final long valid = end == BitGrid.WORD_SIZE
+                    ? -1L : (1L << end) - 1;
+
+                words[index] = valid
+                    & (blocked == null ? -1L : ~blocked[index]);
+            }
+        }
+    }
+}
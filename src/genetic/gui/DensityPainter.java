@@ -0,0 +1,308 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package genetic.gui;
+
+import genetic.data.DensityPyramid;
+import genetic.data.Field;
+import genetic.data.FieldListener;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import javax.swing.JComponent;
+
+/**
+ * Renders a whole {@link Field}, fitted into an area of the given size, from
+ * the blocks of a {@link DensityPyramid}: the finest level whose blocks
+ * cover at least a pixel each, so the work depends on the size of the area
+ * rather than the size of the field.
+ * 
+ * Each block mixes the colors of grass and walls in proportion to their
+ * share of its cells. Blocks with entities are covered in the shade of
+ * their mean health, half at least and more the more crowded they are.
+ * 
+ * Unlike the {@link FieldPainter}, it rasterizes on the simulation thread
+ * at the end of each frame, after the pyramid was brought up to date: the
+ * pyramid already is a small summary, so drawing it costs about as much as
+ * copying it would.
+ */
+final class DensityPainter implements FieldListener {
+    /** Share of a block covered by its entities' color at least. */
+    private static final double MIN_COVERAGE = 0.5;
+
+    /** Bit offset of green in an RGB value. */
+    private static final int GREEN_SHIFT = 8;
+
+    /** Mask of one color channel. */
+    private static final int CHANNEL = 0xFF;
+
+    /** The painted field. */
+    private final Field field;
+
+    /** Block sums of the field, updated before each frame's painting. */
+    private final DensityPyramid pyramid;
+
+    /** Component to repaint after each frame. */
+    private final JComponent target;
+
+    /** Color of empty cells. */
+    private final int backgroundRgb;
+
+    /** Guards {@link #front} and {@link #frontScale}. */
+    private final Object frontLock = new Object();
+
+    /** Latest finished image, guarded by {@link #frontLock}. */
+    private BufferedImage front;
+
+    /** Pixels per cell of {@link #front}, guarded by {@link #frontLock}. */
+    private double frontScale;
+
+    /** Image being painted, simulation thread only. */
+    private BufferedImage back;
+
+    /** Width of the area to fill, guarded by this. */
+    private int areaWidth;
+
+    /** Height of the area to fill, guarded by this. */
+    private int areaHeight;
+
+    /** Step of the latest image, simulation thread only. */
+    private int paintedStep = -1;
+
+    /** Width of the area of the latest image, simulation thread only. */
+    private int paintedWidth;
+
+    /** Height of the area of the latest image, simulation thread only. */
+    private int paintedHeight;
+
+    /**
+     * Create a new DensityPainter. It still needs to be added as frame
+     * listener of the field's pacer, after the pyramid.
+     * 
+     * @param field field to paint
+     * @param pyramid block sums of the field
+     * @param target component to repaint after each frame
+     */
+    DensityPainter(
+        final Field field,
+        final DensityPyramid pyramid,
+        final JComponent target)
+    {
+        this.field = field;
+        this.pyramid = pyramid;
+        this.target = target;
+        this.backgroundRgb = target.getBackground().getRGB();
+    }
+
+    /**
+     * Returns the color of a block.
+     * 
+     * @param level pyramid level
+     * @param x block column
+     * @param y block row
+     * @param reproduction health at which entities reproduce
+     * @return the RGB value
+     */
+    private int color(
+        final int level,
+        final int x,
+        final int y,
+        final int reproduction)
+    {
+        final int cells = pyramid.getCells(level, x, y);
+        final int grass = pyramid.getGrass(level, x, y);
+        final int wall = pyramid.getWall(level, x, y);
+        final int population = pyramid.getPopulation(level, x, y);
+        final int empty = cells - grass - wall;
+        int rgb = 0;
+
+        for (int shift = 0; shift <= FieldPainter.RED_SHIFT;
+            shift += GREEN_SHIFT)
+        {
+            final int mixed = ((((backgroundRgb >>> shift) & CHANNEL) * empty)
+                + (((FieldPainter.GRASS_RGB >>> shift) & CHANNEL) * grass)
+                + (((FieldPainter.WALL_RGB >>> shift) & CHANNEL) * wall))
+                / cells;
+            rgb |= mixed << shift;
+        }
+
+        if (population == 0) {
+            return rgb;
+        }
+
+        final int relativeHealth = (pyramid.getHealth(level, x, y)
+            * (FieldPainter.SHADES - 1)) / (population * reproduction);
+        final int shade = Math.min(FieldPainter.SHADES - 1,
+            Math.max(relativeHealth, 0));
+        final double coverage = MIN_COVERAGE + ((1 - MIN_COVERAGE)
+            * Math.min(1.0, (double) population / Math.max(1, cells - wall)));
+        final int red = (int) ((((rgb >>> FieldPainter.RED_SHIFT) & CHANNEL)
+            * (1 - coverage)) + (shade * coverage));
+        final int green = (int) (((rgb >>> GREEN_SHIFT) & CHANNEL)
+            * (1 - coverage));
+        final int blue = (int) ((rgb & CHANNEL) * (1 - coverage));
+
+        return (red << FieldPainter.RED_SHIFT) | (green << GREEN_SHIFT) | blue;
+    }
+
+    /**
+     * Draw the latest finished image at the origin.
+     * 
+     * @param g graphics object
+     */
+    void draw(final Graphics g) {
+        synchronized (frontLock) {
+            if (front != null) {
+                g.drawImage(front, 0, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Paint the field if an area is set and the field or the area changed.
+     * Called on the simulation thread at the end of each frame.
+     * 
+     * @param f the field
+     */
+    @Override
+    public void fieldChanged(final Field f) {
+        final int width;
+        final int height;
+
+        synchronized (this) {
+            width = areaWidth;
+            height = areaHeight;
+        }
+
+        if (width <= 0 || height <= 0 || (field.getStep() == paintedStep
+            && width == paintedWidth && height == paintedHeight))
+        {
+            return;
+        }
+
+        rasterize(width, height);
+        paintedStep = field.getStep();
+        paintedWidth = width;
+        paintedHeight = height;
+        target.repaint();
+    }
+
+    /**
+     * Returns the pixels per cell of the latest finished image.
+     * 
+     * @return the scale, or 0 if nothing was painted yet
+     */
+    double getScale() {
+        synchronized (frontLock) {
+            return frontScale;
+        }
+    }
+
+    /**
+     * Paint the field into the back image and swap it to the front.
+     * 
+     * @param width width of the area
+     * @param height height of the area
+     */
+    private void rasterize(final int width, final int height) {
+        final int fieldWidth = field.getGrass().getWidth();
+        final int fieldHeight = field.getGrass().getHeight();
+        final double scale = Math.min((double) width / fieldWidth,
+            (double) height / fieldHeight);
+        final int imageWidth = Math.max(1, Math.min(width,
+            (int) Math.ceil(fieldWidth * scale)));
+        final int imageHeight = Math.max(1, Math.min(height,
+            (int) Math.ceil(fieldHeight * scale)));
+
+        /* the finest blocks covering a pixel at least */
+        int level = 0;
+        while (level < pyramid.getLevels() - 1
+            && pyramid.getBlockSize(level) * scale < 1)
+        {
+            ++level;
+        }
+
+        if (back == null || back.getWidth() != imageWidth
+            || back.getHeight() != imageHeight)
+        {
+            back = new BufferedImage(imageWidth, imageHeight,
+                BufferedImage.TYPE_INT_RGB);
+        }
+
+        final int[] pixels =
+            ((DataBufferInt) back.getRaster().getDataBuffer()).getData();
+        final int size = pyramid.getBlockSize(level);
+        final int reproduction =
+            Math.max(1, field.getSettings().getReproductionHealth());
+        Arrays.fill(pixels, backgroundRgb);
+
+        for (int y = 0; y < pyramid.getRows(level); ++y) {
+            final int top = (int) (y * size * scale);
+            final int bottom = Math.min(imageHeight, Math.max(top + 1,
+                (int) (Math.min(fieldHeight, (y + 1) * size) * scale)));
+
+            for (int x = 0; x < pyramid.getColumns(level); ++x) {
+                final int left = (int) (x * size * scale);
+                final int right = Math.min(imageWidth, Math.max(left + 1,
+                    (int) (Math.min(fieldWidth, (x + 1) * size) * scale)));
+                final int rgb = color(level, x, y, reproduction);
+
+                for (int row = top; row < bottom; ++row) {
+                    final int offset = row * imageWidth;
+                    if (left < right) {
+                        Arrays.fill(pixels, offset + left, offset + right,
+                            rgb);
+                    }
+                }
+            }
+        }
+
+        synchronized (frontLock) {
+            final BufferedImage swap = front;
+            front = back;
+            back = swap;
+            frontScale = scale;
+        }
+    }
+
+    /**
+     * Set the size of the area to fit the field into, painting it at the end
+     * of the next frame. Called on the event dispatch thread.
+     * 
+     * @param width width in pixels, 0 to stop painting
+     * @param height height in pixels, 0 to stop painting
+     */
+    synchronized void setArea(final int width, final int height) {
+        areaWidth = width;
+        areaHeight = height;
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Field;
+import genetic.data.FieldCapture;
+import genetic.data.FieldListener;
+import genetic.data.Parameter;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import javax.swing.JComponent;
+
+/**
+ * Renders the visible part of a {@link Field} off the event dispatch thread.
+ * 
+ * At the end of each frame of its {@link FramePacer}, the simulation thread
+ * copies a window of the field around the viewport into a
+ * {@link FieldCapture}, but only once the previous capture has been picked
+ * up, so it never waits for painting. A dedicated painter thread rasterizes
+ * the viewport from the latest capture into the back image, swaps it with
+ * the front image, which is all the event dispatch thread ever draws, and
+ * reports the time taken to the pacer. Since captures are complete copies,
+ * painting never sees a half-updated world.
+ * 
+ * Only the cells, grid lines and entities inside the viewport are touched,
+ * and the images are as large as the viewport, so painting a zoomed-in part
+ * of a huge field costs about as much as painting a small field. The
+ * captured window reaches one viewport beyond it on each side, so scrolling
+ * is drawn from the latest capture right away.
+ */
+final class FieldPainter implements FieldListener {
+    /** Color of the grid. */
+    private static final int GRID_RGB = Color.BLACK.getRGB();
+
+    /** Color of grass. */
+    static final int GRASS_RGB = Color.GREEN.getRGB();
+
+    /** Color of walls. */
+    static final int WALL_RGB = Color.GRAY.getRGB();
+
+    /** Number of entity shades. */
+    static final int SHADES = 256;
+
+    /** Bit offset of red in an RGB value. */
+    static final int RED_SHIFT = 16;
+
+    /** The painted field. */
+    private final Field field;
+
+    /** Component to repaint after each frame. */
+    private final JComponent target;
+
+    /** Told about each painted frame. */
+    private final FramePacer pacer;
+
+    /** Color of empty cells. */
+    private final int backgroundRgb;
+
+    /** Guards {@link #front} and the settings it was painted with. */
+    private final Object frontLock = new Object();
+
+    /** Latest finished image, guarded by {@link #frontLock}. */
+    private BufferedImage front;
+
+    /** Where {@link #front} belongs, see {@link #frontLock}. */
+    private final Rectangle frontViewport = new Rectangle();
+
+    /** Scale of {@link #front}, guarded by {@link #frontLock}. */
+    private int frontScale;
+
+    /** Grid gap of {@link #front}, guarded by {@link #frontLock}. */
+    private int frontGridGap;
+
+    /** Whether {@link #front} shows the grid, see {@link #frontLock}. */
+    private boolean frontGrid;
+
+    /** Image being painted, painter thread only. */
+    private BufferedImage back;
+
+    /** Visible pixels of the whole field's image, guarded by this. */
+    private final Rectangle viewport = new Rectangle();
+
+    /** Capture waiting for the painter, guarded by this. */
+    private FieldCapture pending;
+
+    /** Capture the painter is done with, guarded by this. */
+    private FieldCapture spare;
+
+    /** Whether the latest capture must be painted again, guarded by this. */
+    private boolean redraw;
+
+    /** Step of the latest capture, simulation thread only. */
+    private int capturedStep = -1;
+
+    /** Cells of the latest capture, simulation thread only. */
+    private final Rectangle captured = new Rectangle();
+
+    /**
+     * Create a new FieldPainter and start its thread. It still needs to be
+     * added as frame listener of the pacer.
+     * 
+     * @param field field to paint
+     * @param target component to repaint after each frame
+     * @param pacer pacer told about each painted frame
+     */
+    FieldPainter(
+        final Field field,
+        final JComponent target,
+        final FramePacer pacer)
+    {
+        this.field = field;
+        this.target = target;
+        this.pacer = pacer;
+        this.backgroundRgb = target.getBackground().getRGB();
+
+        final Thread painter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                paintLoop();
+            }
+        }, "field painter");
+        painter.setDaemon(true);
+        painter.start();
+    }
+
+    /**
+     * Returns the cells shown in part or whole by some pixels of the field's
+     * image.
+     * 
+     * @param pixels the pixels
+     * @param scale field scale
+     * @param width field width
+     * @param height field height
+     * @return the cells
+     */
+    private static Rectangle cellsOf(
+        final Rectangle pixels,
+        final int scale,
+        final int width,
+        final int height)
+    {
+        final int x = Math.max(0, pixels.x / scale);
+        final int y = Math.max(0, pixels.y / scale);
+        final int x2 = Math.min(width, (pixels.x + pixels.width + scale - 1)
+            / scale);
+        final int y2 = Math.min(height, (pixels.y + pixels.height + scale - 1)
+            / scale);
+
+        return new Rectangle(x, y, Math.max(0, x2 - x), Math.max(0, y2 - y));
+    }
+
+    /**
+     * Draw the latest finished image. Blits only, never waits for the
+     * painter thread's rasterizing.
+     * 
+     * @param g graphics object, translated to the field's origin
+     */
+    void draw(final Graphics g) {
+        synchronized (frontLock) {
+            if (front != null) {
+                g.drawImage(front, frontViewport.x, frontViewport.y, null);
+            }
+        }
+    }
+
+    /**
+     * Fill a rectangle, clipped to the image.
+     * 
+     * @param pixels image data
+     * @param stride image width
+     * @param x left column
+     * @param y top row
+     * @param width rectangle width
+     * @param height rectangle height
+     * @param rgb color
+     */
+    private static void fill(
+        final int[] pixels,
+        final int stride,
+        final int x,
+        final int y,
+        final int width,
+        final int height,
+        final int rgb)
+    {
+        final int left = Math.max(x, 0);
+        final int right = Math.min(x + width, stride);
+        final int top = Math.max(y, 0);
+        final int bottom = Math.min(y + height, pixels.length / stride);
+
+        for (int row = top; row < bottom; ++row) {
+            final int offset = row * stride;
+            if (left < right) {
+                Arrays.fill(pixels, offset + left, offset + right, rgb);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the latest finished image was painted with the given
+     * settings.
+     * 
+     * @param scale field scale
+     * @param gridGap grid gap
+     * @param grid whether the grid is visible
+     * @return whether the image is up to date
+     */
+    boolean isCurrent(final int scale, final int gridGap, final boolean grid) {
+        synchronized (frontLock) {
+            return front == null || (frontScale == scale
+                && frontGridGap == gridGap && frontGrid == grid);
+        }
+    }
+
+    /**
+     * Main loop of the painter thread.
+     */
+    private void paintLoop() {
+        FieldCapture latest = null;
+
+        while (true) {
+            final Rectangle visible;
+
+            synchronized (this) {
+                while (pending == null && !redraw) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (pending != null) {
+                    spare = latest;
+                    latest = pending;
+                    pending = null;
+                }
+                redraw = false;
+                visible = new Rectangle(viewport);
+            }
+
+            if (latest != null && !visible.isEmpty()) {
+                final long start = System.nanoTime();
+                rasterize(latest, visible);
+                pacer.framePainted(System.nanoTime() - start);
+                target.repaint();
+            }
+        }
+    }
+
+    /**
+     * Paint the viewport from a capture into the back image and swap it to
+     * the front.
+     * 
+     * @param c the capture
+     * @param visible the viewport in pixels of the whole field's image
+     */
+    private void rasterize(final FieldCapture c, final Rectangle visible) {
+        final int scale = Parameter.FIELD_SCALE.getValue();
+
+        if (scale == 0) {
+            return;
+        }
+
+        final int gridGap = Math.min(Parameter.GRID_GAP.getValue(), scale - 1);
+        final boolean grid =
+            Parameter.GRID_VISIBILITY.getValue() != 0 && gridGap > 0;
+        final int widthpx = c.getWidth() * scale;
+        final int heightpx = c.getHeight() * scale;
+        final Rectangle view = visible.intersection(
+            new Rectangle(0, 0, widthpx + gridGap, heightpx + gridGap));
+
+        if (view.isEmpty()) {
+            return;
+        }
+
+        if (back == null || back.getWidth() != view.width
+            || back.getHeight() != view.height)
+        {
+            back = new BufferedImage(view.width, view.height,
+                BufferedImage.TYPE_INT_RGB);
+        }
+
+        final int stride = back.getWidth();
+        final int[] pixels =
+            ((DataBufferInt) back.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, backgroundRgb);
+
+        final Rectangle cells = cellsOf(view, scale, c.getWidth(),
+            c.getHeight());
+
+        /* grid */
+        if (grid) {
+            for (int i = cells.x; i <= cells.x + cells.width; ++i) {
+                fill(pixels, stride, (i * scale) - view.x, -view.y, gridGap,
+                    heightpx, GRID_RGB);
+            }
+
+            for (int i = cells.y; i <= cells.y + cells.height; ++i) {
+                fill(pixels, stride, -view.x, (i * scale) - view.y, widthpx,
+                    gridGap, GRID_RGB);
+            }
+        }
+
+        /* only what was captured */
+        final int x = Math.max(cells.x, c.getLeft());
+        final int y = Math.max(cells.y, c.getTop());
+        final int x2 = Math.min(cells.x + cells.width, c.getRight());
+        final int y2 = Math.min(cells.y + cells.height, c.getBottom());
+        final int cellX = gridGap - view.x;
+        final int cellY = gridGap - view.y;
+        final int size = scale - gridGap;
+
+        if (x < x2 && y < y2) {
+            rasterize(pixels, stride, c, c.getGrass(), x, y, x2, y2, scale,
+                size, cellX, cellY, GRASS_RGB);
+            rasterize(pixels, stride, c, c.getWall(), x, y, x2, y2, scale,
+                size, cellX, cellY, WALL_RGB);
+
+            /* entities of the visible rows */
+            for (int i = c.getEntityRowStart(y); i < c.getEntityRowStart(y2);
+                ++i)
+            {
+                final int cell = c.getEntityCell(i);
+                final int column = cell % c.getWidth();
+
+                if (column < x || column >= x2) {
+                    continue;
+                }
+
+                final int relativeHealth = (c.getEntityHealth(i)
+                    * (SHADES - 1)) / c.getReproductionHealth();
+                final int shade =
+                    Math.min(SHADES - 1, Math.max(relativeHealth, 0));
+
+                fill(pixels, stride, cellX + (column * scale),
+                    cellY + ((cell / c.getWidth()) * scale), size, size,
+                    shade << RED_SHIFT);
+            }
+        }
+
+        synchronized (frontLock) {
+            final BufferedImage swap = front;
+            front = back;
+            back = swap;
+            frontViewport.setBounds(view);
+            frontScale = scale;
+            frontGridGap = gridGap;
+            frontGrid = grid;
+        }
+    }
+
+    /**
+     * Paint the set cells of a layer inside a range of cells.
+     * 
+     * @param pixels image data
+     * @param stride image width
+     * @param c the capture
+     * @param words layer words of the capture's window
+     * @param x first column, inside the window
+     * @param y first row, inside the window
+     * @param x2 column after the range, inside the window
+     * @param y2 row after the range, inside the window
+     * @param scale field scale
+     * @param size painted width and height of a cell
+     * @param cellX image column of the first cell's left edge
+     * @param cellY image row of the first cell's top edge
+     * @param rgb color
+     */
+    private static void rasterize(
+        final int[] pixels,
+        final int stride,
+        final FieldCapture c,
+        final long[] words,
+        final int x,
+        final int y,
+        final int x2,
+        final int y2,
+        final int scale,
+        final int size,
+        final int cellX,
+        final int cellY,
+        final int rgb)
+    {
+        final int first = (x - c.getLeft()) / Long.SIZE;
+        final int last = (x2 - 1 - c.getLeft()) / Long.SIZE;
+
+        for (int row = y; row < y2; ++row) {
+            final int offset = (row - c.getTop()) * c.getWordsPerRow();
+
+            for (int wx = first; wx <= last; ++wx) {
+                final int base = c.getLeft() + (wx * Long.SIZE);
+                long word = words[offset + wx];
+
+                /* drop the columns outside the range */
+                if (base < x) {
+                    word &= -1L << (x - base);
+                }
+                if (x2 - base < Long.SIZE) {
+                    word &= (1L << (x2 - base)) - 1;
+                }
+
+                while (word != 0) {
+                    final int column = base + Long.numberOfTrailingZeros(word);
+
+                    fill(pixels, stride, cellX + (column * scale),
+                        cellY + (row * scale), size, size, rgb);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Paint the latest capture again, e.g. after the scale changed.
+     */
+    synchronized void redraw() {
+        redraw = true;
+        notifyAll();
+    }
+
+    /**
+     * Set the visible part of the field, painting it from the latest capture
+     * if it moved. Called on the event dispatch thread.
+     * 
+     * @param visible visible pixels of the whole field's image
+     */
+    synchronized void setViewport(final Rectangle visible) {
+        if (!viewport.equals(visible)) {
+            viewport.setBounds(visible);
+            redraw = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Capture the field around the viewport if the painter is ready for a
+     * new frame and the field or the viewport changed. Called on the
+     * simulation thread at the end of each frame. The overview is left to
+     * the {@link DensityPainter}.
+     * 
+     * @param f the field
+     */
+    @Override
+    public void fieldChanged(final Field f) {
+        final int scale = Parameter.FIELD_SCALE.getValue();
+
+        if (scale == 0) {
+            return;
+        }
+
+        final int width = field.getGrass().getWidth();
+        final int height = field.getGrass().getHeight();
+        final Rectangle visible;
+        FieldCapture c;
+
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            visible = cellsOf(viewport, scale, width, height);
+
+            if (field.getStep() == capturedStep
+                && captured.contains(visible))
+            {
+                return;
+            }
+            c = spare;
+            spare = null;
+        }
+
+        if (c == null) {
+            c = new FieldCapture(field);
+        }
+
+        /* one viewport of margin on each side */
+        final int x = visible.x - visible.width;
+        final int y = visible.y - visible.height;
+        c.capture(field, x, y, visible.x + (visible.width * 2),
+            visible.y + (visible.height * 2));
+        capturedStep = field.getStep();
+        captured.setBounds(c.getLeft(), c.getTop(),
+            c.getRight() - c.getLeft(), c.getBottom() - c.getTop());
+
+        synchronized (this) {
+            pending = c;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.Parameter;
+import genetic.island.Pacer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Runs an island in frames of several ticks for display. Each frame, the
+ * island makes some ticks, maybe none, and the frame listeners, e.g. the
+ * painter, are told once, after the field has caught up on fast-forwarded
+ * entities; then the thread sleeps until the next frame is due, holding
+ * {@link #FRAMES_PER_SECOND}.
+ * 
+ * The number of ticks per frame follows {@link Parameter#SIMULATION_SPEED}.
+ * At its maximum, it adapts to fill each frame instead: the mean cost of a
+ * tick and of painting a frame are measured, and as many ticks are made as
+ * fit into a frame besides painting it. Should ticks get more expensive
+ * within a frame, the frame ends early. A fast simulation thus keeps a
+ * smooth display, and a slow one still gets at least one tick per frame.
+ * 
+ * {@link #startFrame()} and {@link #endFrame(Field, int)} are called by the
+ * island's thread; {@link #framePainted(long)} by whichever thread paints.
+ */
+public final class FramePacer implements Pacer {
+    /** Frames per second held. */
+    public static final int FRAMES_PER_SECOND = 30;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Nanoseconds per frame. */
+    private static final long FRAME_NANOS = NANOS_PER_SECOND
+        / FRAMES_PER_SECOND;
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Weight of a new measurement in the mean costs. */
+    private static final double SMOOTHING = 0.1;
+
+    /** Listeners told at the end of each frame. */
+    private final CopyOnWriteArrayList<FieldListener> frameListeners =
+        new CopyOnWriteArrayList<FieldListener>();
+
+    /** Mean cost of a tick in nanoseconds, island thread only. */
+    private double tickNanos;
+
+    /** Mean cost of telling the frame listeners, island thread only. */
+    private double captureNanos;
+
+    /** Mean cost of painting a frame, guarded by this. */
+    private double paintNanos;
+
+    /** Frames painted in the current statistics period, guarded by this. */
+    private int painted;
+
+    /** Fraction of a tick carried over to the next frame. */
+    private double carry;
+
+    /** Start of the current frame. */
+    private long frameStart;
+
+    /** When to stop ticking in the current frame, if at full speed. */
+    private long frameDeadline;
+
+    /** Whether the current frame is at full speed. */
+    private boolean unlimited;
+
+    /** When the next frame is due. */
+    private long nextFrame;
+
+    /** Start of the current statistics period. */
+    private long periodStart;
+
+    /** Ticks made in the current statistics period. */
+    private long periodTicks;
+
+    /** Ticks per second in the last statistics period. */
+    private volatile double ticksPerSecond;
+
+    /** Frames painted per second in the last statistics period. */
+    private volatile double framesPerSecond;
+
+    /**
+     * Register a listener to the end of each frame. It is called on the
+     * island's thread, between two ticks.
+     * 
+     * @param l the listener
+     */
+    public void addFrameListener(final FieldListener l) {
+        frameListeners.add(l);
+    }
+
+    /**
+     * Finish a frame: tell the frame listeners, update the statistics and
+     * sleep until the next frame is due.
+     * 
+     * @param field the island's field
+     * @param ticks number of ticks made since {@link #startFrame()}
+     */
+    @Override
+    public void endFrame(final Field field, final int ticks) {
+        final long ticked = System.nanoTime();
+
+        if (ticks > 0) {
+            tickNanos += SMOOTHING
+                * (((double) (ticked - frameStart) / ticks) - tickNanos);
+        }
+
+        if (!frameListeners.isEmpty()) {
+            field.catchUp();
+        }
+
+        for (final FieldListener l : frameListeners) {
+            l.fieldChanged(field);
+        }
+        captureNanos += SMOOTHING
+            * ((System.nanoTime() - ticked) - captureNanos);
+
+        periodTicks += ticks;
+
+        final long now = System.nanoTime();
+        if (now - periodStart >= NANOS_PER_SECOND) {
+            final double seconds = (double) (now - periodStart)
+                / NANOS_PER_SECOND;
+
+            synchronized (this) {
+                framesPerSecond = painted / seconds;
+                painted = 0;
+            }
+            ticksPerSecond = periodTicks / seconds;
+            periodTicks = 0;
+            periodStart = now;
+        }
+
+        /* don't catch up on frames missed by a slow tick */
+        nextFrame += FRAME_NANOS;
+        if (nextFrame - now < 0) {
+            nextFrame = now;
+            return;
+        }
+
+        try {
+            Thread.sleep((nextFrame - now) / NANOS_PER_MILLI,
+                (int) ((nextFrame - now) % NANOS_PER_MILLI));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Report a painted frame. Safe to call from any thread.
+     * 
+     * @param nanos time taken to paint it
+     */
+    public synchronized void framePainted(final long nanos) {
+        paintNanos += SMOOTHING * (nanos - paintNanos);
+        ++painted;
+    }
+
+    /**
+     * Returns the frames painted per second, over the last second or so.
+     * 
+     * @return the frame rate
+     */
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * Returns the ticks made per second, over the last second or so.
+     * 
+     * @return the tick rate
+     */
+    public double getTicksPerSecond() {
+        return ticksPerSecond;
+    }
+
+    /**
+     * Returns whether there is time left for another tick in the current
+     * frame. Unless at full speed, the number of ticks alone decides.
+     * 
+     * @return whether to go on ticking
+     */
+    @Override
+    public boolean hasTime() {
+        return !unlimited || System.nanoTime() - frameDeadline < 0;
+    }
+
+    /**
+     * Unregister a listener to the end of each frame.
+     * 
+     * @param l the listener
+     */
+    public void removeFrameListener(final FieldListener l) {
+        frameListeners.remove(l);
+    }
+
+    /**
+     * Start a frame.
+     * 
+     * @return the number of ticks to make in this frame, may be 0 if the
+     * simulation speed is below the frame rate
+     */
+    @Override
+    public int startFrame() {
+        frameStart = System.nanoTime();
+        if (periodStart == 0) {
+            periodStart = frameStart;
+            nextFrame = frameStart;
+        }
+
+        final int speed = Parameter.SIMULATION_SPEED.getValue();
+        unlimited = speed >= Parameter.SIMULATION_SPEED.getMaximum();
+        if (!unlimited) {
+            carry += (double) speed / FRAMES_PER_SECOND;
+            final int ticks = (int) carry;
+            carry -= ticks;
+            return ticks;
+        }
+
+        carry = 0;
+        if (tickNanos <= 0) {
+            return 1;
+        }
+
+        final double paint;
+        synchronized (this) {
+            paint = paintNanos;
+        }
+        final double budget = FRAME_NANOS - paint - captureNanos;
+        frameDeadline = frameStart + (long) budget;
+
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+            budget / tickNanos));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Command;
+import genetic.data.Program;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+/**
+ * Pre-rendered strips of the {@link Gui#COMMAND_ICONS} of genomes, one
+ * image per distinct command sequence. The least recently used strips are
+ * evicted once more than {@link #MAX_STRIPS} are cached. Only to be used on
+ * the event dispatch thread.
+ */
+final class GenomeStrips {
+    /** Largest number of cached strips. */
+    private static final int MAX_STRIPS = 512;
+
+    /** Initial capacity of the cache. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Load factor of the cache. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Cached strips by genome, in access order. */
+    private final LinkedHashMap<Program, ImageIcon> strips =
+        new LinkedHashMap<Program, ImageIcon>(
+            INITIAL_CAPACITY, LOAD_FACTOR, true)
+        {
+            /** Not meant to be serialized. */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                final Map.Entry<Program, ImageIcon> eldest)
+            {
+                return size() > MAX_STRIPS;
+            }
+        };
+
+    /**
+     * Returns the strip of a genome, rendering it if it isn't cached.
+     * 
+     * @param program the genome
+     * @return the strip
+     */
+    ImageIcon get(final Program program) {
+        ImageIcon strip = strips.get(program);
+
+        if (strip == null) {
+            strip = render(program);
+            strips.put(program, strip);
+        }
+
+        return strip;
+    }
+
+    /**
+     * Render the icons of a genome side by side.
+     * 
+     * @param program the genome
+     * @return the strip
+     */
+    private static ImageIcon render(final Program program) {
+        int width = 0;
+        int height = 1;
+
+        for (final Command c : program) {
+            final ImageIcon icon = Gui.COMMAND_ICONS.get(c);
+            width += icon.getIconWidth();
+            height = Math.max(height, icon.getIconHeight());
+        }
+
+        final BufferedImage image = new BufferedImage(Math.max(width, 1),
+            height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2 = image.createGraphics();
+        int x = 0;
+
+        for (final Command c : program) {
+            final ImageIcon icon = Gui.COMMAND_ICONS.get(c);
+            icon.paintIcon(null, g2, x, (height - icon.getIconHeight()) / 2);
+            x += icon.getIconWidth();
+        }
+
+        g2.dispose();
+        return new ImageIcon(image);
+    }
+}
@@ -28,13 +28,16 @@
 
 package genetic.gui;
 
+import genetic.data.Command;
 import genetic.data.Field;
 
 import java.awt.BorderLayout;
 import java.awt.KeyEventDispatcher;
 import java.awt.KeyboardFocusManager;
 import java.awt.event.KeyEvent;
+import java.util.HashMap;
 
+import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -50,16 +53,31 @@ public class Gui implements Runnable, KeyEventDispatcher {
     /** Default space between elements. */
     public static final int GAP = 5;
 
+    /** Icon of each command. */
+    public static final HashMap<Command, ImageIcon> COMMAND_ICONS =
+        new HashMap<Command, ImageIcon>();
+
+    static {
+        for (final Command c : Command.values()) {
+            COMMAND_ICONS.put(c, loadIcon("/genetic/res/" + c + ".png"));
+        }
+    }
+
     /** Simulation field. */
     private final Field field;
 
+    /** Runs the field in frames. */
+    private final FramePacer pacer;
+
     /**
      * Create a new GuiFrame.
      * 
      * @param field simulation field to display
+     * @param pacer runs the field in frames
      */
-    public Gui(final Field field) {
+    public Gui(final Field field, final FramePacer pacer) {
         this.field = field;
+        this.pacer = pacer;
     }
 
     @Override
@@ -92,14 +110,26 @@ public class Gui implements Runnable, KeyEventDispatcher {
         }
     }
 
+    /**
+     * Load a bundled icon.
+     * 
+     * @param path resource path of the image
+     * @return the icon
+     */
+    public static ImageIcon loadIcon(final String path) {
+        return new ImageIcon(Gui.class.getResource(path));
+    }
+
     @Override
     public final void run() {
         final JFrame frame = new JFrame("Genetic Code");
 
-        final JFieldPane fieldPane = new JFieldPane(field);
+        final JFieldPane fieldPane = new JFieldPane(field, pacer);
+        final JMiniMap miniMap = new JMiniMap(field, pacer, fieldPane);
         final JSettingsPane settingsPane = new JSettingsPane(false);
         final JProgramStatTable programStatTable = new JProgramStatTable(field);
-        final JStatusPane statusPane = new JStatusPane(field, frame);
+        final JStatusPane statusPane = new JStatusPane(field, pacer,
+            frame);
 
         final JScrollPane scrollSettings = new JScrollPane(
             settingsPane,
@@ -115,6 +145,7 @@ public class Gui implements Runnable, KeyEventDispatcher {
             fieldPane,
             JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
             JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
+        scrollField.getViewport().addChangeListener(miniMap);
 
         final JSplitPane verticalSplit = new JSplitPane(
             JSplitPane.VERTICAL_SPLIT,
@@ -123,10 +154,15 @@ public class Gui implements Runnable, KeyEventDispatcher {
             scrollSettings
             );
 
+        final JPanel sidePanel = new JPanel();
+        sidePanel.setLayout(new BorderLayout(GAP, GAP));
+        sidePanel.add(miniMap, BorderLayout.NORTH);
+        sidePanel.add(verticalSplit, BorderLayout.CENTER);
+
         final JSplitPane horizontalSplit = new JSplitPane(
             JSplitPane.HORIZONTAL_SPLIT,
             true,
-            verticalSplit,
+            sidePanel,
             scrollField);
         horizontalSplit.setOneTouchExpandable(true);
 
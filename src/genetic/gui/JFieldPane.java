@@ -28,26 +28,39 @@
 
 package genetic.gui;
 
-import genetic.data.Entity;
+import genetic.data.DensityPyramid;
 import genetic.data.Field;
 import genetic.data.Parameter;
+import genetic.stream.FrameClient;
+import genetic.stream.FrameCodec;
+import genetic.stream.FrameListener;
 
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
-import java.util.Observable;
-import java.util.Observer;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 
 import javax.swing.JPanel;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
 
 /**
- * {@link JPanel} displaying the simulation's {@link Field}.
+ * {@link JPanel} displaying the simulation's {@link Field}, or, as viewer,
+ * the frames received by a {@link FrameClient}. A field is rasterized by a
+ * {@link FieldPainter} off the event dispatch thread at the end of each
+ * frame of its {@link FramePacer}; the event dispatch thread only blits the
+ * finished image. Either way, only the visible cells are drawn.
+ * 
+ * At {@link Parameter#FIELD_SCALE} 0, a field is shown as a whole, fitted
+ * into the visible area, by a {@link DensityPainter}; clicking it zooms back
+ * in on the clicked cell.
  * 
  * @author Tim Wiederhake
  */
-public class JFieldPane extends JPanel implements Observer {
+public class JFieldPane extends JPanel implements FrameListener, Scrollable {
     /** Not meant to be serialized. */
     private static final long serialVersionUID = 1L;
 
@@ -59,8 +72,26 @@ public class JFieldPane extends JPanel implements Observer {
         }
     }
 
-    /** Simulation field. */
-    private final Field field;
+    /** Renders the field, or <code>null</code>. */
+    private final FieldPainter painter;
+
+    /** Block sums of the field for the overview, or <code>null</code>. */
+    private final DensityPyramid pyramid;
+
+    /** Renders the overview, or <code>null</code>. */
+    private final DensityPainter overview;
+
+    /** Frame source of a viewer, or <code>null</code>. */
+    private final FrameClient client;
+
+    /** Copy of the client's visible cells, reused between paints. */
+    private byte[] cells;
+
+    /** Last known field width. */
+    private int fieldWidth;
+
+    /** Last known field height. */
+    private int fieldHeight;
 
     /** Last known display scale. */
     private int scale;
@@ -68,21 +99,93 @@ public class JFieldPane extends JPanel implements Observer {
     /** Last known grid gap. */
     private int gridGap;
 
+    /** Latest scale other than the overview, to zoom in to. */
+    private int detailScale;
+
+    /** Column to center once zoomed in, or -1. */
+    private int centerX = -1;
+
+    /** Row to center once zoomed in, or -1. */
+    private int centerY = -1;
+
     /**
      * Create a new JFieldPane.
      * 
      * @param field simulation field
+     * @param pacer runs the field in frames
      */
-    public JFieldPane(final Field field) {
-        this.field = field;
+    public JFieldPane(final Field field, final FramePacer pacer) {
+        this.client = null;
         this.scale = Parameter.FIELD_SCALE.getValue();
+        this.fieldWidth = Parameter.FIELD_WIDTH.getValue();
+        this.fieldHeight = Parameter.FIELD_HEIGHT.getValue();
+        this.detailScale = Math.max(1, scale);
 
         setOpaque(true);
         if (field != null) {
-            field.addObserver(this);
+            this.pyramid = new DensityPyramid(field);
+            this.painter = new FieldPainter(field, this, pacer);
+            this.overview = new DensityPainter(field, pyramid, this);
+
+            /* the pyramid first, so the overview sees it up to date */
+            pacer.addFrameListener(pyramid);
+            pacer.addFrameListener(painter);
+            pacer.addFrameListener(overview);
+
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(final MouseEvent e) {
+                    zoomIn(e.getX(), e.getY());
+                }
+            });
+        } else {
+            this.pyramid = null;
+            this.painter = null;
+            this.overview = null;
         }
     }
 
+    /**
+     * Create a new JFieldPane as viewer of a remote field.
+     * 
+     * @param client frame source
+     */
+    public JFieldPane(final FrameClient client) {
+        this.pyramid = null;
+        this.painter = null;
+        this.overview = null;
+        this.client = client;
+        this.scale = Math.max(1, Parameter.FIELD_SCALE.getValue());
+        this.detailScale = scale;
+
+        setOpaque(true);
+        client.addFrameListener(this);
+    }
+
+    /**
+     * Scroll so that a cell is in the middle of the visible area, zooming in
+     * first if the overview is shown. Called on the event dispatch thread.
+     * 
+     * @param x column
+     * @param y row
+     */
+    final void centerOn(final int x, final int y) {
+        if (isOverview()) {
+            /* once laid out at the new scale, see paint */
+            centerX = x;
+            centerY = y;
+            Parameter.FIELD_SCALE.setValue(detailScale);
+            repaint();
+            return;
+        }
+
+        final Rectangle visible = getVisibleRect();
+        scrollRectToVisible(new Rectangle(
+            Gui.GAP + (x * scale) + (scale / 2) - (visible.width / 2),
+            Gui.GAP + (y * scale) + (scale / 2) - (visible.height / 2),
+            visible.width, visible.height));
+    }
+
     @Override
     protected final Object clone() throws CloneNotSupportedException {
         throw new CloneNotSupportedException();
@@ -93,24 +196,147 @@ public class JFieldPane extends JPanel implements Observer {
      * {@link Graphics2D} object.
      * 
      * @param g2 current graphics object
-     * @param p point to draw
+     * @param x column of the cell to draw
+     * @param y row of the cell to draw
      */
-    private void drawRectangle(final Graphics2D g2, final Point p) {
+    private void drawRectangle(final Graphics2D g2, final int x, final int y) {
         g2.fillRect(
-            gridGap + (p.x * scale), gridGap + (p.y * scale),
+            gridGap + (x * scale), gridGap + (y * scale),
             scale - gridGap, scale - gridGap);
     }
 
+    /**
+     * Draw the client's latest frame, as far as inside a range of cells.
+     * 
+     * @param g2 current graphics object
+     * @param left first column
+     * @param top first row
+     * @param right column after the range
+     * @param bottom row after the range
+     */
+    private void drawFrame(
+        final Graphics2D g2,
+        final int left,
+        final int top,
+        final int right,
+        final int bottom)
+    {
+        cells = client.copyCells(left, top, right, bottom, cells);
+
+        for (int y = top; y < bottom; ++y) {
+            for (int x = left; x < right; ++x) {
+                final int value = cells[((y - top) * (right - left))
+                    + (x - left)];
+
+                if (value == FrameCodec.EMPTY) {
+                    continue;
+                } else if (value == FrameCodec.GRASS) {
+                    g2.setColor(Color.GREEN);
+                } else if (value == FrameCodec.WALL) {
+                    g2.setColor(Color.GRAY);
+                } else {
+                    g2.setColor(ENTITY_SHADES[((value - FrameCodec.ENTITY)
+                        * (ENTITY_SHADES.length - 1))
+                        / (FrameCodec.SHADES - 1)]);
+                }
+
+                drawRectangle(g2, x, y);
+            }
+        }
+    }
+
+    @Override
+    public final void frameReceived(final FrameClient frameClient) {
+        repaint();
+    }
+
+    @Override
+    public final Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
     @Override
     public final Dimension getPreferredSize() {
-        final int width = Parameter.FIELD_WIDTH.getValue() * scale;
-        final int height = Parameter.FIELD_HEIGHT.getValue() * scale;
+        if (isOverview()) {
+            /* as large as the viewport, see the Scrollable methods */
+            return new Dimension(Gui.GAP * 2, Gui.GAP * 2);
+        }
+
+        final int width = fieldWidth * scale;
+        final int height = fieldHeight * scale;
 
         return new Dimension(
             width + gridGap + (Gui.GAP * 2),
             height + gridGap + (Gui.GAP * 2));
     }
 
+    /**
+     * Returns the block sums of the field.
+     * 
+     * @return the pyramid, or <code>null</code> for a viewer
+     */
+    final DensityPyramid getPyramid() {
+        return pyramid;
+    }
+
+    @Override
+    public final int getScrollableBlockIncrement(
+        final Rectangle visibleRect,
+        final int orientation,
+        final int direction)
+    {
+        return orientation == SwingConstants.HORIZONTAL
+            ? visibleRect.width : visibleRect.height;
+    }
+
+    @Override
+    public final boolean getScrollableTracksViewportHeight() {
+        return isOverview();
+    }
+
+    @Override
+    public final boolean getScrollableTracksViewportWidth() {
+        return isOverview();
+    }
+
+    @Override
+    public final int getScrollableUnitIncrement(
+        final Rectangle visibleRect,
+        final int orientation,
+        final int direction)
+    {
+        return Math.max(1, scale);
+    }
+
+    /**
+     * Returns the visible cells.
+     * 
+     * @return the visible cells, or <code>null</code> while the overview is
+     * shown
+     */
+    final Rectangle getVisibleCells() {
+        if (isOverview()) {
+            return null;
+        }
+
+        final Rectangle visible = getVisibleRect();
+        final int x = Math.max(0, (visible.x - Gui.GAP) / scale);
+        final int y = Math.max(0, (visible.y - Gui.GAP) / scale);
+
+        return new Rectangle(x, y,
+            Math.min(fieldWidth - x, (visible.width + scale - 1) / scale),
+            Math.min(fieldHeight - y, (visible.height + scale - 1) / scale));
+    }
+
+    /**
+     * Returns whether the whole field is shown by the overview.
+     * 
+     * @return whether the overview is shown
+     */
+    private boolean isOverview() {
+        return overview != null && scale == 0;
+    }
+
     /**
      * Paints the field by rendering the grid, then rendering grass, wall and
      * cell. To clarify the defined terms for the measurements:
@@ -130,77 +356,125 @@ public class JFieldPane extends JPanel implements Observer {
      */
     @Override
     public final void paint(final Graphics g) {
-        final int currentScale = Parameter.FIELD_SCALE.getValue();
+        /* a viewer has no overview */
+        final int currentScale = client == null
+            ? Parameter.FIELD_SCALE.getValue()
+            : Math.max(1, Parameter.FIELD_SCALE.getValue());
         /* Always leave at least 1 pixel of display */
         final int currentGridGap =
-            Math.min(Parameter.GRID_GAP.getValue(), scale - 1);
+            Math.max(0, Math.min(Parameter.GRID_GAP.getValue(), scale - 1));
+        final int currentWidth = client == null
+            ? Parameter.FIELD_WIDTH.getValue() : client.getWidth();
+        final int currentHeight = client == null
+            ? Parameter.FIELD_HEIGHT.getValue() : client.getHeight();
 
         /*
          * If the size or something that affects it changed, revalidate before
          * repainting.
          */
-        if (scale != currentScale || gridGap != currentGridGap) {
+        if (scale != currentScale || gridGap != currentGridGap
+            || fieldWidth != currentWidth || fieldHeight != currentHeight)
+        {
             scale = currentScale;
             gridGap = currentGridGap;
+            fieldWidth = currentWidth;
+            fieldHeight = currentHeight;
+            if (scale != 0) {
+                detailScale = scale;
+            }
             revalidate();
             repaint();
             return;
         }
 
+        if (centerX >= 0 && !isOverview()) {
+            centerOn(centerX, centerY);
+            centerX = -1;
+            centerY = -1;
+        }
+
         super.paint(g);
         final Graphics2D g2 = (Graphics2D) g;
-        final int fieldWidth = Parameter.FIELD_WIDTH.getValue();
-        final int fieldHeight = Parameter.FIELD_HEIGHT.getValue();
 
         g2.translate(Gui.GAP, Gui.GAP);
 
+        if (isOverview()) {
+            overview.setArea(getWidth() - (Gui.GAP * 2),
+                getHeight() - (Gui.GAP * 2));
+            overview.draw(g2);
+            return;
+        } else if (overview != null) {
+            overview.setArea(0, 0);
+        }
+
+        if (painter != null) {
+            final Rectangle visible = getVisibleRect();
+            visible.translate(-Gui.GAP, -Gui.GAP);
+            painter.setViewport(visible);
+
+            if (!painter.isCurrent(scale, gridGap,
+                Parameter.GRID_VISIBILITY.getValue() != 0 && gridGap > 0))
+            {
+                painter.redraw();
+            }
+            painter.draw(g2);
+            return;
+        }
+
+        /* only the cells inside the clip */
+        final Rectangle clip = g2.getClipBounds();
+        final int left = clip == null ? 0 : Math.max(0, clip.x / scale);
+        final int top = clip == null ? 0 : Math.max(0, clip.y / scale);
+        final int right = clip == null ? fieldWidth : Math.min(fieldWidth,
+            ((clip.x + clip.width) / scale) + 1);
+        final int bottom = clip == null ? fieldHeight : Math.min(fieldHeight,
+            ((clip.y + clip.height) / scale) + 1);
+
         /* grid */
         if (Parameter.GRID_VISIBILITY.getValue() != 0 && gridGap > 0) {
             final int widthpx = fieldWidth * scale;
             final int heightpx = fieldHeight * scale;
 
             g2.setColor(Color.BLACK);
-            for (int i = 0; i < (fieldWidth + 1); ++i) {
+            for (int i = left; i <= right; ++i) {
                 final int ipx = i * scale;
-                g2.fillRect(ipx, 0, gridGap, heightpx);
+                g2.fillRect(ipx, top * scale, gridGap,
+                    Math.min(heightpx, bottom * scale) - (top * scale));
             }
 
-            for (int i = 0; i < (fieldHeight + 1); ++i) {
+            for (int i = top; i <= bottom; ++i) {
                 final int ipx = i * scale;
-                g2.fillRect(0, ipx, widthpx, gridGap);
+                g2.fillRect(left * scale, ipx,
+                    Math.min(widthpx, right * scale) - (left * scale),
+                    gridGap);
             }
         }
 
-        if (field == null) {
-            return;
+        if (client != null) {
+            drawFrame(g2, left, top, right, bottom);
         }
+    }
 
-        /* grass */
-        g2.setColor(Color.GREEN);
-        for (final Point p : field.getGrass()) {
-            drawRectangle(g2, p);
-        }
+    /**
+     * Zoom in on the cell under a point of the overview.
+     * 
+     * @param x column in pixels
+     * @param y row in pixels
+     */
+    private void zoomIn(final int x, final int y) {
+        final double cellScale = overview.getScale();
 
-        /* wall */
-        g2.setColor(Color.GRAY);
-        for (final Point p : field.getWall()) {
-            drawRectangle(g2, p);
+        if (!isOverview() || cellScale == 0) {
+            return;
         }
 
-        /* entities */
-        final int lastReproductionHP = Parameter.REPRODUCTION_HP.getValue();
-        for (final Entity e : field.getEntities()) {
-            final int relativeHealth = (e.getHealth() *
-                (ENTITY_SHADES.length - 1)) / lastReproductionHP;
-            final int index = Math.min(ENTITY_SHADES.length - 1,
-                Math.max(relativeHealth, 0));
-            g2.setColor(ENTITY_SHADES[index]);
-            drawRectangle(g2, e.getPosition());
-        }
-    }
+        final int column = (int) ((x - Gui.GAP) / cellScale);
+        final int row = (int) ((y - Gui.GAP) / cellScale);
 
-    @Override
-    public final void update(final Observable o, final Object arg) {
-        repaint();
+        if (column >= 0 && column < fieldWidth && row >= 0
+            && row < fieldHeight)
+        {
+            centerOn(column, row);
+        }
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package genetic.gui;
+
+import genetic.data.Field;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import javax.swing.JPanel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * Small overview of the whole field, drawn by its own
+ * {@link DensityPainter}, with a frame around the part the
+ * {@link JFieldPane} shows. Pressing or dragging the mouse scrolls the field
+ * pane there. Listens to the field pane's viewport to move the frame along.
+ */
+final class JMiniMap extends JPanel implements ChangeListener {
+    /** Not meant to be serialized. */
+    private static final long serialVersionUID = 1L;
+
+    /** Width and height of the map in pixels. */
+    private static final int MAP_SIZE = 200;
+
+    /** Color of the frame around the visible part. */
+    private static final Color FRAME_COLOR = Color.YELLOW;
+
+    /** Field width in cells. */
+    private final int fieldWidth;
+
+    /** Field height in cells. */
+    private final int fieldHeight;
+
+    /** The navigated field pane. */
+    private final JFieldPane fieldPane;
+
+    /** Renders the map. */
+    private final DensityPainter painter;
+
+    /**
+     * Create a new JMiniMap.
+     * 
+     * @param field the field
+     * @param pacer runs the field in frames
+     * @param fieldPane the navigated field pane, showing the field
+     */
+    JMiniMap(
+        final Field field,
+        final FramePacer pacer,
+        final JFieldPane fieldPane)
+    {
+        this.fieldWidth = field.getGrass().getWidth();
+        this.fieldHeight = field.getGrass().getHeight();
+        this.fieldPane = fieldPane;
+        this.painter = new DensityPainter(field, fieldPane.getPyramid(), this);
+
+        setOpaque(true);
+        painter.setArea(MAP_SIZE, MAP_SIZE);
+        pacer.addFrameListener(painter);
+
+        final MouseAdapter navigation = new MouseAdapter() {
+            @Override
+            public void mouseDragged(final MouseEvent e) {
+                navigate(e.getX(), e.getY());
+            }
+
+            @Override
+            public void mousePressed(final MouseEvent e) {
+                navigate(e.getX(), e.getY());
+            }
+        };
+        addMouseListener(navigation);
+        addMouseMotionListener(navigation);
+    }
+
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        throw new CloneNotSupportedException();
+    }
+
+    @Override
+    public Dimension getMinimumSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(MAP_SIZE, MAP_SIZE);
+    }
+
+    /**
+     * Center the field pane on the cell under a point of the map.
+     * 
+     * @param x column in pixels
+     * @param y row in pixels
+     */
+    private void navigate(final int x, final int y) {
+        final double scale = painter.getScale();
+
+        if (scale == 0) {
+            return;
+        }
+
+        fieldPane.centerOn(
+            Math.min(Math.max(0, (int) (x / scale)), fieldWidth - 1),
+            Math.min(Math.max(0, (int) (y / scale)), fieldHeight - 1));
+    }
+
+    @Override
+    protected void paintComponent(final Graphics g) {
+        super.paintComponent(g);
+        painter.draw(g);
+
+        final double scale = painter.getScale();
+        final Rectangle cells = fieldPane.getVisibleCells();
+
+        if (scale == 0 || cells == null) {
+            return;
+        }
+
+        g.setColor(FRAME_COLOR);
+        g.drawRect((int) (cells.x * scale), (int) (cells.y * scale),
+            Math.max(1, (int) (cells.width * scale) - 1),
+            Math.max(1, (int) (cells.height * scale) - 1));
+    }
+
+    @Override
+    public void stateChanged(final ChangeEvent e) {
+        repaint();
+    }
+}
@@ -72,8 +72,10 @@ public class JParameterPane extends JPanel implements ChangeListener {
      * @param adjust if this pane is allowed to change that parameter
      */
     public JParameterPane(final Parameter parameter, final boolean adjust) {
+        final ParameterModel model = new ParameterModel(parameter);
+
         this.parameter = parameter;
-        parameter.addChangeListener(this);
+        model.addChangeListener(this);
 
         final Hashtable<Integer, JLabel> labelTable =
             new Hashtable<Integer, JLabel>();
@@ -85,7 +87,7 @@ public class JParameterPane extends JPanel implements ChangeListener {
             parameter.getMaximum(),
             new JLabel(String.valueOf(parameter.getMaximum())));
 
-        final JSlider slider = new JSlider(parameter);
+        final JSlider slider = new JSlider(model);
         slider.setPaintTicks(true);
         slider.setSnapToTicks(true);
         slider.setPaintLabels(true);
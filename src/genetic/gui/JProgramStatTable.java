@@ -28,42 +28,27 @@
 
 package genetic.gui;
 
-import genetic.Genetic;
-import genetic.data.Command;
-import genetic.data.Entity;
 import genetic.data.Field;
+import genetic.data.Parameter;
 import genetic.data.Program;
 
 import java.awt.Component;
 import java.awt.Dimension;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Observable;
-import java.util.Observer;
-import java.util.Vector;
-
-import javax.swing.BoxLayout;
+import java.awt.event.MouseEvent;
+
 import javax.swing.JLabel;
-import javax.swing.JPanel;
 import javax.swing.JTable;
-import javax.swing.event.TableModelEvent;
-import javax.swing.event.TableModelListener;
 import javax.swing.table.TableCellRenderer;
-import javax.swing.table.TableModel;
 
 /**
- * A {@link JTable} displaying the simulation's entity statistics.
+ * A {@link JTable} displaying the simulation's entity statistics. If
+ * {@link Parameter#GROUP_EQUIVALENT} is set, behaviourally identical programs
+ * share a row, represented by one of them.
  * 
  * @author Tim Wiederhake
+ * @see ProgramStatModel
  */
-public class JProgramStatTable
-extends JTable
-implements TableCellRenderer, TableModel, Observer,
-Comparator<Entry<Program, Integer>>
-{
+public class JProgramStatTable extends JTable implements TableCellRenderer {
     /** Not meant to be serialized. */
     private static final long serialVersionUID = 1L;
 
@@ -76,14 +61,14 @@ Comparator<Entry<Program, Integer>>
     /** Default size. */
     private static final Dimension DEFAULT_SIZE = new Dimension(300, 150);
 
-    /** TableModelListeners. */
-    private final Vector<TableModelListener> listener;
+    /** Pre-rendered genomes. */
+    private final GenomeStrips strips;
 
-    /** Entity statistics. */
-    private Vector<Entry<Program, Integer>> data;
+    /** The one component returned for program cells. */
+    private final JLabel programLabel;
 
-    /** Simulation field. */
-    private final Field field;
+    /** The one component returned for other cells. */
+    private final JLabel textLabel;
 
     /**
      * Create a new JProgramStatTable.
@@ -91,76 +76,34 @@ Comparator<Entry<Program, Integer>>
      * @param field simulation field
      */
     public JProgramStatTable(final Field field) {
-        this.listener = new Vector<TableModelListener>();
-        this.data = new Vector<Map.Entry<Program, Integer>>();
-        this.field = field;
+        this.strips = new GenomeStrips();
+        this.programLabel = new JLabel();
+        this.textLabel = new JLabel();
 
         if (field == null) {
             return;
         }
 
-        field.addObserver(this);
-
-        setModel(this);
+        setModel(new ProgramStatModel(field));
         setDefaultRenderer(Program.class, this);
         setRowHeight(ROWHEIGHT);
+        setToolTipText("");
 
         /* Why do we have to set MaxWidth as well? */
         getColumnModel().getColumn(0).setPreferredWidth(COLUMNWIDTH);
         getColumnModel().getColumn(0).setMaxWidth(COLUMNWIDTH * 2);
     }
 
-    @Override
-    public final void addTableModelListener(final TableModelListener l) {
-        listener.add(l);
-    }
-
     @Override
     protected final Object clone() throws CloneNotSupportedException {
         throw new CloneNotSupportedException();
     }
 
-    @Override
-    public final int compare(
-        final Entry<Program, Integer> o1,
-        final Entry<Program, Integer> o2)
-    {
-        return o2.getValue().compareTo(o1.getValue());
-    }
-
-    @Override
-    public final Class<?> getColumnClass(final int columnIndex) {
-        if (columnIndex == 0) {
-            return Integer.class;
-        } else {
-            return Program.class;
-        }
-    }
-
-    @Override
-    public final int getColumnCount() {
-        return 2;
-    }
-
-    @Override
-    public final String getColumnName(final int columnIndex) {
-        if (columnIndex == 0) {
-            return "#";
-        } else {
-            return "Program";
-        }
-    }
-
     @Override
     public final Dimension getPreferredScrollableViewportSize() {
         return DEFAULT_SIZE;
     }
 
-    @Override
-    public final int getRowCount() {
-        return data.size();
-    }
-
     @Override
     public final Component getTableCellRendererComponent(
         final JTable table,
@@ -172,78 +115,32 @@ Comparator<Entry<Program, Integer>>
     {
         if (value instanceof Program) {
             final Program program = (Program) value;
-            final JPanel panel = new JPanel();
-            panel.setLayout(new BoxLayout(panel, BoxLayout.X_AXIS));
-            for (final Command c : program) {
-                panel.add(new JLabel(Genetic.COMMAND_ICONS.get(c)));
-            }
+            programLabel.setIcon(strips.get(program));
 
-            return panel;
+            return programLabel;
         } else {
-            return new JLabel(String.valueOf(value));
-        }
-    }
-
-    @Override
-    public final Object getValueAt(final int rowIndex, final int columnIndex) {
-        final Vector<Entry<Program, Integer>> entries = data;
-
-        if (rowIndex >= entries.size()) {
-            return null;
-        }
+            textLabel.setText(String.valueOf(value));
 
-        final Entry<Program, Integer> entry = entries.get(rowIndex);
-
-        if (columnIndex == 0) {
-            return entry.getValue();
-        } else {
-            return entry.getKey();
+            return textLabel;
         }
     }
 
+    /**
+     * Describes the program under the mouse. Computed here rather than in
+     * the renderer, so painting doesn't pay for it.
+     * 
+     * @param event the mouse event
+     * @return the program's analysis summary, or <code>null</code>
+     */
     @Override
-    public final boolean isCellEditable(
-        final int rowIndex,
-        final int columnIndex)
-    {
-        return false;
-    }
-
-    @Override
-    public final void removeTableModelListener(final TableModelListener l) {
-        listener.remove(l);
-    }
-
-    @Override
-    public final void setValueAt(
-        final Object aValue,
-        final int rowIndex,
-        final int columnIndex)
-    {
-    }
+    public final String getToolTipText(final MouseEvent event) {
+        final int row = rowAtPoint(event.getPoint());
+        final Object value = row < 0 ? null : getValueAt(row, 1);
 
-    @Override
-    public final void update(final Observable o, final Object arg) {
-        final HashMap<Program, Integer> unsorted =
-            new HashMap<Program, Integer>();
-
-        final Vector<Entity> entities = new Vector<Entity>(field.getEntities());
-        for (final Entity entity : entities) {
-            final Program program = entity.getProgram();
-            int amount = 1;
-            if (unsorted.containsKey(program)) {
-                amount += unsorted.get(program);
-            }
-            unsorted.put(program, amount);
+        if (value instanceof Program) {
+            return ((Program) value).getAnalysis().getSummary();
         }
 
-        final Vector<Entry<Program, Integer>> sorted =
-            new Vector<Map.Entry<Program, Integer>>(unsorted.entrySet());
-        Collections.sort(sorted, this);
-
-        data = sorted;
-        for (final TableModelListener l : listener) {
-            l.tableChanged(new TableModelEvent(this));
-        }
+        return null;
     }
 }
@@ -28,17 +28,15 @@
 
 package genetic.gui;
 
-import genetic.Genetic;
 import genetic.data.Command;
 import genetic.data.Field;
+import genetic.data.FieldListener;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.InputStream;
-import java.util.Observable;
-import java.util.Observer;
 import java.util.Scanner;
 
 import javax.swing.Box;
@@ -167,6 +165,8 @@ class ActionHelpButton extends JDialog implements ActionListener {
         addDesc(Command.SKIP, "Skip one command");
         addDesc(Command.SKIP2, "Skip two commands");
         addDesc(Command.SLEEP, "Do nothing");
+        addDesc("Field scale 0 shows the whole field, click to zoom in.");
+        addDesc("Press or drag on the map above the statistics to scroll.");
         addDesc("Ctrl-Q, Ctrl-W = Close the program immediately.");
 
         final JButton closeButton = new JButton("Close");
@@ -197,7 +197,7 @@ class ActionHelpButton extends JDialog implements ActionListener {
     private void addDesc(final Command c, final String text) {
         final JLabel label = new JLabel(
             "= " + text,
-            Genetic.COMMAND_ICONS.get(c),
+            Gui.COMMAND_ICONS.get(c),
             JLabel.LEFT);
         contentPane.add(label);
         contentPane.add(Box.createVerticalStrut(Gui.GAP));
@@ -223,11 +223,13 @@ class ActionHelpButton extends JDialog implements ActionListener {
 }
 
 /**
- * {@link JPanel} displaying the simulation's status.
+ * {@link JPanel} displaying the simulation's status, updated once per frame:
+ * steps, population and the ticks and frames per second achieved by the
+ * {@link FramePacer}.
  * 
  * @author Tim Wiederhake
  */
-public class JStatusPane extends JPanel implements Observer {
+public class JStatusPane extends JPanel implements FieldListener {
     /** Not meant to be serialized. */
     private static final long serialVersionUID = 1L;
 
@@ -237,45 +239,67 @@ public class JStatusPane extends JPanel implements Observer {
     /** Simulation field. */
     private final Field field;
 
+    /** Runs the field in frames. */
+    private final FramePacer pacer;
+
     /** Display the simulation steps. */
     private final JTextField stepField;
 
     /** Display the simulation's total population. */
     private final JTextField populationField;
 
+    /** Display the ticks per second. */
+    private final JTextField ticksField;
+
+    /** Display the frames per second. */
+    private final JTextField framesField;
+
     /**
      * Create a new JStatusPane.
      * 
      * @param field simulation field
+     * @param pacer runs the field in frames
      * @param parentFrame parent frame
      */
-    public JStatusPane(final Field field, final JFrame parentFrame) {
+    public JStatusPane(
+        final Field field,
+        final FramePacer pacer,
+        final JFrame parentFrame)
+    {
         this.stepField = new JTextField(TEXTFIELD_WIDTH);
         this.populationField = new JTextField(TEXTFIELD_WIDTH);
+        this.ticksField = new JTextField(TEXTFIELD_WIDTH);
+        this.framesField = new JTextField(TEXTFIELD_WIDTH);
         this.field = field;
+        this.pacer = pacer;
         if (field != null) {
-            field.addObserver(this);
-            update(null, null);
+            pacer.addFrameListener(this);
+            fieldChanged(field);
         }
 
-        stepField.setEditable(false);
-        stepField.setHorizontalAlignment(SwingConstants.RIGHT);
-
-        populationField.setEditable(false);
-        populationField.setHorizontalAlignment(SwingConstants.RIGHT);
+        for (final JTextField f : new JTextField[] {stepField,
+            populationField, ticksField, framesField})
+        {
+            f.setEditable(false);
+            f.setHorizontalAlignment(SwingConstants.RIGHT);
+        }
 
         final JLabel stepLabel = new JLabel("Steps: ");
         final JLabel populationLabel = new JLabel("Population: ");
+        final JLabel ticksLabel = new JLabel("Ticks/s: ");
+        final JLabel framesLabel = new JLabel("Frames/s: ");
 
         stepLabel.setLabelFor(stepField);
         populationLabel.setLabelFor(populationField);
+        ticksLabel.setLabelFor(ticksField);
+        framesLabel.setLabelFor(framesField);
 
         final JButton helpButton = new JButton(
             "Help",
-            Genetic.loadIcon("/genetic/res/questionmark.png"));
+            Gui.loadIcon("/genetic/res/questionmark.png"));
         final JButton aboutButton = new JButton(
             "About",
-            Genetic.loadIcon("/genetic/res/businesscard.png"));
+            Gui.loadIcon("/genetic/res/businesscard.png"));
 
         helpButton.addActionListener(new ActionHelpButton(parentFrame));
         helpButton.setFocusPainted(false);
@@ -288,6 +312,12 @@ public class JStatusPane extends JPanel implements Observer {
         labelPane.add(Box.createHorizontalStrut(Gui.GAP * 2));
         labelPane.add(populationLabel);
         labelPane.add(populationField);
+        labelPane.add(Box.createHorizontalStrut(Gui.GAP * 2));
+        labelPane.add(ticksLabel);
+        labelPane.add(ticksField);
+        labelPane.add(Box.createHorizontalStrut(Gui.GAP * 2));
+        labelPane.add(framesLabel);
+        labelPane.add(framesField);
 
         final JPanel buttonPane = new JPanel();
         buttonPane.add(helpButton);
@@ -306,8 +336,11 @@ public class JStatusPane extends JPanel implements Observer {
     }
 
     @Override
-    public final void update(final Observable o, final Object arg) {
+    public final void fieldChanged(final Field f) {
         stepField.setText(String.valueOf(field.getStep()));
         populationField.setText(String.valueOf(field.getEntities().size()));
+        ticksField.setText(String.format("%.0f", pacer.getTicksPerSecond()));
+        framesField.setText(String.format("%.0f",
+            pacer.getFramesPerSecond()));
     }
 }
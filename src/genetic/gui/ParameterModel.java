@@ -0,0 +1,153 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Parameter;
+import genetic.data.ParameterListener;
+
+import java.util.Vector;
+
+import javax.swing.BoundedRangeModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * {@link BoundedRangeModel} of a {@link Parameter}, for convenient access
+ * through default java swing sliders etc.
+ */
+public class ParameterModel implements BoundedRangeModel, ParameterListener {
+    /** The parameter. */
+    private final Parameter parameter;
+
+    /** Avoid update bursts when dragging a slider. */
+    private boolean valueIsAdjusting;
+
+    /** ChangeListeners. */
+    private final Vector<ChangeListener> changeListener;
+
+    /**
+     * Create a new ParameterModel.
+     * 
+     * @param parameter the parameter
+     */
+    public ParameterModel(final Parameter parameter) {
+        this.parameter = parameter;
+        this.changeListener = new Vector<ChangeListener>();
+        parameter.addParameterListener(this);
+    }
+
+    @Override
+    public void addChangeListener(final ChangeListener x) {
+        changeListener.add(x);
+    }
+
+    @Override
+    public int getExtent() {
+        /* ignore */
+        return 0;
+    }
+
+    @Override
+    public final int getMaximum() {
+        return parameter.getMaximum();
+    }
+
+    @Override
+    public final int getMinimum() {
+        return parameter.getMinimum();
+    }
+
+    /**
+     * Returns the parameter.
+     * 
+     * @return the parameter
+     */
+    public final Parameter getParameter() {
+        return parameter;
+    }
+
+    @Override
+    public final int getValue() {
+        return parameter.getValue();
+    }
+
+    @Override
+    public boolean getValueIsAdjusting() {
+        return valueIsAdjusting;
+    }
+
+    @Override
+    public void parameterChanged(final Parameter p) {
+        for (final ChangeListener x : changeListener) {
+            x.stateChanged(new ChangeEvent(this));
+        }
+    }
+
+    @Override
+    public void removeChangeListener(final ChangeListener x) {
+        changeListener.remove(x);
+    }
+
+    @Override
+    public void setExtent(final int newExtent) {
+        /* ignore */
+    }
+
+    @Override
+    public void setMaximum(final int newMaximum) {
+        /* ignore */
+    }
+
+    @Override
+    public void setMinimum(final int newMinimum) {
+        /* ignore */
+    }
+
+    @Override
+    public void setRangeProperties(
+        final int val,
+        final int extent,
+        final int min,
+        final int max,
+        final boolean adjusting)
+    {
+        setValueIsAdjusting(adjusting);
+        setValue(val);
+    }
+
+    @Override
+    public final void setValue(final int value) {
+        parameter.setValue(value);
+    }
+
+    @Override
+    public void setValueIsAdjusting(final boolean b) {
+        valueIsAdjusting = b;
+    }
+}
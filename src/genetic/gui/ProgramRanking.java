@@ -0,0 +1,374 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Program;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Programs (or groups of equivalent programs) ranked by their number of
+ * entities, most frequent first, with ties in order of appearance. An
+ * order-statistics treap keeps the ranking sorted under incremental count
+ * changes: changing a count and finding a rank take logarithmic time, and a
+ * page of consecutive ranks is read in logarithmic plus page-size time.
+ */
+final class ProgramRanking {
+    /** A ranked program and its treap node. */
+    private static final class Node {
+        /** The key the program was counted under. */
+        private final Object key;
+
+        /** Representative program. */
+        private final Program program;
+
+        /** Order of appearance, breaks ties. */
+        private final long id;
+
+        /** Random heap priority. */
+        private final int priority;
+
+        /** Number of entities. */
+        private int count;
+
+        /** Number of nodes in this subtree. */
+        private int size = 1;
+
+        /** Left child, ranked before this. */
+        private Node left;
+
+        /** Right child, ranked after this. */
+        private Node right;
+
+        /**
+         * Create a new Node.
+         * 
+         * @param key the key
+         * @param program representative program
+         * @param id order of appearance
+         * @param priority heap priority
+         */
+        private Node(
+            final Object key,
+            final Program program,
+            final long id,
+            final int priority)
+        {
+            this.key = key;
+            this.program = program;
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+
+    /** Nodes by key. */
+    private final HashMap<Object, Node> nodes = new HashMap<Object, Node>();
+
+    /** Priorities of new nodes. */
+    private final Random priorities = new Random();
+
+    /** Root of the treap. */
+    private Node root;
+
+    /** Order of appearance of the next new node. */
+    private long nextId;
+
+    /** Rank of the last changed key before the change, or -1. */
+    private int oldRank;
+
+    /** Rank of the last changed key after the change, or -1. */
+    private int newRank;
+
+    /**
+     * Change the count of a key.
+     * 
+     * @param key the key
+     * @param program representative program if the key is new
+     * @param delta change of the count
+     * @see #getOldRank()
+     * @see #getNewRank()
+     */
+    void add(final Object key, final Program program, final int delta) {
+        Node node = nodes.get(key);
+
+        if (node == null) {
+            oldRank = -1;
+            if (delta <= 0) {
+                newRank = -1;
+                return;
+            }
+
+            node = new Node(key, program, nextId++, priorities.nextInt());
+            nodes.put(key, node);
+        } else {
+            oldRank = rank(node);
+            root = remove(root, node);
+        }
+
+        node.count += delta;
+
+        if (node.count > 0) {
+            node.left = null;
+            node.right = null;
+            node.size = 1;
+            root = insert(root, node);
+            newRank = rank(node);
+        } else {
+            nodes.remove(key);
+            newRank = -1;
+        }
+    }
+
+    /**
+     * Whether a ranks before b.
+     * 
+     * @param a a node
+     * @param b another node
+     * @return whether a ranks before b
+     */
+    private static boolean before(final Node a, final Node b) {
+        return a.count > b.count || (a.count == b.count && a.id < b.id);
+    }
+
+    /**
+     * Remove everything.
+     */
+    void clear() {
+        nodes.clear();
+        root = null;
+    }
+
+    /**
+     * Copy the programs and counts of consecutive ranks.
+     * 
+     * @param from first rank
+     * @param programs destination of the programs, from index 0
+     * @param counts destination of the counts, from index 0
+     * @return number of copied ranks
+     */
+    int copy(final int from, final Program[] programs, final int[] counts) {
+        final int to = Math.min(size(), from + programs.length);
+        copy(root, 0, from, to, programs, counts);
+        return Math.max(0, to - from);
+    }
+
+    /**
+     * Copy the ranks from (inclusive) to (exclusive) of a subtree.
+     * 
+     * @param node subtree
+     * @param offset rank of the subtree's first node
+     * @param from first rank to copy
+     * @param to rank after the last to copy
+     * @param programs destination of the programs
+     * @param counts destination of the counts
+     */
+    private static void copy(
+        final Node node,
+        final int offset,
+        final int from,
+        final int to,
+        final Program[] programs,
+        final int[] counts)
+    {
+        if (node == null || offset >= to || offset + node.size <= from) {
+            return;
+        }
+
+        final int rank = offset + size(node.left);
+        copy(node.left, offset, from, to, programs, counts);
+
+        if (rank >= from && rank < to) {
+            programs[rank - from] = node.program;
+            counts[rank - from] = node.count;
+        }
+
+        copy(node.right, rank + 1, from, to, programs, counts);
+    }
+
+    /**
+     * Returns the rank of the last changed key after the change.
+     * 
+     * @return the rank, or -1 if the key is gone
+     */
+    int getNewRank() {
+        return newRank;
+    }
+
+    /**
+     * Returns the rank of the last changed key before the change.
+     * 
+     * @return the rank, or -1 if the key was new
+     */
+    int getOldRank() {
+        return oldRank;
+    }
+
+    /**
+     * Insert a node into a subtree.
+     * 
+     * @param node subtree, may be <code>null</code>
+     * @param n new node without children
+     * @return the new subtree
+     */
+    private static Node insert(final Node node, final Node n) {
+        if (node == null) {
+            return n;
+        }
+
+        if (n.priority > node.priority) {
+            split(node, n);
+            return update(n);
+        }
+
+        if (before(n, node)) {
+            node.left = insert(node.left, n);
+        } else {
+            node.right = insert(node.right, n);
+        }
+
+        return update(node);
+    }
+
+    /**
+     * Merge two subtrees, all of a ranking before all of b.
+     * 
+     * @param a first subtree
+     * @param b second subtree
+     * @return the merged subtree
+     */
+    private static Node merge(final Node a, final Node b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        } else {
+            b.left = merge(a, b.left);
+            return update(b);
+        }
+    }
+
+    /**
+     * Returns the rank of a node in the treap.
+     * 
+     * @param n the node
+     * @return its rank
+     */
+    private int rank(final Node n) {
+        int rank = 0;
+        Node node = root;
+
+        while (node != n) {
+            if (before(n, node)) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+
+        return rank + size(n.left);
+    }
+
+    /**
+     * Remove a node from a subtree.
+     * 
+     * @param node subtree containing n
+     * @param n the node
+     * @return the new subtree
+     */
+    private static Node remove(final Node node, final Node n) {
+        if (node == n) {
+            return merge(n.left, n.right);
+        }
+
+        if (before(n, node)) {
+            node.left = remove(node.left, n);
+        } else {
+            node.right = remove(node.right, n);
+        }
+
+        return update(node);
+    }
+
+    /**
+     * Returns the number of ranked keys.
+     * 
+     * @return the number of ranked keys
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the size of a subtree.
+     * 
+     * @param node subtree, may be <code>null</code>
+     * @return its size
+     */
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Split a subtree around a node that is not part of it, making the
+     * halves its children.
+     * 
+     * @param node subtree, may be <code>null</code>
+     * @param n the node to split around
+     */
+    private static void split(final Node node, final Node n) {
+        if (node == null) {
+            n.left = null;
+            n.right = null;
+        } else if (before(node, n)) {
+            split(node.right, n);
+            node.right = n.left;
+            n.left = update(node);
+        } else {
+            split(node.left, n);
+            node.left = n.right;
+            n.right = update(node);
+        }
+    }
+
+    /**
+     * Recompute the size of a node.
+     * 
+     * @param node the node
+     * @return the node
+     */
+    private static Node update(final Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+}
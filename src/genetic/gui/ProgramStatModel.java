@@ -0,0 +1,373 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.gui;
+
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.Parameter;
+import genetic.data.ParameterListener;
+import genetic.data.PopulationListener;
+import genetic.data.Program;
+import genetic.data.ProgramAnalysis;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model of the number of entities per program, most frequent first.
+ * If {@link Parameter#GROUP_EQUIVALENT} is set, behaviourally identical
+ * programs share a row, represented by one of them.
+ * 
+ * The simulation thread only records births and deaths per program, or per
+ * analysis when grouping. Every {@link #REFRESH_MS} the event dispatch thread
+ * looks up the canonical forms, applies the changes to a
+ * {@link ProgramRanking} and fires one row event per changed row, or a
+ * single data change for large batches. Rows are materialized a page at a
+ * time, only when the table asks for them, and again after every change.
+ */
+final class ProgramStatModel
+extends AbstractTableModel
+implements PopulationListener, FieldListener, ParameterListener,
+    ActionListener
+{
+    /** Not meant to be serialized. */
+    private static final long serialVersionUID = 1L;
+
+    /** Milliseconds between two refreshes. */
+    private static final int REFRESH_MS = 100;
+
+    /** Largest batch announced row by row. */
+    private static final int MAX_ROW_EVENTS = 256;
+
+    /** Number of rows materialized at once. */
+    private static final int PAGE_SIZE = 64;
+
+    /** Recorded change of a program's count. */
+    private static final class Change {
+        /** Representative program. */
+        private final Program program;
+
+        /** Change of the count. */
+        private int delta;
+
+        /**
+         * Create a new Change.
+         * 
+         * @param program representative program
+         */
+        private Change(final Program program) {
+            this.program = program;
+        }
+    }
+
+    /** Simulation field. */
+    private final Field field;
+
+    /** The ranking, event dispatch thread only. */
+    private final ProgramRanking ranking = new ProgramRanking();
+
+    /** Programs of the current page. */
+    private final Program[] pagePrograms = new Program[PAGE_SIZE];
+
+    /** Counts of the current page. */
+    private final int[] pageCounts = new int[PAGE_SIZE];
+
+    /** First row of the current page, or -1 if there is none. */
+    private int pageStart = -1;
+
+    /** Number of rows of the current page. */
+    private int pageLength;
+
+    /**
+     * Changes not applied yet, by program or, when grouping, by analysis,
+     * guarded by this.
+     */
+    private HashMap<Object, Change> pending = new HashMap<Object, Change>();
+
+    /** Whether the ranking must be cleared first, guarded by this. */
+    private boolean pendingClear;
+
+    /** Whether the pending changes are grouped, guarded by this. */
+    private boolean pendingGrouped;
+
+    /** Whether programs are grouped, simulation thread only. */
+    private boolean grouped;
+
+    /** Whether the population must be counted again. */
+    private volatile boolean recount = true;
+
+    /**
+     * Create a new ProgramStatModel. The population is counted after the
+     * next tick.
+     * 
+     * @param field simulation field
+     */
+    ProgramStatModel(final Field field) {
+        this.field = field;
+
+        field.addPopulationListener(this);
+        field.addFieldListener(this);
+        Parameter.GROUP_EQUIVALENT.addParameterListener(this);
+        new Timer(REFRESH_MS, this).start();
+    }
+
+    /**
+     * Apply the recorded changes. Called on the event dispatch thread.
+     * 
+     * @param event ignored
+     */
+    @Override
+    public void actionPerformed(final ActionEvent event) {
+        HashMap<Object, Change> changes;
+        final boolean clear;
+        final boolean group;
+
+        synchronized (this) {
+            if (pending.isEmpty() && !pendingClear) {
+                return;
+            }
+
+            changes = pending;
+            clear = pendingClear;
+            group = pendingGrouped;
+            pending = new HashMap<Object, Change>();
+            pendingClear = false;
+        }
+
+        if (clear) {
+            ranking.clear();
+            pageStart = -1;
+        }
+
+        if (group) {
+            changes = group(changes);
+        }
+
+        final boolean rowEvents = !clear && changes.size() <= MAX_ROW_EVENTS;
+
+        for (final Map.Entry<Object, Change> e : changes.entrySet()) {
+            final Change c = e.getValue();
+
+            if (c.delta == 0) {
+                continue;
+            }
+
+            ranking.add(e.getKey(), c.program, c.delta);
+            pageStart = -1;
+
+            if (rowEvents) {
+                fireRowEvents(ranking.getOldRank(), ranking.getNewRank());
+            }
+        }
+
+        if (!rowEvents) {
+            fireTableDataChanged();
+        }
+    }
+
+    @Override
+    public void entityAdded(final Entity e) {
+        record(e.getProgram(), 1);
+    }
+
+    @Override
+    public void entityRemoved(final Entity e) {
+        record(e.getProgram(), -1);
+    }
+
+    /**
+     * Announce the move of a row.
+     * 
+     * @param oldRank row before, or -1 if it is new
+     * @param newRank row after, or -1 if it is gone
+     */
+    private void fireRowEvents(final int oldRank, final int newRank) {
+        if (oldRank == newRank) {
+            if (oldRank >= 0) {
+                fireTableRowsUpdated(oldRank, oldRank);
+            }
+            return;
+        }
+
+        if (oldRank >= 0) {
+            fireTableRowsDeleted(oldRank, oldRank);
+        }
+
+        if (newRank >= 0) {
+            fireTableRowsInserted(newRank, newRank);
+        }
+    }
+
+    @Override
+    public Class<?> getColumnClass(final int columnIndex) {
+        if (columnIndex == 0) {
+            return Integer.class;
+        } else {
+            return Program.class;
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 2;
+    }
+
+    @Override
+    public String getColumnName(final int columnIndex) {
+        if (columnIndex == 0) {
+            return "#";
+        } else {
+            return "Program";
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return ranking.size();
+    }
+
+    @Override
+    public Object getValueAt(final int rowIndex, final int columnIndex) {
+        if (pageStart < 0 || rowIndex < pageStart
+            || rowIndex >= pageStart + pageLength)
+        {
+            pageStart = rowIndex - (rowIndex % PAGE_SIZE);
+            pageLength = ranking.copy(pageStart, pagePrograms, pageCounts);
+        }
+
+        if (rowIndex < pageStart || rowIndex >= pageStart + pageLength) {
+            return null;
+        }
+
+        if (columnIndex == 0) {
+            return pageCounts[rowIndex - pageStart];
+        } else {
+            return pagePrograms[rowIndex - pageStart];
+        }
+    }
+
+    /**
+     * Combine the changes of behaviourally identical programs.
+     * 
+     * @param byAnalysis changes by analysis
+     * @return changes by canonical form
+     */
+    private static HashMap<Object, Change> group(
+        final HashMap<Object, Change> byAnalysis)
+    {
+        final HashMap<Object, Change> byForm = new HashMap<Object, Change>();
+
+        for (final Map.Entry<Object, Change> e : byAnalysis.entrySet()) {
+            final String form =
+                ((ProgramAnalysis) e.getKey()).getCanonicalForm();
+            final Change c = byForm.get(form);
+
+            if (c == null) {
+                byForm.put(form, e.getValue());
+            } else {
+                c.delta += e.getValue().delta;
+            }
+        }
+
+        return byForm;
+    }
+
+    @Override
+    public void populationCleared() {
+        synchronized (this) {
+            pending.clear();
+            pendingClear = true;
+        }
+    }
+
+    /**
+     * Record a change of a program's count. When grouping, programs are only
+     * told apart by their analysis here, which identical copies share; the
+     * canonical form is left to the event dispatch thread.
+     * 
+     * @param program the program
+     * @param delta change of the count
+     */
+    private void record(final Program program, final int delta) {
+        final Object key = grouped ? program.getAnalysis() : program;
+
+        synchronized (this) {
+            Change c = pending.get(key);
+
+            if (c == null) {
+                c = new Change(program);
+                pending.put(key, c);
+            }
+
+            c.delta += delta;
+        }
+    }
+
+    /**
+     * Group or ungroup programs after the next tick.
+     * 
+     * @param p ignored
+     */
+    @Override
+    public void parameterChanged(final Parameter p) {
+        recount = true;
+    }
+
+    /**
+     * Count the whole population again if needed. Called on the simulation
+     * thread after each tick.
+     * 
+     * @param f the field
+     */
+    @Override
+    public void fieldChanged(final Field f) {
+        if (!recount) {
+            return;
+        }
+
+        recount = false;
+        grouped = Parameter.GROUP_EQUIVALENT.getValue() != 0;
+
+        synchronized (this) {
+            pending.clear();
+            pendingClear = true;
+            pendingGrouped = grouped;
+        }
+
+        for (final Entity e : field.getEntities()) {
+            record(e.getProgram(), 1);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import genetic.data.Field;
+
+/**
+ * A ring of independent {@link Island}s, each ticked on its own thread. Every
+ * <code>interval</code> ticks, each island sends <code>migrants</code> random
+ * entities (with their programs) to the next island in the ring. Islands do
+ * not wait for each other, so throughput scales with the number of cores.
+ * Paced islands, e.g. for display, run in frames of a {@link Pacer}.
+ */
+public class Archipelago {
+    /** The islands, in ring order. */
+    private final Island[] islands;
+
+    /** Pacer of each island, or <code>null</code> if not paced. */
+    private final Pacer[] pacers;
+
+    /** Island threads. */
+    private final Thread[] threads;
+
+    /** Number of migrants per migration. */
+    private final int migrants;
+
+    /** Ticks between migrations, 0 to disable migration. */
+    private final int interval;
+
+    /** Number of ticks to run, or -1 to run forever. */
+    private final int maxTicks;
+
+    /** Set to stop all island threads. */
+    private volatile boolean stopped;
+
+    /**
+     * Create a new Archipelago.
+     * 
+     * @param count number of islands, must be positive
+     * @param offHeap whether to keep the cell layers outside of the Java heap
+     * @param migrants number of migrants per migration
+     * @param interval ticks between migrations, 0 to disable migration
+     * @param maxTicks number of ticks to run, or -1 to run forever
+     */
+    public Archipelago(
+        final int count,
+        final boolean offHeap,
+        final int migrants,
+        final int interval,
+        final int maxTicks)
+    {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Illegal island count: "
+                + count);
+        }
+
+        this.islands = new Island[count];
+        this.pacers = new Pacer[count];
+        this.threads = new Thread[count];
+        this.migrants = migrants;
+        this.interval = interval;
+        this.maxTicks = maxTicks;
+
+        for (int i = 0; i < count; ++i) {
+            islands[i] = new Island(new Field(offHeap));
+        }
+    }
+
+    /**
+     * Returns an island.
+     * 
+     * @param index island index
+     * @return the island
+     */
+    public final Island getIsland(final int index) {
+        return islands[index];
+    }
+
+    /**
+     * Returns the number of islands.
+     * 
+     * @return the number of islands
+     */
+    public final int getIslandCount() {
+        return islands.length;
+    }
+
+    /**
+     * Returns the pacer of an island.
+     * 
+     * @param index island index
+     * @return the pacer, or <code>null</code> if the island is not paced
+     */
+    public final Pacer getPacer(final int index) {
+        return pacers[index];
+    }
+
+    /**
+     * Returns whether an island is to make more ticks.
+     * 
+     * @param island the island
+     * @return whether it is to go on
+     */
+    private boolean isDue(final Island island) {
+        return !stopped && (maxTicks < 0 || island.getTicks() < maxTicks);
+    }
+
+    /**
+     * Returns whether any island thread is still running.
+     * 
+     * @return whether any island thread is still running
+     */
+    public final boolean isRunning() {
+        for (final Thread t : threads) {
+            if (t != null && t.isAlive()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Wait for all island threads to finish.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public final void join() throws InterruptedException {
+        for (final Thread t : threads) {
+            t.join();
+        }
+    }
+
+    /**
+     * Run an island in frames of the given pacer. Must be called before
+     * {@link #start()}.
+     * 
+     * @param index island index
+     * @param pacer the pacer, or <code>null</code> to run freely
+     */
+    public final void setPacer(final int index, final Pacer pacer) {
+        pacers[index] = pacer;
+    }
+
+    /**
+     * Start all island threads.
+     */
+    public final void start() {
+        for (int i = 0; i < islands.length; ++i) {
+            final Island island = islands[i];
+            final Island next = islands[(i + 1) % islands.length];
+            final Pacer pacer = pacers[i];
+
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runIsland(island, next, pacer);
+                }
+            }, "island-" + i);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Ask all island threads to stop after their current tick.
+     */
+    public final void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Main loop of an island thread.
+     * 
+     * @param island the island to tick
+     * @param next the island receiving this island's emigrants
+     * @param pacer the island's pacer, or <code>null</code>
+     */
+    private void runIsland(
+        final Island island,
+        final Island next,
+        final Pacer pacer)
+    {
+        while (isDue(island)) {
+            final int ticks = pacer == null ? 1 : pacer.startFrame();
+            int done = 0;
+
+            while (done < ticks && isDue(island)
+                && (done == 0 || pacer == null || pacer.hasTime()))
+            {
+                if (interval > 0 && next != island && island.getTicks() > 0
+                    && island.getTicks() % interval == 0)
+                {
+                    next.immigrate(island.emigrate(migrants));
+                }
+
+                island.tick();
+                ++done;
+            }
+
+            if (pacer != null) {
+                pacer.endFrame(island.getField(), done);
+            }
+        }
+    }
+}
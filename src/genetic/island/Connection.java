@@ -0,0 +1,337 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A framed, bidirectional message connection over a {@link SocketChannel}
+ * (TCP or Unix domain socket).
+ * 
+ * Each frame is a type byte, a payload length and the payload. Reading happens
+ * on the caller's thread. Sending only enqueues the frame; a dedicated writer
+ * thread drains everything queued so far and flushes once per batch, so the
+ * simulation never blocks on the network. At most {@link #OUTBOX_SIZE} frames
+ * are queued; a peer that falls further behind loses frames rather than
+ * piling up memory on the sending side.
+ */
+public class Connection {
+    /** Largest accepted payload. */
+    private static final int MAX_PAYLOAD = 1 << 24;
+
+    /** Largest number of frames queued for writing. */
+    private static final int OUTBOX_SIZE = 256;
+
+    /** Size of the stream buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Time to wait for pending frames when closing. */
+    private static final int CLOSE_TIMEOUT_MS = 1000;
+
+    /** Marks the end of the outgoing frames. */
+    private static final Frame END = new Frame((byte) 0, new byte[0]);
+
+    /** Underlying channel. */
+    private final SocketChannel channel;
+
+    /** Buffered input. */
+    private final DataInputStream in;
+
+    /** Buffered output, only used by the writer thread. */
+    private final DataOutputStream out;
+
+    /** Frames waiting to be written. */
+    private final BlockingQueue<Frame> outbox;
+
+    /** Writes queued frames. */
+    private final Thread writer;
+
+    /** Set when the connection is closed. */
+    private volatile boolean closed;
+
+    /**
+     * A single message.
+     */
+    public static final class Frame {
+        /** Message type. */
+        private final byte type;
+
+        /** Message payload. */
+        private final byte[] payload;
+
+        /**
+         * Create a new Frame.
+         * 
+         * @param type message type
+         * @param payload message payload
+         */
+        public Frame(final byte type, final byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        /**
+         * Returns the payload.
+         * 
+         * @return the payload
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Returns the message type.
+         * 
+         * @return the message type
+         */
+        public byte getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Create a new Connection and start its writer thread.
+     * 
+     * @param channel connected, blocking channel
+     * @param name name of the writer thread
+     */
+    public Connection(final SocketChannel channel, final String name) {
+        this.channel = channel;
+        this.in = new DataInputStream(new BufferedInputStream(
+            new ChannelInput(channel), BUFFER_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            new ChannelOutput(channel), BUFFER_SIZE));
+        this.outbox = new ArrayBlockingQueue<Frame>(OUTBOX_SIZE);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Close the connection. Frames that were already queued are still written,
+     * unless that takes longer than {@link #CLOSE_TIMEOUT_MS}.
+     */
+    public final void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            if (outbox.offer(END, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                writer.join(CLOSE_TIMEOUT_MS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        closeChannel();
+    }
+
+    /**
+     * Returns the number of frames queued but not written yet.
+     * 
+     * @return the number of queued frames
+     */
+    public final int getBacklog() {
+        return outbox.size();
+    }
+
+    /**
+     * Returns whether the connection was closed.
+     * 
+     * @return whether the connection was closed
+     */
+    public final boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Block until the next frame arrives.
+     * 
+     * @return the frame
+     * @throws IOException if the connection failed or was closed
+     */
+    public final Frame receive() throws IOException {
+        final byte type = in.readByte();
+        final int length = in.readInt();
+
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Illegal payload length: " + length);
+        }
+
+        final byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Queue a frame for sending. Never blocks; the frame is dropped if the
+     * connection is closed or {@link #OUTBOX_SIZE} frames are queued already.
+     * 
+     * @param type message type
+     * @param payload message payload
+     * @return whether the frame was queued
+     */
+    public final boolean send(final byte type, final byte[] payload) {
+        return !closed && outbox.offer(new Frame(type, payload));
+    }
+
+    /**
+     * Close the underlying channel immediately.
+     */
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            /* nothing left to do */
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.
+     */
+    private void writeLoop() {
+        final List<Frame> batch = new ArrayList<Frame>();
+
+        try {
+            while (true) {
+                batch.add(outbox.take());
+                outbox.drainTo(batch);
+
+                for (final Frame f : batch) {
+                    if (f == END) {
+                        out.flush();
+                        return;
+                    }
+
+                    out.writeByte(f.type);
+                    out.writeInt(f.payload.length);
+                    out.write(f.payload);
+                }
+
+                out.flush();
+                batch.clear();
+            }
+        } catch (final InterruptedException e) {
+            closed = true;
+            closeChannel();
+        } catch (final IOException e) {
+            closed = true;
+            closeChannel();
+        }
+    }
+
+    /**
+     * Reads directly from the channel. Unlike the streams from
+     * {@link java.nio.channels.Channels}, this does not hold the channel's
+     * blocking lock, so reading and writing can happen at the same time.
+     */
+    private static final class ChannelInput extends InputStream {
+        /** Underlying channel. */
+        private final SocketChannel channel;
+
+        /**
+         * Create a new ChannelInput.
+         * 
+         * @param channel underlying channel
+         */
+        ChannelInput(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    /**
+     * Writes directly to the channel, see {@link ChannelInput}.
+     */
+    private static final class ChannelOutput extends OutputStream {
+        /** Underlying channel. */
+        private final SocketChannel channel;
+
+        /**
+         * Create a new ChannelOutput.
+         * 
+         * @param channel underlying channel
+         */
+        ChannelOutput(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import genetic.data.Command;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central process of a distributed island model. {@link Worker}s connect to
+ * it in any order; the coordinator arranges them in a ring in order of
+ * arrival, forwards each worker's migrant batches to the next worker, and
+ * prints aggregated statistics once per second. A batch with nowhere to go,
+ * because its sender is alone in the ring, is sent back to the sender, whose
+ * emigrants have already left its field. Forwarding copies the raw
+ * payload without decoding it, and every worker has its own writer thread,
+ * so one slow worker does not hold up the others; a worker too far behind
+ * loses the batches meant for it. A worker that sends a malformed frame is
+ * dropped as if it had disconnected.
+ */
+public class Coordinator {
+    /** Milliseconds between two status lines. */
+    private static final int REPORT_INTERVAL_MS = 1000;
+
+    /** Listening channel. */
+    private final ServerSocketChannel server;
+
+    /** Connected workers, in ring order. */
+    private final List<Peer> peers;
+
+    /** Number of migrants forwarded so far. */
+    private final AtomicLong forwarded;
+
+    /** Ticks done by workers that have disconnected. */
+    private final AtomicLong retiredTicks;
+
+    /** Whether any worker has connected yet. */
+    private volatile boolean started;
+
+    /**
+     * A connected worker and its latest statistics.
+     */
+    private static final class Peer {
+        /** Connection to the worker. */
+        private final Connection connection;
+
+        /** Ticks done so far. */
+        private volatile int ticks;
+
+        /** Current population. */
+        private volatile int population;
+
+        /** Current amount of grass. */
+        private volatile int grass;
+
+        /** Number of entities running the most common program. */
+        private volatile int topCount;
+
+        /** Most common program. */
+        private volatile String top = "";
+
+        /**
+         * Create a new Peer.
+         * 
+         * @param connection connection to the worker
+         */
+        Peer(final Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Create a new Coordinator listening on the given address.
+     * 
+     * @param address unix or tcp address, see {@link Protocol}
+     * @throws IOException if binding failed
+     */
+    public Coordinator(final String address) throws IOException {
+        this.server = Protocol.listen(address);
+        this.peers = new CopyOnWriteArrayList<Peer>();
+        this.forwarded = new AtomicLong();
+        this.retiredTicks = new AtomicLong();
+    }
+
+    /**
+     * Accept workers and report statistics until all workers that ever
+     * connected have disconnected again.
+     */
+    public final void run() {
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        long lastTicks = 0;
+        long lastForwarded = 0;
+        long lastTime = System.nanoTime();
+
+        while (!started || !peers.isEmpty()) {
+            try {
+                Thread.sleep(REPORT_INTERVAL_MS);
+            } catch (final InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            long ticks = retiredTicks.get();
+            long population = 0;
+            Peer best = null;
+
+            for (final Peer p : peers) {
+                ticks += p.ticks;
+                population += p.population;
+                if (best == null || p.topCount > best.topCount) {
+                    best = p;
+                }
+            }
+
+            final long now = System.nanoTime();
+            final double seconds = (now - lastTime) / 1e9;
+            final long migrants = forwarded.get();
+
+            System.out.printf("workers: %d, ticks/s: %.0f, population: %d,"
+                + " migrants/s: %.0f, top: %s%n",
+                peers.size(),
+                (ticks - lastTicks) / seconds,
+                population,
+                (migrants - lastForwarded) / seconds,
+                (best == null || best.topCount == 0)
+                    ? "-" : best.topCount + "x " + best.top);
+
+            lastTicks = ticks;
+            lastForwarded = migrants;
+            lastTime = now;
+        }
+    }
+
+    /**
+     * Main loop of the acceptor thread.
+     */
+    private void acceptLoop() {
+        try {
+            while (true) {
+                final SocketChannel channel = server.accept();
+                final Peer peer = new Peer(new Connection(channel,
+                    "writer-" + peers.size()));
+
+                peers.add(peer);
+                started = true;
+
+                final Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        readLoop(peer);
+                    }
+                }, "reader-" + peers.size());
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (final IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forward a batch of migrants to the worker following the sender, or
+     * back to the sender if there is none.
+     * 
+     * @param sender sending worker
+     * @param payload encoded migrants
+     * @throws IOException if the payload is too short to hold a count
+     */
+    private void forward(final Peer sender, final byte[] payload)
+        throws IOException
+    {
+        if (payload.length < Integer.BYTES) {
+            throw new IOException("Truncated migrants: " + payload.length
+                + " bytes");
+        }
+
+        final Object[] ring = peers.toArray();
+        final int index = indexOf(ring, sender);
+
+        if (index < 0 || ring.length < 2) {
+            /* nobody else to take them, they go home */
+            sender.connection.send(Protocol.MIGRANTS, payload);
+            return;
+        }
+
+        final Peer next = (Peer) ring[(index + 1) % ring.length];
+        if (next.connection.send(Protocol.MIGRANTS, payload)) {
+            forwarded.addAndGet(((payload[0] & 0xFF) << 24)
+                | ((payload[1] & 0xFF) << 16)
+                | ((payload[2] & 0xFF) << 8)
+                | (payload[3] & 0xFF));
+        }
+    }
+
+    /**
+     * Returns the index of a peer in a snapshot of the ring.
+     * 
+     * @param ring snapshot of {@link #peers}
+     * @param peer peer to find
+     * @return index, or -1
+     */
+    private static int indexOf(final Object[] ring, final Peer peer) {
+        for (int i = 0; i < ring.length; ++i) {
+            if (ring[i] == peer) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Main loop of a worker's reader thread.
+     * 
+     * @param peer the worker
+     */
+    private void readLoop(final Peer peer) {
+        try {
+            while (true) {
+                final Connection.Frame frame = peer.connection.receive();
+
+                if (frame.getType() == Protocol.MIGRANTS) {
+                    forward(peer, frame.getPayload());
+                } else if (frame.getType() == Protocol.STATS) {
+                    updateStats(peer, frame.getPayload());
+                }
+            }
+        } catch (final IOException e) {
+            peers.remove(peer);
+            retiredTicks.addAndGet(peer.ticks);
+            peer.connection.close();
+        }
+    }
+
+    /**
+     * Decode a worker's statistics.
+     * 
+     * @param peer the worker
+     * @param payload encoded statistics
+     * @throws IOException if the payload is malformed
+     */
+    private static void updateStats(final Peer peer, final byte[] payload)
+        throws IOException
+    {
+        final DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(payload));
+
+        peer.ticks = in.readInt();
+        peer.population = in.readInt();
+        peer.grass = in.readInt();
+        peer.topCount = in.readInt();
+
+        final StringBuilder top = new StringBuilder();
+        for (final Command c : Protocol.readCommands(in)) {
+            top.append(top.length() == 0 ? "" : " ").append(c);
+        }
+        peer.top = top.toString();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single {@link Field} of an {@link Archipelago}, ticked by its own thread.
+ * Other islands hand over migrants through a lock-free queue; the owning
+ * thread takes them in at the next tick boundary, so the field itself is only
+ * ever touched by one thread.
+ */
+public class Island {
+    /** Simulation field, only touched by this island's thread. */
+    private final Field field;
+
+    /** Migrants that arrived from other islands. */
+    private final Queue<Entity> inbox;
+
+    /** Number of ticks done, readable by other threads. */
+    private volatile int ticks;
+
+    /**
+     * Create a new Island.
+     * 
+     * @param field simulation field of this island
+     */
+    public Island(final Field field) {
+        this.field = field;
+        this.inbox = new ConcurrentLinkedQueue<Entity>();
+    }
+
+    /**
+     * Remove up to <code>count</code> random entities from this island's
+     * field. Must only be called by this island's thread.
+     * 
+     * @param count maximum number of emigrants
+     * @return the emigrants
+     */
+    public final List<Entity> emigrate(final int count) {
+        final List<Entity> entities = field.getEntities();
+        final List<Entity> emigrants = new ArrayList<Entity>(count);
+
+        while (emigrants.size() < count && !entities.isEmpty()) {
+            final Entity e = entities.get(
+                field.getRandom().nextInt(entities.size()));
+            field.removeEntity(e);
+            emigrants.add(e);
+        }
+
+        return emigrants;
+    }
+
+    /**
+     * Returns this island's field. Only the island's thread may change it.
+     * 
+     * @return the field
+     */
+    public final Field getField() {
+        return field;
+    }
+
+    /**
+     * Returns the number of ticks done so far. Safe to call from any thread.
+     * 
+     * @return the number of ticks
+     */
+    public final int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Hand over migrants to this island. Safe to call from any thread.
+     * 
+     * @param migrants the migrants, no longer part of any field
+     */
+    public final void immigrate(final List<Entity> migrants) {
+        inbox.addAll(migrants);
+    }
+
+    /**
+     * Take in all waiting migrants and advance the field by one tick. Must
+     * only be called by this island's thread.
+     */
+    public final void tick() {
+        Entity e;
+        while ((e = inbox.poll()) != null) {
+            final Point p = field.getRandomValidPoint();
+            field.addEntity(
+                new Entity(e.getHealth(), e.getProgram(), p, e.getDirection()));
+        }
+
+        field.tick();
+        ticks += 1;
+    }
+}
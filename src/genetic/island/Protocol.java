@@ -0,0 +1,347 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import genetic.data.Command;
+import genetic.data.Direction;
+import genetic.data.Entity;
+import genetic.data.Point;
+import genetic.data.Program;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary protocol between a {@link Coordinator} and its {@link Worker}s.
+ * 
+ * All messages are {@link Connection.Frame}s. Migrants travel as one batch
+ * per migration:
+ * 
+ * <pre>
+ * MIGRANTS: int count, count x (int health, byte direction,
+ *           int programCounter, short length, length x byte command)
+ * STATS:    int ticks, int population, int grass, int topCount,
+ *           short length, length x byte command
+ * </pre>
+ * 
+ * Addresses are either <code>unix:/path/to/socket</code> or
+ * <code>[tcp:]host:port</code>.
+ */
+public final class Protocol {
+    /** A batch of migrants, in both directions. */
+    public static final byte MIGRANTS = 1;
+
+    /** Periodic statistics, from worker to coordinator. */
+    public static final byte STATS = 2;
+
+    /** Longest program that can be encoded. */
+    public static final int MAX_COMMANDS = 0xFFFF;
+
+    /** Prefix of Unix domain socket addresses. */
+    private static final String UNIX_PREFIX = "unix:";
+
+    /** Optional prefix of TCP addresses. */
+    private static final String TCP_PREFIX = "tcp:";
+
+    /** Commands by ordinal. */
+    private static final Command[] COMMANDS = Command.values();
+
+    /** Directions by ordinal. */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Connect to the given address.
+     * 
+     * @param address unix or tcp address
+     * @return connected, blocking channel
+     * @throws IOException if the connection failed
+     */
+    public static SocketChannel connect(final String address)
+        throws IOException
+    {
+        final SocketAddress socketAddress = parseAddress(address);
+
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            final SocketChannel channel =
+                SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(socketAddress);
+            return channel;
+        }
+
+        final SocketChannel channel = SocketChannel.open(socketAddress);
+        channel.socket().setTcpNoDelay(true);
+        return channel;
+    }
+
+    /**
+     * Decode a batch of migrants. The migrants are not placed on any field.
+     * 
+     * @param payload encoded migrants
+     * @return the migrants
+     * @throws IOException if the payload is malformed
+     */
+    public static List<Entity> decodeMigrants(final byte[] payload)
+        throws IOException
+    {
+        final DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(payload));
+        final int count = in.readInt();
+
+        if (count < 0) {
+            throw new IOException("Illegal migrant count: " + count);
+        }
+
+        final List<Entity> migrants =
+            new ArrayList<Entity>(Math.min(count, payload.length));
+
+        for (int i = 0; i < count; ++i) {
+            final int health = in.readInt();
+            final Direction direction =
+                DIRECTIONS[readOrdinal(in, DIRECTIONS.length, "direction")];
+            final int current = in.readInt();
+            final Command[] commands = readCommands(in);
+
+            if (current < 0 || current >= commands.length) {
+                throw new IOException("Illegal program counter: " + current
+                    + " of " + commands.length + " commands");
+            }
+
+            final Program program = new Program(commands);
+            program.setCurrent(current);
+            migrants.add(
+                new Entity(health, program, new Point(0, 0), direction));
+        }
+
+        return migrants;
+    }
+
+    /**
+     * Encode a batch of migrants.
+     * 
+     * @param migrants the migrants
+     * @return encoded migrants
+     * @throws IllegalArgumentException if a program is longer than
+     *         {@link #MAX_COMMANDS}
+     */
+    public static byte[] encodeMigrants(final List<Entity> migrants) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(migrants.size());
+            for (final Entity e : migrants) {
+                out.writeInt(e.getHealth());
+                out.writeByte(e.getDirection().ordinal());
+                out.writeInt(e.getProgram().getCurrent());
+                writeCommands(out, e.getProgram());
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode worker statistics.
+     * 
+     * @param ticks ticks done so far
+     * @param population current population
+     * @param grass current amount of grass
+     * @param top most common program, may be <code>null</code>
+     * @param topCount number of entities running <code>top</code>
+     * @return encoded statistics
+     * @throws IllegalArgumentException if <code>top</code> is longer than
+     *         {@link #MAX_COMMANDS}
+     */
+    public static byte[] encodeStats(
+        final int ticks,
+        final int population,
+        final int grass,
+        final Program top,
+        final int topCount)
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(ticks);
+            out.writeInt(population);
+            out.writeInt(grass);
+            out.writeInt(topCount);
+            if (top == null) {
+                out.writeShort(0);
+            } else {
+                writeCommands(out, top);
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Open a listening channel on the given address. A stale Unix domain
+     * socket file is removed first.
+     * 
+     * @param address unix or tcp address
+     * @return bound, blocking server channel
+     * @throws IOException if binding failed
+     */
+    public static ServerSocketChannel listen(final String address)
+        throws IOException
+    {
+        final SocketAddress socketAddress = parseAddress(address);
+
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            final Path path =
+                ((UnixDomainSocketAddress) socketAddress).getPath();
+            Files.deleteIfExists(path);
+
+            final ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(socketAddress);
+            return server;
+        }
+
+        return ServerSocketChannel.open().bind(socketAddress);
+    }
+
+    /**
+     * Parse an address.
+     * 
+     * @param address unix or tcp address
+     * @return the socket address
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static SocketAddress parseAddress(final String address) {
+        if (address.startsWith(UNIX_PREFIX)) {
+            return UnixDomainSocketAddress.of(
+                address.substring(UNIX_PREFIX.length()));
+        }
+
+        final String hostPort = address.startsWith(TCP_PREFIX)
+            ? address.substring(TCP_PREFIX.length()) : address;
+        final int colon = hostPort.lastIndexOf(':');
+
+        if (colon < 0) {
+            throw new IllegalArgumentException("Not an address: " + address);
+        }
+
+        return new InetSocketAddress(hostPort.substring(0, colon),
+            Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    /**
+     * Read a program's commands.
+     * 
+     * @param in source
+     * @return the commands
+     * @throws IOException if reading failed or a command is out of range
+     */
+    static Command[] readCommands(final DataInputStream in)
+        throws IOException
+    {
+        final Command[] commands = new Command[in.readUnsignedShort()];
+
+        for (int c = 0; c < commands.length; ++c) {
+            commands[c] = COMMANDS[readOrdinal(in, COMMANDS.length,
+                "command")];
+        }
+
+        return commands;
+    }
+
+    /**
+     * Read an enum ordinal of one byte.
+     * 
+     * @param in source
+     * @param count number of constants
+     * @param what name of the enum, for the error message
+     * @return the ordinal
+     * @throws IOException if reading failed or the ordinal is out of range
+     */
+    private static int readOrdinal(
+        final DataInputStream in,
+        final int count,
+        final String what) throws IOException
+    {
+        final int ordinal = in.readUnsignedByte();
+
+        if (ordinal >= count) {
+            throw new IOException("Illegal " + what + ": " + ordinal);
+        }
+
+        return ordinal;
+    }
+
+    /**
+     * Write a program's commands.
+     * 
+     * @param out destination
+     * @param program the program
+     * @throws IOException if writing failed
+     * @throws IllegalArgumentException if the program is longer than
+     *         {@link #MAX_COMMANDS}
+     */
+    private static void writeCommands(
+        final DataOutputStream out,
+        final Program program) throws IOException
+    {
+        if (program.size() > MAX_COMMANDS) {
+            throw new IllegalArgumentException("Program too long: "
+                + program.size() + " commands");
+        }
+
+        out.writeShort(program.size());
+        for (final Command c : program) {
+            out.writeByte(c.ordinal());
+        }
+    }
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private Protocol() {
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.island;
+
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.Program;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A headless process running a single {@link Island} that exchanges migrants
+ * and statistics with a {@link Coordinator}. Network I/O happens on separate
+ * threads, so a slow connection never stalls the simulation.
+ */
+public class Worker {
+    /** Nanoseconds between two statistics messages. */
+    private static final long STATS_INTERVAL_NS = 1000000000L;
+
+    /** The simulated island. */
+    private final Island island;
+
+    /** Connection to the coordinator. */
+    private final Connection connection;
+
+    /** Number of migrants per migration. */
+    private final int migrants;
+
+    /** Ticks between migrations, 0 to disable migration. */
+    private final int interval;
+
+    /** Number of ticks to run, or -1 to run until the coordinator quits. */
+    private final int maxTicks;
+
+    /**
+     * Create a new Worker and connect it to its coordinator.
+     * 
+     * @param address coordinator address, see {@link Protocol}
+     * @param offHeap whether to keep the cell layers outside of the Java heap
+     * @param migrants number of migrants per migration
+     * @param interval ticks between migrations, 0 to disable migration
+     * @param maxTicks number of ticks to run, or -1 to run until the
+     * coordinator quits
+     * @throws IOException if the connection failed
+     */
+    public Worker(
+        final String address,
+        final boolean offHeap,
+        final int migrants,
+        final int interval,
+        final int maxTicks) throws IOException
+    {
+        this.island = new Island(new Field(offHeap));
+        this.connection = new Connection(Protocol.connect(address), "writer");
+        this.migrants = migrants;
+        this.interval = interval;
+        this.maxTicks = maxTicks;
+    }
+
+    /**
+     * Run the simulation until done or disconnected.
+     */
+    public final void run() {
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long lastStats = System.nanoTime();
+
+        while (!connection.isClosed()
+            && (maxTicks < 0 || island.getTicks() < maxTicks))
+        {
+            if (interval > 0 && island.getTicks() > 0
+                && island.getTicks() % interval == 0)
+            {
+                final List<Entity> emigrants = island.emigrate(migrants);
+                if (!emigrants.isEmpty()) {
+                    connection.send(Protocol.MIGRANTS,
+                        Protocol.encodeMigrants(emigrants));
+                }
+            }
+
+            island.tick();
+
+            final long now = System.nanoTime();
+            if (now - lastStats >= STATS_INTERVAL_NS) {
+                sendStats();
+                lastStats = now;
+            }
+        }
+
+        sendStats();
+        connection.close();
+    }
+
+    /**
+     * Main loop of the reader thread.
+     */
+    private void readLoop() {
+        try {
+            while (true) {
+                final Connection.Frame frame = connection.receive();
+
+                if (frame.getType() == Protocol.MIGRANTS) {
+                    island.immigrate(
+                        Protocol.decodeMigrants(frame.getPayload()));
+                }
+            }
+        } catch (final IOException e) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Send the current statistics to the coordinator.
+     */
+    private void sendStats() {
+        final Field field = island.getField();
+        final Map<Program, Integer> counts = new HashMap<Program, Integer>();
+        Program top = null;
+        int topCount = 0;
+
+        for (final Entity e : field.getEntities()) {
+            final Program program = e.getProgram();
+            final Integer old = counts.get(program);
+            final int count = (old == null) ? 1 : old + 1;
+            counts.put(program, count);
+
+            if (count > topCount) {
+                top = program;
+                topCount = count;
+            }
+        }
+
+        connection.send(Protocol.STATS, Protocol.encodeStats(
+            island.getTicks(),
+            field.getEntities().size(),
+            field.getGrass().cardinality(),
+            top,
+            topCount));
+    }
+}
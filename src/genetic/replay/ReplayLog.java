@@ -0,0 +1,315 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.replay;
+
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.FieldSnapshot;
+import genetic.data.Parameter;
+import genetic.data.Settings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read access to a replay log written by {@link ReplayRecorder}. The file is
+ * mapped and indexed once; {@link #seek(Field, int)} then reconstructs the
+ * state after any logged tick by restoring the nearest preceding keyframe and
+ * re-simulating from there, applying the logged parameter changes on the way.
+ * 
+ * Registered as {@link FieldListener} of the field afterwards, a ReplayLog
+ * keeps applying the logged parameter changes as the field ticks on, so the
+ * rest of the recorded run plays back exactly. The logged values are handed
+ * to the field as {@link Settings}, on the simulation thread; the
+ * {@link Parameter}s themselves, and whoever listens to them, are left
+ * alone.
+ * 
+ * A log ending in a partially written record (e.g. after a crash) is usable up
+ * to its last complete record.
+ */
+public final class ReplayLog implements FieldListener {
+    /** File magic, "GCRL". */
+    static final int MAGIC = 0x4743524C;
+
+    /** Version of the file layout. */
+    static final int VERSION = 2;
+
+    /**
+     * Version of logs written before {@link Parameter#GROUP_EQUIVALENT}
+     * existed. They are read with it at its current value.
+     */
+    private static final int VERSION_WITHOUT_GROUPING = 1;
+
+    /** Record type of a parameter change: int ordinal, int value. */
+    static final byte PARAMETER = 1;
+
+    /** Record type of a keyframe: a {@link FieldSnapshot}. */
+    static final byte KEYFRAME = 2;
+
+    /** Size of a record header: byte type, int tick, int length. */
+    static final int RECORD_HEADER_BYTES = 1 + (2 * Integer.BYTES);
+
+    /** The mapped log. */
+    private final MappedByteBuffer data;
+
+    /** Seed of the recorded field. */
+    private final long seed;
+
+    /** Parameter values at the start of the recording, by ordinal. */
+    private final int[] initialValues;
+
+    /** Tick of each parameter change, ascending. */
+    private int[] changeTicks = new int[16];
+
+    /** Ordinal of each changed parameter. */
+    private int[] changeParameters = new int[16];
+
+    /** New value of each changed parameter. */
+    private int[] changeValues = new int[16];
+
+    /** Number of parameter changes. */
+    private int changeCount;
+
+    /** Tick of each keyframe, ascending. */
+    private int[] keyframeTicks = new int[16];
+
+    /** File offset of each keyframe's snapshot. */
+    private int[] keyframeOffsets = new int[16];
+
+    /** Number of keyframes. */
+    private int keyframeCount;
+
+    /** Last tick covered by the log. */
+    private int lastTick;
+
+    /** Index of the next parameter change to apply while playing. */
+    private int nextChange;
+
+    /** Parameter values while playing, by ordinal. */
+    private int[] values;
+
+    /**
+     * Opens and indexes a replay log.
+     * 
+     * @param path log file
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file is not a replay log or
+     * contains no keyframe
+     */
+    public ReplayLog(final Path path) throws IOException {
+        try (FileChannel channel =
+            FileChannel.open(path, StandardOpenOption.READ))
+        {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                channel.size());
+        }
+
+        if (data.remaining() < 3 * Integer.BYTES + Long.BYTES
+            || data.getInt() != MAGIC)
+        {
+            throw new IllegalArgumentException("Not a replay log: " + path);
+        }
+
+        final Parameter[] parameters = Parameter.values();
+        final int version = data.getInt();
+        seed = data.getLong();
+        final int count = data.getInt();
+        if ((version != VERSION || count != parameters.length)
+            && (version != VERSION_WITHOUT_GROUPING
+                || count != Parameter.GROUP_EQUIVALENT.ordinal())
+            || data.remaining() < count * Integer.BYTES)
+        {
+            throw new IllegalArgumentException(
+                "Replay log of another version: " + path);
+        }
+
+        initialValues = new int[parameters.length];
+        for (int i = 0; i < parameters.length; ++i) {
+            initialValues[i] = i < count ? data.getInt()
+                : parameters[i].getValue();
+        }
+
+        index();
+
+        if (keyframeCount == 0) {
+            throw new IllegalArgumentException("Replay log without keyframe: "
+                + path);
+        }
+    }
+
+    /**
+     * Applies all parameter changes logged for the given tick, starting at
+     * {@link #nextChange}, to the values.
+     * 
+     * @param tick the tick that just finished
+     * @return whether any value changed
+     */
+    private boolean applyChanges(final int tick) {
+        boolean changed = false;
+
+        while (nextChange < changeCount && changeTicks[nextChange] <= tick) {
+            values[changeParameters[nextChange]] = changeValues[nextChange];
+            changed = true;
+            ++nextChange;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns the last tick that can be reconstructed exactly.
+     * 
+     * @return the last logged tick
+     */
+    public int getLastTick() {
+        return lastTick;
+    }
+
+    /**
+     * Returns the seed the recorded field started with.
+     * 
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Reads the record headers and builds the change and keyframe indices.
+     */
+    private void index() {
+        while (data.remaining() >= RECORD_HEADER_BYTES) {
+            final int start = data.position();
+            final byte type = data.get();
+            final int tick = data.getInt();
+            final int length = data.getInt();
+
+            if (length < 0 || length > data.remaining()) {
+                /* truncated record */
+                data.position(start);
+                break;
+            }
+
+            if (type == PARAMETER) {
+                if (changeCount == changeTicks.length) {
+                    final int size = changeCount * 2;
+                    changeTicks = Arrays.copyOf(changeTicks, size);
+                    changeParameters = Arrays.copyOf(changeParameters, size);
+                    changeValues = Arrays.copyOf(changeValues, size);
+                }
+
+                final int ordinal = data.getInt(data.position());
+                if (ordinal < 0 || ordinal >= Parameter.values().length) {
+                    throw new IllegalArgumentException("Replay log names"
+                        + " unknown parameter " + ordinal);
+                }
+
+                changeTicks[changeCount] = tick;
+                changeParameters[changeCount] = ordinal;
+                changeValues[changeCount] =
+                    data.getInt(data.position() + Integer.BYTES);
+                ++changeCount;
+            } else if (type == KEYFRAME) {
+                if (keyframeCount == keyframeTicks.length) {
+                    final int size = keyframeCount * 2;
+                    keyframeTicks = Arrays.copyOf(keyframeTicks, size);
+                    keyframeOffsets = Arrays.copyOf(keyframeOffsets, size);
+                }
+
+                keyframeTicks[keyframeCount] = tick;
+                keyframeOffsets[keyframeCount] = data.position();
+                ++keyframeCount;
+            }
+
+            lastTick = Math.max(lastTick, tick);
+            data.position(data.position() + length);
+        }
+    }
+
+    /**
+     * Reconstructs the state of the recorded field after the given tick. The
+     * field uses the logged parameter values from then on, see
+     * {@link Field#setSettings(Settings)}. Must be called between two ticks.
+     * 
+     * @param field the field to overwrite, of the recorded size
+     * @param tick tick to seek to, between the first keyframe's tick and
+     * {@link #getLastTick()}; later ticks are simulated on without further
+     * logged parameter changes
+     * @throws IllegalArgumentException if the tick precedes the first
+     * keyframe or the log doesn't match the field
+     */
+    public void seek(final Field field, final int tick) {
+        int keyframe = Arrays.binarySearch(keyframeTicks, 0, keyframeCount,
+            tick);
+        if (keyframe < 0) {
+            keyframe = -keyframe - 2;
+        }
+
+        if (keyframe < 0) {
+            throw new IllegalArgumentException("Tick " + tick
+                + " precedes the first keyframe at tick " + keyframeTicks[0]);
+        }
+
+        final int start = keyframeTicks[keyframe];
+
+        values = initialValues.clone();
+        nextChange = 0;
+        applyChanges(start);
+
+        final ByteBuffer snapshot = data.duplicate();
+        snapshot.position(keyframeOffsets[keyframe]);
+        FieldSnapshot.read(field, snapshot);
+        field.setSettings(new Settings(values));
+
+        for (int t = start; t < tick; ++t) {
+            field.tick();
+            if (applyChanges(t + 1)) {
+                field.setSettings(new Settings(values));
+            }
+        }
+    }
+
+    /**
+     * Applies the parameter changes logged for the tick the observed field
+     * just finished.
+     * 
+     * @param field the played back field
+     */
+    @Override
+    public void fieldChanged(final Field field) {
+        if (values != null && applyChanges(field.getStep())) {
+            field.setSettings(new Settings(values));
+        }
+    }
+}
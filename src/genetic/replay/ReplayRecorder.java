@@ -0,0 +1,256 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.replay;
+
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.FieldSnapshot;
+import genetic.data.Parameter;
+import genetic.data.Settings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a field's run into an append-only replay log, see
+ * {@link ReplayLog}. As {@link FieldListener} of the field it compares the
+ * {@link Settings} each tick used with those of the tick before, on the
+ * simulation thread, and logs every changed {@link Parameter} against the
+ * tick before, after which it took effect. It also logs a
+ * {@link FieldSnapshot} every <code>keyframeInterval</code> ticks. As the
+ * simulation is deterministic given the field's random state, this suffices
+ * to reconstruct every tick.
+ * 
+ * Layout: header (int magic, int version, long seed, int parameterCount, int[]
+ * parameterValues), followed by records (byte type, int tick, int length,
+ * byte[length] payload). All records go through one direct buffer which is
+ * written to the file channel only when full, so ticks without keyframe cost
+ * nothing.
+ */
+public final class ReplayRecorder implements FieldListener {
+    /** Size of the write buffer. */
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    /** Size of a parameter record's payload. */
+    private static final int PARAMETER_BYTES = 2 * Integer.BYTES;
+
+    /** The recorded field. */
+    private final Field field;
+
+    /** Destination file. */
+    private final FileChannel channel;
+
+    /** Pending records. */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    /** Ticks between two keyframes. */
+    private final int keyframeInterval;
+
+    /** Settings of the last recorded tick. */
+    private Settings settings;
+
+    /**
+     * Starts recording the given field: writes the header and a first
+     * keyframe, then registers as listener of the field. Must be called
+     * between two ticks.
+     * 
+     * @param path destination file, replaced if it exists
+     * @param field the field to record
+     * @param keyframeInterval ticks between two keyframes, must be positive
+     * @throws IOException if the file can't be written
+     */
+    public ReplayRecorder(
+        final Path path,
+        final Field field,
+        final int keyframeInterval) throws IOException
+    {
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Illegal keyframe interval: "
+                + keyframeInterval);
+        }
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.keyframeInterval = keyframeInterval;
+        this.field = field;
+
+        final Parameter[] parameters = Parameter.values();
+        this.settings = field.getSettings();
+
+        buffer.putInt(ReplayLog.MAGIC);
+        buffer.putInt(ReplayLog.VERSION);
+        buffer.putLong(field.getSeed());
+        buffer.putInt(parameters.length);
+        for (final Parameter p : parameters) {
+            buffer.putInt(settings.getValue(p));
+        }
+
+        writeKeyframe();
+        field.addFieldListener(this);
+    }
+
+    /**
+     * Writes all pending records and closes the file. Further ticks are not
+     * recorded.
+     * 
+     * @throws IOException if writing fails
+     */
+    public synchronized void close() throws IOException {
+        field.removeFieldListener(this);
+
+        if (channel.isOpen()) {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the buffer to the file.
+     * 
+     * @throws IOException if writing fails
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Makes room for a record of the given payload size, flushing if needed.
+     * 
+     * @param length payload size
+     * @return whether the record fits into the buffer at all
+     * @throws IOException if writing fails
+     */
+    private boolean reserve(final int length) throws IOException {
+        final int size = ReplayLog.RECORD_HEADER_BYTES + length;
+
+        if (size > buffer.remaining()) {
+            flush();
+        }
+
+        return size <= buffer.remaining();
+    }
+
+    /**
+     * Closes the file after a write error.
+     * 
+     * @param e the error
+     */
+    private void fail(final IOException e) {
+        e.printStackTrace();
+        try {
+            channel.close();
+        } catch (final IOException ignored) {
+            /* already reported */
+        }
+    }
+
+    /**
+     * Logs the parameters the tick that just finished used differently from
+     * the tick before, and a keyframe if one is due. Called on the simulation
+     * thread.
+     * 
+     * @param f the recorded field
+     */
+    @Override
+    public synchronized void fieldChanged(final Field f) {
+        if (!channel.isOpen()) {
+            return;
+        }
+
+        try {
+            final Settings used = field.getSettings();
+
+            if (used != settings) {
+                for (final Parameter p : Parameter.values()) {
+                    if (used.getValue(p) != settings.getValue(p)) {
+                        writeChange(field.getStep() - 1, p,
+                            used.getValue(p));
+                    }
+                }
+                settings = used;
+            }
+
+            if (field.getStep() % keyframeInterval == 0) {
+                writeKeyframe();
+            }
+        } catch (final IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Logs a parameter change.
+     * 
+     * @param tick the last tick before the change took effect
+     * @param p the changed parameter
+     * @param value the new value
+     * @throws IOException if writing fails
+     */
+    private void writeChange(final int tick, final Parameter p, final int value)
+        throws IOException
+    {
+        reserve(PARAMETER_BYTES);
+        buffer.put(ReplayLog.PARAMETER);
+        buffer.putInt(tick);
+        buffer.putInt(PARAMETER_BYTES);
+        buffer.putInt(p.ordinal());
+        buffer.putInt(value);
+    }
+
+    /**
+     * Logs a keyframe of the field's current state.
+     * 
+     * @throws IOException if writing fails
+     */
+    private void writeKeyframe() throws IOException {
+        final int length = FieldSnapshot.size(field);
+        final boolean fits = reserve(length);
+        final ByteBuffer out = fits ? buffer
+            : ByteBuffer.allocate(ReplayLog.RECORD_HEADER_BYTES + length);
+
+        out.put(ReplayLog.KEYFRAME);
+        out.putInt(field.getStep());
+        out.putInt(length);
+        FieldSnapshot.write(field, out);
+
+        if (!fits) {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.server;
+
+import genetic.data.Field;
+import genetic.data.Parameter;
+
+/**
+ * A field ticked by a thread of its own that can be started, paused, stepped
+ * and reset from any thread. All changes of the field happen on the
+ * simulation thread, between two ticks.
+ */
+public final class Simulation {
+    /** Milliseconds per second. */
+    private static final double MS_PER_SECOND = 1000.0;
+
+    /** The simulated field. */
+    private final Field field;
+
+    /** The simulation thread. */
+    private final Thread thread;
+
+    /** Whether the simulation ticks continuously. */
+    private boolean running;
+
+    /** Whether to throttle to {@link Parameter#SIMULATION_SPEED}. */
+    private boolean paced;
+
+    /** Ticks to make while paused. */
+    private long steps;
+
+    /** Whether a reset is due. */
+    private boolean resetRequested;
+
+    /** Whether the simulation thread should quit. */
+    private boolean closed;
+
+    /**
+     * Create a new, paused Simulation.
+     * 
+     * @param field the field to simulate
+     */
+    public Simulation(final Field field) {
+        this.field = field;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "simulation");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the simulation thread.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns the simulated field. Only read it from other threads.
+     * 
+     * @return the field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * Returns whether no tick is due: paused, with no steps left.
+     * 
+     * @return whether the simulation is idle
+     */
+    public synchronized boolean isIdle() {
+        return !running && steps == 0;
+    }
+
+    /**
+     * Returns whether the simulation ticks continuously.
+     * 
+     * @return whether the simulation is running
+     */
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Main loop of the simulation thread.
+     */
+    private void loop() {
+        while (true) {
+            final boolean reset;
+            final boolean tick;
+            final boolean pace;
+
+            synchronized (this) {
+                while (!closed && !running && steps == 0 && !resetRequested) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+
+                if (closed) {
+                    return;
+                }
+
+                reset = resetRequested;
+                resetRequested = false;
+                tick = running || steps > 0;
+                if (!running && steps > 0) {
+                    --steps;
+                }
+                pace = running && paced
+                    && Parameter.SIMULATION_SPEED.getValue()
+                        < Parameter.SIMULATION_SPEED.getMaximum();
+            }
+
+            if (reset) {
+                field.reset();
+            }
+
+            if (pace) {
+                try {
+                    final double sleepTime =
+                        MS_PER_SECOND / Parameter.SIMULATION_SPEED.getValue();
+                    Thread.sleep((int) sleepTime);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+
+            if (tick) {
+                field.tick();
+            }
+        }
+    }
+
+    /**
+     * Stops ticking continuously after the current tick. Pending steps are
+     * dropped.
+     */
+    public synchronized void pause() {
+        running = false;
+        steps = 0;
+    }
+
+    /**
+     * Replaces the field's contents with a new random population, before the
+     * next tick.
+     */
+    public synchronized void reset() {
+        resetRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Starts ticking continuously.
+     * 
+     * @param throttled whether to throttle to
+     * {@link Parameter#SIMULATION_SPEED}
+     */
+    public synchronized void start(final boolean throttled) {
+        running = true;
+        paced = throttled;
+        notifyAll();
+    }
+
+    /**
+     * Makes some ticks, if paused.
+     * 
+     * @param count number of ticks
+     */
+    public synchronized void step(final long count) {
+        if (!running) {
+            steps += count;
+            notifyAll();
+        }
+    }
+}
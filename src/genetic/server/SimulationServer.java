@@ -0,0 +1,663 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.server;
+
+import genetic.data.Command;
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.Parameter;
+import genetic.data.Program;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP interface to a {@link Simulation}, without gui. All answers are
+ * JSON.
+ * 
+ * <pre>
+ * GET  /status                        tick, running, population, grass,
+ *                                     engine
+ * POST /start[?paced=true]            tick continuously
+ * POST /pause                         stop ticking
+ * POST /step[?count=n]                make n ticks while paused
+ * POST /reset                         new random population
+ * GET  /parameters                    all parameters
+ * POST /parameters?name=N&amp;value=v     change a parameter
+ * GET  /events                        Server-Sent Events of the stats
+ * </pre>
+ * 
+ * The server never reads the field itself. After every tick, the simulation
+ * thread publishes an immutable {@link Stats} record, counting the most
+ * frequent programs at most every {@link #EVENT_INTERVAL_MS} and after the
+ * last tick before the simulation goes idle. Answers are made from the
+ * latest record only. The simulation thread never waits for the server: a
+ * separate thread looks at the latest record every
+ * {@link #EVENT_INTERVAL_MS}, i.e. once per tick for slow simulations and
+ * for the latest tick otherwise, and queues the event for every client.
+ * Each client has at most {@link #QUEUE_SIZE} events queued and its own
+ * writer while it has any, so a slow client loses events rather than piling
+ * up memory or holding up the others. A client whose write doesn't finish
+ * within {@link #WRITE_TIMEOUT_MS} is disconnected.
+ */
+public final class SimulationServer implements HttpHandler {
+    /** Milliseconds between two samples of the field. */
+    private static final int EVENT_INTERVAL_MS = 50;
+
+    /** Milliseconds between two keep-alive comments on idle streams. */
+    private static final int KEEPALIVE_MS = 10000;
+
+    /** Number of top genomes per event. */
+    private static final int TOP_GENOMES = 5;
+
+    /** Largest number of events queued for a client. */
+    private static final int QUEUE_SIZE = 16;
+
+    /** Milliseconds a write may block before the client is dropped. */
+    private static final long WRITE_TIMEOUT_MS = 5000;
+
+    /** Nanoseconds per second. */
+    private static final double NS_PER_SECOND = 1e9;
+
+    /** HTTP status: OK. */
+    private static final int OK = 200;
+
+    /** HTTP status: bad request. */
+    private static final int BAD_REQUEST = 400;
+
+    /** HTTP status: not found. */
+    private static final int NOT_FOUND = 404;
+
+    /** HTTP status: method not allowed. */
+    private static final int BAD_METHOD = 405;
+
+    /** Keep-alive comment. */
+    private static final byte[] KEEPALIVE =
+        ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+
+    /** Statistics of one tick, made on the simulation thread. */
+    private static final class Stats {
+        /** The tick. */
+        private final long tick;
+
+        /** Number of entities. */
+        private final int population;
+
+        /** Number of grass cells. */
+        private final long grass;
+
+        /** Name of the engine. */
+        private final String engine;
+
+        /** Most frequent programs as JSON array, possibly of an older tick. */
+        private final String top;
+
+        /** When the record was made, in nanoseconds. */
+        private final long time;
+
+        /**
+         * Create a new Stats.
+         * 
+         * @param field the field, on the simulation thread
+         * @param top most frequent programs as JSON array
+         * @param time current time in nanoseconds
+         */
+        private Stats(final Field field, final String top, final long time) {
+            this.tick = field.getStep();
+            this.population = field.getEntities().size();
+            this.grass = field.getGrass().cardinality();
+            this.engine = field.getEngine().getName();
+            this.top = top;
+            this.time = time;
+        }
+    }
+
+    /** A client of the event stream. */
+    private static final class Client {
+        /** The open exchange. */
+        private final HttpExchange exchange;
+
+        /** Events not written yet. */
+        private final BlockingQueue<byte[]> pending =
+            new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+
+        /** Whether a writer works for this client. */
+        private final AtomicBoolean busy = new AtomicBoolean();
+
+        /** Thread inside a write, or <code>null</code>, guarded by this. */
+        private Thread writer;
+
+        /** Start of the current write, guarded by this. */
+        private long writeStart;
+
+        /**
+         * Create a new Client.
+         * 
+         * @param exchange the open exchange
+         */
+        private Client(final HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+    }
+
+    /** The simulation. */
+    private final Simulation simulation;
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /** Threads writing events. */
+    private final ExecutorService writers;
+
+    /** Clients of the event stream. */
+    private final CopyOnWriteArrayList<Client> clients =
+        new CopyOnWriteArrayList<Client>();
+
+    /** Statistics of the latest tick. */
+    private volatile Stats stats;
+
+    /** When the programs were counted last, simulation thread only. */
+    private long lastCount;
+
+    /**
+     * Create a new SimulationServer. Call {@link #run()} to start it.
+     * 
+     * @param simulation the simulation to control
+     * @param address address to listen on
+     * @throws IOException if the address can't be bound
+     */
+    public SimulationServer(
+        final Simulation simulation,
+        final InetSocketAddress address) throws IOException
+    {
+        this.simulation = simulation;
+        this.server = HttpServer.create(address, 0);
+        this.writers = Executors.newCachedThreadPool(daemons("events"));
+
+        server.setExecutor(Executors.newCachedThreadPool(daemons("http")));
+        server.createContext("/", this);
+
+        /* the simulation is paused and nothing else touches the field yet */
+        sample(simulation.getField());
+        simulation.getField().addFieldListener(new FieldListener() {
+            @Override
+            public void fieldChanged(final Field field) {
+                sample(field);
+            }
+        });
+    }
+
+    /**
+     * Appends a string as JSON string literal.
+     * 
+     * @param out destination
+     * @param s the string
+     * @return <code>out</code>
+     */
+    private static StringBuilder appendString(
+        final StringBuilder out,
+        final String s)
+    {
+        out.append('"');
+
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+
+        return out.append('"');
+    }
+
+    /**
+     * Returns a factory of named daemon threads.
+     * 
+     * @param name thread name
+     * @return the factory
+     */
+    private static ThreadFactory daemons(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Describes a parameter.
+     * 
+     * @param out destination
+     * @param p the parameter
+     */
+    private static void describe(final StringBuilder out, final Parameter p) {
+        out.append("{\"name\":\"").append(p.name()).append("\",\"title\":");
+        appendString(out, p.getTitle());
+        out.append(",\"value\":").append(p.getValue());
+        out.append(",\"min\":").append(p.getMinimum());
+        out.append(",\"max\":").append(p.getMaximum());
+        out.append(",\"mutable\":").append(p.isMutable()).append('}');
+    }
+
+    /**
+     * Disconnect the clients whose current write takes too long.
+     * 
+     * @param now current time in nanoseconds
+     */
+    private void expire(final long now) {
+        for (final Client c : clients) {
+            synchronized (c) {
+                if (c.writer != null && now - c.writeStart
+                    > TimeUnit.MILLISECONDS.toNanos(WRITE_TIMEOUT_MS))
+                {
+                    /* closes the channel, the blocked write fails */
+                    c.writer.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a request.
+     * 
+     * @param exchange the request
+     * @throws IOException if the answer can't be sent
+     */
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        final boolean post = "POST".equals(exchange.getRequestMethod());
+        final Map<String, String> query =
+            parseQuery(exchange.getRequestURI().getRawQuery());
+
+        try {
+            if ("/status".equals(path)) {
+                respond(exchange, OK, status());
+            } else if ("/events".equals(path)) {
+                subscribe(exchange);
+            } else if ("/parameters".equals(path) && !post) {
+                final StringBuilder out = new StringBuilder("[");
+                for (final Parameter p : Parameter.values()) {
+                    out.append(out.length() > 1 ? "," : "");
+                    describe(out, p);
+                }
+                respond(exchange, OK, out.append(']').toString());
+            } else if (!post && ("/start".equals(path)
+                || "/pause".equals(path) || "/step".equals(path)
+                || "/reset".equals(path) || "/parameters".equals(path)))
+            {
+                respond(exchange, BAD_METHOD, "{\"error\":\"use POST\"}");
+            } else if ("/start".equals(path)) {
+                simulation.start(Boolean.parseBoolean(query.get("paced")));
+                respond(exchange, OK, status());
+            } else if ("/pause".equals(path)) {
+                simulation.pause();
+                respond(exchange, OK, status());
+            } else if ("/step".equals(path)) {
+                final String count = query.get("count");
+                final long n = count == null ? 1 : Long.parseLong(count);
+                if (n <= 0) {
+                    throw new IllegalArgumentException("count must be"
+                        + " positive");
+                }
+                simulation.step(n);
+                respond(exchange, OK, status());
+            } else if ("/reset".equals(path)) {
+                simulation.reset();
+                respond(exchange, OK, status());
+            } else if ("/parameters".equals(path)) {
+                final Parameter p = Parameter.valueOf(query.get("name"));
+                if (!p.isMutable()) {
+                    throw new IllegalArgumentException(p.name()
+                        + " is not mutable");
+                }
+                p.setValue(Integer.parseInt(query.get("value")));
+                final StringBuilder out = new StringBuilder();
+                describe(out, p);
+                respond(exchange, OK, out.toString());
+            } else {
+                respond(exchange, NOT_FOUND, "{\"error\":\"not found\"}");
+            }
+        } catch (final IllegalArgumentException | NullPointerException e) {
+            final StringBuilder out = new StringBuilder("{\"error\":");
+            appendString(out, String.valueOf(e.getMessage()));
+            respond(exchange, BAD_REQUEST, out.append('}').toString());
+        }
+    }
+
+    /**
+     * Parses a URL query.
+     * 
+     * @param raw the raw query, may be <code>null</code>
+     * @return the decoded key value pairs
+     */
+    private static Map<String, String> parseQuery(final String raw) {
+        final Map<String, String> query = new HashMap<String, String>();
+
+        if (raw == null) {
+            return query;
+        }
+
+        try {
+            for (final String pair : raw.split("&")) {
+                final int eq = pair.indexOf('=');
+
+                if (eq < 0) {
+                    query.put(URLDecoder.decode(pair, "UTF-8"), "");
+                } else {
+                    query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return query;
+    }
+
+    /**
+     * Queues an event for all clients, dropping it for those whose queue is
+     * full.
+     * 
+     * @param event the encoded event
+     */
+    private void publish(final byte[] event) {
+        for (final Client c : clients) {
+            if (c.pending.offer(event) && c.busy.compareAndSet(false, true)) {
+                writers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        write(c);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sends a complete answer and closes the exchange.
+     * 
+     * @param exchange the request
+     * @param status HTTP status
+     * @param json the answer
+     * @throws IOException if the answer can't be sent
+     */
+    private static void respond(
+        final HttpExchange exchange,
+        final int status,
+        final String json) throws IOException
+    {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Starts the server and publishes events until the process ends.
+     */
+    public void run() {
+        server.start();
+
+        long lastTick = -1;
+        long lastTime = 0;
+        long lastEvent = System.nanoTime();
+
+        while (true) {
+            try {
+                Thread.sleep(EVENT_INTERVAL_MS);
+            } catch (final InterruptedException e) {
+                break;
+            }
+
+            final long now = System.nanoTime();
+            final Stats latest = stats;
+
+            expire(now);
+
+            if (latest.tick != lastTick) {
+                final double ticksPerSecond = lastTick < 0
+                    || latest.tick < lastTick ? 0
+                    : (latest.tick - lastTick) * NS_PER_SECOND
+                        / Math.max(1, latest.time - lastTime);
+                publish(("event: tick\ndata: "
+                    + tickEvent(latest, ticksPerSecond) + "\n\n")
+                    .getBytes(StandardCharsets.UTF_8));
+
+                lastTick = latest.tick;
+                lastTime = latest.time;
+                lastEvent = now;
+            } else if ((now - lastEvent) / 1e6 >= KEEPALIVE_MS) {
+                publish(KEEPALIVE);
+                lastEvent = now;
+            }
+        }
+
+        server.stop(0);
+    }
+
+    /**
+     * Publishes the statistics of the latest tick. Called on the simulation
+     * thread.
+     * 
+     * @param field the field
+     */
+    private void sample(final Field field) {
+        final long now = System.nanoTime();
+        final Stats previous = stats;
+        String top = previous == null ? null : previous.top;
+
+        if (top == null || now - lastCount
+            >= TimeUnit.MILLISECONDS.toNanos(EVENT_INTERVAL_MS)
+            || simulation.isIdle())
+        {
+            top = countPrograms(field);
+            lastCount = now;
+        }
+
+        stats = new Stats(field, top, now);
+    }
+
+    /**
+     * Describes the simulation's state.
+     * 
+     * @return JSON object
+     */
+    private String status() {
+        final Stats latest = stats;
+
+        return "{\"tick\":" + latest.tick
+            + ",\"running\":" + simulation.isRunning()
+            + ",\"population\":" + latest.population
+            + ",\"grass\":" + latest.grass
+            + ",\"engine\":\"" + latest.engine + "\"}";
+    }
+
+    /**
+     * Describes a tick.
+     * 
+     * @param latest statistics of the tick
+     * @param ticksPerSecond current speed
+     * @return JSON object
+     */
+    private static String tickEvent(
+        final Stats latest,
+        final double ticksPerSecond)
+    {
+        return "{\"tick\":" + latest.tick
+            + ",\"population\":" + latest.population
+            + ",\"grass\":" + latest.grass
+            + ",\"ticksPerSecond\":"
+            + String.format(Locale.ROOT, "%.1f", ticksPerSecond)
+            + ",\"top\":" + latest.top + "}";
+    }
+
+    /**
+     * Counts the most frequent programs. Called on the simulation thread.
+     * 
+     * @param field the field
+     * @return JSON array
+     */
+    private static String countPrograms(final Field field) {
+        final HashMap<Program, int[]> counts = new HashMap<Program, int[]>();
+
+        for (final Entity e : field.getEntities()) {
+            final int[] count = counts.get(e.getProgram());
+
+            if (count == null) {
+                counts.put(e.getProgram(), new int[] {1});
+            } else {
+                ++count[0];
+            }
+        }
+
+        final List<Map.Entry<Program, int[]>> top =
+            new ArrayList<Map.Entry<Program, int[]>>(counts.entrySet());
+        Collections.sort(top, new Comparator<Map.Entry<Program, int[]>>() {
+            @Override
+            public int compare(
+                final Map.Entry<Program, int[]> o1,
+                final Map.Entry<Program, int[]> o2)
+            {
+                return Integer.compare(o2.getValue()[0], o1.getValue()[0]);
+            }
+        });
+
+        final StringBuilder out = new StringBuilder("[");
+
+        for (int i = 0; i < Math.min(TOP_GENOMES, top.size()); ++i) {
+            final StringBuilder program = new StringBuilder();
+            for (final Command c : top.get(i).getKey()) {
+                program.append(program.length() > 0 ? " " : "").append(c);
+            }
+
+            out.append(i > 0 ? "," : "");
+            out.append("{\"count\":").append(top.get(i).getValue()[0]);
+            out.append(",\"program\":\"").append(program).append("\"}");
+        }
+
+        return out.append(']').toString();
+    }
+
+    /**
+     * Keeps an exchange open as event stream.
+     * 
+     * @param exchange the request
+     * @throws IOException if the headers can't be sent
+     */
+    private void subscribe(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(OK, 0);
+        clients.add(new Client(exchange));
+    }
+
+    /**
+     * Writes the queued events to a client until none is pending.
+     * 
+     * @param c the client
+     */
+    private void write(final Client c) {
+        while (true) {
+            final byte[] event = c.pending.poll();
+
+            if (event == null) {
+                c.busy.set(false);
+
+                /* an event may have arrived after the check */
+                if (c.pending.isEmpty()
+                    || !c.busy.compareAndSet(false, true))
+                {
+                    return;
+                }
+                continue;
+            }
+
+            synchronized (c) {
+                c.writer = Thread.currentThread();
+                c.writeStart = System.nanoTime();
+            }
+
+            try {
+                final OutputStream out = c.exchange.getResponseBody();
+                out.write(event);
+                out.flush();
+            } catch (final IOException e) {
+                /* including the interrupt of expire() */
+                clients.remove(c);
+                c.exchange.close();
+                return;
+            } finally {
+                synchronized (c) {
+                    c.writer = null;
+                }
+
+                /* expire() may have interrupted a write that just finished */
+                Thread.interrupted();
+            }
+        }
+    }
+}
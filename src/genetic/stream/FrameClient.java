@@ -0,0 +1,229 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.stream;
+
+import genetic.island.Connection;
+import genetic.island.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Receives the frames of a {@link FrameServer} on its own thread and keeps
+ * the latest cells. {@link FrameListener}s are notified after each frame,
+ * on the receiving thread.
+ */
+public final class FrameClient {
+    /** The connection. */
+    private final Connection connection;
+
+    /** Listeners notified after each frame. */
+    private final CopyOnWriteArrayList<FrameListener> listeners =
+        new CopyOnWriteArrayList<FrameListener>();
+
+    /** Field width, 0 before the first keyframe. */
+    private int width;
+
+    /** Field height, 0 before the first keyframe. */
+    private int height;
+
+    /** Tick of the latest frame. */
+    private long tick;
+
+    /** The cells, row by row. */
+    private byte[] cells = new byte[0];
+
+    /**
+     * Create a new FrameClient and start receiving.
+     * 
+     * @param address unix or tcp address of the server
+     * @throws IOException if the server can't be reached
+     */
+    public FrameClient(final String address) throws IOException {
+        this.connection = new Connection(Protocol.connect(address),
+            "frame client");
+
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "frame reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Add a listener notified after each frame.
+     * 
+     * @param l the listener
+     */
+    public void addFrameListener(final FrameListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Apply a frame.
+     * 
+     * @param type message type
+     * @param in the payload
+     * @throws IOException if the frame is malformed
+     */
+    private synchronized void apply(final byte type, final ByteBuffer in)
+        throws IOException
+    {
+        if (type == FrameCodec.KEYFRAME) {
+            final long w = FrameCodec.readVarint(in);
+            final long h = FrameCodec.readVarint(in);
+
+            if (w <= 0 || h <= 0 || w * h > Integer.MAX_VALUE) {
+                throw new IOException("Illegal field size: " + w + "x" + h);
+            }
+
+            width = (int) w;
+            height = (int) h;
+            if (cells.length != width * height) {
+                cells = new byte[width * height];
+            } else {
+                Arrays.fill(cells, FrameCodec.EMPTY);
+            }
+        } else if (type != FrameCodec.DELTA) {
+            throw new IOException("Unexpected message type " + type);
+        } else if (width == 0) {
+            /* still waiting for the first keyframe */
+            return;
+        }
+
+        tick = FrameCodec.readVarint(in);
+        FrameCodec.applyRuns(in, cells);
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        connection.close();
+    }
+
+    /**
+     * Copy the current cells of a range. Cells of the range outside of the
+     * field are {@link FrameCodec#EMPTY}.
+     * 
+     * @param left first column
+     * @param top first row
+     * @param right column after the range
+     * @param bottom row after the range
+     * @param into destination, reused if it is large enough
+     * @return the cells of the range, row by row
+     */
+    public synchronized byte[] copyCells(
+        final int left,
+        final int top,
+        final int right,
+        final int bottom,
+        final byte[] into)
+    {
+        final int rangeWidth = Math.max(0, right - left);
+        final int size = rangeWidth * Math.max(0, bottom - top);
+        final byte[] copy = into != null && into.length >= size
+            ? into : new byte[size];
+        final int x0 = Math.max(left, 0);
+        final int x1 = Math.min(right, width);
+
+        Arrays.fill(copy, 0, size, FrameCodec.EMPTY);
+
+        for (int y = Math.max(top, 0); y < Math.min(bottom, height); ++y) {
+            if (x0 < x1) {
+                System.arraycopy(cells, (y * width) + x0, copy,
+                    ((y - top) * rangeWidth) + (x0 - left), x1 - x0);
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Returns the field height.
+     * 
+     * @return the field height, 0 before the first keyframe
+     */
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the tick of the latest frame.
+     * 
+     * @return the tick
+     */
+    public synchronized long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the field width.
+     * 
+     * @return the field width, 0 before the first keyframe
+     */
+    public synchronized int getWidth() {
+        return width;
+    }
+
+    /**
+     * Main loop of the reader thread.
+     */
+    private void receive() {
+        try {
+            while (true) {
+                final Connection.Frame frame = connection.receive();
+                apply(frame.getType(), ByteBuffer.wrap(frame.getPayload()));
+                for (final FrameListener l : listeners) {
+                    l.frameReceived(this);
+                }
+            }
+        } catch (final IOException e) {
+            if (!connection.isClosed()) {
+                System.err.println("Frame stream ended: "
+                    + e.getLocalizedMessage());
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Remove a listener.
+     * 
+     * @param l the listener
+     */
+    public void removeFrameListener(final FrameListener l) {
+        listeners.remove(l);
+    }
+}
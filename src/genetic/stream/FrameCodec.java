@@ -0,0 +1,196 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encoding of field frames. A frame is one byte per cell, row by row, each
+ * one of {@link #EMPTY}, {@link #GRASS}, {@link #WALL} or {@link #ENTITY}
+ * plus a health shade.
+ * 
+ * Frames are sent as runs of cells: the number of cells skipped since the
+ * end of the previous run, the run length and the cells' new value, the
+ * numbers as unsigned LEB128 varints. A {@link #DELTA} only contains runs
+ * covering the cells that changed since the previous frame, so its size is
+ * proportional to the change; cells it doesn't cover keep their value. A
+ * {@link #KEYFRAME} is the delta against an empty field, preceded by the
+ * field size. The runs are written by a {@link RunWriter}.
+ * 
+ * <pre>
+ * KEYFRAME: width height tick runs...
+ * DELTA:    tick runs...
+ * </pre>
+ */
+public final class FrameCodec {
+    /** Message type of a keyframe. */
+    public static final byte KEYFRAME = 1;
+
+    /** Message type of a delta frame. */
+    public static final byte DELTA = 2;
+
+    /** An empty cell. */
+    public static final byte EMPTY = 0;
+
+    /** A cell with grass. */
+    public static final byte GRASS = 1;
+
+    /** A cell with a wall. */
+    public static final byte WALL = 2;
+
+    /** A cell with an entity of shade 0, the weakest. */
+    public static final byte ENTITY = 3;
+
+    /** Number of entity shades. */
+    public static final int SHADES = 16;
+
+    /** Payload bits per varint byte. */
+    private static final int VARINT_BITS = 7;
+
+    /** Continuation bit of a varint byte. */
+    private static final int VARINT_MORE = 0x80;
+
+    /** Payload mask of a varint byte. */
+    private static final int VARINT_MASK = 0x7F;
+
+    /**
+     * Apply the runs of a frame to the cells.
+     * 
+     * @param in the frame's runs, from the current position to the limit
+     * @param cells cells to modify
+     * @throws IOException if the runs are malformed
+     */
+    public static void applyRuns(final ByteBuffer in, final byte[] cells)
+        throws IOException
+    {
+        long position = 0;
+
+        while (in.hasRemaining()) {
+            position += readVarint(in);
+            final long length = readVarint(in);
+
+            if (!in.hasRemaining() || length <= 0
+                || position + length > cells.length)
+            {
+                throw new IOException("Malformed run at " + position);
+            }
+
+            final byte value = in.get();
+            Arrays.fill(cells, (int) position, (int) (position + length),
+                value);
+            position += length;
+        }
+    }
+
+    /**
+     * Read an unsigned varint.
+     * 
+     * @param in source
+     * @return the value
+     * @throws IOException if the varint is malformed
+     */
+    public static long readVarint(final ByteBuffer in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+            if (!in.hasRemaining()) {
+                throw new IOException("Truncated varint");
+            }
+
+            final int b = in.get();
+            value |= (long) (b & VARINT_MASK) << shift;
+
+            if ((b & VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Start a delta frame.
+     * 
+     * @param out destination, is reset first
+     * @param tick tick of the frame
+     */
+    static void startDelta(final ByteArrayOutputStream out, final long tick) {
+        out.reset();
+        writeVarint(out, tick);
+    }
+
+    /**
+     * Start a keyframe.
+     * 
+     * @param out destination, is reset first
+     * @param width field width
+     * @param height field height
+     * @param tick tick of the frame
+     */
+    static void startKeyframe(
+        final ByteArrayOutputStream out,
+        final int width,
+        final int height,
+        final long tick)
+    {
+        out.reset();
+        writeVarint(out, width);
+        writeVarint(out, height);
+        writeVarint(out, tick);
+    }
+
+    /**
+     * Write an unsigned varint.
+     * 
+     * @param out destination
+     * @param value non-negative value
+     */
+    static void writeVarint(
+        final ByteArrayOutputStream out,
+        final long value)
+    {
+        long v = value;
+
+        while ((v & ~VARINT_MASK) != 0) {
+            out.write((int) (v & VARINT_MASK) | VARINT_MORE);
+            v >>>= VARINT_BITS;
+        }
+
+        out.write((int) v);
+    }
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private FrameCodec() {
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package genetic.stream;
+
+import genetic.data.BitGrid;
+import genetic.data.CountGrid;
+import genetic.data.Entity;
+import genetic.data.Field;
+import genetic.data.FieldListener;
+import genetic.data.Point;
+import genetic.data.TiledLayer;
+import genetic.island.Connection;
+import genetic.island.Protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Streams a {@link Field} to remote viewers as {@link FrameCodec} frames.
+ * 
+ * After a tick, the simulation thread copies the tiles whose
+ * {@link TiledLayer#getTileVersion(int) version} changed since the previous
+ * capture, and those with entities, whose shades change all the time, into
+ * a {@link TileCapture}, at most {@link #FRAMES_PER_SECOND} times per second
+ * and only while the previous capture has been picked up. A dedicated
+ * encoder thread renders the captured tiles one band of tile rows at a time
+ * and encodes them as a delta, which the viewers apply on top of what they
+ * have, and queues it on every subscriber's {@link Connection}. So both the
+ * work and the memory per frame grow with the changed tiles rather than
+ * with the size of the field.
+ * 
+ * New subscribers, subscribers whose backlog exceeded {@link #MAX_BACKLOG}
+ * and everyone every {@link #KEYFRAME_INTERVAL} frames get a keyframe
+ * instead, for which all non-empty tiles are captured.
+ */
+public final class FrameServer implements FieldListener {
+    /** Largest number of frames per second. */
+    private static final int FRAMES_PER_SECOND = 30;
+
+    /** Frames between two keyframes sent to everyone. */
+    private static final int KEYFRAME_INTERVAL = 300;
+
+    /** Frames a subscriber may fall behind before frames are dropped. */
+    private static final int MAX_BACKLOG = 8;
+
+    /** Nanoseconds between two captures. */
+    private static final long CAPTURE_INTERVAL_NS =
+        1000000000L / FRAMES_PER_SECOND;
+
+    /** A connected viewer. */
+    private static final class Subscriber {
+        /** The connection. */
+        private final Connection connection;
+
+        /** Whether the next frame must be a keyframe. */
+        private volatile boolean needsKeyframe = true;
+
+        /**
+         * Create a new Subscriber.
+         * 
+         * @param connection the connection
+         */
+        private Subscriber(final Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /** The streamed field. */
+    private final Field field;
+
+    /** Field width. */
+    private final int width;
+
+    /** Field height. */
+    private final int height;
+
+    /** Tiles per tile row. */
+    private final int tilesPerRow;
+
+    /** Listening channel. */
+    private final ServerSocketChannel server;
+
+    /** Connected viewers. */
+    private final CopyOnWriteArrayList<Subscriber> subscribers =
+        new CopyOnWriteArrayList<Subscriber>();
+
+    /** Grass tile versions of the latest capture, simulation thread only. */
+    private final int[] grassVersions;
+
+    /** Wall tile versions of the latest capture, simulation thread only. */
+    private final int[] wallVersions;
+
+    /** Occupancy tile versions of the latest capture, see above. */
+    private final int[] occupancyVersions;
+
+    /** Capture waiting for the encoder, guarded by this. */
+    private TileCapture pending;
+
+    /** Capture the encoder is done with, guarded by this. */
+    private TileCapture spare;
+
+    /** Earliest time of the next capture, simulation thread only. */
+    private long nextCapture;
+
+    /** Number of captures so far, simulation thread only. */
+    private long frames;
+
+    /**
+     * Create a new FrameServer, listen on the given address and observe the
+     * field.
+     * 
+     * @param field field to stream
+     * @param address unix or tcp address to listen on
+     * @throws IOException if the address can't be bound
+     */
+    public FrameServer(final Field field, final String address)
+        throws IOException
+    {
+        final BitGrid grass = field.getGrass();
+        final int tiles = grass.getTilesPerRow() * grass.getTileRows();
+
+        this.field = field;
+        this.width = grass.getWidth();
+        this.height = grass.getHeight();
+        this.tilesPerRow = grass.getTilesPerRow();
+        this.grassVersions = new int[tiles];
+        this.wallVersions = new int[tiles];
+        this.occupancyVersions = new int[tiles];
+        this.server = Protocol.listen(address);
+
+        start("frame acceptor", new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        start("frame encoder", new Runnable() {
+            @Override
+            public void run() {
+                encode();
+            }
+        });
+        field.addFieldListener(this);
+    }
+
+    /**
+     * Main loop of the acceptor thread.
+     */
+    private void accept() {
+        while (true) {
+            try {
+                final SocketChannel channel = server.accept();
+                subscribers.add(new Subscriber(
+                    new Connection(channel, "frame writer")));
+            } catch (final IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy the changed tiles, and for a keyframe all non-empty ones, and
+     * all entities.
+     * 
+     * @param c destination
+     * @param keyframe whether to capture all non-empty tiles
+     */
+    private void capture(final TileCapture c, final boolean keyframe) {
+        final BitGrid grass = field.getGrass();
+        final BitGrid wall = field.getWall();
+        final CountGrid occupancy = field.getOccupancy();
+
+        c.clear(field.getStep(), field.getSettings().getReproductionHealth(),
+            keyframe);
+
+        for (int t = 0; t < grassVersions.length; ++t) {
+            final boolean changed = grass.getTileVersion(t) != grassVersions[t]
+                || wall.getTileVersion(t) != wallVersions[t]
+                || occupancy.getTileVersion(t) != occupancyVersions[t]
+                || occupancy.getTileCount(t) > 0;
+
+            if (changed || (keyframe && (grass.getTileCount(t) > 0
+                || wall.getTileCount(t) > 0)))
+            {
+                c.addTile(t, changed, grass, wall);
+            }
+
+            grassVersions[t] = grass.getTileVersion(t);
+            wallVersions[t] = wall.getTileVersion(t);
+            occupancyVersions[t] = occupancy.getTileVersion(t);
+        }
+
+        for (final Entity e : field.getEntities()) {
+            final Point p = e.getPosition();
+            c.addEntity((p.y * width) + p.x, e.getHealth());
+        }
+    }
+
+    /**
+     * Main loop of the encoder thread.
+     */
+    private void encode() {
+        final ByteArrayOutputStream keyOut = new ByteArrayOutputStream();
+        final ByteArrayOutputStream deltaOut = new ByteArrayOutputStream();
+        final RunWriter keyRuns = new RunWriter();
+        final RunWriter deltaRuns = new RunWriter();
+        final int tileRows = (height + TiledLayer.TILE_SIZE - 1)
+            / TiledLayer.TILE_SIZE;
+        final int[] slots = new int[tilesPerRow * tileRows];
+        final int[] bandStart = new int[tileRows + 1];
+        final byte[] cells = new byte[tilesPerRow * TileCapture.TILE_CELLS];
+        int[] order = new int[0];
+
+        Arrays.fill(slots, -1);
+
+        while (true) {
+            final TileCapture c;
+
+            synchronized (this) {
+                while (pending == null) {
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                }
+
+                c = pending;
+                pending = null;
+            }
+
+            /* entities by band of tile rows */
+            if (order.length < c.getEntityCount()) {
+                order = new int[c.getEntityCount()];
+            }
+            Arrays.fill(bandStart, 0);
+            for (int i = 0; i < c.getEntityCount(); ++i) {
+                ++bandStart[band(c.getEntityCell(i)) + 1];
+            }
+            for (int b = 0; b < tileRows; ++b) {
+                bandStart[b + 1] += bandStart[b];
+            }
+            for (int i = 0; i < c.getEntityCount(); ++i) {
+                order[bandStart[band(c.getEntityCell(i))]++] = i;
+            }
+            for (int b = tileRows; b > 0; --b) {
+                bandStart[b] = bandStart[b - 1];
+            }
+            bandStart[0] = 0;
+
+            final boolean keyframe = c.isKeyframe();
+            FrameCodec.startDelta(deltaOut, c.getTick());
+            deltaRuns.begin(deltaOut, false);
+            if (keyframe) {
+                FrameCodec.startKeyframe(keyOut, width, height, c.getTick());
+                keyRuns.begin(keyOut, true);
+            }
+
+            int first = 0;
+            while (first < c.getTileCount()) {
+                final int band = c.getTile(first) / tilesPerRow;
+                int last = first;
+                while (last < c.getTileCount()
+                    && c.getTile(last) / tilesPerRow == band)
+                {
+                    ++last;
+                }
+
+                writeBand(c, band, first, last, order, bandStart, slots,
+                    cells, keyframe ? keyRuns : null, deltaRuns);
+                first = last;
+            }
+
+            deltaRuns.finish();
+            final byte[] delta = deltaOut.toByteArray();
+            byte[] key = null;
+            if (keyframe) {
+                keyRuns.finish();
+                key = keyOut.toByteArray();
+            }
+
+            synchronized (this) {
+                spare = c;
+            }
+
+            for (final Subscriber s : subscribers) {
+                if (s.connection.isClosed()) {
+                    subscribers.remove(s);
+                } else if (s.connection.getBacklog() > MAX_BACKLOG) {
+                    s.needsKeyframe = true;
+                } else if (!s.needsKeyframe) {
+                    s.needsKeyframe =
+                        !s.connection.send(FrameCodec.DELTA, delta);
+                } else if (key != null) {
+                    s.needsKeyframe =
+                        !s.connection.send(FrameCodec.KEYFRAME, key);
+                }
+                /* else wait for the next keyframe capture */
+            }
+        }
+    }
+
+    /**
+     * Returns the band of tile rows of a cell.
+     * 
+     * @param cell the cell, as <code>y * width + x</code>
+     * @return the band
+     */
+    private int band(final int cell) {
+        return (cell / width) / TiledLayer.TILE_SIZE;
+    }
+
+    /**
+     * Start a daemon thread.
+     * 
+     * @param name thread name
+     * @param r what to run
+     */
+    private static void start(final String name, final Runnable r) {
+        final Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Capture the field if a subscriber waits for a frame. Called on the
+     * simulation thread after each tick.
+     * 
+     * @param f the field
+     */
+    @Override
+    public void fieldChanged(final Field f) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (now - nextCapture < 0) {
+            return;
+        }
+
+        TileCapture c;
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            c = spare;
+            spare = null;
+        }
+
+        if (c == null) {
+            c = new TileCapture();
+        }
+
+        boolean keyframe = frames++ % KEYFRAME_INTERVAL == 0;
+        for (final Subscriber s : subscribers) {
+            keyframe |= s.needsKeyframe;
+        }
+
+        capture(c, keyframe);
+        nextCapture = now + CAPTURE_INTERVAL_NS;
+
+        synchronized (this) {
+            pending = c;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Render the captured tiles of one band of tile rows and add their rows
+     * to the runs.
+     * 
+     * @param c the capture
+     * @param band the band
+     * @param first position of the band's first captured tile
+     * @param last position after the band's last captured tile
+     * @param order entity indices by band
+     * @param bandStart position of each band's first entity in
+     * <code>order</code>
+     * @param slots position of each tile in <code>cells</code>, all -1
+     * before and after
+     * @param cells rendered tiles
+     * @param keyRuns runs of the keyframe, or <code>null</code>
+     * @param deltaRuns runs of the delta
+     */
+    private void writeBand(
+        final TileCapture c,
+        final int band,
+        final int first,
+        final int last,
+        final int[] order,
+        final int[] bandStart,
+        final int[] slots,
+        final byte[] cells,
+        final RunWriter keyRuns,
+        final RunWriter deltaRuns)
+    {
+        for (int i = first; i < last; ++i) {
+            c.renderTile(i, cells, (i - first) * TileCapture.TILE_CELLS);
+            slots[c.getTile(i)] = i - first;
+        }
+
+        for (int k = bandStart[band]; k < bandStart[band + 1]; ++k) {
+            final int cell = c.getEntityCell(order[k]);
+            final int x = cell % width;
+            final int y = cell / width;
+            final int slot = slots[(band * tilesPerRow)
+                + (x / TiledLayer.TILE_SIZE)];
+
+            if (slot >= 0) {
+                cells[(slot * TileCapture.TILE_CELLS)
+                    + ((y % TiledLayer.TILE_SIZE) * TiledLayer.TILE_SIZE)
+                    + (x % TiledLayer.TILE_SIZE)] = c.getEntityValue(order[k]);
+            }
+        }
+
+        final int top = band * TiledLayer.TILE_SIZE;
+        final int bottom = Math.min(top + TiledLayer.TILE_SIZE, height);
+
+        for (int y = top; y < bottom; ++y) {
+            for (int i = first; i < last; ++i) {
+                final int left = (c.getTile(i) % tilesPerRow)
+                    * TiledLayer.TILE_SIZE;
+                final long position = ((long) y * width) + left;
+                final int offset = ((i - first) * TileCapture.TILE_CELLS)
+                    + ((y - top) * TiledLayer.TILE_SIZE);
+                final int count = Math.min(TiledLayer.TILE_SIZE, width - left);
+
+                if (keyRuns != null) {
+                    keyRuns.add(position, cells, offset, count);
+                }
+                if (c.isDirty(i)) {
+                    deltaRuns.add(position, cells, offset, count);
+                }
+            }
+        }
+
+        for (int i = first; i < last; ++i) {
+            slots[c.getTile(i)] = -1;
+        }
+    }
+}
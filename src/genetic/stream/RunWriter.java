@@ -0,0 +1,128 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package genetic.stream;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes the runs of a {@link FrameCodec} frame from stretches of cells
+ * given in order of increasing position, merging neighbouring cells of the
+ * same value into one run. Cells between the stretches are skipped, and so
+ * are empty cells of a keyframe, which starts from an empty field.
+ */
+final class RunWriter {
+    /** Destination. */
+    private ByteArrayOutputStream out;
+
+    /** Whether empty cells are skipped. */
+    private boolean skipEmpty;
+
+    /** Position after the last written run. */
+    private long end;
+
+    /** Position of the open run, or -1. */
+    private long start = -1;
+
+    /** Length of the open run. */
+    private int length;
+
+    /** Value of the open run. */
+    private byte value;
+
+    /**
+     * Add a stretch of cells.
+     * 
+     * @param position position of the first cell, after all cells added
+     * before
+     * @param cells cell values
+     * @param offset index of the first cell in <code>cells</code>
+     * @param count number of cells
+     */
+    void add(
+        final long position,
+        final byte[] cells,
+        final int offset,
+        final int count)
+    {
+        for (int i = 0; i < count; ++i) {
+            final byte cell = cells[offset + i];
+
+            if (start >= 0 && cell == value && start + length == position + i) {
+                ++length;
+            } else {
+                flush();
+
+                if (!skipEmpty || cell != FrameCodec.EMPTY) {
+                    start = position + i;
+                    length = 1;
+                    value = cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start writing the runs of a frame whose header was just written.
+     * 
+     * @param destination destination
+     * @param keyframe whether empty cells are skipped
+     */
+    void begin(
+        final ByteArrayOutputStream destination,
+        final boolean keyframe)
+    {
+        out = destination;
+        skipEmpty = keyframe;
+        end = 0;
+        start = -1;
+    }
+
+    /**
+     * Write the open run, if any. Must be called after the last stretch.
+     */
+    void finish() {
+        flush();
+    }
+
+    /**
+     * Write the open run, if any, and close it.
+     */
+    private void flush() {
+        if (start < 0) {
+            return;
+        }
+
+        FrameCodec.writeVarint(out, start - end);
+        FrameCodec.writeVarint(out, length);
+        out.write(value);
+        end = start + length;
+        start = -1;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * GeneticCode - A simple evolving code / automaton sandbox.
+ * 
+ * Copyright (c) 2013, Tim Wiederhake
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package genetic.stream;
+
+import genetic.data.BitGrid;
+import genetic.data.TiledLayer;
+
+import java.util.Arrays;
+
+/**
+ * Copy of some tiles of a field and of all entities, taken on the simulation
+ * thread and rendered to cells on the encoder thread of a
+ * {@link FrameServer}. Tiles are added in order of their index, which is
+ * the order of their cells within each band of tile rows.
+ */
+final class TileCapture {
+    /** Cells per tile. */
+    static final int TILE_CELLS = TiledLayer.TILE_SIZE * TiledLayer.TILE_SIZE;
+
+    /** Tick of the capture. */
+    private long tick;
+
+    /** Health at which entities reproduce, for their shades. */
+    private int reproductionHealth;
+
+    /** Whether all non-empty tiles were captured, for a keyframe. */
+    private boolean keyframe;
+
+    /** Number of captured tiles. */
+    private int tileCount;
+
+    /** Indices of the captured tiles, ascending. */
+    private int[] tiles = new int[0];
+
+    /** Whether each captured tile changed since the previous capture. */
+    private boolean[] dirty = new boolean[0];
+
+    /** Grass words of the captured tiles, one per row. */
+    private long[] grass = new long[0];
+
+    /** Wall words of the captured tiles, one per row. */
+    private long[] wall = new long[0];
+
+    /** Number of entities. */
+    private int entityCount;
+
+    /** Cell of each entity, as <code>y * width + x</code>. */
+    private int[] entityCells = new int[0];
+
+    /** Health of each entity. */
+    private int[] entityHealth = new int[0];
+
+    /**
+     * Add an entity.
+     * 
+     * @param cell its cell, as <code>y * width + x</code>
+     * @param health its health
+     */
+    void addEntity(final int cell, final int health) {
+        if (entityCount == entityCells.length) {
+            final int size = Math.max(TiledLayer.TILE_SIZE, entityCount * 2);
+            entityCells = Arrays.copyOf(entityCells, size);
+            entityHealth = Arrays.copyOf(entityHealth, size);
+        }
+
+        entityCells[entityCount] = cell;
+        entityHealth[entityCount] = health;
+        ++entityCount;
+    }
+
+    /**
+     * Add a tile, after all tiles of lower index.
+     * 
+     * @param tile tile index
+     * @param changed whether it changed since the previous capture
+     * @param grassLayer the grass
+     * @param wallLayer the walls
+     */
+    void addTile(
+        final int tile,
+        final boolean changed,
+        final BitGrid grassLayer,
+        final BitGrid wallLayer)
+    {
+        if (tileCount == tiles.length) {
+            final int size = Math.max(1, tileCount * 2);
+            tiles = Arrays.copyOf(tiles, size);
+            dirty = Arrays.copyOf(dirty, size);
+            grass = Arrays.copyOf(grass, size * TiledLayer.TILE_SIZE);
+            wall = Arrays.copyOf(wall, size * TiledLayer.TILE_SIZE);
+        }
+
+        final int tx = grassLayer.getTileX(tile);
+        final int top = grassLayer.getTileY(tile) * TiledLayer.TILE_SIZE;
+        final int rows = Math.min(TiledLayer.TILE_SIZE,
+            grassLayer.getHeight() - top);
+        final int offset = tileCount * TiledLayer.TILE_SIZE;
+
+        for (int row = 0; row < TiledLayer.TILE_SIZE; ++row) {
+            grass[offset + row] =
+                row < rows ? grassLayer.getWord(tx, top + row) : 0;
+            wall[offset + row] =
+                row < rows ? wallLayer.getWord(tx, top + row) : 0;
+        }
+
+        tiles[tileCount] = tile;
+        dirty[tileCount] = changed;
+        ++tileCount;
+    }
+
+    /**
+     * Forget all tiles and entities.
+     * 
+     * @param captureTick tick of the new capture
+     * @param reproduction health at which entities reproduce
+     * @param all whether all non-empty tiles are going to be captured
+     */
+    void clear(
+        final long captureTick,
+        final int reproduction,
+        final boolean all)
+    {
+        tick = captureTick;
+        reproductionHealth = Math.max(1, reproduction);
+        keyframe = all;
+        tileCount = 0;
+        entityCount = 0;
+    }
+
+    /**
+     * Returns the cell of an entity.
+     * 
+     * @param i entity index
+     * @return the cell, as <code>y * width + x</code>
+     */
+    int getEntityCell(final int i) {
+        return entityCells[i];
+    }
+
+    /**
+     * Returns the number of entities.
+     * 
+     * @return the number of entities
+     */
+    int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * Returns the cell value of an entity.
+     * 
+     * @param i entity index
+     * @return {@link FrameCodec#ENTITY} plus the entity's shade
+     */
+    byte getEntityValue(final int i) {
+        final int shade = (entityHealth[i] * (FrameCodec.SHADES - 1))
+            / reproductionHealth;
+
+        return (byte) (FrameCodec.ENTITY
+            + Math.min(FrameCodec.SHADES - 1, Math.max(shade, 0)));
+    }
+
+    /**
+     * Returns the tick of the capture.
+     * 
+     * @return the tick
+     */
+    long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the index of a captured tile.
+     * 
+     * @param i position among the captured tiles
+     * @return the tile index
+     */
+    int getTile(final int i) {
+        return tiles[i];
+    }
+
+    /**
+     * Returns the number of captured tiles.
+     * 
+     * @return the number of captured tiles
+     */
+    int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Returns whether a captured tile changed since the previous capture.
+     * 
+     * @param i position among the captured tiles
+     * @return whether it changed
+     */
+    boolean isDirty(final int i) {
+        return dirty[i];
+    }
+
+    /**
+     * Returns whether all non-empty tiles were captured.
+     * 
+     * @return whether a keyframe can be encoded
+     */
+    boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * Render the grass and walls of a captured tile, row by row.
+     * 
+     * @param i position among the captured tiles
+     * @param cells destination, {@link #TILE_CELLS} from
+     * <code>offset</code>
+     * @param offset first destination index
+     */
+    void renderTile(final int i, final byte[] cells, final int offset) {
+        Arrays.fill(cells, offset, offset + TILE_CELLS, FrameCodec.EMPTY);
+
+        for (int row = 0; row < TiledLayer.TILE_SIZE; ++row) {
+            final int base = offset + (row * TiledLayer.TILE_SIZE);
+            final int word = (i * TiledLayer.TILE_SIZE) + row;
+
+            for (long w = grass[word]; w != 0; w &= w - 1) {
+                cells[base + Long.numberOfTrailingZeros(w)] = FrameCodec.GRASS;
+            }
+            for (long w = wall[word]; w != 0; w &= w - 1) {
+                cells[base + Long.numberOfTrailingZeros(w)] = FrameCodec.WALL;
+            }
+        }
+    }
+}